@@ -0,0 +1,189 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.metrics.LibraryMetrics;
+import ac.il.bgu.qa.metrics.LibraryMetrics.Operation;
+import ac.il.bgu.qa.services.DatabaseService;
+import ac.il.bgu.qa.services.ReviewService;
+import ac.il.bgu.qa.validation.Validator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An asynchronous counterpart of {@link Library}.
+ * <p>
+ * Every operation runs on the given executor and returns a {@link CompletableFuture} instead of blocking the caller.
+ * The operations behave like their {@link Library} counterparts, and an exception the library would have thrown,
+ * such as {@link BookNotFoundException} or {@link IllegalArgumentException}, completes the future exceptionally instead.
+ * Independent steps run concurrently: {@link #notifyUserWithBookReviews(String, String)} looks up the book and the user at the same time.
+ */
+public class AsyncLibrary {
+
+    // The library performing the blocking steps
+    private final Library library;
+
+    // Service to interact with the database
+    private final DatabaseService databaseService;
+
+    // Runs every step of every operation
+    private final Executor executor;
+
+    // Receives the timings and failures of every operation
+    private final LibraryMetrics metrics;
+
+    /**
+     * Constructs an asynchronous library.
+     *
+     * @param databaseService Service to interact with the database.
+     * @param reviewService   Service to fetch reviews for a book.
+     * @param executor        Runs the operations and, for book lookups, the review notifications.
+     */
+    public AsyncLibrary(DatabaseService databaseService, ReviewService reviewService, Executor executor) {
+        this(databaseService, reviewService, executor, LibraryMetrics.NONE);
+    }
+
+    /**
+     * Constructs an asynchronous library reporting the timings and failures of its operations to the given metrics.
+     *
+     * @param databaseService Service to interact with the database.
+     * @param reviewService   Service to fetch reviews for a book.
+     * @param executor        Runs the operations and, for book lookups, the review notifications.
+     * @param metrics         Receives the timings and failures of every operation and downstream call.
+     */
+    public AsyncLibrary(DatabaseService databaseService, ReviewService reviewService, Executor executor,
+                        LibraryMetrics metrics) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Invalid executor.");
+        }
+        this.library = new Library(databaseService, reviewService, executor, metrics);
+        this.databaseService = library.getDatabaseService();
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a book to the library's collection.
+     *
+     * @param book The book to be added.
+     * @return A future completing once the book was added.
+     * @see Library#addBook(Book)
+     */
+    public CompletableFuture<Void> addBook(Book book) {
+        return CompletableFuture.runAsync(() -> library.addBook(book), executor);
+    }
+
+    /**
+     * Registers a user with the library.
+     *
+     * @param user The user to be registered.
+     * @return A future completing once the user was registered.
+     * @see Library#registerUser(User)
+     */
+    public CompletableFuture<Void> registerUser(User user) {
+        return CompletableFuture.runAsync(() -> library.registerUser(user), executor);
+    }
+
+    /**
+     * Borrows a book for a user.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user borrowing the book.
+     * @return A future completing once the book was borrowed.
+     * @see Library#borrowBook(String, String)
+     */
+    public CompletableFuture<Void> borrowBook(String ISBN, String userId) {
+        return CompletableFuture.runAsync(() -> library.borrowBook(ISBN, userId), executor);
+    }
+
+    /**
+     * Returns a previously borrowed book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return A future completing once the book was returned.
+     * @see Library#returnBook(String)
+     */
+    public CompletableFuture<Void> returnBook(String ISBN) {
+        return CompletableFuture.runAsync(() -> library.returnBook(ISBN), executor);
+    }
+
+    /**
+     * Notifies a user with the reviews of a specified book.
+     * The book and the user are looked up concurrently; if both are missing, the book's absence is reported.
+     *
+     * @param ISBN   The ISBN of the book whose reviews are to be sent.
+     * @param userId The Id of the user to whom the reviews are to be sent.
+     * @return A future completing once the user was notified.
+     * @see Library#notifyUserWithBookReviews(String, String)
+     */
+    public CompletableFuture<Void> notifyUserWithBookReviews(String ISBN, String userId) {
+        // Validate the ISBN and the user Id before any lookup is scheduled.
+        long start = System.nanoTime();
+        if (!Validator.ISBN.isValid(ISBN)) {
+            return failed(Operation.NOTIFY_USER_WITH_BOOK_REVIEWS, new IllegalArgumentException("Invalid ISBN."), start);
+        }
+        if (!Validator.USER_ID.isValid(userId)) {
+            return failed(Operation.NOTIFY_USER_WITH_BOOK_REVIEWS, new IllegalArgumentException("Invalid user Id."), start);
+        }
+
+        // Look up the book and the user at the same time.
+        CompletableFuture<Book> book = CompletableFuture.supplyAsync(() -> databaseService.getBookByISBN(ISBN), executor);
+        CompletableFuture<User> user = CompletableFuture.supplyAsync(() -> databaseService.getUserById(userId), executor);
+
+        return book.thenCombine(user, (foundBook, foundUser) -> {
+            if (foundBook == null) {
+                throw new BookNotFoundException("Book not found!");
+            }
+            if (foundUser == null) {
+                throw new UserNotRegisteredException("User not found!");
+            }
+            return foundUser;
+        }).thenAcceptAsync(foundUser -> library.sendReviews(foundUser, library.composeReviews(ISBN, book.join())), executor)
+                .whenComplete((ignored, failure) -> {
+                    if (failure != null) {
+                        Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+                        if (cause instanceof RuntimeException) {
+                            metrics.recordFailure(Operation.NOTIFY_USER_WITH_BOOK_REVIEWS, (RuntimeException) cause);
+                        }
+                    }
+                    metrics.recordOperation(Operation.NOTIFY_USER_WITH_BOOK_REVIEWS, System.nanoTime() - start);
+                });
+    }
+
+    /**
+     * Fetches a book by its ISBN and notifies the user with its reviews.
+     * The future completes with the book as soon as it was read from the database;
+     * the notification is optional and completes on its own, its failure never affecting the result.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be fetched.
+     * @param userId The Id of the user to be notified with the book's reviews.
+     * @return A future completing with the book with the given ISBN.
+     * @see Library#getBookByISBN(String, String)
+     */
+    public CompletableFuture<Book> getBookByISBN(String ISBN, String userId) {
+        return lookupBook(ISBN, userId).thenApply(BookLookup::getBook);
+    }
+
+    /**
+     * Fetches a book by its ISBN and schedules a notification of its reviews to the user.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be fetched.
+     * @param userId The Id of the user to be notified with the book's reviews.
+     * @return A future completing with the book along with its pending review notification.
+     * @see Library#lookupBook(String, String)
+     */
+    public CompletableFuture<BookLookup> lookupBook(String ISBN, String userId) {
+        return CompletableFuture.supplyAsync(() -> library.lookupBook(ISBN, userId), executor);
+    }
+
+    /**
+     * Records an operation failed before anything was scheduled, and completes it exceptionally.
+     */
+    private <T> CompletableFuture<T> failed(Operation operation, RuntimeException failure, long start) {
+        metrics.recordFailure(operation, failure);
+        metrics.recordOperation(operation, System.nanoTime() - start);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+}
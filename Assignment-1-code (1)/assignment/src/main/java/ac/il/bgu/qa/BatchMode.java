@@ -0,0 +1,13 @@
+package ac.il.bgu.qa;
+
+/**
+ * How a batch of borrowings or returns handles a rejected book,
+ * see {@link Library#borrowBooks(java.util.List, String, BatchMode)}.
+ */
+public enum BatchMode {
+
+    // Either every book of the batch is applied, or none is.
+    ALL_OR_NOTHING,
+    // Every book that can be applied is, whatever happens to the others.
+    BEST_EFFORT
+}
@@ -1,17 +1,28 @@
 package ac.il.bgu.qa;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 /**
  * Represents a book with its essential details and borrowing status.
+ * The borrowing status changes through compare-and-set, so concurrent attempts to borrow
+ * or return the same book never both succeed and never block each other.
  */
 public class Book {
+
+    // Atomic access to the borrower field without allocating an atomic wrapper per book.
+    private static final AtomicReferenceFieldUpdater<Book, String> BORROWER =
+            AtomicReferenceFieldUpdater.newUpdater(Book.class, String.class, "borrowerId");
+    // Marks a book borrowed through borrow(), where the borrower is not known.
+    private static final String UNKNOWN_BORROWER = new String("");
+
     // The International Standard Book Number (ISBN) uniquely identifying the book.
     private final String ISBN;
-    // The title of the book.
-    private final String title;
-    // The name of the author of the book.
-    private final String author;
-    // Status to check if the book is currently borrowed or not.
-    private boolean isBorrowed;
+    // The title of the book; only ever replaced by an equal, shared instance.
+    private String title;
+    // The name of the author of the book; only ever replaced by an equal, shared instance.
+    private String author;
+    // The Id of the user currently borrowing the book, or null if the book is not borrowed.
+    private volatile String borrowerId;
 
     /**
      * Constructs a new Book object.
@@ -24,7 +35,7 @@ public class Book {
         this.ISBN = ISBN;
         this.title = title;
         this.author = author;
-        this.isBorrowed = false;
+        this.borrowerId = null;
     }
 
     // Getter methods
@@ -62,7 +73,75 @@ public class Book {
      * @return true if the book is borrowed, otherwise false.
      */
     public boolean isBorrowed() {
-        return isBorrowed;
+        return borrowerId != null;
+    }
+
+    /**
+     * Retrieves the Id of the user currently borrowing the book.
+     *
+     * @return The borrower's Id, or null if the book is not borrowed or was borrowed without a known user.
+     */
+    public String getBorrowerId() {
+        String borrower = borrowerId;
+        return borrower == UNKNOWN_BORROWER ? null : borrower;
+    }
+
+    /**
+     * Atomically marks the book as borrowed by a user, if it is not borrowed yet.
+     *
+     * @param userId The Id of the user borrowing the book, may be null if unknown.
+     * @return true if the book was available and is now borrowed, false if it was already borrowed.
+     */
+    public boolean tryBorrow(String userId) {
+        return BORROWER.compareAndSet(this, null, userId == null ? UNKNOWN_BORROWER : userId);
+    }
+
+    /**
+     * Atomically marks the book as returned, if it is currently borrowed.
+     *
+     * @return true if the book was borrowed and is now available, false if it was not borrowed.
+     */
+    public boolean tryReturn() {
+        while (true) {
+            String borrower = borrowerId;
+            if (borrower == null) {
+                return false;
+            }
+            if (BORROWER.compareAndSet(this, borrower, null)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically marks the book as returned, if it is currently borrowed by the given user.
+     *
+     * @param userId The Id of the user expected to borrow the book, or null to return it whoever borrows it.
+     * @return true if the book was borrowed by the user and is now available, false otherwise.
+     */
+    public boolean tryReturn(String userId) {
+        if (userId == null) {
+            return tryReturn();
+        }
+        String borrower = borrowerId;
+        return userId.equals(borrower) && BORROWER.compareAndSet(this, borrower, null);
+    }
+
+    /**
+     * Replaces the title and author with the equal instances shared through dictionaries, so that books
+     * with the same author hold a single copy of it. The getters keep returning equal strings, and since strings
+     * are immutable, a thread reading the field concurrently sees either instance.
+     *
+     * @param authors The dictionary of authors, or null to keep the author as it is.
+     * @param titles  The dictionary of titles, or null to keep the title as it is.
+     */
+    void canonicalize(StringDictionary authors, StringDictionary titles) {
+        if (authors != null) {
+            author = authors.intern(author);
+        }
+        if (titles != null) {
+            title = titles.intern(title);
+        }
     }
 
     /**
@@ -70,9 +149,7 @@ public class Book {
      * Throws an exception if the book is already borrowed.
      */
     public void borrow() {
-        if (!isBorrowed) {
-            isBorrowed = true;
-        } else {
+        if (!tryBorrow(null)) {
             throw new IllegalStateException("Book is already borrowed!");
         }
     }
@@ -82,9 +159,7 @@ public class Book {
      * Throws an exception if the book was not previously borrowed.
      */
     public void returnBook() {
-        if (isBorrowed) {
-            isBorrowed = false;
-        } else {
+        if (!tryReturn()) {
             throw new IllegalStateException("ac.il.bgu.qa.Book wasn't borrowed!");
         }
     }
@@ -0,0 +1,132 @@
+package ac.il.bgu.qa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the per-item outcome of adding a batch of books to the library.
+ * Entries are kept in the same order as the books were supplied.
+ */
+public class BookBatchReport {
+
+    /**
+     * The outcome of adding a single book of the batch.
+     */
+    public enum Status {
+        // The book passed validation and was written to the database.
+        ADDED,
+        // The book failed validation and was not written.
+        INVALID,
+        // A book with the same ISBN already exists in the database or earlier in the batch.
+        DUPLICATE
+    }
+
+    /**
+     * The outcome of a single book of the batch.
+     */
+    public static class Entry {
+
+        // The book as it was supplied to the batch.
+        private final Book book;
+        // The outcome for this book.
+        private final Status status;
+        // Human readable reason for a rejected book, null for added books.
+        private final String reason;
+
+        Entry(Book book, Status status, String reason) {
+            this.book = book;
+            this.status = status;
+            this.reason = reason;
+        }
+
+        /**
+         * Retrieves the book this entry refers to.
+         *
+         * @return The book as it was supplied, possibly null.
+         */
+        public Book getBook() {
+            return book;
+        }
+
+        /**
+         * Retrieves the outcome for this book.
+         *
+         * @return The status of the book.
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Retrieves the reason the book was rejected.
+         *
+         * @return The same message {@link Library#addBook(Book)} would have thrown, or null if the book was added.
+         */
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    // The outcome of every book in the batch, in input order.
+    private final List<Entry> entries;
+    // Number of books written to the database.
+    private int addedCount;
+
+    BookBatchReport(int expectedSize) {
+        this.entries = new ArrayList<>(expectedSize);
+    }
+
+    void add(Book book, Status status, String reason) {
+        entries.add(new Entry(book, status, reason));
+        if (status == Status.ADDED) {
+            addedCount++;
+        }
+    }
+
+    /**
+     * Retrieves the outcome of every book in the batch.
+     *
+     * @return An unmodifiable list of entries in input order.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Retrieves the outcome of the book at the given position of the batch.
+     *
+     * @param index The position of the book in the batch.
+     * @return The entry for that book.
+     */
+    public Entry get(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Retrieves the number of books in the batch.
+     *
+     * @return The batch size.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Retrieves the number of books that were added to the database.
+     *
+     * @return The added count.
+     */
+    public int getAddedCount() {
+        return addedCount;
+    }
+
+    /**
+     * Retrieves the number of books that were rejected.
+     *
+     * @return The number of invalid and duplicate books.
+     */
+    public int getRejectedCount() {
+        return entries.size() - addedCount;
+    }
+}
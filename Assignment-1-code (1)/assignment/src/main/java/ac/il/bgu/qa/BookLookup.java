@@ -0,0 +1,39 @@
+package ac.il.bgu.qa;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Represents the result of looking up a book for a user: the book itself,
+ * and the review notification that was scheduled for the user along with it.
+ */
+public class BookLookup {
+
+    // The book that was found.
+    private final Book book;
+    // Completes once the user was notified with the book's reviews, or exceptionally if that failed.
+    private final CompletableFuture<Void> notification;
+
+    BookLookup(Book book, CompletableFuture<Void> notification) {
+        this.book = book;
+        this.notification = notification;
+    }
+
+    /**
+     * Retrieves the book that was found.
+     *
+     * @return The book.
+     */
+    public Book getBook() {
+        return book;
+    }
+
+    /**
+     * Retrieves the review notification scheduled for the user.
+     * The notification is optional, so its failure never affects the lookup itself.
+     *
+     * @return A future completing once the notification was sent, or exceptionally with the reason it was not.
+     */
+    public CompletableFuture<Void> getNotification() {
+        return notification;
+    }
+}
@@ -1,26 +1,141 @@
 package ac.il.bgu.qa;
 
 import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.metrics.LibraryMetrics;
+import ac.il.bgu.qa.metrics.LibraryMetrics.Call;
+import ac.il.bgu.qa.metrics.LibraryMetrics.Operation;
+import ac.il.bgu.qa.metrics.MeteredDatabaseService;
+import ac.il.bgu.qa.metrics.MeteredReviewService;
 import ac.il.bgu.qa.services.DatabaseService;
+import ac.il.bgu.qa.services.ReviewPage;
 import ac.il.bgu.qa.services.ReviewService;
+import ac.il.bgu.qa.services.WriteOutcome;
+import ac.il.bgu.qa.validation.Validator;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Represents a library which manages a collection of books and users.
+ * <p>
+ * A library is safe for concurrent use by multiple threads and takes no locks of its own:
+ * it holds no mutable state, and every change to a book's borrowing status is a single
+ * conditional write on the {@link DatabaseService}, decided by compare-and-set on the {@link Book}
+ * unless the database service decides it atomically itself.
+ * <p>
+ * Every operation, and every call it makes to the database, review and notification services,
+ * is timed and reported to the library's {@link LibraryMetrics}, along with the exception it failed with, if any.
  */
 public class Library {
 
+    // Longest review notification sent, in characters; the reviews that do not fit are left out.
+    public static final int MAX_NOTIFICATION_LENGTH = 8192;
+
+    // Ends a review notification whose reviews did not all fit.
+    static final String TRUNCATION_MARKER = "...";
+
+    // Number of reviews fetched from the review service at a time.
+    static final int REVIEW_PAGE_SIZE = 32;
+
     // Service to interact with the database
     private final DatabaseService databaseService;
 
     // Service to fetch reviews for a book
     private final ReviewService reviewService;
 
-    // Constructor for Library, initializes both services
+    // Runs the optional review notification of a book lookup
+    private final Executor notificationExecutor;
+
+    // Receives the timings and failures of every operation
+    private final LibraryMetrics metrics;
+
+    // Shares the author strings of added books, or null to keep them as given
+    private final StringDictionary authorDictionary;
+
+    // Shares the title strings of added books, or null to keep them as given
+    private final StringDictionary titleDictionary;
+
+    // Holds the review digests notifications are sent from, or null to read the reviews on every notification
+    private final ReviewDigestStore reviewDigests;
+
+    // Constructor for Library, initializes both services.
+    // Book lookups notify the user on the calling thread before returning.
     public Library(DatabaseService databaseService, ReviewService reviewService) {
-        this.databaseService = databaseService;
-        this.reviewService = reviewService;
+        this(databaseService, reviewService, Runnable::run);
+    }
+
+    /**
+     * Constructs a library whose book lookups return as soon as the book is read from the database,
+     * leaving the review notification to the given executor.
+     *
+     * @param databaseService      Service to interact with the database.
+     * @param reviewService        Service to fetch reviews for a book.
+     * @param notificationExecutor Runs the review notification of every book lookup.
+     */
+    public Library(DatabaseService databaseService, ReviewService reviewService, Executor notificationExecutor) {
+        this(databaseService, reviewService, notificationExecutor, LibraryMetrics.NONE);
+    }
+
+    /**
+     * Constructs a library reporting the timings and failures of its operations to the given metrics.
+     *
+     * @param databaseService      Service to interact with the database.
+     * @param reviewService        Service to fetch reviews for a book.
+     * @param notificationExecutor Runs the review notification of every book lookup.
+     * @param metrics              Receives the timings and failures of every operation and downstream call.
+     */
+    public Library(DatabaseService databaseService, ReviewService reviewService, Executor notificationExecutor,
+                   LibraryMetrics metrics) {
+        this(databaseService, reviewService, notificationExecutor, metrics, null, null);
+    }
+
+    /**
+     * Constructs a library that interns the authors, and optionally the titles, of the books added to it,
+     * so that books sharing an author share a single copy of the string.
+     *
+     * @param databaseService      Service to interact with the database.
+     * @param reviewService        Service to fetch reviews for a book.
+     * @param notificationExecutor Runs the review notification of every book lookup.
+     * @param metrics              Receives the timings and failures of every operation and downstream call.
+     * @param authorDictionary     Interns the authors of added books, or null to keep them as given.
+     * @param titleDictionary      Interns the titles of added books, or null to keep them as given.
+     */
+    public Library(DatabaseService databaseService, ReviewService reviewService, Executor notificationExecutor,
+                   LibraryMetrics metrics, StringDictionary authorDictionary, StringDictionary titleDictionary) {
+        this(databaseService, reviewService, notificationExecutor, metrics, authorDictionary, titleDictionary, null);
+    }
+
+    /**
+     * Constructs a library notifying users from per-book review digests rather than reading the reviews from
+     * the review service on every notification.
+     *
+     * @param databaseService      Service to interact with the database.
+     * @param reviewService        Service to fetch reviews for a book.
+     * @param notificationExecutor Runs the review notification of every book lookup.
+     * @param metrics              Receives the timings and failures of every operation and downstream call.
+     * @param authorDictionary     Interns the authors of added books, or null to keep them as given.
+     * @param titleDictionary      Interns the titles of added books, or null to keep them as given.
+     * @param reviewDigests        Holds the review digests, or null to read the reviews on every notification.
+     */
+    public Library(DatabaseService databaseService, ReviewService reviewService, Executor notificationExecutor,
+                   LibraryMetrics metrics, StringDictionary authorDictionary, StringDictionary titleDictionary,
+                   ReviewDigestStore reviewDigests) {
+        if (notificationExecutor == null) {
+            throw new IllegalArgumentException("Invalid notification executor.");
+        }
+        if (metrics == null) {
+            throw new IllegalArgumentException("Invalid library metrics.");
+        }
+        // Without metrics, call the services directly rather than through decorators discarding their timings.
+        boolean metered = metrics != LibraryMetrics.NONE;
+        this.databaseService = metered ? new MeteredDatabaseService(databaseService, metrics) : databaseService;
+        this.reviewService = metered ? new MeteredReviewService(reviewService, metrics) : reviewService;
+        this.notificationExecutor = notificationExecutor;
+        this.metrics = metrics;
+        this.authorDictionary = authorDictionary;
+        this.titleDictionary = titleDictionary;
+        this.reviewDigests = reviewDigests;
     }
 
     /**
@@ -29,218 +144,583 @@ public class Library {
      * @param book The book to be added.
      */
     public void addBook(Book book) {
-        // Multiple checks to validate the book object's properties
+        long start = System.nanoTime();
+        try {
+            // Multiple checks to validate the book object's properties
+            String error = validateBook(book);
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            canonicalize(book);
+            // Add the book to the database unless it already exists, in a single call.
+            // If book already exists in the database, throw exception
+            if (databaseService.addBookIfAbsent(book.getISBN(), book) == WriteOutcome.ALREADY_EXISTS)
+                throw new IllegalArgumentException("Book already exists.");
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.ADD_BOOK, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.ADD_BOOK, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds a batch of books to the library's collection.
+     * Unlike {@link #addBook(Book)}, an invalid or duplicate book does not stop the batch:
+     * every book is validated, the existing ISBNs are looked up with a single bulk request,
+     * and all the accepted books are written with a single batch request.
+     *
+     * @param books The books to be added.
+     * @return A report holding the outcome of every book, in input order.
+     */
+    public BookBatchReport addBooks(Collection<Book> books) {
+        long start = System.nanoTime();
+        try {
+            if (books == null) {
+                throw new IllegalArgumentException("Invalid book collection.");
+            }
+
+            // First pass: validate every book and collect the distinct ISBNs worth looking up.
+            String[] errors = new String[books.size()];
+            Set<String> candidateISBNs = new LinkedHashSet<>();
+            int index = 0;
+            for (Book book : books) {
+                errors[index] = validateBook(book);
+                if (errors[index] == null) {
+                    candidateISBNs.add(book.getISBN());
+                }
+                index++;
+            }
+
+            // Look up all the candidate ISBNs in a single request to detect books already in the database.
+            Map<String, Book> existing = candidateISBNs.isEmpty()
+                    ? Collections.<String, Book>emptyMap()
+                    : databaseService.getBooksByISBN(candidateISBNs);
+
+            // Second pass: build the report and the batch to be written.
+            // A repeated ISBN within the batch is treated like a book that already exists.
+            BookBatchReport report = new BookBatchReport(books.size());
+            Map<String, Book> accepted = new LinkedHashMap<>();
+            index = 0;
+            for (Book book : books) {
+                String error = errors[index++];
+                if (error != null) {
+                    report.add(book, BookBatchReport.Status.INVALID, error);
+                } else if (existing.containsKey(book.getISBN()) || accepted.containsKey(book.getISBN())) {
+                    report.add(book, BookBatchReport.Status.DUPLICATE, "Book already exists.");
+                } else {
+                    canonicalize(book);
+                    accepted.put(book.getISBN(), book);
+                    report.add(book, BookBatchReport.Status.ADDED, null);
+                }
+            }
+
+            // Write all the accepted books in a single request.
+            if (!accepted.isEmpty()) {
+                databaseService.addBooks(accepted);
+            }
+            return report;
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.ADD_BOOKS, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.ADD_BOOKS, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Replaces the author and title of a book about to be added with their shared instances, if the library interns them.
+     *
+     * @param book A valid book.
+     */
+    private void canonicalize(Book book) {
+        if (authorDictionary != null || titleDictionary != null) {
+            book.canonicalize(authorDictionary, titleDictionary);
+        }
+    }
+
+    /**
+     * Validates the properties of a book about to be added to the library.
+     *
+     * @param book The book to be validated.
+     * @return null if the book is valid, otherwise the reason it is invalid.
+     */
+    private String validateBook(Book book) {
         if (book == null) {
-            throw new IllegalArgumentException("Invalid book.");
-        } else if (!isISBNValid(book.getISBN())){
-            throw new IllegalArgumentException("Invalid ISBN.");
+            return "Invalid book.";
+        } else if (!Validator.ISBN.isValid(book.getISBN())) {
+            return "Invalid ISBN.";
         } else if (book.getTitle() == null || book.getTitle().equals("")) {
-            throw new IllegalArgumentException("Invalid title.");
-        } else if (!isAuthorValid(book.getAuthor())) {
-            throw new IllegalArgumentException("Invalid author.");
+            return "Invalid title.";
+        } else if (!Validator.AUTHOR.isValid(book.getAuthor())) {
+            return "Invalid author.";
         } else if (book.isBorrowed()) {
-            throw new IllegalArgumentException("Book with invalid borrowed state.");
+            return "Book with invalid borrowed state.";
         }
-        // If book already exists in the database, throw exception
-        if (databaseService.getBookByISBN(book.getISBN()) != null)
-            throw new IllegalArgumentException("Book already exists.");
-
-        // If all checks pass, add the book to the database
-        databaseService.addBook(book.getISBN(), book);
+        return null;
     }
 
     /**
-     *  Validates if input is of type ISBN-13.
+     * Registers a user with the library.
      *
-     *  @param isbn The International Standard Book Number to be validated.
-     *  @return true if valid, false otherwise.
-    */
-    private boolean isISBNValid(String isbn) {
-        // Check if the ISBN is null, return false if it is
-        if (isbn == null) {
-            return false;
-        }
-
-        // Remove any hyphen characters from the ISBN for standardization
-        isbn = isbn.replaceAll("-", "");
-
-        // Check if the sanitized ISBN is of length 13 and if contains only digits
-        if (isbn.length() != 13 || !isbn.matches("\\d+")) {
-            return false;
-        }
-
-        // Calculate the sum based on the ISBN-13 rules:
-        // Odd position numbers are multiplied by 1
-        // Even position numbers are multiplied by 3
-        int sum = 0;
-        for (int i = 0; i < 12; i++) {
-            int digit = Integer.parseInt(String.valueOf(isbn.charAt(i)));
-            if (i % 2 == 0) {
-                sum += digit;
-            } else {
-                sum += digit * 3;
+     * @param user The user to be registered.
+     */
+    public void registerUser(User user) {
+        long start = System.nanoTime();
+        try {
+            // Multiple checks to validate the user object's properties.
+            if (user == null) {
+                throw new IllegalArgumentException("Invalid user.");
+            } else if (!Validator.USER_ID.isValid(user.getId())) {
+                throw new IllegalArgumentException("Invalid user Id.");
+            } else if (user.getName() == null || user.getName().equals("")) {
+                throw new IllegalArgumentException("Invalid user name.");
+            } else if (user.getNotificationService() == null) {
+                throw new IllegalArgumentException("Invalid notification service.");
             }
-        }
 
-        // Calculate the check digit
-        int checkDigit = 10 - (sum % 10);
-        if (checkDigit == 10) {
-            checkDigit = 0;
+            // Register the user unless a user with the given Id already exists, in a single call.
+            // If such a user is found, throw an exception.
+            if (databaseService.registerUserIfAbsent(user.getId(), user) == WriteOutcome.ALREADY_EXISTS)
+                throw new IllegalArgumentException("User already exists.");
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.REGISTER_USER, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.REGISTER_USER, System.nanoTime() - start);
         }
+    }
+
 
-        // Check if the calculated check digit matches the last digit of the ISBN
-        return checkDigit == Integer.parseInt(String.valueOf(isbn.charAt(12)));
+    /**
+     * Borrows a book for a user.
+     *
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user borrowing the book.
+     */
+    public void borrowBook(String ISBN, String userId) {
+        long start = System.nanoTime();
+        try {
+            LibraryOutcome outcome = borrow(ISBN, userId);
+            if (!outcome.isSuccess()) {
+                throw outcome.toException(true);
+            }
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.BORROW_BOOK, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.BORROW_BOOK, System.nanoTime() - start);
+        }
     }
 
     /**
-     *  Validates if author name given as input is of valid format.
+     * Borrows a book for a user, reporting a rejection as an outcome instead of throwing.
+     * Meant for workloads where most calls are rejected, e.g. many users racing for the same book.
      *
-     *  @param name The name of the author.
-     *  @return true if valid, false otherwise.
-    */
-    private boolean isAuthorValid(String name) {
-        /*
-         * Three key criteria for a valid author name:
-         * 1) The name should only consist of alphabetic characters, hyphens, spaces, dots, and apostrophes.
-         * 2) The name should start and end with an alphabetic character.
-         * 3) The name should not contain consecutive special characters like "--" or "''".
-         */
+     * @param ISBN   The International Standard Book Number of the book.
+     * @param userId The Id of the user borrowing the book.
+     * @return {@link LibraryOutcome#SUCCESS} if the book was borrowed, otherwise the reason it was not.
+     */
+    public LibraryOutcome tryBorrowBook(String ISBN, String userId) {
+        long start = System.nanoTime();
+        try {
+            LibraryOutcome outcome = borrow(ISBN, userId);
+            if (!outcome.isSuccess()) {
+                metrics.recordRejection(Operation.BORROW_BOOK, outcome.name());
+            }
+            return outcome;
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.BORROW_BOOK, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.BORROW_BOOK, System.nanoTime() - start);
+        }
+    }
 
-        // If the name is null or empty, it's invalid.
-        if (name == null || name.isEmpty()) {
-            return false;
+    private LibraryOutcome borrow(String ISBN, String userId) {
+        // Validate the ISBN. If it's invalid, reject the request.
+        if (!Validator.ISBN.isValid(ISBN)) {
+            return LibraryOutcome.INVALID_ISBN;
         }
 
-        // Ensure the name starts and finishes with an alphabetic character.
-        if (!Character.isLetter(name.charAt(0)) || !Character.isLetter(name.charAt(name.length() - 1))) {
-            return false;
+        // Validate the user Id's format (should be a 12-digit number).
+        // If it's invalid, reject the request.
+        if (!Validator.USER_ID.isValid(userId)) {
+            return LibraryOutcome.INVALID_USER_ID;
         }
 
-        // Check the content of the name for valid characters and consecutive special characters.
-        for (int i = 0; i < name.length() - 1; i++) {
-            char current = name.charAt(i);
-            char next = name.charAt(i + 1);
+        // Mark the book as borrowed and record the borrowing transaction in the database in a single call,
+        // provided the book exists, the user is registered and the book is not borrowed yet.
+        return borrowOutcome(databaseService.compareAndSetBorrowed(ISBN, userId, false, true));
+    }
 
-            // Check if the current character is not one of the valid characters.
-            if (!Character.isLetter(current) && current != '-' && current != ' ' && current != '\'' && current != '.') {
-                return false;
+    /**
+     * Returns a previously borrowed book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     */
+    public void returnBook(String ISBN) {
+        long start = System.nanoTime();
+        try {
+            LibraryOutcome outcome = giveBack(ISBN);
+            if (!outcome.isSuccess()) {
+                throw outcome.toException(true);
             }
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.RETURN_BOOK, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.RETURN_BOOK, System.nanoTime() - start);
+        }
+    }
 
-            // Check for consecutive special characters.
-            if ((current == '-' && next == '-')
-                    || (current == '\'' && next == '\'')) {
-                return false;
+    /**
+     * Returns a previously borrowed book, reporting a rejection as an outcome instead of throwing.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return {@link LibraryOutcome#SUCCESS} if the book was returned, otherwise the reason it was not.
+     */
+    public LibraryOutcome tryReturnBook(String ISBN) {
+        long start = System.nanoTime();
+        try {
+            LibraryOutcome outcome = giveBack(ISBN);
+            if (!outcome.isSuccess()) {
+                metrics.recordRejection(Operation.RETURN_BOOK, outcome.name());
             }
+            return outcome;
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.RETURN_BOOK, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.RETURN_BOOK, System.nanoTime() - start);
+        }
+    }
+
+    private LibraryOutcome giveBack(String ISBN) {
+        // Validate the ISBN. If it's not valid, reject the request.
+        if (!Validator.ISBN.isValid(ISBN)) {
+            return LibraryOutcome.INVALID_ISBN;
         }
 
-        // If all checks have passed, the author name is valid.
-        return true;
+        // Mark the book as returned and update the database in a single call, provided the book exists and is borrowed.
+        return returnOutcome(databaseService.compareAndSetBorrowed(ISBN, null, true, false));
     }
 
+    /**
+     * Borrows a batch of books for a user, such as a stack scanned at a checkout desk, as far as possible.
+     *
+     * @param ISBNs  The International Standard Book Numbers of the books.
+     * @param userId The Id of the user borrowing the books.
+     * @return The outcome of every book, in input order.
+     * @see #borrowBooks(List, String, BatchMode)
+     */
+    public LoanBatchReport borrowBooks(List<String> ISBNs, String userId) {
+        return borrowBooks(ISBNs, userId, BatchMode.BEST_EFFORT);
+    }
 
     /**
-     * Registers a user with the library.
+     * Borrows a batch of books for a user with a single user lookup, a single batched book lookup
+     * and a single batched write, instead of one of each per book.
+     * Rejections are reported per book, with the outcomes {@link #tryBorrowBook} would return;
+     * a book repeated within the batch is rejected as already borrowed.
+     * <p>
+     * In {@link BatchMode#ALL_OR_NOTHING} mode, nothing is written if any book is rejected, and the books that could
+     * have been borrowed are reported as {@link LibraryOutcome#BATCH_ABORTED}. A book can still be lost to a concurrent
+     * borrower between the lookup and the write; the books borrowed by then are returned again, so another thread may
+     * briefly observe them borrowed. A book that is no longer borrowed by the user by then cannot be returned again,
+     * and is reported as {@link LibraryOutcome#BATCH_UNDO_FAILED}.
      *
-     * @param user The user to be registered.
+     * @param ISBNs  The International Standard Book Numbers of the books.
+     * @param userId The Id of the user borrowing the books.
+     * @param mode   Whether a rejected book aborts the whole batch.
+     * @return The outcome of every book, in input order.
      */
-    public void registerUser(User user) {
-        // Multiple checks to validate the user object's properties.
-        if (user == null) {
-            throw new IllegalArgumentException("Invalid user.");
-        } else if (user.getId() == null || !user.getId().matches("\\d{12}")) {
-            throw new IllegalArgumentException("Invalid user Id.");
-        } else if (user.getName() == null || user.getName().equals("")) {
-            throw new IllegalArgumentException("Invalid user name.");
-        } else if (user.getNotificationService() == null) {
-            throw new IllegalArgumentException("Invalid notification service.");
+    public LoanBatchReport borrowBooks(List<String> ISBNs, String userId, BatchMode mode) {
+        long start = System.nanoTime();
+        try {
+            if (ISBNs == null) {
+                throw new IllegalArgumentException("Invalid ISBN list.");
+            }
+            if (mode == null) {
+                throw new IllegalArgumentException("Invalid batch mode.");
+            }
+            LoanBatchReport report = lend(ISBNs, userId, mode);
+            recordRejections(Operation.BORROW_BOOKS, report);
+            return report;
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.BORROW_BOOKS, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.BORROW_BOOKS, System.nanoTime() - start);
         }
+    }
 
-        // Before registering, check if a user with the given Id already exists.
-        // If such a user is found, throw an exception.
-        if (databaseService.getUserById(user.getId()) != null)
-            throw new IllegalArgumentException("User already exists.");
+    private LoanBatchReport lend(List<String> ISBNs, String userId, BatchMode mode) {
+        LibraryOutcome[] outcomes = new LibraryOutcome[ISBNs.size()];
+
+        // A single user lookup for the whole batch.
+        boolean validUser = Validator.USER_ID.isValid(userId);
+        boolean registered = validUser && databaseService.getUserById(userId) != null;
+
+        // First pass: validate every ISBN and collect the distinct ones worth looking up.
+        Set<String> candidates = new LinkedHashSet<>();
+        for (int i = 0; i < outcomes.length; i++) {
+            String ISBN = ISBNs.get(i);
+            if (!Validator.ISBN.isValid(ISBN)) {
+                outcomes[i] = LibraryOutcome.INVALID_ISBN;
+            } else if (!validUser) {
+                outcomes[i] = LibraryOutcome.INVALID_USER_ID;
+            } else if (!registered) {
+                outcomes[i] = LibraryOutcome.USER_NOT_REGISTERED;
+            } else if (!candidates.add(ISBN)) {
+                outcomes[i] = LibraryOutcome.BOOK_ALREADY_BORROWED;
+            }
+        }
 
-        // If all checks have passed, call the database service to register the user.
-        databaseService.registerUser(user.getId(), user);
-    }
+        // Second pass: look up all the candidates in a single request and keep the ones available.
+        Map<String, Book> books = candidates.isEmpty()
+                ? Collections.<String, Book>emptyMap()
+                : databaseService.getBooksByISBN(candidates);
+        Set<String> writes = new LinkedHashSet<>();
+        for (int i = 0; i < outcomes.length; i++) {
+            if (outcomes[i] == null) {
+                Book book = books.get(ISBNs.get(i));
+                if (book == null) {
+                    outcomes[i] = LibraryOutcome.BOOK_NOT_FOUND;
+                } else if (book.isBorrowed()) {
+                    outcomes[i] = LibraryOutcome.BOOK_ALREADY_BORROWED;
+                } else {
+                    writes.add(ISBNs.get(i));
+                }
+            }
+        }
+
+        // Write all the remaining books in a single request, unless an all-or-nothing batch is already lost.
+        if (mode == BatchMode.ALL_OR_NOTHING && hasRejection(outcomes)) {
+            return abort(ISBNs, outcomes);
+        }
+        Map<String, WriteOutcome> written = writes.isEmpty()
+                ? Collections.<String, WriteOutcome>emptyMap()
+                : databaseService.compareAndSetBorrowedAll(writes, userId, false, true);
+        List<String> applied = new ArrayList<>();
+        for (int i = 0; i < outcomes.length; i++) {
+            if (outcomes[i] == null) {
+                outcomes[i] = borrowOutcome(written.get(ISBNs.get(i)));
+                if (outcomes[i].isSuccess()) {
+                    applied.add(ISBNs.get(i));
+                }
+            }
+        }
 
+        // Return the books borrowed by an all-or-nothing batch that lost a book to a concurrent borrower,
+        // unless they were returned, and maybe borrowed again, in between.
+        if (mode == BatchMode.ALL_OR_NOTHING && applied.size() < outcomes.length) {
+            Map<String, WriteOutcome> undone = applied.isEmpty()
+                    ? Collections.<String, WriteOutcome>emptyMap()
+                    : databaseService.compareAndSetBorrowedAll(applied, userId, true, false);
+            markNotUndone(ISBNs, outcomes, undone);
+            return abort(ISBNs, outcomes);
+        }
+        return report(ISBNs, outcomes);
+    }
 
     /**
-     * Borrows a book for a user.
+     * Returns a batch of books as far as possible.
      *
-     * @param ISBN   The International Standard Book Number of the book.
-     * @param userId The Id of the user borrowing the book.
+     * @param ISBNs The International Standard Book Numbers of the books.
+     * @return The outcome of every book, in input order.
+     * @see #returnBooks(List, BatchMode)
      */
-    public void borrowBook(String ISBN, String userId) {
+    public LoanBatchReport returnBooks(List<String> ISBNs) {
+        return returnBooks(ISBNs, BatchMode.BEST_EFFORT);
+    }
 
-        // Validate the ISBN. If it's invalid, throw an exception.
-        if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
+    /**
+     * Returns a batch of books with a single batched book lookup and a single batched write,
+     * instead of one of each per book.
+     * Rejections are reported per book, with the outcomes {@link #tryReturnBook} would return;
+     * a book repeated within the batch is rejected as not borrowed.
+     * <p>
+     * In {@link BatchMode#ALL_OR_NOTHING} mode, nothing is written if any book is rejected, and the books that could
+     * have been returned are reported as {@link LibraryOutcome#BATCH_ABORTED}. A book can still be returned concurrently
+     * between the lookup and the write; the books returned by then are borrowed again by their borrowers,
+     * so another thread may briefly observe them returned. A book borrowed by someone by then cannot be borrowed
+     * again, and is reported as {@link LibraryOutcome#BATCH_UNDO_FAILED}.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books.
+     * @param mode  Whether a rejected book aborts the whole batch.
+     * @return The outcome of every book, in input order.
+     */
+    public LoanBatchReport returnBooks(List<String> ISBNs, BatchMode mode) {
+        long start = System.nanoTime();
+        try {
+            if (ISBNs == null) {
+                throw new IllegalArgumentException("Invalid ISBN list.");
+            }
+            if (mode == null) {
+                throw new IllegalArgumentException("Invalid batch mode.");
+            }
+            LoanBatchReport report = takeBack(ISBNs, mode);
+            recordRejections(Operation.RETURN_BOOKS, report);
+            return report;
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.RETURN_BOOKS, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.RETURN_BOOKS, System.nanoTime() - start);
         }
+    }
 
-        // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
-
-        // If no book is found for the given ISBN, throw an exception.
-        if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+    private LoanBatchReport takeBack(List<String> ISBNs, BatchMode mode) {
+        LibraryOutcome[] outcomes = new LibraryOutcome[ISBNs.size()];
+
+        // First pass: validate every ISBN and collect the distinct ones worth looking up.
+        Set<String> candidates = new LinkedHashSet<>();
+        for (int i = 0; i < outcomes.length; i++) {
+            String ISBN = ISBNs.get(i);
+            if (!Validator.ISBN.isValid(ISBN)) {
+                outcomes[i] = LibraryOutcome.INVALID_ISBN;
+            } else if (!candidates.add(ISBN)) {
+                outcomes[i] = LibraryOutcome.BOOK_NOT_BORROWED;
+            }
         }
 
-        // Validate the user Id's format (should be a 12-digit number).
-        // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
-            throw new IllegalArgumentException("Invalid user Id.");
+        // Second pass: look up all the candidates in a single request and keep the ones borrowed,
+        // remembering their borrowers in case the batch has to be undone.
+        Map<String, Book> books = candidates.isEmpty()
+                ? Collections.<String, Book>emptyMap()
+                : databaseService.getBooksByISBN(candidates);
+        Map<String, String> borrowers = new LinkedHashMap<>();
+        for (int i = 0; i < outcomes.length; i++) {
+            if (outcomes[i] == null) {
+                Book book = books.get(ISBNs.get(i));
+                if (book == null) {
+                    outcomes[i] = LibraryOutcome.BOOK_NOT_FOUND;
+                } else if (!book.isBorrowed()) {
+                    outcomes[i] = LibraryOutcome.BOOK_NOT_BORROWED;
+                } else {
+                    borrowers.put(ISBNs.get(i), book.getBorrowerId());
+                }
+            }
         }
 
-        // Check if the user Id's corresponds to a registered user in the database.
-        // If not, throw an exception indicating the user is not registered.
-        if (databaseService.getUserById(userId) == null) {
-            throw new UserNotRegisteredException("User not found!");
+        // Write all the remaining books in a single request, unless an all-or-nothing batch is already lost.
+        if (mode == BatchMode.ALL_OR_NOTHING && hasRejection(outcomes)) {
+            return abort(ISBNs, outcomes);
         }
-
-        // If the book is already borrowed, throw an exception.
-        if (book.isBorrowed()) {
-            throw new BookAlreadyBorrowedException("Book is already borrowed!");
+        Map<String, WriteOutcome> written = borrowers.isEmpty()
+                ? Collections.<String, WriteOutcome>emptyMap()
+                : databaseService.compareAndSetBorrowedAll(borrowers.keySet(), null, true, false);
+        List<String> applied = new ArrayList<>();
+        for (int i = 0; i < outcomes.length; i++) {
+            if (outcomes[i] == null) {
+                outcomes[i] = returnOutcome(written.get(ISBNs.get(i)));
+                if (outcomes[i].isSuccess()) {
+                    applied.add(ISBNs.get(i));
+                }
+            }
         }
 
-        // Mark the book as borrowed.
-        book.borrow();
+        // Borrow again the books returned by an all-or-nothing batch that lost a book to a concurrent return,
+        // unless they were borrowed by someone in between.
+        if (mode == BatchMode.ALL_OR_NOTHING && applied.size() < outcomes.length) {
+            Map<String, WriteOutcome> undone = new HashMap<>();
+            for (String ISBN : applied) {
+                undone.put(ISBN, databaseService.compareAndSetBorrowed(ISBN, borrowers.get(ISBN), false, true));
+            }
+            markNotUndone(ISBNs, outcomes, undone);
+            return abort(ISBNs, outcomes);
+        }
+        return report(ISBNs, outcomes);
+    }
 
-        // Record the borrowing transaction in the database by associating the book's ISBN with the user's Id.
-        databaseService.borrowBook(ISBN, userId);
+    /**
+     * Maps the outcome of borrowing a book in the database to the outcome of the library operation.
+     *
+     * @param outcome The outcome of the conditional write.
+     * @return The library outcome.
+     */
+    private static LibraryOutcome borrowOutcome(WriteOutcome outcome) {
+        switch (outcome) {
+            case BOOK_NOT_FOUND:
+                // No book is found for the given ISBN.
+                return LibraryOutcome.BOOK_NOT_FOUND;
+            case USER_NOT_FOUND:
+                // The user Id does not correspond to a registered user.
+                return LibraryOutcome.USER_NOT_REGISTERED;
+            case STATE_MISMATCH:
+                // The book is already borrowed.
+                return LibraryOutcome.BOOK_ALREADY_BORROWED;
+            default:
+                return LibraryOutcome.SUCCESS;
+        }
     }
 
     /**
-     * Returns a previously borrowed book.
+     * Maps the outcome of returning a book in the database to the outcome of the library operation.
      *
-     * @param ISBN The International Standard Book Number of the book.
+     * @param outcome The outcome of the conditional write.
+     * @return The library outcome.
      */
-    public void returnBook(String ISBN) {
-        
-        // Validate the ISBN. If it's not valid, throw an exception.
-        if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
+    private static LibraryOutcome returnOutcome(WriteOutcome outcome) {
+        switch (outcome) {
+            case BOOK_NOT_FOUND:
+                // No book is found for the given ISBN.
+                return LibraryOutcome.BOOK_NOT_FOUND;
+            case STATE_MISMATCH:
+                // The book is not currently borrowed: it was never borrowed or it has already been returned.
+                return LibraryOutcome.BOOK_NOT_BORROWED;
+            default:
+                return LibraryOutcome.SUCCESS;
         }
+    }
 
-        // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+    private static boolean hasRejection(LibraryOutcome[] outcomes) {
+        for (LibraryOutcome outcome : outcomes) {
+            if (outcome != null && !outcome.isSuccess()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // If no book is found for the given ISBN, throw a book not found exception.
-        if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+    /**
+     * Reports the books an aborted all-or-nothing batch applied but could not undo as {@link LibraryOutcome#BATCH_UNDO_FAILED}.
+     */
+    private static void markNotUndone(List<String> ISBNs, LibraryOutcome[] outcomes, Map<String, WriteOutcome> undone) {
+        for (int i = 0; i < outcomes.length; i++) {
+            if (outcomes[i].isSuccess() && undone.get(ISBNs.get(i)) != WriteOutcome.APPLIED) {
+                outcomes[i] = LibraryOutcome.BATCH_UNDO_FAILED;
+            }
         }
+    }
 
-        // Check if the book is currently borrowed. If not, it means it was never borrowed
-        // or it has already been returned, therefore throw an exception.
-        if (!book.isBorrowed()) {
-            throw new BookNotBorrowedException("Book wasn't borrowed!");
+    /**
+     * Reports an aborted all-or-nothing batch: the books that were not rejected are reported as aborted.
+     */
+    private static LoanBatchReport abort(List<String> ISBNs, LibraryOutcome[] outcomes) {
+        for (int i = 0; i < outcomes.length; i++) {
+            if (outcomes[i] == null || outcomes[i].isSuccess()) {
+                outcomes[i] = LibraryOutcome.BATCH_ABORTED;
+            }
         }
+        return report(ISBNs, outcomes);
+    }
 
-        // Change the status of the book to not borrowed.
-        book.returnBook();
+    private static LoanBatchReport report(List<String> ISBNs, LibraryOutcome[] outcomes) {
+        LoanBatchReport report = new LoanBatchReport(outcomes.length);
+        for (int i = 0; i < outcomes.length; i++) {
+            report.add(ISBNs.get(i), outcomes[i]);
+        }
+        return report;
+    }
 
-        // Update the database to reflect the returned status of the book.
-        databaseService.returnBook(ISBN);
+    private void recordRejections(Operation operation, LoanBatchReport report) {
+        for (LoanBatchReport.Entry entry : report.getEntries()) {
+            if (!entry.getOutcome().isSuccess()) {
+                metrics.recordRejection(operation, entry.getOutcome().name());
+            }
+        }
     }
 
     /**
@@ -250,67 +730,184 @@ public class Library {
      * @param userId The Id of the user to whom the reviews are to be sent.
      */
     public void notifyUserWithBookReviews(String ISBN, String userId) {
+        long start = System.nanoTime();
+        try {
+            // Validate the ISBN. If it's invalid, throw an exception.
+            if (!Validator.ISBN.isValid(ISBN)) {
+                throw new IllegalArgumentException("Invalid ISBN.");
+            }
 
-        // Validate the ISBN. If it's invalid, throw an exception.
-        if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
-        }
+            // Validate the user Id format (should be a 12-digit number).
+            // If it's invalid, throw an exception.
+            if (!Validator.USER_ID.isValid(userId)) {
+                throw new IllegalArgumentException("Invalid user Id.");
+            }
 
-        // Validate the user Id format (should be a 12-digit number).
-        // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
-            throw new IllegalArgumentException("Invalid user Id.");
-        }
+            // Retrieve the book associated with the ISBN from the database.
+            Book book = databaseService.getBookByISBN(ISBN);
+
+            // If no book is found for the given ISBN, throw a book not found exception.
+            if (book == null) {
+                throw new BookNotFoundException("Book not found!");
+            }
 
-        // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+            // Retrieve the user associated with the user Id from the database.
+            User user = databaseService.getUserById(userId);
 
-        // If no book is found for the given ISBN, throw a book not found exception.
-        if (book == null) {
-            throw new BookNotFoundException("Book not found!");
+            // If the user is not found in the database, throw an exception.
+            if (user == null) {
+                throw new UserNotRegisteredException("User not found!");
+            }
+
+            // Fetch the reviews of the book and send them to the user.
+            sendReviews(user, composeReviews(ISBN, book));
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.NOTIFY_USER_WITH_BOOK_REVIEWS, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.NOTIFY_USER_WITH_BOOK_REVIEWS, System.nanoTime() - start);
         }
+    }
 
-        // Retrieve the user associated with the user Id from the database.
-        User user = databaseService.getUserById(userId);
+    /**
+     * Retrieves the database service the library calls, metered if the library has metrics.
+     *
+     * @return The database service.
+     */
+    DatabaseService getDatabaseService() {
+        return databaseService;
+    }
 
-        // If the user is not found in the database, throw an exception.
-        if (user == null) {
-            throw new UserNotRegisteredException("User not found!");
+    /**
+     * Composes the review notification of a book. With a {@link ReviewDigestStore}, the notification comes from
+     * the book's digest while it is fresh, and from the last good digest while the review service is unavailable;
+     * otherwise its reviews are read from the review service, see {@link #fetchDigest(String, Book, long)}.
+     *
+     * @param ISBN The ISBN of the book whose reviews are to be sent.
+     * @param book The book the reviews belong to.
+     * @return The notification message, at most {@link #MAX_NOTIFICATION_LENGTH} characters long
+     *         unless the title alone is longer.
+     */
+    String composeReviews(String ISBN, Book book) {
+        if (reviewDigests == null) {
+            return fetchDigest(ISBN, book, 0).getBody();
+        }
+        // A digest rendered for another title, such as before the book was renamed, is never used.
+        ReviewDigest digest = reviewDigests.get(ISBN);
+        boolean usable = digest != null && digest.getTitle().equals(book.getTitle());
+        if (usable && reviewDigests.isFresh(digest)) {
+            reviewDigests.recordHit();
+            return digest.getBody();
         }
+        try {
+            ReviewDigest fetched = fetchDigest(ISBN, book, reviewDigests.now());
+            reviewDigests.replace(ISBN, digest, fetched);
+            return fetched.getBody();
+        } catch (NoReviewsFoundException e) {
+            reviewDigests.invalidate(ISBN);
+            throw e;
+        } catch (ReviewServiceUnavailableException e) {
+            if (!usable) {
+                throw e;
+            }
+            // Degrade to the last good digest rather than failing the notification.
+            reviewDigests.recordStaleServe();
+            return digest.getBody();
+        }
+    }
 
-        // Fetch the list of reviews for the specified book using the review service.
-        List<String> reviews;
+    /**
+     * Reads the reviews of a book from the review service, best first, into a digest, until its notification
+     * reaches {@link #MAX_NOTIFICATION_LENGTH} characters; a review that does not fit is cut short and ends the
+     * notification with {@link #TRUNCATION_MARKER}. A service that pages natively is read a page at a time and no
+     * more pages are fetched once the notification is full, so reading it takes the same memory however many reviews
+     * the book has. Any other service is asked for all the reviews once, since each of its pages would fetch them all.
+     *
+     * @param ISBN      The ISBN of the book whose reviews are to be read.
+     * @param book      The book the reviews belong to.
+     * @param fetchedAt The time the reviews are read, in nanoseconds.
+     * @return The digest, holding at least one review.
+     */
+    ReviewDigest fetchDigest(String ISBN, Book book, long fetchedAt) {
+        ReviewDigest.Builder digest = new ReviewDigest.Builder(book.getTitle(), fetchedAt);
         try {
-            reviews = reviewService.getReviewsForBook(ISBN);
+            if (reviewService.supportsPaging()) {
+                readPages(ISBN, digest);
+            } else {
+                List<String> reviews = reviewService.getReviewsForBook(ISBN);
+                if (reviews != null) {
+                    for (String review : reviews) {
+                        if (!digest.add(review)) {
+                            break;
+                        }
+                    }
+                }
+            }
 
-            // If no reviews are found or the review list is empty, throw an exception.
-            if (reviews == null || reviews.isEmpty()) {
+            // If no reviews are found, throw an exception.
+            if (digest.isEmpty()) {
                 throw new NoReviewsFoundException("No reviews found!");
             }
         } catch (ReviewException e) {
             // If there's an issue fetching the reviews, throw a service unavailable exception.
+            metrics.recordReviewFailure();
             throw new ReviewServiceUnavailableException("Review service unavailable!");
         } finally {
             // Always close the review service connection after attempting to fetch the reviews.
             reviewService.close();
         }
+        return digest.build();
+    }
 
-        // Construct the notification message containing the book's title and its reviews.
-        String notificationMessage = "Reviews for '" + book.getTitle() + "':\n" + String.join("\n", reviews);
+    /**
+     * Reads the reviews of a book a page at a time into a digest, until the digest is full or the reviews run out.
+     */
+    private void readPages(String ISBN, ReviewDigest.Builder digest) {
+        String cursor = null;
+        boolean full = false;
+        do {
+            // Fetch the next page of reviews for the specified book using the review service.
+            ReviewPage page = reviewService.getReviewPage(ISBN, cursor, REVIEW_PAGE_SIZE);
+            if (page == null) {
+                break;
+            }
+            for (String review : page.getReviews()) {
+                if (!digest.add(review)) {
+                    full = true;
+                    break;
+                }
+            }
+            cursor = page.getNextCursor();
+        } while (!full && cursor != null);
+    }
 
+    /**
+     * Sends a review notification to a user, retrying a failed notification.
+     *
+     * @param user                The user to whom the reviews are to be sent.
+     * @param notificationMessage The message composed by {@link #composeReviews(String, Book)}.
+     */
+    void sendReviews(User user, String notificationMessage) {
         // Attempt to send the notification to the user. If it fails, retry up to 5 times.
         int retryCount = 0;
         while (retryCount < 5) {
+            long start = System.nanoTime();
             try {
                 user.sendNotification(notificationMessage);
                 return;
             } catch (NotificationException e) {
                 retryCount++;
+                if (retryCount < 5) {
+                    metrics.recordNotificationRetry();
+                }
                 System.err.println("Notification failed! Retrying attempt " + retryCount + "/5");
+            } finally {
+                metrics.recordCall(Call.NOTIFICATION_NOTIFY_USER, System.nanoTime() - start);
             }
         }
 
         // If all retry attempts fail, throw a notification exception.
+        metrics.recordNotificationRetriesExhausted();
         throw new NotificationException("Notification failed!");
     }
 
@@ -322,40 +919,68 @@ public class Library {
      * @return       The book with the given ISBN if found, and notifies the user with its reviews.
      */
     public Book getBookByISBN(String ISBN, String userId) {
-        // Validate the ISBN. If it's invalid, throw an exception.
-        if (!isISBNValid(ISBN)) {
-            throw new IllegalArgumentException("Invalid ISBN.");
-        }
+        return lookupBook(ISBN, userId).getBook();
+    }
 
-        // Validate the user Id format (should be a 12-digit number). 
-        // If it's invalid, throw an exception.
-        if (userId == null || !userId.matches("\\d{12}")) {
-            throw new IllegalArgumentException("Invalid user Id.");
-        }
+    /**
+     * Fetches a book by its ISBN and schedules a notification of its reviews to the user
+     * on the library's notification executor.
+     * Unlike {@link #getBookByISBN(String, String)}, the scheduled notification can be observed or awaited.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be fetched.
+     * @param userId The Id of the user to be notified with the book's reviews.
+     * @return       The book with the given ISBN, along with its pending review notification.
+     */
+    public BookLookup lookupBook(String ISBN, String userId) {
+        long start = System.nanoTime();
+        try {
+            // Validate the ISBN. If it's invalid, throw an exception.
+            if (!Validator.ISBN.isValid(ISBN)) {
+                throw new IllegalArgumentException("Invalid ISBN.");
+            }
 
-        // Retrieve the book associated with the ISBN from the database.
-        Book book = databaseService.getBookByISBN(ISBN);
+            // Validate the user Id format (should be a 12-digit number). 
+            // If it's invalid, throw an exception.
+            if (!Validator.USER_ID.isValid(userId)) {
+                throw new IllegalArgumentException("Invalid user Id.");
+            }
 
-        // If no book is found for the given ISBN, throw a book not found exception.
-        if (book == null) {
-            throw new BookNotFoundException("Book not found!");
-        }
+            // Retrieve the book associated with the ISBN from the database.
+            Book book = databaseService.getBookByISBN(ISBN);
 
-        // If the book is already borrowed, throw an exception.
-        if (book.isBorrowed()) {
-            throw new BookAlreadyBorrowedException("Book was already borrowed!");
-        }
+            // If no book is found for the given ISBN, throw a book not found exception.
+            if (book == null) {
+                throw new BookNotFoundException("Book not found!");
+            }
 
-        // Attempt to notify the user with the book's reviews.
-        // This step is optional, so even if it fails, the book should still be returned.
-        try {
-            notifyUserWithBookReviews(ISBN, userId);
-        } catch (Exception e) {
-            System.out.println("Notification failed!");
-        }
+            // If the book is already borrowed, throw an exception.
+            if (book.isBorrowed()) {
+                throw new BookAlreadyBorrowedException("Book was already borrowed!");
+            }
 
-        // Return the retrieved book.
-        return book;
+            // Attempt to notify the user with the book's reviews, off the calling thread unless the library
+            // was built without a notification executor.
+            // This step is optional, so even if it fails, or cannot even be scheduled, the book should still be returned.
+            CompletableFuture<Void> notification;
+            try {
+                notification = CompletableFuture.runAsync(() -> notifyUserWithBookReviews(ISBN, userId), notificationExecutor);
+            } catch (RuntimeException e) {
+                notification = new CompletableFuture<>();
+                notification.completeExceptionally(e);
+            }
+            notification.whenComplete((ignored, failure) -> {
+                if (failure != null) {
+                    System.out.println("Notification failed!");
+                }
+            });
+
+            // Return the retrieved book.
+            return new BookLookup(book, notification);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.GET_BOOK_BY_ISBN, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.GET_BOOK_BY_ISBN, System.nanoTime() - start);
+        }
     }
 }
-
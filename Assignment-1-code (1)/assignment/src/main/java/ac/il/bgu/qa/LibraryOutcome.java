@@ -0,0 +1,71 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.*;
+
+/**
+ * The outcome of a library operation called through its non-throwing form,
+ * such as {@link Library#tryBorrowBook(String, String)}.
+ * Every outcome but {@link #SUCCESS}, {@link #BATCH_ABORTED} and {@link #BATCH_UNDO_FAILED} matches the exception
+ * the throwing form would have thrown; the latter two only occur in batches, such as {@link Library#borrowBooks(java.util.List, String, BatchMode)}.
+ */
+public enum LibraryOutcome {
+
+    // The operation was applied.
+    SUCCESS,
+    // The ISBN is not a valid ISBN-13; the throwing form throws IllegalArgumentException.
+    INVALID_ISBN,
+    // The user Id is not 12 digits; the throwing form throws IllegalArgumentException.
+    INVALID_USER_ID,
+    // No book has the given ISBN; the throwing form throws BookNotFoundException.
+    BOOK_NOT_FOUND,
+    // No user has the given Id; the throwing form throws UserNotRegisteredException.
+    USER_NOT_REGISTERED,
+    // The book is already borrowed; the throwing form throws BookAlreadyBorrowedException.
+    BOOK_ALREADY_BORROWED,
+    // The book is not borrowed; the throwing form throws BookNotBorrowedException.
+    BOOK_NOT_BORROWED,
+    // The book could have been applied, but another book of its all-or-nothing batch was rejected.
+    BATCH_ABORTED,
+    // The book was applied before its all-or-nothing batch aborted, but another operation changed it before
+    // it could be undone, so the change was not undone.
+    BATCH_UNDO_FAILED;
+
+    /**
+     * Checks whether the operation was applied.
+     *
+     * @return true for {@link #SUCCESS}, false otherwise.
+     */
+    public boolean isSuccess() {
+        return this == SUCCESS;
+    }
+
+    /**
+     * Builds the exception the throwing form of the operation throws for this outcome.
+     *
+     * @param writableStackTrace whether the stack trace should be captured.
+     * @return The exception, with the same message the throwing form uses.
+     * @throws IllegalStateException If this outcome is {@link #SUCCESS}.
+     */
+    public RuntimeException toException(boolean writableStackTrace) {
+        switch (this) {
+            case INVALID_ISBN:
+                return new IllegalArgumentException("Invalid ISBN.");
+            case INVALID_USER_ID:
+                return new IllegalArgumentException("Invalid user Id.");
+            case BOOK_NOT_FOUND:
+                return new BookNotFoundException("Book not found!", writableStackTrace);
+            case USER_NOT_REGISTERED:
+                return new UserNotRegisteredException("User not found!", writableStackTrace);
+            case BOOK_ALREADY_BORROWED:
+                return new BookAlreadyBorrowedException("Book is already borrowed!", writableStackTrace);
+            case BOOK_NOT_BORROWED:
+                return new BookNotBorrowedException("Book wasn't borrowed!", writableStackTrace);
+            case BATCH_ABORTED:
+                return new IllegalStateException("Batch aborted!");
+            case BATCH_UNDO_FAILED:
+                return new IllegalStateException("Batch undo failed!");
+            default:
+                throw new IllegalStateException("No exception for a successful outcome.");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ac.il.bgu.qa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the per-book outcome of borrowing or returning a batch of books.
+ * Entries are kept in the same order as the ISBNs were supplied.
+ */
+public class LoanBatchReport {
+
+    /**
+     * The outcome of a single book of the batch.
+     */
+    public static class Entry {
+
+        // The ISBN as it was supplied to the batch.
+        private final String ISBN;
+        // The outcome for this book.
+        private final LibraryOutcome outcome;
+
+        Entry(String ISBN, LibraryOutcome outcome) {
+            this.ISBN = ISBN;
+            this.outcome = outcome;
+        }
+
+        /**
+         * Retrieves the ISBN this entry refers to.
+         *
+         * @return The ISBN as it was supplied, possibly null.
+         */
+        public String getISBN() {
+            return ISBN;
+        }
+
+        /**
+         * Retrieves the outcome for this book.
+         *
+         * @return {@link LibraryOutcome#SUCCESS} if the book was borrowed or returned, otherwise the reason it was not.
+         */
+        public LibraryOutcome getOutcome() {
+            return outcome;
+        }
+    }
+
+    // The outcome of every book in the batch, in input order.
+    private final List<Entry> entries;
+    // Number of books borrowed or returned.
+    private int succeededCount;
+
+    LoanBatchReport(int expectedSize) {
+        this.entries = new ArrayList<>(expectedSize);
+    }
+
+    void add(String ISBN, LibraryOutcome outcome) {
+        entries.add(new Entry(ISBN, outcome));
+        if (outcome.isSuccess()) {
+            succeededCount++;
+        }
+    }
+
+    /**
+     * Retrieves the outcome of every book in the batch.
+     *
+     * @return An unmodifiable list of entries in input order.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Retrieves the outcome of the book at the given position of the batch.
+     *
+     * @param index The position of the book in the batch.
+     * @return The entry for that book.
+     */
+    public Entry get(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Retrieves the number of books in the batch.
+     *
+     * @return The batch size.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Retrieves the number of books that were borrowed or returned.
+     *
+     * @return The succeeded count.
+     */
+    public int getSucceededCount() {
+        return succeededCount;
+    }
+
+    /**
+     * Retrieves the number of books that were not borrowed or returned.
+     *
+     * @return The rejected count, including the books of an aborted batch.
+     */
+    public int getRejectedCount() {
+        return entries.size() - succeededCount;
+    }
+}
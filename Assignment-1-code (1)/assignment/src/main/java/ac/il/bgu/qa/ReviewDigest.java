@@ -0,0 +1,198 @@
+package ac.il.bgu.qa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable digest of the reviews of a book: how many reviews are known, the reviews selected for its
+ * notification, and that notification, rendered for the book's title.
+ * <p>
+ * The selected reviews are the best ones that fit in a notification of {@link Library#MAX_NOTIFICATION_LENGTH}
+ * characters, in the order the review service ranks them; a review that does not fit is cut short and ends the
+ * notification with {@link Library#TRUNCATION_MARKER}. A new review is folded in with {@link #withReview(String)},
+ * which appends it to the notification if there is room left, without rendering the notification again.
+ */
+public final class ReviewDigest {
+
+    // Initial capacity of a notification being rendered, enough for a few short reviews.
+    private static final int INITIAL_BODY_CAPACITY = 512;
+
+    // The title the notification is rendered for.
+    private final String title;
+    // Number of reviews known to the digest, at least the number selected.
+    private final long reviewCount;
+    // The reviews appearing in full in the notification, best first.
+    private final List<String> reviews;
+    // Whether a review was cut short or left out of the notification.
+    private final boolean truncated;
+    // The rendered notification.
+    private final String body;
+    // Time the digest was last read from the review service, in nanoseconds.
+    private final long fetchedAt;
+
+    private ReviewDigest(String title, long reviewCount, List<String> reviews, boolean truncated, String body,
+                         long fetchedAt) {
+        this.title = title;
+        this.reviewCount = reviewCount;
+        this.reviews = reviews;
+        this.truncated = truncated;
+        this.body = body;
+        this.fetchedAt = fetchedAt;
+    }
+
+    /**
+     * Retrieves the title the notification is rendered for.
+     *
+     * @return The title of the book.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Retrieves the number of reviews known to the digest: the ones read from the review service when it was built,
+     * which stops reading once the notification is full, plus the ones folded in since.
+     *
+     * @return The review count.
+     */
+    public long getReviewCount() {
+        return reviewCount;
+    }
+
+    /**
+     * Retrieves the reviews appearing in full in the notification.
+     *
+     * @return An unmodifiable list of reviews, best first.
+     */
+    public List<String> getReviews() {
+        return reviews;
+    }
+
+    /**
+     * Checks whether the notification leaves out part of the known reviews.
+     *
+     * @return true if a review was cut short or left out.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Retrieves the rendered notification.
+     *
+     * @return The notification message, at most {@link Library#MAX_NOTIFICATION_LENGTH} characters long
+     *         unless the title alone is longer.
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Retrieves the time the digest was last read from the review service.
+     *
+     * @return The time, on the clock of the {@link ReviewDigestStore} holding it, in nanoseconds.
+     */
+    long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * Folds a new review into the digest. The review is appended to the notification if it has room left,
+     * so it ranks after the reviews already selected; otherwise it is only counted.
+     *
+     * @param review The new review.
+     * @return The updated digest.
+     */
+    public ReviewDigest withReview(String review) {
+        if (review == null) {
+            throw new IllegalArgumentException("Invalid review.");
+        }
+        Builder builder = new Builder(this);
+        builder.add(review);
+        return builder.build();
+    }
+
+    /**
+     * Renders a digest one review at a time, best first, with the same layout whether it starts empty or from an
+     * existing digest.
+     */
+    static final class Builder {
+
+        private final String title;
+        private final long fetchedAt;
+        private final StringBuilder body;
+        private final List<String> reviews;
+        private long reviewCount;
+        private boolean truncated;
+
+        /**
+         * Starts an empty digest.
+         *
+         * @param title     The title the notification is rendered for.
+         * @param fetchedAt The time the reviews are read from the review service, in nanoseconds.
+         */
+        Builder(String title, long fetchedAt) {
+            this.title = title;
+            this.fetchedAt = fetchedAt;
+            this.body = new StringBuilder(INITIAL_BODY_CAPACITY);
+            this.body.append("Reviews for '").append(title).append("':");
+            this.reviews = new ArrayList<>();
+        }
+
+        private Builder(ReviewDigest digest) {
+            this.title = digest.title;
+            this.fetchedAt = digest.fetchedAt;
+            this.body = new StringBuilder(digest.body.length() + INITIAL_BODY_CAPACITY);
+            this.body.append(digest.body);
+            this.reviews = new ArrayList<>(digest.reviews);
+            this.reviewCount = digest.reviewCount;
+            this.truncated = digest.truncated;
+        }
+
+        /**
+         * Adds the next review, cutting it short if it does not fit.
+         *
+         * @param review The review.
+         * @return false once the notification is full, so that later reviews would only be counted.
+         */
+        boolean add(String review) {
+            reviewCount++;
+            if (truncated) {
+                return false;
+            }
+            // Room left for the reviews, keeping enough for the truncation marker.
+            int budget = Library.MAX_NOTIFICATION_LENGTH - Library.TRUNCATION_MARKER.length();
+            if (body.length() + 1 + review.length() <= budget) {
+                body.append('\n').append(review);
+                reviews.add(review);
+                return true;
+            }
+            // Append as much of the review as fits, without splitting a surrogate pair.
+            int room = budget - body.length() - 1;
+            if (room > 0) {
+                if (Character.isHighSurrogate(review.charAt(room - 1))) {
+                    room--;
+                }
+                body.append('\n').append(review, 0, room);
+            }
+            body.append(Library.TRUNCATION_MARKER);
+            truncated = true;
+            return false;
+        }
+
+        /**
+         * Checks whether no review was added.
+         *
+         * @return true if the digest would hold no reviews.
+         */
+        boolean isEmpty() {
+            return reviewCount == 0;
+        }
+
+        ReviewDigest build() {
+            return new ReviewDigest(title, reviewCount, Collections.unmodifiableList(reviews), truncated,
+                    body.toString(), fetchedAt);
+        }
+    }
+}
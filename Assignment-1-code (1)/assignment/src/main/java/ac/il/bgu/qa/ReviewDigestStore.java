@@ -0,0 +1,225 @@
+package ac.il.bgu.qa;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds a {@link ReviewDigest} per ISBN, so that a {@link Library} notifies users with the book's reviews
+ * without fetching and rendering them on every notification.
+ * <p>
+ * A library given a store builds the digest of a book from the review service on its first notification,
+ * and again once the digest is older than the refresh interval. In between, new reviews are folded into the digest
+ * as they come in, through {@link #onReviewAdded(String, String)}. If the review service is unavailable when
+ * a digest is due for a refresh, the library keeps notifying with the last good digest.
+ * <p>
+ * The store is bounded by a number of books and evicts the least recently used digest; a digest holds at most a
+ * notification's worth of reviews, so the store's memory is bounded too. It is safe for concurrent use.
+ */
+public class ReviewDigestStore {
+
+    // Default number of books holding a digest.
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    private final int capacity;
+    // Time after which a digest is read again from the review service, in nanoseconds.
+    private final long refreshNanos;
+    // Source of the current time in nanoseconds.
+    private final LongSupplier clock;
+
+    // Digests by ISBN in access order, guarded by itself.
+    private final LinkedHashMap<String, ReviewDigest> digests;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder staleServes = new LongAdder();
+    private final LongAdder incrementalUpdates = new LongAdder();
+
+    /**
+     * Constructs a store holding the digests of up to {@link #DEFAULT_CAPACITY} books.
+     *
+     * @param refreshInterval How long a digest is used before it is read again from the review service.
+     * @param unit            The unit of {@code refreshInterval}.
+     */
+    public ReviewDigestStore(long refreshInterval, TimeUnit unit) {
+        this(DEFAULT_CAPACITY, refreshInterval, unit);
+    }
+
+    /**
+     * Constructs a store.
+     *
+     * @param capacity        The maximum number of books holding a digest.
+     * @param refreshInterval How long a digest is used before it is read again from the review service.
+     * @param unit            The unit of {@code refreshInterval}.
+     */
+    public ReviewDigestStore(int capacity, long refreshInterval, TimeUnit unit) {
+        this(capacity, refreshInterval, unit, System::nanoTime);
+    }
+
+    ReviewDigestStore(int capacity, long refreshInterval, TimeUnit unit, LongSupplier clock) {
+        if (unit == null || clock == null) {
+            throw new IllegalArgumentException("Invalid review digest configuration.");
+        }
+        if (capacity < 1 || refreshInterval <= 0) {
+            throw new IllegalArgumentException("Invalid review digest bounds.");
+        }
+        this.capacity = capacity;
+        this.refreshNanos = unit.toNanos(refreshInterval);
+        this.clock = clock;
+        this.digests = new LinkedHashMap<String, ReviewDigest>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ReviewDigest> eldest) {
+                return size() > ReviewDigestStore.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Retrieves the digest of a book.
+     *
+     * @param ISBN The ISBN of the book.
+     * @return The digest, or null if the store holds none for the book.
+     */
+    public ReviewDigest get(String ISBN) {
+        synchronized (digests) {
+            return digests.get(ISBN);
+        }
+    }
+
+    /**
+     * Folds a new review of a book into its digest. Meant to be called by whatever receives the new reviews;
+     * a book without a digest is left alone, since its digest will be read in full from the review service.
+     *
+     * @param ISBN   The ISBN of the reviewed book.
+     * @param review The new review.
+     */
+    public void onReviewAdded(String ISBN, String review) {
+        if (ISBN == null || review == null) {
+            throw new IllegalArgumentException("Invalid review.");
+        }
+        synchronized (digests) {
+            ReviewDigest digest = digests.get(ISBN);
+            if (digest != null) {
+                digests.put(ISBN, digest.withReview(review));
+                incrementalUpdates.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes the digest of a book, so that its next notification reads its reviews from the review service.
+     *
+     * @param ISBN The ISBN of the book.
+     */
+    public void invalidate(String ISBN) {
+        synchronized (digests) {
+            digests.remove(ISBN);
+        }
+    }
+
+    /**
+     * Retrieves the number of notifications sent from a digest without calling the review service.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the number of digests read from the review service.
+     *
+     * @return The refresh count.
+     */
+    public long getRefreshCount() {
+        return refreshes.sum();
+    }
+
+    /**
+     * Retrieves the number of notifications sent from a digest due for a refresh because the review service
+     * was unavailable.
+     *
+     * @return The stale serve count.
+     */
+    public long getStaleServeCount() {
+        return staleServes.sum();
+    }
+
+    /**
+     * Retrieves the number of new reviews folded into a digest.
+     *
+     * @return The incremental update count.
+     */
+    public long getIncrementalUpdateCount() {
+        return incrementalUpdates.sum();
+    }
+
+    /**
+     * Retrieves the number of books holding a digest.
+     *
+     * @return The size of the store.
+     */
+    public int size() {
+        synchronized (digests) {
+            return digests.size();
+        }
+    }
+
+    /**
+     * Reads the current time of the store's clock.
+     *
+     * @return The time in nanoseconds.
+     */
+    long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Checks whether a digest may still be used without reading it again from the review service.
+     *
+     * @param digest The digest.
+     * @return true if it is younger than the refresh interval.
+     */
+    boolean isFresh(ReviewDigest digest) {
+        return clock.getAsLong() - digest.getFetchedAt() < refreshNanos;
+    }
+
+    /**
+     * Stores a digest just read from the review service, replacing the book's previous one.
+     */
+    void put(String ISBN, ReviewDigest digest) {
+        synchronized (digests) {
+            digests.put(ISBN, digest);
+        }
+        refreshes.increment();
+    }
+
+    /**
+     * Stores a digest just read from the review service, unless the book's digest changed while it was read,
+     * such as by a new review folded into it that the read may have missed. The changed digest is kept,
+     * and refreshed again on a later notification.
+     *
+     * @param expected The book's digest before the read, or null if it had none.
+     * @return true if the digest was stored.
+     */
+    boolean replace(String ISBN, ReviewDigest expected, ReviewDigest digest) {
+        refreshes.increment();
+        synchronized (digests) {
+            if (digests.get(ISBN) != expected) {
+                return false;
+            }
+            digests.put(ISBN, digest);
+            return true;
+        }
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordStaleServe() {
+        staleServes.increment();
+    }
+}
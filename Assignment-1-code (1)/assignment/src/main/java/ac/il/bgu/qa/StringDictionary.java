@@ -0,0 +1,220 @@
+package ac.il.bgu.qa;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, concurrent intern table mapping equal strings to one shared instance and a small integer id.
+ * <p>
+ * Catalog strings repeat heavily: the same author appears on thousands of books. Interning them when books enter
+ * the library keeps one {@code String} per distinct value instead of one per book.
+ * <p>
+ * Lookups of interned strings never lock. Interning a new string locks the table, and once the table is full it
+ * evicts an entry that was not looked up since the eviction hand last passed it (the CLOCK policy), so strings that
+ * keep recurring stay interned. Books already holding an evicted string keep it; the id of an evicted string
+ * is recycled.
+ */
+public class StringDictionary {
+
+    // Default number of distinct strings kept.
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /**
+     * An interned string and its id.
+     */
+    private static final class Entry {
+        final int id;
+        final String value;
+        // Set on every lookup, cleared by the eviction hand.
+        volatile boolean referenced;
+
+        Entry(int id, String value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    private final int capacity;
+    // Entries keyed by their string.
+    private final ConcurrentHashMap<String, Entry> entries;
+    // Entries indexed by id.
+    private final AtomicReferenceArray<Entry> ids;
+
+    // Next id never handed out, guarded by this.
+    private int nextId;
+    // Position of the eviction hand among the ids, guarded by this.
+    private int hand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+
+    /**
+     * Constructs a dictionary holding up to {@link #DEFAULT_CAPACITY} distinct strings.
+     */
+    public StringDictionary() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a dictionary holding up to the given number of distinct strings.
+     *
+     * @param capacity The maximum number of strings kept.
+     */
+    public StringDictionary(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid dictionary configuration.");
+        }
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<>(Math.min(capacity, 1024));
+        this.ids = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Retrieves the shared instance equal to a string, interning the string if no equal one is interned yet.
+     *
+     * @param value The string, may be null.
+     * @return The shared instance, or null if the string is null.
+     */
+    public String intern(String value) {
+        return value == null ? null : entryOf(value).value;
+    }
+
+    /**
+     * Retrieves the id of a string, interning the string if no equal one is interned yet.
+     * The id stays valid until the string is evicted.
+     *
+     * @param value The string.
+     * @return The string's id, between 0 and the dictionary capacity.
+     */
+    public int idOf(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Invalid string.");
+        }
+        return entryOf(value).id;
+    }
+
+    /**
+     * Retrieves the string interned with an id.
+     *
+     * @param id The id returned by {@link #idOf}.
+     * @return The shared instance, or null if the id is not in use, for example because its string was evicted.
+     */
+    public String valueOf(int id) {
+        if (id < 0 || id >= capacity) {
+            return null;
+        }
+        Entry entry = ids.get(id);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Retrieves the number of strings interned.
+     *
+     * @return The string count.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Retrieves the number of lookups that found an equal string interned.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the number of lookups that interned a new string.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Retrieves the number of strings evicted to make room for new ones.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Estimates the heap saved so far: the size of every looked up string that was a distinct instance
+     * from the shared one it was replaced with, and can therefore be collected.
+     *
+     * @return The estimated saving, in bytes.
+     */
+    public long getSavedBytes() {
+        return savedBytes.sum();
+    }
+
+    private Entry entryOf(String value) {
+        Entry entry = entries.get(value);
+        if (entry == null) {
+            synchronized (this) {
+                entry = entries.get(value);
+                if (entry == null) {
+                    misses.increment();
+                    entry = new Entry(allocateId(), value);
+                    // Published by id before by value so a string found by value is always found by id.
+                    ids.set(entry.id, entry);
+                    entries.put(value, entry);
+                    return entry;
+                }
+            }
+        }
+        hits.increment();
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        if (entry.value != value) {
+            savedBytes.add(estimateSize(value));
+        }
+        return entry;
+    }
+
+    private int allocateId() {
+        if (nextId < capacity) {
+            return nextId++;
+        }
+        // Second chance: skip and clear the entries referenced since the hand last passed them.
+        while (true) {
+            Entry candidate = ids.get(hand);
+            hand = (hand + 1) % capacity;
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                continue;
+            }
+            entries.remove(candidate.value);
+            ids.set(candidate.id, null);
+            evictions.increment();
+            return candidate.id;
+        }
+    }
+
+    /**
+     * Estimates the heap taken by a string on a 64-bit JVM with compressed references and compact strings:
+     * a 24-byte {@code String} and its byte array, with one byte per character if every character is Latin-1.
+     *
+     * @param value The string.
+     * @return The estimated size, in bytes.
+     */
+    static long estimateSize(String value) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return 24 + ((16L + (long) value.length() * bytesPerChar + 7) & ~7L);
+    }
+}
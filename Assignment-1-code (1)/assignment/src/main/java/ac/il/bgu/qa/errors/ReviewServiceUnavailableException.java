@@ -14,4 +14,15 @@ public class ReviewServiceUnavailableException extends RuntimeException {
     public ReviewServiceUnavailableException(String message) {
         super(message);
     }
+
+    /**
+     * Constructs a new ReviewServiceUnavailableException with the specified detail message and, if requested, no stack trace and no suppressed exceptions.
+     * An open circuit breaker throws it on every rejected call, where capturing the stack would only add cost.
+     *
+     * @param message            the detail message.
+     * @param writableStackTrace whether the stack trace should be captured.
+     */
+    public ReviewServiceUnavailableException(String message, boolean writableStackTrace) {
+        super(message, null, writableStackTrace, writableStackTrace);
+    }
 }
@@ -14,4 +14,15 @@ public class UserNotRegisteredException extends RuntimeException {
     public UserNotRegisteredException(String message) {
         super(message);
     }
+
+    /**
+     * Constructs a new UserNotRegisteredException with the specified detail message and, if requested, no stack trace and no suppressed exceptions.
+     * Built by {@link ac.il.bgu.qa.LibraryOutcome#toException(boolean)}, where an unknown user is an expected outcome.
+     *
+     * @param message            the detail message.
+     * @param writableStackTrace whether the stack trace should be captured.
+     */
+    public UserNotRegisteredException(String message, boolean writableStackTrace) {
+        super(message, null, writableStackTrace, writableStackTrace);
+    }
 }
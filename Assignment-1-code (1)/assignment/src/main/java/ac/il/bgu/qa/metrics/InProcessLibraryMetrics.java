@@ -0,0 +1,238 @@
+package ac.il.bgu.qa.metrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link LibraryMetrics} kept in memory: a {@link LatencyHistogram} per operation and per downstream call,
+ * counters for notification retries and review failures, and per operation, counters for every exception type and
+ * every rejection outcome.
+ * <p>
+ * Recording never locks. {@link #report()} renders the percentiles of everything recorded so far on demand.
+ */
+public class InProcessLibraryMetrics implements LibraryMetrics {
+
+    // The percentiles rendered by the report.
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9};
+
+    private final LatencyHistogram[] operations = newHistograms(Operation.values().length);
+    private final LatencyHistogram[] calls = newHistograms(Call.values().length);
+
+    private final LongAdder notificationRetries = new LongAdder();
+    private final LongAdder notificationRetriesExhausted = new LongAdder();
+    private final LongAdder reviewFailures = new LongAdder();
+    // Failures counted by operation and exception type; the operations are fixed at construction.
+    private final Map<Operation, ConcurrentMap<Class<?>, LongAdder>> failures = newCounters();
+    // Rejections counted by operation and outcome name; the operations are fixed at construction.
+    private final Map<Operation, ConcurrentMap<String, LongAdder>> rejections = newCounters();
+
+    @Override
+    public void recordOperation(Operation operation, long nanos) {
+        operations[operation.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordCall(Call call, long nanos) {
+        calls[call.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordFailure(Operation operation, RuntimeException failure) {
+        failures.get(operation).computeIfAbsent(failure.getClass(), type -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void recordRejection(Operation operation, String outcome) {
+        rejections.get(operation).computeIfAbsent(outcome, name -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void recordNotificationRetry() {
+        notificationRetries.increment();
+    }
+
+    @Override
+    public void recordNotificationRetriesExhausted() {
+        notificationRetriesExhausted.increment();
+    }
+
+    @Override
+    public void recordReviewFailure() {
+        reviewFailures.increment();
+    }
+
+    /**
+     * Retrieves the latencies of a library operation.
+     *
+     * @param operation The operation.
+     * @return The histogram of its latencies.
+     */
+    public LatencyHistogram getHistogram(Operation operation) {
+        return operations[operation.ordinal()];
+    }
+
+    /**
+     * Retrieves the latencies of a downstream call.
+     *
+     * @param call The call.
+     * @return The histogram of its latencies.
+     */
+    public LatencyHistogram getHistogram(Call call) {
+        return calls[call.ordinal()];
+    }
+
+    /**
+     * Retrieves the number of failed notification attempts that were retried.
+     *
+     * @return The retry count.
+     */
+    public long getNotificationRetryCount() {
+        return notificationRetries.sum();
+    }
+
+    /**
+     * Retrieves the number of notifications given up on.
+     *
+     * @return The exhausted retries count.
+     */
+    public long getNotificationRetriesExhaustedCount() {
+        return notificationRetriesExhausted.sum();
+    }
+
+    /**
+     * Retrieves the number of review fetches the review service failed.
+     *
+     * @return The review failure count.
+     */
+    public long getReviewFailureCount() {
+        return reviewFailures.sum();
+    }
+
+    /**
+     * Retrieves the number of operations of any kind that ended with an exception of the given type.
+     *
+     * @param type The exception type.
+     * @return The failure count.
+     */
+    public long getFailureCount(Class<? extends RuntimeException> type) {
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            total += getFailureCount(operation, type);
+        }
+        return total;
+    }
+
+    /**
+     * Retrieves the number of times an operation ended with an exception of the given type.
+     *
+     * @param operation The operation.
+     * @param type      The exception type.
+     * @return The failure count.
+     */
+    public long getFailureCount(Operation operation, Class<? extends RuntimeException> type) {
+        return sum(failures.get(operation).get(type));
+    }
+
+    /**
+     * Retrieves the number of requests of any operation rejected with the given outcome.
+     *
+     * @param outcome The outcome name.
+     * @return The rejection count.
+     */
+    public long getRejectionCount(String outcome) {
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            total += getRejectionCount(operation, outcome);
+        }
+        return total;
+    }
+
+    /**
+     * Retrieves the number of requests of an operation rejected with the given outcome.
+     *
+     * @param operation The operation.
+     * @param outcome   The outcome name.
+     * @return The rejection count.
+     */
+    public long getRejectionCount(Operation operation, String outcome) {
+        return sum(rejections.get(operation).get(outcome));
+    }
+
+    /**
+     * Renders everything recorded so far: one line per operation and per call that was recorded at least once,
+     * with its count and latency percentiles in microseconds, followed by the counters.
+     *
+     * @return The report.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            appendHistogram(report, "operation " + operation, getHistogram(operation));
+        }
+        for (Call call : Call.values()) {
+            appendHistogram(report, "call " + call, getHistogram(call));
+        }
+        report.append("notification retries: ").append(getNotificationRetryCount()).append('\n');
+        report.append("notification retries exhausted: ").append(getNotificationRetriesExhaustedCount()).append('\n');
+        report.append("review failures: ").append(getReviewFailureCount()).append('\n');
+        for (Operation operation : Operation.values()) {
+            Map<String, LongAdder> sorted = new TreeMap<>();
+            for (Map.Entry<Class<?>, LongAdder> failure : failures.get(operation).entrySet()) {
+                sorted.put(failure.getKey().getSimpleName(), failure.getValue());
+            }
+            for (Map.Entry<String, LongAdder> failure : sorted.entrySet()) {
+                report.append("failures ").append(operation).append(' ').append(failure.getKey())
+                        .append(": ").append(failure.getValue().sum()).append('\n');
+            }
+        }
+        for (Operation operation : Operation.values()) {
+            for (Map.Entry<String, LongAdder> rejection : new TreeMap<>(rejections.get(operation)).entrySet()) {
+                report.append("rejections ").append(operation).append(' ').append(rejection.getKey())
+                        .append(": ").append(rejection.getValue().sum()).append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+    private static void appendHistogram(StringBuilder report, String name, LatencyHistogram histogram) {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return;
+        }
+        report.append(name).append(" count=").append(count);
+        for (double percentile : REPORTED_PERCENTILES) {
+            report.append(" p").append(percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile))
+                    .append('=').append(micros(histogram.getValueAtPercentile(percentile)));
+        }
+        report.append(" max=").append(micros(histogram.getMax())).append("us\n");
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+
+    private static long sum(LongAdder count) {
+        return count == null ? 0 : count.sum();
+    }
+
+    private static <K> Map<Operation, ConcurrentMap<K, LongAdder>> newCounters() {
+        Map<Operation, ConcurrentMap<K, LongAdder>> counters = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            counters.put(operation, new ConcurrentHashMap<>());
+        }
+        return counters;
+    }
+
+    private static LatencyHistogram[] newHistograms(int size) {
+        LatencyHistogram[] histograms = new LatencyHistogram[size];
+        for (int i = 0; i < size; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
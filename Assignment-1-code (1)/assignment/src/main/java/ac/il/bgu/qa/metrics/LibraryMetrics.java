@@ -0,0 +1,127 @@
+package ac.il.bgu.qa.metrics;
+
+/**
+ * Receives the measurements the library takes on every operation.
+ * <p>
+ * Implementations are called on the request threads, concurrently, so they must be thread-safe
+ * and cheap: they should neither block nor throw.
+ */
+public interface LibraryMetrics {
+
+    /**
+     * The library operations that are timed.
+     */
+    enum Operation {
+        ADD_BOOK,
+        ADD_BOOKS,
+        REGISTER_USER,
+        BORROW_BOOK,
+        RETURN_BOOK,
+        BORROW_BOOKS,
+        RETURN_BOOKS,
+        NOTIFY_USER_WITH_BOOK_REVIEWS,
+        GET_BOOK_BY_ISBN
+    }
+
+    /**
+     * The downstream calls that are timed.
+     */
+    enum Call {
+        DATABASE_ADD_BOOK,
+        DATABASE_ADD_BOOKS,
+        DATABASE_ADD_BOOK_IF_ABSENT,
+        DATABASE_REGISTER_USER,
+        DATABASE_REGISTER_USER_IF_ABSENT,
+        DATABASE_GET_BOOK,
+        DATABASE_GET_BOOKS,
+        DATABASE_GET_USER,
+        DATABASE_BORROW_BOOK,
+        DATABASE_RETURN_BOOK,
+        DATABASE_COMPARE_AND_SET_BORROWED,
+        DATABASE_COMPARE_AND_SET_BORROWED_ALL,
+        REVIEW_GET_REVIEWS,
+        REVIEW_GET_REVIEW_PAGE,
+        REVIEW_CLOSE,
+        NOTIFICATION_NOTIFY_USER
+    }
+
+    /**
+     * Metrics that discard every measurement.
+     */
+    LibraryMetrics NONE = new LibraryMetrics() {
+        @Override
+        public void recordOperation(Operation operation, long nanos) {
+        }
+
+        @Override
+        public void recordCall(Call call, long nanos) {
+        }
+
+        @Override
+        public void recordFailure(Operation operation, RuntimeException failure) {
+        }
+
+        @Override
+        public void recordRejection(Operation operation, String outcome) {
+        }
+
+        @Override
+        public void recordNotificationRetry() {
+        }
+
+        @Override
+        public void recordNotificationRetriesExhausted() {
+        }
+
+        @Override
+        public void recordReviewFailure() {
+        }
+    };
+
+    /**
+     * Records the latency of a library operation, whether it succeeded or failed.
+     *
+     * @param operation The operation.
+     * @param nanos     How long the operation took, in nanoseconds.
+     */
+    void recordOperation(Operation operation, long nanos);
+
+    /**
+     * Records the latency of a downstream call, whether it succeeded or failed.
+     *
+     * @param call  The call.
+     * @param nanos How long the call took, in nanoseconds.
+     */
+    void recordCall(Call call, long nanos);
+
+    /**
+     * Records an exception a library operation ended with.
+     *
+     * @param operation The operation.
+     * @param failure   The exception thrown to the caller.
+     */
+    void recordFailure(Operation operation, RuntimeException failure);
+
+    /**
+     * Records a request a library operation rejected without throwing, through its non-throwing form.
+     *
+     * @param operation The operation.
+     * @param outcome   The name of the outcome the request was rejected with.
+     */
+    void recordRejection(Operation operation, String outcome);
+
+    /**
+     * Records a failed notification attempt that is about to be retried.
+     */
+    void recordNotificationRetry();
+
+    /**
+     * Records a notification given up on after its last attempt failed.
+     */
+    void recordNotificationRetriesExhausted();
+
+    /**
+     * Records a review fetch the review service failed.
+     */
+    void recordReviewFailure();
+}
@@ -0,0 +1,178 @@
+package ac.il.bgu.qa.metrics;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.DatabaseService;
+import ac.il.bgu.qa.services.WriteOutcome;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A {@link DatabaseService} that times every call it forwards to another database service.
+ * <p>
+ * The batch and conditional operations are forwarded as they are, so the delegate's own implementation
+ * of them runs and is timed as one call.
+ */
+public class MeteredDatabaseService implements DatabaseService {
+
+    // The service the calls are forwarded to.
+    private final DatabaseService delegate;
+    // Receives the timings.
+    private final LibraryMetrics metrics;
+
+    /**
+     * Constructs a metered database service.
+     *
+     * @param delegate The service the calls are forwarded to.
+     * @param metrics  Receives the timings.
+     */
+    public MeteredDatabaseService(DatabaseService delegate, LibraryMetrics metrics) {
+        if (delegate == null || metrics == null) {
+            throw new IllegalArgumentException("Invalid metered database service configuration.");
+        }
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        long start = System.nanoTime();
+        try {
+            delegate.addBook(ISBN, book);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_ADD_BOOK, start);
+        }
+    }
+
+    @Override
+    public void addBooks(Map<String, Book> books) {
+        long start = System.nanoTime();
+        try {
+            delegate.addBooks(books);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_ADD_BOOKS, start);
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        long start = System.nanoTime();
+        try {
+            delegate.registerUser(id, user);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_REGISTER_USER, start);
+        }
+    }
+
+    @Override
+    public WriteOutcome addBookIfAbsent(String ISBN, Book book) {
+        long start = System.nanoTime();
+        try {
+            return delegate.addBookIfAbsent(ISBN, book);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_ADD_BOOK_IF_ABSENT, start);
+        }
+    }
+
+    @Override
+    public WriteOutcome registerUserIfAbsent(String id, User user) {
+        long start = System.nanoTime();
+        try {
+            return delegate.registerUserIfAbsent(id, user);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_REGISTER_USER_IF_ABSENT, start);
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getBookByISBN(ISBN);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_GET_BOOK, start);
+        }
+    }
+
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getBooksByISBN(ISBNs);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_GET_BOOKS, start);
+        }
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.getUserById(userId);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_GET_USER, start);
+        }
+    }
+
+    @Override
+    public boolean canEnumerate() {
+        return delegate.canEnumerate();
+    }
+
+    @Override
+    public void forEachISBN(Consumer<String> visitor) {
+        delegate.forEachISBN(visitor);
+    }
+
+    @Override
+    public void forEachUserId(Consumer<String> visitor) {
+        delegate.forEachUserId(visitor);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        long start = System.nanoTime();
+        try {
+            delegate.borrowBook(ISBN, userId);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_BORROW_BOOK, start);
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        long start = System.nanoTime();
+        try {
+            delegate.returnBook(ISBN);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_RETURN_BOOK, start);
+        }
+    }
+
+    @Override
+    public WriteOutcome compareAndSetBorrowed(String ISBN, String userId, boolean expected, boolean update) {
+        long start = System.nanoTime();
+        try {
+            return delegate.compareAndSetBorrowed(ISBN, userId, expected, update);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_COMPARE_AND_SET_BORROWED, start);
+        }
+    }
+
+    @Override
+    public Map<String, WriteOutcome> compareAndSetBorrowedAll(Collection<String> ISBNs, String userId,
+                                                              boolean expected, boolean update) {
+        long start = System.nanoTime();
+        try {
+            return delegate.compareAndSetBorrowedAll(ISBNs, userId, expected, update);
+        } finally {
+            record(LibraryMetrics.Call.DATABASE_COMPARE_AND_SET_BORROWED_ALL, start);
+        }
+    }
+
+    private void record(LibraryMetrics.Call call, long start) {
+        metrics.recordCall(call, System.nanoTime() - start);
+    }
+}
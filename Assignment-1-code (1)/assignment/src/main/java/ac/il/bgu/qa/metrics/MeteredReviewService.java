@@ -0,0 +1,67 @@
+package ac.il.bgu.qa.metrics;
+
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.services.ReviewPage;
+import ac.il.bgu.qa.services.ReviewService;
+
+import java.util.List;
+
+/**
+ * A {@link ReviewService} that times every call it forwards to another review service.
+ */
+public class MeteredReviewService implements ReviewService {
+
+    // The service the calls are forwarded to.
+    private final ReviewService delegate;
+    // Receives the timings.
+    private final LibraryMetrics metrics;
+
+    /**
+     * Constructs a metered review service.
+     *
+     * @param delegate The service the calls are forwarded to.
+     * @param metrics  Receives the timings.
+     */
+    public MeteredReviewService(ReviewService delegate, LibraryMetrics metrics) {
+        if (delegate == null || metrics == null) {
+            throw new IllegalArgumentException("Invalid metered review service configuration.");
+        }
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getReviewsForBook(ISBN);
+        } finally {
+            metrics.recordCall(LibraryMetrics.Call.REVIEW_GET_REVIEWS, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean supportsPaging() {
+        return delegate.supportsPaging();
+    }
+
+    @Override
+    public ReviewPage getReviewPage(String ISBN, String cursor, int limit) throws ReviewException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getReviewPage(ISBN, cursor, limit);
+        } finally {
+            metrics.recordCall(LibraryMetrics.Call.REVIEW_GET_REVIEW_PAGE, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void close() {
+        long start = System.nanoTime();
+        try {
+            delegate.close();
+        } finally {
+            metrics.recordCall(LibraryMetrics.Call.REVIEW_CLOSE, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.NotificationException;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link NotificationService} that delivers notifications asynchronously through another notification service.
+ * <p>
+ * {@link #notifyUser(String, String)} only enqueues the message and returns; a worker delivers it.
+ * A failed delivery is retried after an exponentially growing, fully jittered delay, up to a maximum
+ * number of attempts, and only while the retry budget allows: every new message earns a fraction of
+ * a retry, so a degraded backend sees at most that fraction of extra load. Messages that cannot be delivered
+ * go to a dead-letter sink, and so do the messages still waiting for a retry or a worker when a shutdown times out.
+ * <p>
+ * The number of messages waiting or being delivered, including their retries, is bounded; when the bound
+ * is reached, new messages are rejected with a {@link NotificationException}. Deliveries run on virtual threads
+ * when the runtime supports them, and on a fixed pool of worker threads otherwise; either way, at most the given
+ * number of workers call the underlying service at once.
+ */
+public class AsyncNotificationService implements NotificationService {
+
+    /**
+     * Receives the messages that could not be delivered.
+     */
+    public interface DeadLetterSink {
+
+        /**
+         * Accepts an undeliverable message.
+         *
+         * @param userId    The unique identifier of the user the message was for.
+         * @param message   The content of the notification message.
+         * @param lastError The failure of the last delivery attempt, or null if no attempt was made.
+         * @param attempts  The number of delivery attempts made.
+         */
+        void accept(String userId, String message, Exception lastError, int attempts);
+    }
+
+    // Default maximum number of delivery attempts per message.
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    // Default delay before the first retry, in milliseconds.
+    private static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    // Default cap on the delay between retries, in milliseconds.
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 10_000;
+    // Default fraction of a retry earned by every new message.
+    private static final double DEFAULT_RETRY_RATIO = 0.2;
+    // Retries the budget can hold, so that a quiet period does not allow a retry storm later.
+    private static final int MAX_RETRY_TOKENS = 100;
+    // Fixed-point scale of the retry budget.
+    private static final long TOKEN = 1000;
+
+    // The service that actually delivers the notifications.
+    private final NotificationService delegate;
+    // Bounds the messages waiting or being delivered.
+    private final Semaphore capacity;
+    // The maximum number of messages waiting or being delivered.
+    private final int queueCapacity;
+    // Runs delivery attempts.
+    private final ExecutorService workers;
+    // Bounds the delivery attempts calling the delegate at once, since virtual threads are not pooled.
+    private final Semaphore concurrency;
+    // Delays retries.
+    private final ScheduledExecutorService retryTimer;
+    // Receives the messages that could not be delivered.
+    private final DeadLetterSink deadLetters;
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    // Budget tokens earned per new message, in thousandths of a retry.
+    private final long tokensPerMessage;
+    // Available retry tokens, in thousandths of a retry.
+    private final AtomicLong retryTokens = new AtomicLong(MAX_RETRY_TOKENS * TOKEN);
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    // Deliveries waiting for their retry delay; whoever removes one, the timer or a shutdown, handles it.
+    private final Set<Delivery> pendingRetries = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
+
+    /**
+     * Constructs a dispatcher with default retry settings: 5 attempts, delays from 100 ms up to 10 s,
+     * and a retry budget of one retry for every five messages.
+     *
+     * @param delegate      The service that actually delivers the notifications.
+     * @param queueCapacity The maximum number of messages waiting or being delivered.
+     * @param workerThreads The maximum number of deliveries running at once.
+     * @param deadLetters   Receives the messages that could not be delivered.
+     */
+    public AsyncNotificationService(NotificationService delegate, int queueCapacity, int workerThreads,
+                                    DeadLetterSink deadLetters) {
+        this(delegate, queueCapacity, workerThreads, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS,
+                DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_RETRY_RATIO, deadLetters);
+    }
+
+    /**
+     * Constructs a dispatcher.
+     *
+     * @param delegate      The service that actually delivers the notifications.
+     * @param queueCapacity The maximum number of messages waiting or being delivered.
+     * @param workerThreads The maximum number of deliveries running at once.
+     * @param maxAttempts   The maximum number of delivery attempts per message.
+     * @param baseDelay     The delay before the first retry; each further retry doubles it.
+     * @param maxDelay      The cap on the delay between retries.
+     * @param unit          The unit of {@code baseDelay} and {@code maxDelay}.
+     * @param retryRatio    The fraction of a retry earned by every new message.
+     * @param deadLetters   Receives the messages that could not be delivered.
+     */
+    public AsyncNotificationService(NotificationService delegate, int queueCapacity, int workerThreads,
+                                    int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit,
+                                    double retryRatio, DeadLetterSink deadLetters) {
+        if (delegate == null || deadLetters == null) {
+            throw new IllegalArgumentException("Invalid notification dispatcher configuration.");
+        }
+        if (queueCapacity <= 0 || workerThreads <= 0 || maxAttempts <= 0 || baseDelay < 0 || maxDelay < baseDelay || retryRatio < 0) {
+            throw new IllegalArgumentException("Invalid notification dispatcher bounds.");
+        }
+        this.delegate = delegate;
+        this.queueCapacity = queueCapacity;
+        this.capacity = new Semaphore(queueCapacity);
+        this.workers = newWorkerPool(workerThreads);
+        this.concurrency = new Semaphore(workerThreads);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("notification-retry"));
+        this.deadLetters = deadLetters;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = unit.toNanos(baseDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.tokensPerMessage = (long) (retryRatio * TOKEN);
+    }
+
+    /**
+     * Enqueues a notification message for delivery and returns without waiting for it.
+     *
+     * @param userId  The unique identifier of the user to be notified.
+     * @param message The content of the notification message.
+     * @throws NotificationException If the queue is full or the dispatcher is shut down.
+     */
+    @Override
+    public void notifyUser(String userId, String message) throws NotificationException {
+        if (shutdown) {
+            throw new NotificationException("Notification dispatcher shut down.");
+        }
+        if (!capacity.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new NotificationException("Notification queue full.");
+        }
+        earnRetryTokens();
+        submit(new Delivery(userId, message, 1, null));
+    }
+
+    /**
+     * Waits until every enqueued message has been delivered or dead-lettered.
+     * Messages enqueued concurrently may be rejected for the instant the queue is found drained.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of {@code timeout}.
+     * @return true if the queue drained, false if the timeout elapsed first.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!capacity.tryAcquire(queueCapacity, timeout, unit)) {
+            return false;
+        }
+        capacity.release(queueCapacity);
+        return true;
+    }
+
+    /**
+     * Stops accepting messages, waits for the enqueued ones to drain and stops the workers.
+     * Messages still waiting for a retry or a worker when the timeout elapses are dead-lettered.
+     *
+     * @param timeout The maximum time to wait for the queue to drain.
+     * @param unit    The unit of {@code timeout}.
+     * @return true if the queue drained, false if messages were still pending when the timeout elapsed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown = true;
+        boolean drained = awaitQuiescence(timeout, unit);
+        retryTimer.shutdownNow();
+        for (Delivery retry : pendingRetries) {
+            if (pendingRetries.remove(retry)) {
+                abandon(retry);
+            }
+        }
+        for (Runnable queued : workers.shutdownNow()) {
+            if (queued instanceof Delivery) {
+                abandon((Delivery) queued);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Retrieves the number of messages delivered.
+     *
+     * @return The delivered count.
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * Retrieves the number of retries made.
+     *
+     * @return The retry count.
+     */
+    public long getRetryCount() {
+        return retried.get();
+    }
+
+    /**
+     * Retrieves the number of messages handed to the dead-letter sink.
+     *
+     * @return The dead-letter count.
+     */
+    public long getDeadLetterCount() {
+        return deadLettered.get();
+    }
+
+    /**
+     * Retrieves the number of messages rejected because the queue was full.
+     *
+     * @return The rejected count.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Retrieves the number of undeliverable messages the dead-letter sink failed to accept.
+     *
+     * @return The lost count.
+     */
+    public long getLostCount() {
+        return lost.get();
+    }
+
+    private void submit(Delivery delivery) {
+        try {
+            workers.execute(delivery);
+        } catch (RuntimeException e) {
+            // The workers were stopped by a timed-out shutdown.
+            abandon(delivery);
+        }
+    }
+
+    private void deliver(Delivery delivery) {
+        try {
+            concurrency.acquire();
+        } catch (InterruptedException e) {
+            // A timed-out shutdown stopped the workers before this delivery got its turn.
+            abandon(delivery);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        boolean retrying = false;
+        try {
+            delegate.notifyUser(delivery.userId, delivery.message);
+            delivered.incrementAndGet();
+        } catch (RuntimeException e) {
+            retrying = retry(delivery, e);
+        } catch (Error e) {
+            // Not retried, but accounted for like any undeliverable message before it reaches the worker.
+            deadLetter(delivery.userId, delivery.message, new RuntimeException(e), delivery.attempt);
+            throw e;
+        } finally {
+            concurrency.release();
+            // The message is done with unless a retry holds on to its permit.
+            if (!retrying) {
+                capacity.release();
+            }
+        }
+    }
+
+    /**
+     * Schedules the retry following a failed attempt, or dead-letters the message if it may not be retried.
+     *
+     * @return true if the retry was scheduled.
+     */
+    private boolean retry(Delivery failed, Exception error) {
+        if (failed.attempt >= maxAttempts || !spendRetryToken()) {
+            deadLetter(failed.userId, failed.message, error, failed.attempt);
+            return false;
+        }
+        retried.incrementAndGet();
+        Delivery next = new Delivery(failed.userId, failed.message, failed.attempt + 1, error);
+        pendingRetries.add(next);
+        try {
+            retryTimer.schedule(() -> {
+                if (pendingRetries.remove(next)) {
+                    submit(next);
+                }
+            }, backoff(failed.attempt), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RuntimeException rejectedRetry) {
+            if (!pendingRetries.remove(next)) {
+                // A concurrent shutdown already dead-lettered it.
+                return true;
+            }
+            deadLetter(failed.userId, failed.message, error, failed.attempt);
+            return false;
+        }
+    }
+
+    /**
+     * Dead-letters a delivery that will never run and gives back its permit.
+     */
+    private void abandon(Delivery delivery) {
+        try {
+            deadLetter(delivery.userId, delivery.message, delivery.lastError, delivery.attempt - 1);
+        } finally {
+            capacity.release();
+        }
+    }
+
+    private void deadLetter(String userId, String message, Exception lastError, int attempts) {
+        deadLettered.incrementAndGet();
+        try {
+            deadLetters.accept(userId, message, lastError, attempts);
+        } catch (RuntimeException e) {
+            lost.incrementAndGet();
+        }
+    }
+
+    /**
+     * Computes the delay before the retry following the given attempt: a uniformly random delay
+     * between zero and the exponential backoff ("full jitter"), so that retries of messages that
+     * failed together do not hit the backend together again.
+     */
+    private long backoff(int attempt) {
+        long ceiling;
+        try {
+            ceiling = Math.min(Math.multiplyExact(baseDelayNanos, 1L << Math.min(attempt - 1, 62)), maxDelayNanos);
+        } catch (ArithmeticException e) {
+            ceiling = maxDelayNanos;
+        }
+        return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private void earnRetryTokens() {
+        long max = MAX_RETRY_TOKENS * TOKEN;
+        long current;
+        do {
+            current = retryTokens.get();
+            if (current >= max) {
+                return;
+            }
+        } while (!retryTokens.compareAndSet(current, Math.min(max, current + tokensPerMessage)));
+    }
+
+    private boolean spendRetryToken() {
+        long current;
+        do {
+            current = retryTokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!retryTokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    /**
+     * A delivery attempt of a message, carrying what a dead-letter needs if it never runs.
+     */
+    private final class Delivery implements Runnable {
+
+        final String userId;
+        final String message;
+        // The number of this attempt, from 1.
+        final int attempt;
+        // The failure of the previous attempt, or null for the first one.
+        final Exception lastError;
+
+        Delivery(String userId, String message, int attempt, Exception lastError) {
+            this.userId = userId;
+            this.message = message;
+            this.attempt = attempt;
+            this.lastError = lastError;
+        }
+
+        @Override
+        public void run() {
+            deliver(this);
+        }
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor when the runtime provides one (Java 21 and later),
+     * and a fixed pool of daemon threads otherwise.
+     */
+    private static ExecutorService newWorkerPool(int workerThreads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newFixedThreadPool(workerThreads, DaemonThreads.named("notification-worker"));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ac.il.bgu.qa.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent, scalable Bloom filter of packed keys: {@link #mightContain} never misses a key that was added, and
+ * wrongly reports an absent key as present at about the configured false-positive rate.
+ * <p>
+ * The filter is a chain of layers. Once the newest layer holds the number of keys it was sized for, a layer twice as
+ * large with half its false-positive rate is appended, so the overall rate stays below the configured one however
+ * many keys are added. Lookups and additions never lock; appending a layer does.
+ */
+final class BloomFilter {
+
+    // Capacity of each appended layer relative to the previous one.
+    private static final int GROWTH = 2;
+    // False-positive rate of each appended layer relative to the previous one.
+    private static final double TIGHTENING = 0.5;
+
+    /**
+     * A classic Bloom filter sized for a fixed number of keys.
+     */
+    private static final class Layer {
+        final int capacity;
+        final double falsePositiveRate;
+        final long bitCount;
+        final int hashCount;
+        final AtomicLongArray words;
+        final AtomicInteger size = new AtomicInteger();
+
+        Layer(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            this.bitCount = Math.max(64, (long) Math.ceil(capacity * bitsPerKey(falsePositiveRate)));
+            this.hashCount = Math.max(1, (int) Math.round(-Math.log(falsePositiveRate) / Math.log(2)));
+            this.words = new AtomicLongArray((int) ((bitCount + 63) >>> 6));
+        }
+
+        boolean mightContain(long hash) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = bitOf(hash, i);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(long hash) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = bitOf(hash, i);
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word;
+                while (((word = words.get(index)) & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                    // Another bit of the word was set concurrently; retry.
+                }
+            }
+        }
+
+        /**
+         * Derives the i-th bit of a key from the two halves of its hash (Kirsch and Mitzenmacher).
+         */
+        private long bitOf(long hash, int i) {
+            int combined = (int) hash + i * (int) (hash >>> 32);
+            return ((combined & 0xFFFFFFFFL) * bitCount) >>> 32;
+        }
+    }
+
+    // The layers, oldest first; replaced as a whole when a layer is appended.
+    private volatile Layer[] layers;
+
+    /**
+     * Constructs an empty filter.
+     *
+     * @param expectedKeys      The number of keys the first layer is sized for.
+     * @param falsePositiveRate The highest rate at which absent keys may be reported present, between 0 and 1 exclusive.
+     */
+    BloomFilter(int expectedKeys, double falsePositiveRate) {
+        // The layers' rates form a geometric series summing to the configured rate.
+        this.layers = new Layer[]{new Layer(Math.max(1, expectedKeys), falsePositiveRate * (1 - TIGHTENING))};
+    }
+
+    /**
+     * Tells whether a key might have been added.
+     *
+     * @param key The packed key.
+     * @return false if the key was never added, true if it probably was.
+     */
+    boolean mightContain(long key) {
+        long hash = hash(key);
+        Layer[] current = layers;
+        // Recent keys live in the newest layer.
+        for (int i = current.length - 1; i >= 0; i--) {
+            if (current[i].mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a key. Adding a key that might already be present changes nothing.
+     *
+     * @param key The packed key.
+     */
+    void add(long key) {
+        long hash = hash(key);
+        Layer[] current = layers;
+        for (Layer layer : current) {
+            if (layer.mightContain(hash)) {
+                return;
+            }
+        }
+        Layer newest = current[current.length - 1];
+        newest.add(hash);
+        if (newest.size.incrementAndGet() == newest.capacity) {
+            grow(newest);
+        }
+    }
+
+    /**
+     * Retrieves the heap taken by the filter's bits.
+     *
+     * @return The size, in bytes.
+     */
+    long getMemoryBytes() {
+        long bytes = 0;
+        for (Layer layer : layers) {
+            bytes += 8L * layer.words.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Retrieves the number of layers, one more than the number of times the filter outgrew its size.
+     *
+     * @return The layer count.
+     */
+    int getLayerCount() {
+        return layers.length;
+    }
+
+    /**
+     * Computes the optimal number of bits per key of a Bloom filter with a false-positive rate.
+     *
+     * @param falsePositiveRate The false-positive rate.
+     * @return The bits per key.
+     */
+    static double bitsPerKey(double falsePositiveRate) {
+        return -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+    }
+
+    /**
+     * Estimates the heap taken by the bits of a filter holding a million keys, all in its first layer.
+     *
+     * @param falsePositiveRate The filter's configured false-positive rate.
+     * @return The size, in bytes.
+     */
+    static long memoryBytesPerMillionKeys(double falsePositiveRate) {
+        return (long) Math.ceil(1_000_000 * bitsPerKey(falsePositiveRate * (1 - TIGHTENING)) / 8);
+    }
+
+    private synchronized void grow(Layer full) {
+        Layer[] current = layers;
+        if (current[current.length - 1] != full) {
+            return;
+        }
+        Layer[] grown = new Layer[current.length + 1];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        long capacity = Math.min(Integer.MAX_VALUE / 64, (long) full.capacity * GROWTH);
+        grown[current.length] = new Layer((int) capacity, full.falsePositiveRate * TIGHTENING);
+        layers = grown;
+    }
+
+    /**
+     * Mixes a packed key into 64 well-distributed bits (the finalizer of MurmurHash3).
+     */
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,489 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A {@link DatabaseService} decorator keeping a bounded near-cache of the books and users it looks up,
+ * so that lookups of popular keys do not reach the underlying database service.
+ * <p>
+ * Each cache holds a least-recently-used region and a small pinned region. A key requested often enough, as
+ * estimated by a count-min sketch, is promoted to the pinned region, where lookups never lock and LRU eviction
+ * never reaches it; with a Zipfian access pattern the pinned keys serve most lookups. Pinned lookups are recorded in
+ * a small lossy buffer that is counted into the sketch by the next lookup taking the lock, so pinned keys keep their
+ * estimated frequency. Once the pinned region is full, a newly hot key only takes the place of a sampled pinned key
+ * that is requested less often.
+ * <p>
+ * Every write made through this service invalidates the cached entry of the key it writes, after the underlying
+ * write completes, so a lookup following a borrow or return never sees the old borrowing state. A lookup racing with
+ * a write does not cache what it loaded, since it cannot tell whether it read before or after the write. Writes made
+ * to the underlying service directly are not seen. Missing books and users are not cached.
+ * <p>
+ * Keys are packed like {@link InMemoryDatabaseService} does, so ISBNs with and without hyphens share an entry;
+ * keys that are not an ISBN-13 or a 12-digit user Id are passed through uncached.
+ */
+public class CachingDatabaseService implements DatabaseService {
+
+    // Default number of books and of users kept.
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    // Sketched frequency from which a key is promoted to the pinned region.
+    private static final int PROMOTION_FREQUENCY = 8;
+    // Number of pinned keys compared with a newly hot key when the pinned region is full.
+    private static final int DEMOTION_SAMPLES = 8;
+    // Number of invalidation counters keys are spread over.
+    private static final int STRIPES = 256;
+    // Number of pinned lookups recorded between two drains into the sketch, at most.
+    private static final int READ_BUFFER_SIZE = 64;
+
+    /**
+     * A cache of one kind of value, keyed by packed key.
+     *
+     * @param <V> The type of the values.
+     */
+    private static final class NearCache<V> {
+
+        private final int capacity;
+        private final int pinnedCapacity;
+        // Lock-free region of the hottest keys; only changed under the lru lock.
+        private final ConcurrentHashMap<Long, V> pinned = new ConcurrentHashMap<>();
+        // The other cached entries in access order, guarded by itself.
+        private final LinkedHashMap<Long, V> lru = new LinkedHashMap<>(16, 0.75f, true);
+        // Request frequencies, guarded by lru.
+        private final FrequencySketch sketch;
+        // Invalidations per key stripe, so a load can tell whether its key was written meanwhile.
+        private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+        // Pinned lookups not yet counted in the sketch; free slots hold Keys.INVALID.
+        private final AtomicLongArray pinnedReads = new AtomicLongArray(READ_BUFFER_SIZE);
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder pinnedHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        NearCache(int capacity, int pinnedCapacity) {
+            this.capacity = capacity;
+            this.pinnedCapacity = pinnedCapacity;
+            this.sketch = new FrequencySketch(capacity);
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                pinnedReads.set(i, Keys.INVALID);
+            }
+        }
+
+        /**
+         * Looks a key up, counting the request towards its promotion.
+         *
+         * @return The cached value, or null on a miss.
+         */
+        V get(long key) {
+            V value = pinned.get(key);
+            if (value != null) {
+                hits.increment();
+                pinnedHits.increment();
+                recordPinnedRead(key);
+                return value;
+            }
+            synchronized (lru) {
+                drainPinnedReads();
+                sketch.increment(key);
+                value = lru.get(key);
+                if (value != null && sketch.frequency(key) >= PROMOTION_FREQUENCY) {
+                    promote(key, value);
+                }
+            }
+            if (value != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+            }
+            return value;
+        }
+
+        /**
+         * Retrieves the version a load must present to {@link #put} to cache what it loaded.
+         */
+        long version(long key) {
+            return versions.get(stripe(key));
+        }
+
+        /**
+         * Caches a loaded value, unless its key was invalidated since the load started.
+         */
+        void put(long key, V value, long version) {
+            synchronized (lru) {
+                // Checked under the lock, which invalidations take after bumping the version.
+                if (versions.get(stripe(key)) != version || pinned.containsKey(key)) {
+                    return;
+                }
+                drainPinnedReads();
+                if (sketch.frequency(key) >= PROMOTION_FREQUENCY && promote(key, value)) {
+                    return;
+                }
+                lru.put(key, value);
+                Iterator<V> eldest = lru.values().iterator();
+                while (lru.size() > capacity - pinned.size() && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                    evictions.increment();
+                }
+            }
+        }
+
+        void invalidate(long key) {
+            versions.incrementAndGet(stripe(key));
+            synchronized (lru) {
+                pinned.remove(key);
+                lru.remove(key);
+            }
+        }
+
+        /**
+         * Moves a hot key to the pinned region, demoting a colder pinned key if the region is full. Called under the lru lock.
+         *
+         * @return true if the key was pinned.
+         */
+        private boolean promote(long key, V value) {
+            if (pinned.size() >= pinnedCapacity) {
+                int frequency = sketch.frequency(key);
+                Long coldest = null;
+                int coldestFrequency = frequency;
+                int sampled = 0;
+                for (Long candidate : pinned.keySet()) {
+                    int candidateFrequency = sketch.frequency(candidate);
+                    if (candidateFrequency < coldestFrequency) {
+                        coldest = candidate;
+                        coldestFrequency = candidateFrequency;
+                    }
+                    if (++sampled == DEMOTION_SAMPLES) {
+                        break;
+                    }
+                }
+                if (coldest == null) {
+                    return false;
+                }
+                // The demoted key stays cached, back in the LRU region.
+                lru.put(coldest, pinned.remove(coldest));
+            }
+            lru.remove(key);
+            pinned.put(key, value);
+            return true;
+        }
+
+        /**
+         * Records a pinned lookup for the sketch without locking; dropped if the sampled slot is taken.
+         */
+        private void recordPinnedRead(long key) {
+            int slot = ThreadLocalRandom.current().nextInt(READ_BUFFER_SIZE);
+            if (pinnedReads.get(slot) == Keys.INVALID) {
+                pinnedReads.compareAndSet(slot, Keys.INVALID, key);
+            }
+        }
+
+        /**
+         * Counts the recorded pinned lookups in the sketch. Called under the lru lock.
+         */
+        private void drainPinnedReads() {
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                if (pinnedReads.get(i) != Keys.INVALID) {
+                    sketch.increment(pinnedReads.getAndSet(i, Keys.INVALID));
+                }
+            }
+        }
+
+        private static int stripe(long key) {
+            return (int) ((key ^ (key >>> 32)) * 0x9e3779b9L >>> 24) & (STRIPES - 1);
+        }
+    }
+
+    // The service the calls are forwarded to.
+    private final DatabaseService delegate;
+    private final NearCache<Book> books;
+    private final NearCache<User> users;
+
+    /**
+     * Constructs a cache holding up to {@link #DEFAULT_CAPACITY} books and as many users.
+     *
+     * @param delegate The service the calls are forwarded to.
+     */
+    public CachingDatabaseService(DatabaseService delegate) {
+        this(delegate, DEFAULT_CAPACITY, DEFAULT_CAPACITY, DEFAULT_CAPACITY / 16);
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param delegate       The service the calls are forwarded to.
+     * @param bookCapacity   The maximum number of books kept.
+     * @param userCapacity   The maximum number of users kept.
+     * @param pinnedCapacity The maximum number of books, and of users, pinned; at most the smaller capacity.
+     */
+    public CachingDatabaseService(DatabaseService delegate, int bookCapacity, int userCapacity, int pinnedCapacity) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Invalid database cache configuration.");
+        }
+        if (bookCapacity < 1 || userCapacity < 1 || pinnedCapacity < 0
+                || pinnedCapacity > Math.min(bookCapacity, userCapacity)) {
+            throw new IllegalArgumentException("Invalid database cache configuration.");
+        }
+        this.delegate = delegate;
+        this.books = new NearCache<>(bookCapacity, pinnedCapacity);
+        this.users = new NearCache<>(userCapacity, pinnedCapacity);
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        try {
+            delegate.addBook(ISBN, book);
+        } finally {
+            invalidateBook(ISBN);
+        }
+    }
+
+    @Override
+    public void addBooks(Map<String, Book> batch) {
+        try {
+            delegate.addBooks(batch);
+        } finally {
+            for (String ISBN : batch.keySet()) {
+                invalidateBook(ISBN);
+            }
+        }
+    }
+
+    @Override
+    public WriteOutcome addBookIfAbsent(String ISBN, Book book) {
+        try {
+            return delegate.addBookIfAbsent(ISBN, book);
+        } finally {
+            invalidateBook(ISBN);
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        try {
+            delegate.registerUser(id, user);
+        } finally {
+            invalidateUser(id);
+        }
+    }
+
+    @Override
+    public WriteOutcome registerUserIfAbsent(String id, User user) {
+        try {
+            return delegate.registerUserIfAbsent(id, user);
+        } finally {
+            invalidateUser(id);
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        long key = Keys.isbn(ISBN);
+        if (key == Keys.INVALID) {
+            return delegate.getBookByISBN(ISBN);
+        }
+        Book book = books.get(key);
+        if (book == null) {
+            long version = books.version(key);
+            book = delegate.getBookByISBN(ISBN);
+            if (book != null) {
+                books.put(key, book, version);
+            }
+        }
+        return book;
+    }
+
+    /**
+     * Fetches several books, answering the cached ones and fetching all the others in a single request.
+     */
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        Map<String, Book> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String ISBN : ISBNs) {
+            long key = Keys.isbn(ISBN);
+            Book book = key == Keys.INVALID ? null : books.get(key);
+            if (book != null) {
+                found.put(ISBN, book);
+            } else {
+                missing.add(ISBN);
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+        long[] versions = new long[missing.size()];
+        for (int i = 0; i < versions.length; i++) {
+            long key = Keys.isbn(missing.get(i));
+            versions[i] = key == Keys.INVALID ? 0 : books.version(key);
+        }
+        Map<String, Book> loaded = delegate.getBooksByISBN(missing);
+        for (int i = 0; i < versions.length; i++) {
+            String ISBN = missing.get(i);
+            Book book = loaded.get(ISBN);
+            long key = Keys.isbn(ISBN);
+            if (book != null) {
+                found.put(ISBN, book);
+                if (key != Keys.INVALID) {
+                    books.put(key, book, versions[i]);
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        long key = Keys.userId(userId);
+        if (key == Keys.INVALID) {
+            return delegate.getUserById(userId);
+        }
+        User user = users.get(key);
+        if (user == null) {
+            long version = users.version(key);
+            user = delegate.getUserById(userId);
+            if (user != null) {
+                users.put(key, user, version);
+            }
+        }
+        return user;
+    }
+
+    @Override
+    public boolean canEnumerate() {
+        return delegate.canEnumerate();
+    }
+
+    @Override
+    public void forEachISBN(Consumer<String> visitor) {
+        delegate.forEachISBN(visitor);
+    }
+
+    @Override
+    public void forEachUserId(Consumer<String> visitor) {
+        delegate.forEachUserId(visitor);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        try {
+            delegate.borrowBook(ISBN, userId);
+        } finally {
+            invalidateBook(ISBN);
+        }
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        try {
+            delegate.returnBook(ISBN);
+        } finally {
+            invalidateBook(ISBN);
+        }
+    }
+
+    @Override
+    public WriteOutcome compareAndSetBorrowed(String ISBN, String userId, boolean expected, boolean update) {
+        try {
+            return delegate.compareAndSetBorrowed(ISBN, userId, expected, update);
+        } finally {
+            invalidateBook(ISBN);
+        }
+    }
+
+    @Override
+    public Map<String, WriteOutcome> compareAndSetBorrowedAll(Collection<String> ISBNs, String userId,
+                                                              boolean expected, boolean update) {
+        try {
+            return delegate.compareAndSetBorrowedAll(ISBNs, userId, expected, update);
+        } finally {
+            for (String ISBN : ISBNs) {
+                invalidateBook(ISBN);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of book and user lookups answered from the cache.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return books.hits.sum() + users.hits.sum();
+    }
+
+    /**
+     * Retrieves the number of book and user lookups answered from the pinned region, without locking.
+     *
+     * @return The pinned hit count, included in {@link #getHitCount()}.
+     */
+    public long getPinnedHitCount() {
+        return books.pinnedHits.sum() + users.pinnedHits.sum();
+    }
+
+    /**
+     * Retrieves the number of book and user lookups that reached the underlying service.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return books.misses.sum() + users.misses.sum();
+    }
+
+    /**
+     * Retrieves the number of entries evicted to make room for others.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return books.evictions.sum() + users.evictions.sum();
+    }
+
+    /**
+     * Retrieves the ratio of lookups answered from the cache.
+     *
+     * @return The hit rate between 0 and 1, or 0 if there were no lookups.
+     */
+    public double getHitRate() {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Retrieves the number of books currently pinned.
+     *
+     * @return The pinned book count.
+     */
+    public int getPinnedBookCount() {
+        return books.pinned.size();
+    }
+
+    private void invalidateBook(String ISBN) {
+        long key = Keys.isbn(ISBN);
+        if (key != Keys.INVALID) {
+            books.invalidate(key);
+        }
+    }
+
+    private void invalidateUser(String userId) {
+        long key = Keys.userId(userId);
+        if (key != Keys.INVALID) {
+            users.invalidate(key);
+        }
+    }
+}
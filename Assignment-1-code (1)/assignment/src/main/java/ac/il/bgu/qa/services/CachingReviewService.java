@@ -0,0 +1,346 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link ReviewService} decorator that caches the reviews of each book.
+ * <p>
+ * The cache is bounded by weight, the total number of characters of the cached reviews,
+ * so a few titles with huge review lists cannot crowd out memory. Entries expire a fixed time
+ * after they were loaded; titles without reviews are cached too (negative caching), with their own,
+ * usually shorter, time to live. Failures of the underlying service are never cached.
+ * <p>
+ * Eviction is least-recently-used. With {@link EvictionPolicy#TINY_LFU}, a new entry is only admitted
+ * over the eviction victim if it has been requested more often recently, as estimated by a small
+ * count-min sketch, which keeps one-off lookups from flushing popular titles.
+ * <p>
+ * Lookups and loads are safe for concurrent use; the underlying service is called outside the cache's lock, and
+ * concurrent misses for the same book share a single load. Pages are not cached: this service does not page
+ * natively, so callers reading several pages fetch the whole list once through {@link #getReviewsForBook(String)}.
+ */
+public class CachingReviewService implements ReviewService {
+
+    /**
+     * The policy deciding which entries leave the cache when it is full.
+     */
+    public enum EvictionPolicy {
+        // Evict the least recently used entry.
+        LRU,
+        // Evict the least recently used entry, but only in favour of a more frequently requested one.
+        TINY_LFU
+    }
+
+    /**
+     * A cached review list and the time it stops being valid.
+     */
+    private static final class Entry {
+        final List<String> reviews;
+        final long weight;
+        final long expiresAt;
+
+        Entry(List<String> reviews, long weight, long expiresAt) {
+            this.reviews = reviews;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Fixed weight charged per entry on top of its characters, covering the entry and list objects.
+    private static final long ENTRY_OVERHEAD = 64;
+
+    // The service the reviews are loaded from on a miss.
+    private final ReviewService delegate;
+    // Maximum total weight of the cached entries.
+    private final long maxWeight;
+    // Time to live of an entry with reviews, in nanoseconds.
+    private final long ttlNanos;
+    // Time to live of an entry without reviews, in nanoseconds.
+    private final long negativeTtlNanos;
+    // The eviction policy.
+    private final EvictionPolicy policy;
+    // Source of the current time in nanoseconds.
+    private final LongSupplier clock;
+
+    // Cached entries in access order, guarded by itself.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Frequency estimates for TINY_LFU admission, guarded by entries.
+    private final FrequencySketch sketch;
+    // Total weight of the cached entries, guarded by entries.
+    private long weight;
+    // Loads in progress per ISBN, so that concurrent misses for a book call the underlying service once.
+    private final ConcurrentHashMap<String, CompletableFuture<List<String>>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs an LRU cache in which entries with and without reviews share the same time to live.
+     *
+     * @param delegate  The service the reviews are loaded from.
+     * @param maxWeight The maximum total number of cached review characters.
+     * @param ttl       How long an entry stays valid after it was loaded.
+     * @param unit      The unit of {@code ttl}.
+     */
+    public CachingReviewService(ReviewService delegate, long maxWeight, long ttl, TimeUnit unit) {
+        this(delegate, maxWeight, ttl, ttl, unit, EvictionPolicy.LRU);
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param delegate    The service the reviews are loaded from.
+     * @param maxWeight   The maximum total number of cached review characters.
+     * @param ttl         How long an entry with reviews stays valid after it was loaded.
+     * @param negativeTtl How long an entry for a title without reviews stays valid, 0 to disable negative caching.
+     * @param unit        The unit of {@code ttl} and {@code negativeTtl}.
+     * @param policy      The eviction policy.
+     */
+    public CachingReviewService(ReviewService delegate, long maxWeight, long ttl, long negativeTtl,
+                                TimeUnit unit, EvictionPolicy policy) {
+        this(delegate, maxWeight, ttl, negativeTtl, unit, policy, System::nanoTime);
+    }
+
+    CachingReviewService(ReviewService delegate, long maxWeight, long ttl, long negativeTtl,
+                         TimeUnit unit, EvictionPolicy policy, LongSupplier clock) {
+        if (delegate == null || policy == null || clock == null) {
+            throw new IllegalArgumentException("Invalid review cache configuration.");
+        }
+        if (maxWeight <= 0 || ttl <= 0 || negativeTtl < 0) {
+            throw new IllegalArgumentException("Invalid review cache bounds.");
+        }
+        this.delegate = delegate;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        this.policy = policy;
+        this.clock = clock;
+        // Assume entries of at least a few hundred characters to size the sketch from the weight bound.
+        this.sketch = policy == EvictionPolicy.TINY_LFU ? new FrequencySketch(maxWeight / 256) : null;
+    }
+
+    /**
+     * Fetches the reviews of a book from the cache, loading them from the underlying service on a miss.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     * @return An unmodifiable list of reviews, empty if the book has none.
+     * @throws ReviewException If the underlying service fails to load the reviews.
+     */
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        long now = clock.getAsLong();
+        synchronized (entries) {
+            if (sketch != null && ISBN != null) {
+                sketch.increment(ISBN);
+            }
+            Entry entry = entries.get(ISBN);
+            if (entry != null) {
+                if (entry.expiresAt - now > 0) {
+                    hits.increment();
+                    return entry.reviews;
+                }
+                remove(ISBN, entry);
+            }
+        }
+        misses.increment();
+        if (ISBN == null) {
+            return load(ISBN, now);
+        }
+
+        CompletableFuture<List<String>> load = new CompletableFuture<>();
+        CompletableFuture<List<String>> inFlight = loading.putIfAbsent(ISBN, load);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            List<String> reviews = load(ISBN, now);
+            load.complete(reviews);
+            return reviews;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            // Removed after the entry is stored, so a later miss finds either the entry or this load.
+            loading.remove(ISBN, load);
+        }
+    }
+
+    /**
+     * Closes the underlying review service. Cached entries are kept.
+     */
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Discards the cached reviews of a book, e.g. after a new review was posted.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     */
+    public void invalidate(String ISBN) {
+        synchronized (entries) {
+            Entry entry = entries.get(ISBN);
+            if (entry != null) {
+                remove(ISBN, entry);
+            }
+        }
+    }
+
+    /**
+     * Discards every cached entry.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    /**
+     * Retrieves the number of lookups answered from the cache.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the number of lookups that had to load from the underlying service.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Retrieves the number of entries evicted to make room for others, not counting expired ones.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Retrieves the ratio of lookups answered from the cache.
+     *
+     * @return The hit rate between 0 and 1, or 0 if there were no lookups.
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Retrieves the number of cached entries.
+     *
+     * @return The entry count.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Retrieves the total weight of the cached entries.
+     *
+     * @return The number of cached review characters plus a fixed overhead per entry.
+     */
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    private List<String> load(String ISBN, long now) {
+        List<String> loaded = delegate.getReviewsForBook(ISBN);
+        List<String> reviews = loaded == null || loaded.isEmpty()
+                ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(loaded));
+        long ttl = reviews.isEmpty() ? negativeTtlNanos : ttlNanos;
+        if (ttl > 0) {
+            store(ISBN, new Entry(reviews, weigh(reviews), now + ttl));
+        }
+        return reviews;
+    }
+
+    /**
+     * Waits for a load started by another lookup, failing the way it failed.
+     */
+    private static List<String> await(CompletableFuture<List<String>> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    private void store(String ISBN, Entry entry) {
+        if (entry.weight > maxWeight) {
+            return;
+        }
+        synchronized (entries) {
+            Entry previous = entries.remove(ISBN);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            // Pick every victim needed to make room before evicting any, so that a newcomer losing to one of them
+            // is rejected without the cache losing the others.
+            List<Map.Entry<String, Entry>> victims = new ArrayList<>();
+            long freed = 0;
+            int frequency = policy == EvictionPolicy.TINY_LFU && ISBN != null ? sketch.frequency(ISBN) : 0;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (weight - freed + entry.weight > maxWeight && eldest.hasNext()) {
+                Map.Entry<String, Entry> victim = eldest.next();
+                if (policy == EvictionPolicy.TINY_LFU && frequency <= sketch.frequency(victim.getKey())) {
+                    // The victim is requested at least as often as the newcomer, so keep it and drop the newcomer.
+                    return;
+                }
+                victims.add(victim);
+                freed += victim.getValue().weight;
+            }
+            for (Map.Entry<String, Entry> victim : victims) {
+                entries.remove(victim.getKey());
+                evictions.increment();
+            }
+            weight -= freed;
+            entries.put(ISBN, entry);
+            weight += entry.weight;
+        }
+    }
+
+    private void remove(String ISBN, Entry entry) {
+        entries.remove(ISBN);
+        weight -= entry.weight;
+    }
+
+    private static long weigh(List<String> reviews) {
+        long characters = ENTRY_OVERHEAD;
+        for (String review : reviews) {
+            characters += review == null ? 0 : review.length();
+        }
+        return characters;
+    }
+}
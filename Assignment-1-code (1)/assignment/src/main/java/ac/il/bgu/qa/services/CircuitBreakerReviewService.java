@@ -0,0 +1,307 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.errors.ReviewServiceUnavailableException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A {@link ReviewService} decorator that stops calling a failing review service for a while, so that callers fail
+ * fast instead of each waiting for the broken service to fail.
+ * <p>
+ * While {@link State#CLOSED}, calls are forwarded and their outcomes recorded in a sliding window of the most recent
+ * calls. Once the window holds enough calls and the share of them that failed reaches the failure-rate threshold,
+ * the circuit opens; a call fails if it throws a {@link ReviewException}, or a
+ * {@link ReviewServiceUnavailableException} such as the timeouts of a {@link DeadlineReviewService}.
+ * Any other exception is not recorded, since it says nothing about the health of the service.
+ * While {@link State#OPEN}, calls are rejected immediately with a {@link ReviewServiceUnavailableException}, without
+ * reaching the underlying service. Once the open duration has passed, the next call is let through as a single probe
+ * ({@link State#HALF_OPEN}) while the others keep being rejected: if it succeeds the circuit closes with an empty
+ * window, if it fails the circuit opens again, and if it throws anything else the next call is the probe.
+ * <p>
+ * {@link #close()} is forwarded only if a call reached the underlying service since the last one, so that
+ * closing after nothing but rejected calls does not touch the broken service.
+ * <p>
+ * State transitions are published to a {@link Listener}, in the order they happen.
+ */
+public class CircuitBreakerReviewService implements ReviewService {
+
+    /**
+     * The state of the circuit.
+     */
+    public enum State {
+        // Calls are forwarded and their outcomes recorded.
+        CLOSED,
+        // Calls are rejected without reaching the underlying service.
+        OPEN,
+        // A single probe call is forwarded to decide whether to close the circuit again.
+        HALF_OPEN
+    }
+
+    /**
+     * Receives the state transitions of a circuit breaker.
+     * Called while the breaker is locked, so implementations must be quick and must not call back into the breaker.
+     */
+    public interface Listener {
+
+        // Ignores every transition.
+        Listener NONE = (from, to) -> {
+        };
+
+        /**
+         * Called when the circuit changes state.
+         *
+         * @param from The previous state.
+         * @param to   The new state.
+         */
+        void onStateChange(State from, State to);
+    }
+
+    // Default number of recent calls the failure rate is computed over.
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    // Default number of calls the window must hold before the circuit may open.
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    // Default share of failed calls that opens the circuit.
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    // Default time the circuit stays open before a probe is let through, in seconds.
+    public static final long DEFAULT_OPEN_SECONDS = 30;
+
+    // The service the calls are forwarded to.
+    private final ReviewService delegate;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    // Time the circuit stays open before a probe, in nanoseconds.
+    private final long openNanos;
+    private final Listener listener;
+    // Source of the current time in nanoseconds.
+    private final LongSupplier clock;
+
+    // Outcomes of the most recent calls, true for a failure, in a ring; guarded by this.
+    private final boolean[] window;
+    // Number of outcomes in the window, its next slot and how many of its outcomes are failures; guarded by this.
+    private int recorded;
+    private int next;
+    private int failures;
+
+    // Current state, guarded by this.
+    private State state = State.CLOSED;
+    // Time the circuit last opened, guarded by this.
+    private long openedAt;
+    // Whether the half-open probe was let through and has not completed, guarded by this.
+    private boolean probing;
+
+    // Whether a call reached the underlying service since the last close() was forwarded.
+    private final AtomicBoolean forwardedSinceClose = new AtomicBoolean();
+
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Constructs a circuit breaker with the default window, threshold and open duration.
+     *
+     * @param delegate The service the calls are forwarded to.
+     * @param listener Receives the state transitions, may be {@link Listener#NONE}.
+     */
+    public CircuitBreakerReviewService(ReviewService delegate, Listener listener) {
+        this(delegate, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD,
+                DEFAULT_OPEN_SECONDS, TimeUnit.SECONDS, listener);
+    }
+
+    /**
+     * Constructs a circuit breaker.
+     *
+     * @param delegate             The service the calls are forwarded to.
+     * @param windowSize           The number of recent calls the failure rate is computed over.
+     * @param minimumCalls         The number of calls the window must hold before the circuit may open, at most the window size.
+     * @param failureRateThreshold The share of failed calls in the window that opens the circuit, above 0 and at most 1.
+     * @param openDuration         How long the circuit stays open before a probe is let through.
+     * @param unit                 The unit of {@code openDuration}.
+     * @param listener             Receives the state transitions, may be {@link Listener#NONE}.
+     */
+    public CircuitBreakerReviewService(ReviewService delegate, int windowSize, int minimumCalls,
+                                       double failureRateThreshold, long openDuration, TimeUnit unit,
+                                       Listener listener) {
+        this(delegate, windowSize, minimumCalls, failureRateThreshold, openDuration, unit, listener, System::nanoTime);
+    }
+
+    CircuitBreakerReviewService(ReviewService delegate, int windowSize, int minimumCalls,
+                                double failureRateThreshold, long openDuration, TimeUnit unit,
+                                Listener listener, LongSupplier clock) {
+        if (delegate == null || unit == null || listener == null || clock == null) {
+            throw new IllegalArgumentException("Invalid circuit breaker configuration.");
+        }
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize
+                || !(failureRateThreshold > 0 && failureRateThreshold <= 1) || openDuration <= 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker bounds.");
+        }
+        this.delegate = delegate;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = unit.toNanos(openDuration);
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    /**
+     * Fetches the reviews of a book from the underlying service, unless the circuit is open.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     * @return A list of reviews associated with the given book's ISBN.
+     * @throws ReviewException                   If the underlying service fails to fetch the reviews.
+     * @throws ReviewServiceUnavailableException If the circuit is open and the call was not forwarded.
+     */
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        return call(() -> delegate.getReviewsForBook(ISBN));
+    }
+
+    @Override
+    public boolean supportsPaging() {
+        return delegate.supportsPaging();
+    }
+
+    /**
+     * Fetches one page of the reviews of a book from the underlying service, unless the circuit is open.
+     * Every page counts as a call.
+     *
+     * @throws ReviewServiceUnavailableException If the circuit is open and the call was not forwarded.
+     */
+    @Override
+    public ReviewPage getReviewPage(String ISBN, String cursor, int limit) throws ReviewException {
+        return call(() -> delegate.getReviewPage(ISBN, cursor, limit));
+    }
+
+    /**
+     * Closes the underlying service, unless no call reached it since it was last closed.
+     */
+    @Override
+    public void close() {
+        if (forwardedSinceClose.getAndSet(false)) {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Retrieves the state of the circuit. An open circuit reports {@link State#OPEN} until the probe following its
+     * open duration is let through.
+     *
+     * @return The current state.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Retrieves the number of calls rejected without reaching the underlying service.
+     *
+     * @return The rejection count.
+     */
+    public long getRejectedCount() {
+        return rejections.sum();
+    }
+
+    /**
+     * Forwards a call unless the circuit is open, recording its outcome.
+     */
+    private <T> T call(Supplier<T> forwarded) {
+        boolean probe = acquirePermission();
+        forwardedSinceClose.set(true);
+        boolean failed = true;
+        boolean counted = true;
+        try {
+            T result = forwarded.get();
+            failed = false;
+            return result;
+        } catch (RuntimeException e) {
+            // Only failures of the review service count against it; anything else is the caller's problem.
+            counted = e instanceof ReviewException || e instanceof ReviewServiceUnavailableException;
+            throw e;
+        } finally {
+            if (counted) {
+                record(probe, failed);
+            } else if (probe) {
+                releaseProbe();
+            }
+        }
+    }
+
+    /**
+     * Decides whether a call may proceed, rejecting it if not.
+     *
+     * @return true if the call is the half-open probe.
+     * @throws ReviewServiceUnavailableException If the call is rejected.
+     */
+    private boolean acquirePermission() {
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return false;
+            }
+            if (state == State.OPEN && clock.getAsLong() - openedAt >= openNanos) {
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN && !probing) {
+                probing = true;
+                return true;
+            }
+        }
+        rejections.increment();
+        throw new ReviewServiceUnavailableException("Review service unavailable!", false);
+    }
+
+    private synchronized void record(boolean probe, boolean failed) {
+        if (probe) {
+            probing = false;
+            if (failed) {
+                open();
+            } else {
+                recorded = 0;
+                next = 0;
+                failures = 0;
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            // A call let through before the circuit opened; the decision is already made.
+            return;
+        }
+        if (recorded == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+        if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) {
+            open();
+        }
+    }
+
+    /**
+     * Lets the next call through as the probe, leaving the circuit half-open.
+     */
+    private synchronized void releaseProbe() {
+        probing = false;
+    }
+
+    private void open() {
+        openedAt = clock.getAsLong();
+        transition(State.OPEN);
+    }
+
+    private void transition(State to) {
+        State from = state;
+        state = to;
+        listener.onStateChange(from, to);
+    }
+}
@@ -0,0 +1,273 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.NotificationException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link NotificationService} that buffers messages for a short window and sends them as one batch.
+ * <p>
+ * The first message after a flush opens a window; every message arriving before the window closes is buffered,
+ * and messages for the same user are merged into a single notification, separated by a blank line.
+ * When the window closes, or earlier if the buffer holds the maximum number of users, all buffered
+ * notifications are sent with one {@link NotificationService#notifyUsers(List)} call on the delegate.
+ * <p>
+ * {@link #notifyUser(String, String)} therefore returns before the message is delivered, and a failed batch
+ * mostly holds messages whose callers are no longer waiting; every such notification is handed to a dead-letter
+ * sink, as an {@link AsyncNotificationService} does with the messages it gives up on. Only the caller whose
+ * message filled the batch learns the outcome of its own message, by an exception.
+ * Wrap an {@link AsyncNotificationService} or another retrying service to retry them before that.
+ */
+public class CoalescingNotificationService implements NotificationService {
+
+    // Separates the messages merged into one notification.
+    static final String SEPARATOR = "\n\n";
+
+    // The service the batches are sent through.
+    private final NotificationService delegate;
+    // How long a window stays open, in nanoseconds.
+    private final long windowNanos;
+    // The number of distinct users that forces an early flush.
+    private final int maxBatchSize;
+    // Closes the windows.
+    private final ScheduledExecutorService timer;
+    // Receives the notifications of the batches that could not be sent.
+    private final AsyncNotificationService.DeadLetterSink deadLetters;
+
+    // Buffered messages per user, in arrival order of the users, guarded by itself.
+    private final Map<String, StringBuilder> buffer = new LinkedHashMap<>();
+    // Incremented on every flush so a stale timer does not close a newer window, guarded by buffer.
+    private long window;
+    // Set once closed, guarded by buffer.
+    private boolean closed;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+
+    /**
+     * Constructs a coalescing stage.
+     *
+     * @param delegate     The service the batches are sent through.
+     * @param window       How long messages are buffered after the first one arrives.
+     * @param unit         The unit of {@code window}.
+     * @param maxBatchSize The number of distinct users that forces the batch out before the window closes.
+     * @param deadLetters  Receives the notifications of the batches that could not be sent.
+     */
+    public CoalescingNotificationService(NotificationService delegate, long window, TimeUnit unit, int maxBatchSize,
+                                         AsyncNotificationService.DeadLetterSink deadLetters) {
+        if (delegate == null || window <= 0 || maxBatchSize <= 0 || deadLetters == null) {
+            throw new IllegalArgumentException("Invalid notification coalescing configuration.");
+        }
+        this.delegate = delegate;
+        this.deadLetters = deadLetters;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.timer = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("notification-coalescer"));
+    }
+
+    /**
+     * Buffers a notification message; it is sent when the current window closes.
+     * If this message fills the batch and sending it fails, the other notifications of the batch are dead-lettered
+     * and the failure is reported for this message alone.
+     *
+     * @param userId  The unique identifier of the user to be notified.
+     * @param message The content of the notification message.
+     * @throws NotificationException If the stage is closed, or if this message filled the batch and sending it failed.
+     */
+    @Override
+    public void notifyUser(String userId, String message) throws NotificationException {
+        List<Notification> full = null;
+        synchronized (buffer) {
+            if (closed) {
+                throw new NotificationException("Notification coalescer closed.");
+            }
+            received.incrementAndGet();
+            StringBuilder merged = buffer.get(userId);
+            if (merged != null) {
+                merged.append(SEPARATOR).append(message);
+            } else {
+                if (buffer.isEmpty()) {
+                    long current = window;
+                    timer.schedule(() -> flushWindow(current), windowNanos, TimeUnit.NANOSECONDS);
+                }
+                buffer.put(userId, new StringBuilder(message));
+                if (buffer.size() >= maxBatchSize) {
+                    full = drain();
+                }
+            }
+        }
+        if (full != null) {
+            try {
+                send(full);
+            } catch (NotificationException e) {
+                // The caller is waiting for its own message only; the others' callers have already returned.
+                for (Notification notification : full) {
+                    if (!notification.getUserId().equals(userId)) {
+                        deadLetter(notification, e);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Buffers a batch of notification messages; they are sent when the current window closes.
+     *
+     * @param notifications The notifications to be sent.
+     * @throws NotificationException If the stage is closed, or if a batch filled up and sending it failed.
+     */
+    @Override
+    public void notifyUsers(List<Notification> notifications) throws NotificationException {
+        for (Notification notification : notifications) {
+            notifyUser(notification.getUserId(), notification.getMessage());
+        }
+    }
+
+    /**
+     * Sends the buffered notifications now, without waiting for the window to close.
+     * If sending fails, the notifications are dead-lettered, as for a timed batch.
+     */
+    public void flush() {
+        List<Notification> pending;
+        synchronized (buffer) {
+            pending = drain();
+        }
+        sendOrDeadLetter(pending);
+    }
+
+    /**
+     * Sends the buffered notifications and stops accepting new ones.
+     * If sending fails, the notifications are dead-lettered, as for a timed batch.
+     */
+    public void close() {
+        List<Notification> pending;
+        synchronized (buffer) {
+            closed = true;
+            pending = drain();
+        }
+        timer.shutdownNow();
+        sendOrDeadLetter(pending);
+    }
+
+    /**
+     * Retrieves the number of messages received.
+     *
+     * @return The received count.
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * Retrieves the number of merged notifications handed to the delegate.
+     *
+     * @return The sent count.
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * Retrieves the number of batches handed to the delegate.
+     *
+     * @return The batch count.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Retrieves the number of batches the delegate failed to send.
+     *
+     * @return The failed batch count.
+     */
+    public long getFailedBatchCount() {
+        return failedBatches.get();
+    }
+
+    /**
+     * Retrieves the number of notifications of failed batches handed to the dead-letter sink.
+     *
+     * @return The dead-letter count.
+     */
+    public long getDeadLetterCount() {
+        return deadLettered.get();
+    }
+
+    /**
+     * Retrieves the number of notifications of failed batches the dead-letter sink failed to accept.
+     *
+     * @return The lost count.
+     */
+    public long getLostCount() {
+        return lost.get();
+    }
+
+    private void flushWindow(long expected) {
+        List<Notification> pending;
+        synchronized (buffer) {
+            if (window != expected) {
+                // The window was already flushed early; a newer window has its own timer.
+                return;
+            }
+            pending = drain();
+        }
+        sendOrDeadLetter(pending);
+    }
+
+    private void sendOrDeadLetter(List<Notification> pending) {
+        try {
+            send(pending);
+        } catch (NotificationException e) {
+            // Nobody is waiting for these notifications, so they go to the dead-letter sink.
+            for (Notification notification : pending) {
+                deadLetter(notification, e);
+            }
+        }
+    }
+
+    private void deadLetter(Notification notification, NotificationException cause) {
+        deadLettered.incrementAndGet();
+        try {
+            deadLetters.accept(notification.getUserId(), notification.getMessage(), cause, 1);
+        } catch (RuntimeException sinkFailure) {
+            lost.incrementAndGet();
+        }
+    }
+
+    private List<Notification> drain() {
+        List<Notification> pending = new ArrayList<>(buffer.size());
+        for (Map.Entry<String, StringBuilder> entry : buffer.entrySet()) {
+            pending.add(new Notification(entry.getKey(), entry.getValue().toString()));
+        }
+        buffer.clear();
+        window++;
+        return pending;
+    }
+
+    private void send(List<Notification> pending) throws NotificationException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        batches.incrementAndGet();
+        try {
+            delegate.notifyUsers(pending);
+            sent.addAndGet(pending.size());
+        } catch (RuntimeException e) {
+            failedBatches.incrementAndGet();
+            throw e instanceof NotificationException ? (NotificationException) e : new NotificationException(e.getMessage());
+        }
+    }
+}
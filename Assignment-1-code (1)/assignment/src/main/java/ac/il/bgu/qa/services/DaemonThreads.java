@@ -0,0 +1,28 @@
+package ac.il.bgu.qa.services;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the named daemon threads used by the background services, so that they never keep the JVM alive.
+ */
+final class DaemonThreads {
+
+    private DaemonThreads() {
+    }
+
+    /**
+     * Creates a thread factory naming its threads with a prefix and a sequence number.
+     *
+     * @param prefix The thread name prefix.
+     * @return The thread factory.
+     */
+    static ThreadFactory named(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
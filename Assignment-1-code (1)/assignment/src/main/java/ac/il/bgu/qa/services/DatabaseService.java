@@ -3,8 +3,19 @@ package ac.il.bgu.qa.services;
 import ac.il.bgu.qa.Book;
 import ac.il.bgu.qa.User;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
 /**
  * Provides an interface for services responsible for managing the database of books and users.
+ * <p>
+ * The conditional operations ({@link #addBookIfAbsent}, {@link #registerUserIfAbsent} and
+ * {@link #compareAndSetBorrowed}) check a condition and apply a write in a single call.
+ * Their default implementations are composed of the plain operations and are therefore neither
+ * atomic nor a single round trip; implementations should override them to do both.
  */
 public interface DatabaseService {
 
@@ -16,6 +27,19 @@ public interface DatabaseService {
      */
     void addBook(String ISBN, Book book);
 
+    /**
+     * Adds several books to the database in a single request.
+     * Implementations backed by a remote store should override this method to write the whole batch
+     * in one round trip; the default implementation falls back to one {@link #addBook} call per entry.
+     *
+     * @param books The books to be added, keyed by their International Standard Book Number.
+     */
+    default void addBooks(Map<String, Book> books) {
+        for (Map.Entry<String, Book> entry : books.entrySet()) {
+            addBook(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * Registers a user with the database.
      *
@@ -24,6 +48,38 @@ public interface DatabaseService {
      */
     void registerUser(String id, User user);
 
+    /**
+     * Adds a book to the database only if no book with the same ISBN exists.
+     *
+     * @param ISBN The International Standard Book Number identifying the book.
+     * @param book The book to be added.
+     * @return {@link WriteOutcome#APPLIED} if the book was added,
+     *         or {@link WriteOutcome#ALREADY_EXISTS} if a book with this ISBN already exists.
+     */
+    default WriteOutcome addBookIfAbsent(String ISBN, Book book) {
+        if (getBookByISBN(ISBN) != null) {
+            return WriteOutcome.ALREADY_EXISTS;
+        }
+        addBook(ISBN, book);
+        return WriteOutcome.APPLIED;
+    }
+
+    /**
+     * Registers a user with the database only if no user with the same Id is registered.
+     *
+     * @param id   The unique identifier for the user.
+     * @param user The user to be registered.
+     * @return {@link WriteOutcome#APPLIED} if the user was registered,
+     *         or {@link WriteOutcome#ALREADY_EXISTS} if a user with this Id is already registered.
+     */
+    default WriteOutcome registerUserIfAbsent(String id, User user) {
+        if (getUserById(id) != null) {
+            return WriteOutcome.ALREADY_EXISTS;
+        }
+        registerUser(id, user);
+        return WriteOutcome.APPLIED;
+    }
+
     /**
      * Fetches a book from the database using its ISBN.
      *
@@ -32,6 +88,25 @@ public interface DatabaseService {
      */
     Book getBookByISBN(String ISBN);
 
+    /**
+     * Fetches several books from the database in a single request.
+     * Implementations backed by a remote store should override this method to look up the whole batch
+     * in one round trip; the default implementation falls back to one {@link #getBookByISBN} call per key.
+     *
+     * @param ISBNs The International Standard Book Numbers of the books to be fetched.
+     * @return A map from every ISBN that exists in the database to its book. ISBNs that do not exist are omitted.
+     */
+    default Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        Map<String, Book> books = new HashMap<>();
+        for (String ISBN : ISBNs) {
+            Book book = getBookByISBN(ISBN);
+            if (book != null) {
+                books.put(ISBN, book);
+            }
+        }
+        return books;
+    }
+
     /**
      * Fetches a user from the database using their ID.
      *
@@ -56,4 +131,108 @@ public interface DatabaseService {
      * @param ISBN The International Standard Book Number of the book to be returned.
      */
     void returnBook(String ISBN);
+
+    /**
+     * Changes the borrowed state of a book only if it currently has the expected state.
+     * Borrowing ({@code update} true) also requires the user to be registered and associates the book with them;
+     * returning ({@code update} false) with a user also requires the book to be borrowed by that user,
+     * while returning with a null user returns the book whoever borrows it.
+     *
+     * @param ISBN     The International Standard Book Number of the book.
+     * @param userId   The unique identifier for the user borrowing the book, or when returning it,
+     *                 the user expected to borrow it, may be null.
+     * @param expected The borrowed state the book must currently have.
+     * @param update   The borrowed state to set.
+     * @return {@link WriteOutcome#APPLIED} if the state was changed,
+     *         {@link WriteOutcome#BOOK_NOT_FOUND} if the book does not exist,
+     *         {@link WriteOutcome#USER_NOT_FOUND} if borrowing for a user that is not registered,
+     *         or {@link WriteOutcome#STATE_MISMATCH} if the book's borrowed state is not the expected one.
+     */
+    default WriteOutcome compareAndSetBorrowed(String ISBN, String userId, boolean expected, boolean update) {
+        Book book = getBookByISBN(ISBN);
+        if (book == null) {
+            return WriteOutcome.BOOK_NOT_FOUND;
+        }
+        if (update && getUserById(userId) == null) {
+            return WriteOutcome.USER_NOT_FOUND;
+        }
+        if (expected == update) {
+            return book.isBorrowed() == expected ? WriteOutcome.APPLIED : WriteOutcome.STATE_MISMATCH;
+        }
+        // The book's own compare-and-set decides between concurrent callers sharing the same instance;
+        // it is undone if the write then fails, so the shared instance never disagrees with the store.
+        if (update) {
+            if (!book.tryBorrow(userId)) {
+                return WriteOutcome.STATE_MISMATCH;
+            }
+            try {
+                borrowBook(ISBN, userId);
+            } catch (RuntimeException | Error e) {
+                book.tryReturn(userId);
+                throw e;
+            }
+        } else {
+            String previous = userId != null ? userId : book.getBorrowerId();
+            if (!book.tryReturn(userId)) {
+                return WriteOutcome.STATE_MISMATCH;
+            }
+            try {
+                returnBook(ISBN);
+            } catch (RuntimeException | Error e) {
+                book.tryBorrow(previous);
+                throw e;
+            }
+        }
+        return WriteOutcome.APPLIED;
+    }
+
+    /**
+     * Changes the borrowed state of several books in a single request, as {@link #compareAndSetBorrowed} does for each.
+     * Every book is decided on its own: the batch is not atomic, and a book failing its condition does not stop the others.
+     * Implementations backed by a remote store should override this method to write the whole batch in one round trip;
+     * the default implementation falls back to one {@link #compareAndSetBorrowed} call per ISBN.
+     *
+     * @param ISBNs    The International Standard Book Numbers of the books, without repetitions.
+     * @param userId   The unique identifier for the user borrowing the books, may be null when returning them.
+     * @param expected The borrowed state every book must currently have.
+     * @param update   The borrowed state to set.
+     * @return A map from every ISBN to its outcome, in the order of the given ISBNs.
+     */
+    default Map<String, WriteOutcome> compareAndSetBorrowedAll(Collection<String> ISBNs, String userId,
+                                                               boolean expected, boolean update) {
+        Map<String, WriteOutcome> outcomes = new LinkedHashMap<>();
+        for (String ISBN : ISBNs) {
+            outcomes.put(ISBN, compareAndSetBorrowed(ISBN, userId, expected, update));
+        }
+        return outcomes;
+    }
+
+    /**
+     * Tells whether {@link #forEachISBN} and {@link #forEachUserId} visit the contents of the database.
+     * Callers that need the contents, such as to build a filter of the keys, must fall back to reading keys
+     * one at a time when it cannot. The default implementation cannot enumerate the database.
+     *
+     * @return true if the database can be enumerated.
+     */
+    default boolean canEnumerate() {
+        return false;
+    }
+
+    /**
+     * Visits the ISBN of every book in the database, for example to rebuild an index of the books.
+     * Books added concurrently may or may not be visited. Visits nothing unless {@link #canEnumerate()}.
+     *
+     * @param visitor Receives every ISBN, without hyphens and in no particular order.
+     */
+    default void forEachISBN(Consumer<String> visitor) {
+    }
+
+    /**
+     * Visits the Id of every registered user, as {@link #forEachISBN} does for books.
+     * Visits nothing unless {@link #canEnumerate()}.
+     *
+     * @param visitor Receives every user Id, in no particular order.
+     */
+    default void forEachUserId(Consumer<String> visitor) {
+    }
 }
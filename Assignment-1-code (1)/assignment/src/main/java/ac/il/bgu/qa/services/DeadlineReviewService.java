@@ -0,0 +1,300 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.errors.ReviewServiceUnavailableException;
+import ac.il.bgu.qa.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A {@link ReviewService} decorator bounding how long a fetch may take, optionally hedging slow fetches.
+ * <p>
+ * Every fetch runs on the given executor while the caller waits for it until its deadline; a fetch still running
+ * then is cancelled and the caller gets a {@link ReviewServiceUnavailableException}. With hedging, a fetch that has
+ * not answered once the usual fetch would have (the 95th percentile of recent successful fetches, but no sooner than
+ * the minimum hedge delay) is raced by a second, identical fetch, and the first successful answer is used. A fetch
+ * failing while the other is still running does not fail the call; a fetch failing before the hedge is issued does,
+ * since hedging is not a retry.
+ * <p>
+ * A paged read shares one deadline: the first page starts it, and the cursor handed back carries it to the next
+ * pages, which only get the time left. Cursors are therefore only meaningful to this service, in this process.
+ * <p>
+ * Hedged fetches call the underlying service concurrently, which must therefore be safe for concurrent use, such as
+ * a {@link PooledReviewService}; the executor needs a thread per concurrent fetch, twice as many with hedging.
+ * A cancelled fetch is interrupted but may still be running on the underlying service after the call returned,
+ * including when the service is closed; the underlying service must tolerate being closed meanwhile.
+ */
+public class DeadlineReviewService implements ReviewService {
+
+    // Number of successful fetches the hedge delay is recomputed after.
+    private static final int RECOMPUTE_SAMPLES = 64;
+    // Number of successful fetches after which the latency window starts over, so the delay follows recent latencies.
+    private static final int WINDOW_SAMPLES = 1024;
+    // The fetch latency percentile after which a fetch is hedged.
+    private static final double HEDGE_PERCENTILE = 95;
+    // Separates the deadline from the underlying service's cursor in the cursors handed out.
+    private static final char CURSOR_SEPARATOR = ':';
+
+    // The service the reviews are fetched from.
+    private final ReviewService delegate;
+    // The executor the fetches run on.
+    private final Executor executor;
+    // Time a call may take, in nanoseconds.
+    private final long timeoutNanos;
+    // Whether slow fetches are hedged.
+    private final boolean hedging;
+    // Shortest time before a fetch is hedged, in nanoseconds.
+    private final long minimumHedgeDelayNanos;
+
+    // Latencies of the recent successful fetches and how many there are, guarded by this when replaced.
+    private volatile LatencyHistogram latencies = new LatencyHistogram();
+    private int windowCount;
+    // Time before a fetch is hedged, in nanoseconds.
+    private volatile long hedgeDelayNanos;
+
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * Constructs a service bounding every fetch by a deadline, without hedging.
+     *
+     * @param delegate The service the reviews are fetched from.
+     * @param executor The executor the fetches run on.
+     * @param timeout  How long a call may take.
+     * @param unit     The unit of {@code timeout}.
+     */
+    public DeadlineReviewService(ReviewService delegate, Executor executor, long timeout, TimeUnit unit) {
+        this(delegate, executor, timeout, unit, false, 0);
+    }
+
+    /**
+     * Constructs a service bounding every fetch by a deadline and hedging slow fetches.
+     *
+     * @param delegate           The service the reviews are fetched from, safe for concurrent use.
+     * @param executor           The executor the fetches run on.
+     * @param timeout            How long a call may take.
+     * @param minimumHedgeDelay  The shortest time before a fetch is hedged, used until enough latencies are known.
+     * @param unit               The unit of {@code timeout} and {@code minimumHedgeDelay}.
+     */
+    public DeadlineReviewService(ReviewService delegate, Executor executor, long timeout, long minimumHedgeDelay,
+                                 TimeUnit unit) {
+        this(delegate, executor, timeout, unit, true, minimumHedgeDelay);
+    }
+
+    private DeadlineReviewService(ReviewService delegate, Executor executor, long timeout, TimeUnit unit,
+                                  boolean hedging, long minimumHedgeDelay) {
+        if (delegate == null || executor == null || unit == null) {
+            throw new IllegalArgumentException("Invalid review deadline configuration.");
+        }
+        if (timeout <= 0 || minimumHedgeDelay < 0 || (hedging && minimumHedgeDelay >= timeout)) {
+            throw new IllegalArgumentException("Invalid review deadline bounds.");
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.hedging = hedging;
+        this.minimumHedgeDelayNanos = unit.toNanos(minimumHedgeDelay);
+        this.hedgeDelayNanos = minimumHedgeDelayNanos;
+    }
+
+    /**
+     * Fetches the reviews of a book from the underlying service, waiting for them until the deadline.
+     *
+     * @param ISBN The International Standard Book Number (ISBN) of the book.
+     * @return A list of reviews associated with the given book's ISBN.
+     * @throws ReviewException                   If every fetch issued failed.
+     * @throws ReviewServiceUnavailableException If no fetch answered before the deadline.
+     */
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        return call(() -> delegate.getReviewsForBook(ISBN), System.nanoTime() + timeoutNanos);
+    }
+
+    @Override
+    public boolean supportsPaging() {
+        return delegate.supportsPaging();
+    }
+
+    /**
+     * Fetches one page of the reviews of a book from the underlying service, waiting for it until the deadline.
+     * The first page starts the deadline; the later pages get what is left of it, carried by the cursor.
+     *
+     * @throws IllegalArgumentException          If the cursor was not handed out by this service.
+     * @throws ReviewServiceUnavailableException If no fetch answered before the deadline.
+     */
+    @Override
+    public ReviewPage getReviewPage(String ISBN, String cursor, int limit) throws ReviewException {
+        long deadline;
+        String delegateCursor;
+        if (cursor == null) {
+            deadline = System.nanoTime() + timeoutNanos;
+            delegateCursor = null;
+        } else {
+            int separator = cursor.indexOf(CURSOR_SEPARATOR);
+            try {
+                deadline = Long.parseLong(cursor.substring(0, Math.max(separator, 0)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid review cursor.");
+            }
+            delegateCursor = cursor.substring(separator + 1);
+        }
+        ReviewPage page = call(() -> delegate.getReviewPage(ISBN, delegateCursor, limit), deadline);
+        String next = page.getNextCursor();
+        return next == null ? page : new ReviewPage(page.getReviews(), Long.toString(deadline) + CURSOR_SEPARATOR + next);
+    }
+
+    /**
+     * Closes the underlying service. Fetches cancelled at their deadline may still be running on it.
+     */
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Retrieves the number of calls that failed because no fetch answered before the deadline.
+     *
+     * @return The timeout count.
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Retrieves the number of hedging fetches issued.
+     *
+     * @return The hedge count.
+     */
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * Retrieves the number of calls answered by the hedging fetch rather than the first one.
+     *
+     * @return The hedge win count.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * Retrieves the time after which a fetch is currently hedged.
+     *
+     * @param unit The unit of the result.
+     * @return The hedge delay.
+     */
+    public long getHedgeDelay(TimeUnit unit) {
+        return unit.convert(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs a fetch on the executor, hedging it if it is slow, and waits for the first answer until the deadline.
+     */
+    private <T> T call(Supplier<T> fetch, long deadline) {
+        long start = System.nanoTime();
+        if (start - deadline >= 0) {
+            timeouts.increment();
+            throw new ReviewServiceUnavailableException("Review service unavailable!");
+        }
+        long hedgeAt = start + hedgeDelayNanos;
+        CompletionService<T> fetches = new ExecutorCompletionService<>(executor);
+        List<Future<T>> issued = new ArrayList<>(2);
+        try {
+            issued.add(fetches.submit(() -> timed(fetch)));
+            boolean hedged = !hedging;
+            int pending = 1;
+            while (true) {
+                long now = System.nanoTime();
+                long wait = hedged ? deadline - now : Math.min(deadline, hedgeAt) - now;
+                Future<T> done = fetches.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+                if (done != null) {
+                    pending--;
+                    try {
+                        T result = done.get();
+                        if (done != issued.get(0)) {
+                            hedgeWins.increment();
+                        }
+                        return result;
+                    } catch (ExecutionException e) {
+                        if (pending == 0) {
+                            throw unwrap(e);
+                        }
+                        // The other fetch may still answer.
+                        continue;
+                    }
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    timeouts.increment();
+                    throw new ReviewServiceUnavailableException("Review service unavailable!");
+                }
+                if (!hedged) {
+                    hedged = true;
+                    try {
+                        issued.add(fetches.submit(() -> timed(fetch)));
+                        pending++;
+                        hedges.increment();
+                    } catch (RejectedExecutionException e) {
+                        // No thread to hedge on; keep waiting for the first fetch.
+                    }
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            throw new ReviewServiceUnavailableException("Review service unavailable!");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReviewServiceUnavailableException("Review service unavailable!");
+        } finally {
+            // Stop the fetches that lost the race or missed the deadline.
+            for (Future<T> issuedFetch : issued) {
+                issuedFetch.cancel(true);
+            }
+        }
+    }
+
+    private <T> T timed(Supplier<T> fetch) {
+        long start = System.nanoTime();
+        T result = fetch.get();
+        if (hedging) {
+            record(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    private void record(long nanos) {
+        LatencyHistogram window = latencies;
+        window.record(nanos);
+        synchronized (this) {
+            if (window != latencies) {
+                return;
+            }
+            windowCount++;
+            if (windowCount % RECOMPUTE_SAMPLES == 0) {
+                hedgeDelayNanos = Math.max(minimumHedgeDelayNanos, window.getValueAtPercentile(HEDGE_PERCENTILE));
+            }
+            if (windowCount == WINDOW_SAMPLES) {
+                latencies = new LatencyHistogram();
+                windowCount = 0;
+            }
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return (RuntimeException) cause;
+    }
+}
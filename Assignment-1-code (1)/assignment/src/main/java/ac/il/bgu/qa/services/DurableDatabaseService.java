@@ -0,0 +1,601 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A {@link DatabaseService} that keeps its books, users and borrowing state in a directory on local disk.
+ * <p>
+ * The data is served from an {@link InMemoryDatabaseService}. Every change is also appended to a write-ahead log,
+ * and the call returns only once the change is on disk. Concurrent writers share their fsyncs through group commit,
+ * so throughput grows with the number of writers rather than being capped at one fsync per change.
+ * Changes are applied and logged under a single lock, so the log holds them in the order they were applied.
+ * Reads never lock and may observe a change whose fsync is still in flight.
+ * <p>
+ * Once the log exceeds its compaction threshold, the whole state is written to a snapshot and a new, empty log
+ * is started. Writers are blocked while the snapshot is written. Both files carry a generation number, so
+ * recovery replays the latest complete snapshot and then its own log, and a crash at any point of compaction
+ * leaves a consistent pair. A record torn by a crash at the end of the log is discarded on recovery.
+ * <p>
+ * Users are persisted by Id and name only; recovered users are given the notification service passed on opening.
+ * Borrowing state is logged only for changes made through this service, not for calls made directly on a
+ * {@link Book} it returned. A write failure is reported as an {@link UncheckedIOException} and makes the
+ * service reject every later change, since memory may then hold a change the log does not.
+ */
+public class DurableDatabaseService implements DatabaseService, Closeable {
+
+    // Default log size, in bytes, above which the log is compacted into a snapshot.
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 64L * 1024 * 1024;
+
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SNAPSHOT_TMP = "snapshot.tmp";
+    private static final String LOG_PREFIX = "wal-";
+
+    // Record types.
+    private static final byte GENERATION = 0;
+    private static final byte ADD_BOOK = 1;
+    private static final byte REGISTER_USER = 2;
+    private static final byte BORROW = 3;
+    private static final byte RETURN = 4;
+
+    // Size of the snapshot's buffer above which it is written out.
+    private static final int SNAPSHOT_BUFFER = 1024 * 1024;
+
+    /**
+     * A byte array output stream whose array can be appended to the log without copying it.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private final Path directory;
+    private final long compactionThreshold;
+    private final NotificationService recoveredUsersNotificationService;
+    private final InMemoryDatabaseService state;
+    // Runs before every fsync of the logs.
+    private final Runnable beforeSync;
+
+    // Serializes changes: applying to memory, encoding and appending to the log.
+    private final Object writeLock = new Object();
+    // Scratch space records are encoded into, guarded by writeLock.
+    private final RecordBuffer scratch = new RecordBuffer();
+    private final DataOutputStream record = new DataOutputStream(scratch);
+    // The current log, replaced on compaction, guarded by writeLock.
+    private WriteAheadLog log;
+    // Generation of the current log, guarded by writeLock.
+    private long generation;
+    // Number of fsyncs of the logs that were compacted away, guarded by writeLock.
+    private long retiredSyncs;
+
+    /**
+     * Opens the database stored in a directory with the default compaction threshold, creating it if needed.
+     *
+     * @param directory           The directory holding the snapshot and the log.
+     * @param notificationService The notification service given to recovered users.
+     * @throws IOException If the directory cannot be read or holds a corrupt snapshot.
+     */
+    public DurableDatabaseService(Path directory, NotificationService notificationService) throws IOException {
+        this(directory, notificationService, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the database stored in a directory, creating it if needed, and recovers its state.
+     *
+     * @param directory           The directory holding the snapshot and the log.
+     * @param notificationService The notification service given to recovered users.
+     * @param compactionThreshold The log size, in bytes, above which the log is compacted into a snapshot.
+     * @throws IOException If the directory cannot be read or holds a corrupt snapshot.
+     */
+    public DurableDatabaseService(Path directory, NotificationService notificationService, long compactionThreshold)
+            throws IOException {
+        this(directory, notificationService, compactionThreshold, () -> {
+        });
+    }
+
+    DurableDatabaseService(Path directory, NotificationService notificationService, long compactionThreshold,
+                           Runnable beforeSync) throws IOException {
+        if (directory == null || notificationService == null || compactionThreshold <= 0 || beforeSync == null) {
+            throw new IllegalArgumentException("Invalid durable database configuration.");
+        }
+        this.directory = directory;
+        this.compactionThreshold = compactionThreshold;
+        this.recoveredUsersNotificationService = notificationService;
+        this.state = new InMemoryDatabaseService();
+        this.beforeSync = beforeSync;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        long sequence;
+        WriteAheadLog target;
+        synchronized (writeLock) {
+            requireHealthy();
+            // Encode first, so a book that cannot be logged is not stored either.
+            int length = encodeBook(Keys.isbn(ISBN), book);
+            state.addBook(ISBN, book);
+            target = log;
+            sequence = append(length);
+        }
+        sync(target, sequence);
+    }
+
+    @Override
+    public void addBooks(Map<String, Book> books) {
+        long sequence = 0;
+        WriteAheadLog target;
+        synchronized (writeLock) {
+            requireHealthy();
+            byte[][] records = new byte[books.size()][];
+            int i = 0;
+            for (Map.Entry<String, Book> entry : books.entrySet()) {
+                encodeBook(Keys.isbn(entry.getKey()), entry.getValue());
+                records[i++] = scratch.toByteArray();
+            }
+            state.addBooks(books);
+            target = log;
+            for (byte[] encoded : records) {
+                sequence = append(encoded, encoded.length);
+            }
+        }
+        sync(target, sequence);
+    }
+
+    @Override
+    public WriteOutcome addBookIfAbsent(String ISBN, Book book) {
+        long sequence = 0;
+        WriteAheadLog target;
+        WriteOutcome outcome;
+        synchronized (writeLock) {
+            requireHealthy();
+            int length = encodeBook(Keys.isbn(ISBN), book);
+            outcome = state.addBookIfAbsent(ISBN, book);
+            target = log;
+            if (outcome == WriteOutcome.APPLIED) {
+                sequence = append(length);
+            }
+        }
+        sync(target, sequence);
+        return outcome;
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        long sequence;
+        WriteAheadLog target;
+        synchronized (writeLock) {
+            requireHealthy();
+            int length = encodeUser(Keys.userId(id), user);
+            state.registerUser(id, user);
+            target = log;
+            sequence = append(length);
+        }
+        sync(target, sequence);
+    }
+
+    @Override
+    public WriteOutcome registerUserIfAbsent(String id, User user) {
+        long sequence = 0;
+        WriteAheadLog target;
+        WriteOutcome outcome;
+        synchronized (writeLock) {
+            requireHealthy();
+            int length = encodeUser(Keys.userId(id), user);
+            outcome = state.registerUserIfAbsent(id, user);
+            target = log;
+            if (outcome == WriteOutcome.APPLIED) {
+                sequence = append(length);
+            }
+        }
+        sync(target, sequence);
+        return outcome;
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return state.getBookByISBN(ISBN);
+    }
+
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        return state.getBooksByISBN(ISBNs);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return state.getUserById(userId);
+    }
+
+    @Override
+    public boolean canEnumerate() {
+        return true;
+    }
+
+    @Override
+    public void forEachISBN(Consumer<String> visitor) {
+        state.forEachISBN(visitor);
+    }
+
+    @Override
+    public void forEachUserId(Consumer<String> visitor) {
+        state.forEachUserId(visitor);
+    }
+
+    /**
+     * Marks a book as borrowed by a user, unless it is already borrowed.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        long sequence = 0;
+        WriteAheadLog target;
+        synchronized (writeLock) {
+            requireHealthy();
+            Book book = state.getBookByISBN(ISBN);
+            target = log;
+            if (book != null && book.tryBorrow(userId)) {
+                sequence = append(encodeBorrow(Keys.isbn(ISBN), userId));
+            }
+        }
+        sync(target, sequence);
+    }
+
+    /**
+     * Marks a book as returned, unless it is not borrowed.
+     *
+     * @param ISBN The International Standard Book Number of the book to be returned.
+     */
+    @Override
+    public void returnBook(String ISBN) {
+        long sequence = 0;
+        WriteAheadLog target;
+        synchronized (writeLock) {
+            requireHealthy();
+            Book book = state.getBookByISBN(ISBN);
+            target = log;
+            if (book != null && book.tryReturn()) {
+                sequence = append(encodeReturn(Keys.isbn(ISBN)));
+            }
+        }
+        sync(target, sequence);
+    }
+
+    @Override
+    public WriteOutcome compareAndSetBorrowed(String ISBN, String userId, boolean expected, boolean update) {
+        long sequence = 0;
+        WriteAheadLog target;
+        WriteOutcome outcome;
+        synchronized (writeLock) {
+            requireHealthy();
+            outcome = state.compareAndSetBorrowed(ISBN, userId, expected, update);
+            target = log;
+            if (outcome == WriteOutcome.APPLIED && expected != update) {
+                long key = Keys.isbn(ISBN);
+                sequence = append(update ? encodeBorrow(key, userId) : encodeReturn(key));
+            }
+        }
+        sync(target, sequence);
+        return outcome;
+    }
+
+    /**
+     * Changes the borrowed state of several books, logging every change under one lock and syncing them all at once.
+     */
+    @Override
+    public Map<String, WriteOutcome> compareAndSetBorrowedAll(Collection<String> ISBNs, String userId,
+                                                              boolean expected, boolean update) {
+        Map<String, WriteOutcome> outcomes = new LinkedHashMap<>();
+        long sequence = 0;
+        WriteAheadLog target;
+        synchronized (writeLock) {
+            requireHealthy();
+            target = log;
+            for (String ISBN : ISBNs) {
+                WriteOutcome outcome = state.compareAndSetBorrowed(ISBN, userId, expected, update);
+                outcomes.put(ISBN, outcome);
+                if (outcome == WriteOutcome.APPLIED && expected != update) {
+                    long key = Keys.isbn(ISBN);
+                    sequence = append(update ? encodeBorrow(key, userId) : encodeReturn(key));
+                }
+            }
+        }
+        sync(target, sequence);
+        return outcomes;
+    }
+
+    /**
+     * Writes the whole state to a new snapshot and starts a new, empty log.
+     * Called automatically once the log exceeds the compaction threshold.
+     *
+     * @throws UncheckedIOException If the snapshot could not be written.
+     */
+    public void compact() {
+        synchronized (writeLock) {
+            try {
+                // Everything logged so far must be on disk before the log it lives in can be dropped.
+                log.flush(true);
+                long next = generation + 1;
+                writeSnapshot(next);
+                WriteAheadLog nextLog = new WriteAheadLog(logFile(next), 0, beforeSync);
+                // The snapshot becomes visible to recovery only once complete.
+                Files.move(directory.resolve(SNAPSHOT_TMP), directory.resolve(SNAPSHOT),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                forceDirectory();
+                retiredSyncs += log.getSyncCount();
+                log.close();
+                Files.deleteIfExists(logFile(generation));
+                log = nextLog;
+                generation = next;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Compaction failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of times a log was forced to disk since the database was opened.
+     * With concurrent writers it stays well below the number of changes, thanks to group commit.
+     *
+     * @return The fsync count.
+     */
+    public long getSyncCount() {
+        synchronized (writeLock) {
+            return retiredSyncs + log.getSyncCount();
+        }
+    }
+
+    /**
+     * Makes every change durable and closes the log.
+     *
+     * @throws IOException If the last changes could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            log.close();
+        }
+    }
+
+    private void recover() throws IOException {
+        // Replay the snapshot, whose first record names the generation of the log that follows it.
+        long[] snapshotGeneration = {0};
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            long valid = WriteAheadLog.read(snapshot, payload -> {
+                byte type = payload.readByte();
+                if (type == GENERATION) {
+                    snapshotGeneration[0] = payload.readLong();
+                } else {
+                    apply(type, payload);
+                }
+            });
+            if (valid != Files.size(snapshot)) {
+                throw new IOException("Corrupt snapshot: " + snapshot);
+            }
+        }
+        generation = snapshotGeneration[0];
+
+        // Replay the log up to its last complete record, then append after it.
+        Path current = logFile(generation);
+        long valid = WriteAheadLog.read(current, payload -> apply(payload.readByte(), payload));
+        log = new WriteAheadLog(current, valid, beforeSync);
+
+        // Drop what an interrupted compaction may have left behind.
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_TMP));
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, LOG_PREFIX + "*")) {
+            for (Path other : logs) {
+                if (!other.equals(current)) {
+                    Files.delete(other);
+                }
+            }
+        }
+    }
+
+    private void apply(byte type, DataInputStream payload) throws IOException {
+        long key = payload.readLong();
+        switch (type) {
+            case ADD_BOOK:
+                Book book = new Book(payload.readUTF(), payload.readUTF(), payload.readUTF());
+                if (payload.readBoolean()) {
+                    String holder = payload.readUTF();
+                    book.tryBorrow(holder.isEmpty() ? null : holder);
+                }
+                state.putBook(key, book);
+                break;
+            case REGISTER_USER:
+                String id = payload.readUTF();
+                state.putUser(key, new User(payload.readUTF(), id, recoveredUsersNotificationService));
+                break;
+            case BORROW:
+                String borrower = payload.readUTF();
+                Book borrowed = state.getBook(key);
+                if (borrowed != null) {
+                    borrowed.tryBorrow(borrower.isEmpty() ? null : borrower);
+                }
+                break;
+            case RETURN:
+                Book returned = state.getBook(key);
+                if (returned != null) {
+                    returned.tryReturn();
+                }
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private void writeSnapshot(long next) throws IOException {
+        Path tmp = directory.resolve(SNAPSHOT_TMP);
+        Files.deleteIfExists(tmp);
+        try (WriteAheadLog snapshot = new WriteAheadLog(tmp, 0)) {
+            IOException[] failure = {null};
+            scratch.reset();
+            record.writeByte(GENERATION);
+            record.writeLong(next);
+            snapshot.append(scratch.array(), scratch.size());
+            state.forEachBook((key, book) -> {
+                try {
+                    writeTo(snapshot, encodeBook(key, book));
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            state.forEachUser((key, user) -> {
+                try {
+                    writeTo(snapshot, encodeUser(key, user));
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+    }
+
+    private void writeTo(WriteAheadLog snapshot, int length) throws IOException {
+        snapshot.append(scratch.array(), length);
+        // Keep the snapshot's buffer small; the single fsync happens when it is closed.
+        if (snapshot.buffered() >= SNAPSHOT_BUFFER) {
+            snapshot.flush(false);
+        }
+    }
+
+    // Encoding, under writeLock. Each method leaves the record in scratch and returns its length.
+
+    private int encodeBook(long key, Book book) {
+        try {
+            scratch.reset();
+            record.writeByte(ADD_BOOK);
+            record.writeLong(key);
+            record.writeUTF(book.getISBN());
+            record.writeUTF(book.getTitle());
+            record.writeUTF(book.getAuthor());
+            record.writeBoolean(book.isBorrowed());
+            if (book.isBorrowed()) {
+                String borrower = book.getBorrowerId();
+                record.writeUTF(borrower == null ? "" : borrower);
+            }
+            return scratch.size();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Book too large to be stored.", e);
+        }
+    }
+
+    private int encodeUser(long key, User user) {
+        try {
+            scratch.reset();
+            record.writeByte(REGISTER_USER);
+            record.writeLong(key);
+            record.writeUTF(user.getId());
+            record.writeUTF(user.getName());
+            return scratch.size();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("User too large to be stored.", e);
+        }
+    }
+
+    private int encodeBorrow(long key, String userId) {
+        try {
+            scratch.reset();
+            record.writeByte(BORROW);
+            record.writeLong(key);
+            record.writeUTF(userId == null ? "" : userId);
+            return scratch.size();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid user Id.", e);
+        }
+    }
+
+    private int encodeReturn(long key) {
+        scratch.reset();
+        try {
+            record.writeByte(RETURN);
+            record.writeLong(key);
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+            throw new UncheckedIOException(e);
+        }
+        return scratch.size();
+    }
+
+    // Logging, under writeLock. Each method returns the sequence number to sync on.
+
+    private long append(int length) {
+        return append(scratch.array(), length);
+    }
+
+    private long append(byte[] encoded, int length) {
+        try {
+            return log.append(encoded, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Write-ahead log append failed.", e);
+        }
+    }
+
+    private void requireHealthy() {
+        try {
+            log.checkHealthy();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Durable database rejects changes after a failed write.", e);
+        }
+    }
+
+    private void sync(WriteAheadLog target, long sequence) {
+        if (sequence == 0) {
+            return;
+        }
+        try {
+            target.sync(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Write-ahead log sync failed.", e);
+        }
+        if (target.size() > compactionThreshold) {
+            synchronized (writeLock) {
+                // Another writer may have compacted this log already.
+                if (log == target) {
+                    compact();
+                }
+            }
+        }
+    }
+
+    private Path logFile(long generation) {
+        return directory.resolve(LOG_PREFIX + generation);
+    }
+
+    private void forceDirectory() {
+        // Makes the rename durable where the platform allows opening a directory; best effort elsewhere.
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform.
+        }
+    }
+}
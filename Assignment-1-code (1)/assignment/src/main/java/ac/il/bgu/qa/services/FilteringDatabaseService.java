@@ -0,0 +1,352 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A {@link DatabaseService} decorator keeping a Bloom filter of the ISBNs and user Ids in the database, so that
+ * lookups of keys that are definitely absent are answered without reaching the underlying database service.
+ * <p>
+ * When onboarding a catalog nearly every added book and registered user is new, yet each conditional write first
+ * reads its key back. Here a key the filter has never seen is written with a plain write, and batch lookups only
+ * forward the keys that might exist. A key the filter might have seen takes the regular path, so a false positive
+ * costs the read that would have happened anyway.
+ * <p>
+ * The filter is built from the underlying service's contents when this service is constructed and by
+ * {@link #rebuild()}; afterwards it learns every key written through this service. Keys written to the underlying
+ * service directly are unknown to it until the next rebuild, and would wrongly be reported absent.
+ * <p>
+ * An underlying service that cannot enumerate its contents (see {@link DatabaseService#canEnumerate()}) gives the
+ * filters nothing to be built from, so every key is then taken as possibly present and every call is forwarded.
+ */
+public class FilteringDatabaseService implements DatabaseService {
+
+    // Default number of books, and of users, the filters are first sized for.
+    public static final int DEFAULT_EXPECTED_KEYS = 1 << 20;
+    // Default rate at which absent keys are reported present.
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    // Number of locks the conditional writes are spread over.
+    private static final int STRIPES = 64;
+
+    // The service the calls are forwarded to.
+    private final DatabaseService delegate;
+    private final int expectedBooks;
+    private final int expectedUsers;
+    private final double falsePositiveRate;
+    // Whether the filters are built from the underlying service's contents; if not, they are not consulted.
+    private final boolean enumerable;
+
+    private volatile BloomFilter books;
+    private volatile BloomFilter users;
+    // Filters being rebuilt, which must also learn the keys written meanwhile; null outside of a rebuild.
+    private volatile BloomFilter pendingBooks;
+    private volatile BloomFilter pendingUsers;
+
+    // Serializes a conditional write of a key with the other conditional writes of the same key.
+    private final Object[] locks = new Object[STRIPES];
+
+    private final LongAdder avoidedReads = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Constructs a service with filters first sized for {@link #DEFAULT_EXPECTED_KEYS} keys each
+     * and a {@link #DEFAULT_FALSE_POSITIVE_RATE} false-positive rate.
+     *
+     * @param delegate The service the calls are forwarded to.
+     */
+    public FilteringDatabaseService(DatabaseService delegate) {
+        this(delegate, DEFAULT_EXPECTED_KEYS, DEFAULT_EXPECTED_KEYS, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Constructs a service and builds its filters from the underlying service's contents.
+     * The filters grow past their expected sizes without exceeding the false-positive rate, at some memory cost.
+     *
+     * @param delegate          The service the calls are forwarded to.
+     * @param expectedBooks     The number of books the book filter is first sized for.
+     * @param expectedUsers     The number of users the user filter is first sized for.
+     * @param falsePositiveRate The highest rate at which absent keys are reported present, between 0 and 1 exclusive.
+     */
+    public FilteringDatabaseService(DatabaseService delegate, int expectedBooks, int expectedUsers,
+                                    double falsePositiveRate) {
+        if (delegate == null || expectedBooks < 1 || expectedUsers < 1
+                || !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Invalid database filter configuration.");
+        }
+        this.delegate = delegate;
+        this.expectedBooks = expectedBooks;
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveRate = falsePositiveRate;
+        this.enumerable = delegate.canEnumerate();
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        rebuild();
+    }
+
+    /**
+     * Rebuilds the filters from the underlying service's contents, for example after keys were written to it directly.
+     * Keys written through this service during the rebuild are kept.
+     */
+    public synchronized void rebuild() {
+        BloomFilter freshBooks = new BloomFilter(expectedBooks, falsePositiveRate);
+        BloomFilter freshUsers = new BloomFilter(expectedUsers, falsePositiveRate);
+        if (!enumerable) {
+            books = freshBooks;
+            users = freshUsers;
+            return;
+        }
+        // Published before enumerating, so a write the enumeration misses reaches the new filters on its own.
+        pendingBooks = freshBooks;
+        pendingUsers = freshUsers;
+        try {
+            delegate.forEachISBN(ISBN -> rememberIn(freshBooks, Keys.isbn(ISBN)));
+            delegate.forEachUserId(id -> rememberIn(freshUsers, Keys.userId(id)));
+            books = freshBooks;
+            users = freshUsers;
+        } finally {
+            pendingBooks = null;
+            pendingUsers = null;
+        }
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        long key = Keys.isbn(ISBN);
+        rememberBook(key);
+        delegate.addBook(ISBN, book);
+        rememberBook(key);
+    }
+
+    @Override
+    public void addBooks(Map<String, Book> batch) {
+        for (String ISBN : batch.keySet()) {
+            rememberBook(Keys.isbn(ISBN));
+        }
+        delegate.addBooks(batch);
+        for (String ISBN : batch.keySet()) {
+            rememberBook(Keys.isbn(ISBN));
+        }
+    }
+
+    /**
+     * Adds a book unless it already exists, with a plain write if the filter has never seen its ISBN.
+     */
+    @Override
+    public WriteOutcome addBookIfAbsent(String ISBN, Book book) {
+        long key = Keys.isbn(ISBN);
+        if (key == Keys.INVALID) {
+            return delegate.addBookIfAbsent(ISBN, book);
+        }
+        synchronized (lockFor(key)) {
+            WriteOutcome outcome;
+            if (!mightContain(books, key)) {
+                avoidedReads.increment();
+                rememberBook(key);
+                delegate.addBook(ISBN, book);
+                outcome = WriteOutcome.APPLIED;
+            } else {
+                outcome = delegate.addBookIfAbsent(ISBN, book);
+                if (enumerable && outcome == WriteOutcome.APPLIED) {
+                    falsePositives.increment();
+                }
+            }
+            rememberBook(key);
+            return outcome;
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        long key = Keys.userId(id);
+        rememberUser(key);
+        delegate.registerUser(id, user);
+        rememberUser(key);
+    }
+
+    /**
+     * Registers a user unless the Id is taken, with a plain write if the filter has never seen the Id.
+     */
+    @Override
+    public WriteOutcome registerUserIfAbsent(String id, User user) {
+        long key = Keys.userId(id);
+        if (key == Keys.INVALID) {
+            return delegate.registerUserIfAbsent(id, user);
+        }
+        synchronized (lockFor(key)) {
+            WriteOutcome outcome;
+            if (!mightContain(users, key)) {
+                avoidedReads.increment();
+                rememberUser(key);
+                delegate.registerUser(id, user);
+                outcome = WriteOutcome.APPLIED;
+            } else {
+                outcome = delegate.registerUserIfAbsent(id, user);
+                if (enumerable && outcome == WriteOutcome.APPLIED) {
+                    falsePositives.increment();
+                }
+            }
+            rememberUser(key);
+            return outcome;
+        }
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        long key = Keys.isbn(ISBN);
+        if (key != Keys.INVALID && !mightContain(books, key)) {
+            avoidedReads.increment();
+            return null;
+        }
+        Book book = delegate.getBookByISBN(ISBN);
+        if (enumerable && book == null && key != Keys.INVALID) {
+            falsePositives.increment();
+        }
+        return book;
+    }
+
+    /**
+     * Fetches several books, forwarding only the ISBNs that might exist; no request is made if none might.
+     */
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        BloomFilter filter = books;
+        List<String> candidates = new ArrayList<>();
+        for (String ISBN : ISBNs) {
+            long key = Keys.isbn(ISBN);
+            if (key == Keys.INVALID || mightContain(filter, key)) {
+                candidates.add(ISBN);
+            } else {
+                avoidedReads.increment();
+            }
+        }
+        return candidates.isEmpty() ? new HashMap<>() : delegate.getBooksByISBN(candidates);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        long key = Keys.userId(userId);
+        if (key != Keys.INVALID && !mightContain(users, key)) {
+            avoidedReads.increment();
+            return null;
+        }
+        User user = delegate.getUserById(userId);
+        if (enumerable && user == null && key != Keys.INVALID) {
+            falsePositives.increment();
+        }
+        return user;
+    }
+
+    @Override
+    public boolean canEnumerate() {
+        return delegate.canEnumerate();
+    }
+
+    @Override
+    public void forEachISBN(Consumer<String> visitor) {
+        delegate.forEachISBN(visitor);
+    }
+
+    @Override
+    public void forEachUserId(Consumer<String> visitor) {
+        delegate.forEachUserId(visitor);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        delegate.borrowBook(ISBN, userId);
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        delegate.returnBook(ISBN);
+    }
+
+    @Override
+    public WriteOutcome compareAndSetBorrowed(String ISBN, String userId, boolean expected, boolean update) {
+        return delegate.compareAndSetBorrowed(ISBN, userId, expected, update);
+    }
+
+    @Override
+    public Map<String, WriteOutcome> compareAndSetBorrowedAll(Collection<String> ISBNs, String userId,
+                                                              boolean expected, boolean update) {
+        return delegate.compareAndSetBorrowedAll(ISBNs, userId, expected, update);
+    }
+
+    /**
+     * Retrieves the number of reads of the underlying service skipped because a key was definitely absent.
+     *
+     * @return The avoided read count.
+     */
+    public long getAvoidedReadCount() {
+        return avoidedReads.sum();
+    }
+
+    /**
+     * Retrieves the number of keys the filters reported present that turned out to be absent.
+     *
+     * @return The false positive count.
+     */
+    public long getFalsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * Retrieves the heap currently taken by both filters.
+     *
+     * @return The size, in bytes.
+     */
+    public long getMemoryBytes() {
+        return books.getMemoryBytes() + users.getMemoryBytes();
+    }
+
+    /**
+     * Estimates the heap a filter with this service's false-positive rate takes per million keys,
+     * about 1.4 MB at a 1% rate.
+     *
+     * @return The size, in bytes.
+     */
+    public long getMemoryBytesPerMillionKeys() {
+        return BloomFilter.memoryBytesPerMillionKeys(falsePositiveRate);
+    }
+
+    private boolean mightContain(BloomFilter filter, long key) {
+        return !enumerable || filter.mightContain(key);
+    }
+
+    // Keys are added to the filter being rebuilt first, so that one read missing there implies
+    // the other read observes the rebuilt filter already published.
+
+    private void rememberBook(long key) {
+        if (key != Keys.INVALID) {
+            rememberIn(pendingBooks, key);
+            books.add(key);
+        }
+    }
+
+    private void rememberUser(long key) {
+        if (key != Keys.INVALID) {
+            rememberIn(pendingUsers, key);
+            users.add(key);
+        }
+    }
+
+    private static void rememberIn(BloomFilter filter, long key) {
+        if (filter != null && key != Keys.INVALID) {
+            filter.add(key);
+        }
+    }
+
+    private Object lockFor(long key) {
+        return locks[(int) ((key ^ (key >>> 32)) * 0x9e3779b9L >>> 26) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,247 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A thread-safe, in-memory implementation of {@link DatabaseService}.
+ * <p>
+ * ISBNs and user Ids are packed into primitive longs and stored in open-addressing tables,
+ * so the store keeps no key objects and no per-entry nodes. Lookups never lock; writes
+ * to each table are serialized. ISBN keys ignore hyphens, and keys that are not an ISBN-13
+ * or a 12-digit user Id are rejected on write and never found on read. Borrowing state and
+ * the borrower are kept on the shared {@link Book} instances and change by compare-and-set,
+ * so borrowing and returning never lock.
+ * <p>
+ * Footprint: every entry costs one 8-byte key slot and one reference slot, and tables are kept between 30% and
+ * 60% full. Measured with {@code StorageBenchmark} on JDK 17 with compressed references, the index retains
+ * 25 to 32 bytes per book, not counting the {@code Book} itself, against 40 to 43 bytes for a
+ * {@code ConcurrentHashMap<String, Book>} keyed by the books' own ISBN instances; a map keyed by other string
+ * instances would add about 56 bytes per book for the keys.
+ * <p>
+ * Throughput: the same benchmark, one thread, measured 9 to 14 lookups per microsecond here against 15 to 31 for
+ * the map at 1M and 100K books, and 5 to 15 puts against 7 to 16. The map wins lookups on repeated
+ * query strings, whose hash codes are cached; this service's advantage is the footprint and the absence of
+ * key objects, not the speed of a single lookup.
+ */
+public class InMemoryDatabaseService implements DatabaseService {
+
+    // Default number of books and users the tables are presized for.
+    private static final int DEFAULT_EXPECTED_SIZE = 1024;
+
+    // Books keyed by packed ISBN.
+    private final LongKeyMap<Book> books;
+    // Users keyed by packed user Id.
+    private final LongKeyMap<User> users;
+
+    /**
+     * Constructs an empty database with default capacity.
+     */
+    public InMemoryDatabaseService() {
+        this(DEFAULT_EXPECTED_SIZE, DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Constructs an empty database presized for the given number of books and users.
+     *
+     * @param expectedBooks The expected number of books.
+     * @param expectedUsers The expected number of users.
+     */
+    public InMemoryDatabaseService(int expectedBooks, int expectedUsers) {
+        this.books = new LongKeyMap<>(expectedBooks);
+        this.users = new LongKeyMap<>(expectedUsers);
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        books.put(requireISBN(ISBN), book);
+    }
+
+    @Override
+    public WriteOutcome addBookIfAbsent(String ISBN, Book book) {
+        return books.putIfAbsent(requireISBN(ISBN), book) == null ? WriteOutcome.APPLIED : WriteOutcome.ALREADY_EXISTS;
+    }
+
+    @Override
+    public void addBooks(Map<String, Book> batch) {
+        // Pack every key first so an invalid key rejects the batch before anything is written.
+        long[] keys = new long[batch.size()];
+        int i = 0;
+        for (String ISBN : batch.keySet()) {
+            keys[i++] = requireISBN(ISBN);
+        }
+        // Take the table's lock once for the whole batch.
+        synchronized (books) {
+            i = 0;
+            for (Book book : batch.values()) {
+                books.put(keys[i++], book);
+            }
+        }
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        long key = Keys.userId(id);
+        if (key == Keys.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        users.put(key, user);
+    }
+
+    @Override
+    public WriteOutcome registerUserIfAbsent(String id, User user) {
+        long key = Keys.userId(id);
+        if (key == Keys.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        return users.putIfAbsent(key, user) == null ? WriteOutcome.APPLIED : WriteOutcome.ALREADY_EXISTS;
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        long key = Keys.isbn(ISBN);
+        return key == Keys.INVALID ? null : books.get(key);
+    }
+
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        Map<String, Book> found = new HashMap<>();
+        for (String ISBN : ISBNs) {
+            Book book = getBookByISBN(ISBN);
+            if (book != null) {
+                found.put(ISBN, book);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        long key = Keys.userId(userId);
+        return key == Keys.INVALID ? null : users.get(key);
+    }
+
+    /**
+     * Marks a book as borrowed by a user, unless it is already borrowed.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        Book book = getBookByISBN(ISBN);
+        if (book != null) {
+            book.tryBorrow(userId);
+        }
+    }
+
+    /**
+     * Marks a book as returned, unless it is not borrowed.
+     *
+     * @param ISBN The International Standard Book Number of the book to be returned.
+     */
+    @Override
+    public void returnBook(String ISBN) {
+        Book book = getBookByISBN(ISBN);
+        if (book != null) {
+            book.tryReturn();
+        }
+    }
+
+    @Override
+    public WriteOutcome compareAndSetBorrowed(String ISBN, String userId, boolean expected, boolean update) {
+        Book book = getBookByISBN(ISBN);
+        if (book == null) {
+            return WriteOutcome.BOOK_NOT_FOUND;
+        }
+        if (update && getUserById(userId) == null) {
+            return WriteOutcome.USER_NOT_FOUND;
+        }
+        boolean applied;
+        if (expected == update) {
+            applied = book.isBorrowed() == expected;
+        } else {
+            applied = update ? book.tryBorrow(userId) : book.tryReturn(userId);
+        }
+        return applied ? WriteOutcome.APPLIED : WriteOutcome.STATE_MISMATCH;
+    }
+
+    /**
+     * Fetches the Id of the user currently borrowing a book.
+     *
+     * @param ISBN The International Standard Book Number of the book.
+     * @return The borrower's Id, or null if the book is not borrowed.
+     */
+    public String getBorrowerId(String ISBN) {
+        Book book = getBookByISBN(ISBN);
+        return book == null ? null : book.getBorrowerId();
+    }
+
+    @Override
+    public boolean canEnumerate() {
+        return true;
+    }
+
+    @Override
+    public void forEachISBN(Consumer<String> visitor) {
+        books.forEach((key, book) -> visitor.accept(Keys.formatISBN(key)));
+    }
+
+    @Override
+    public void forEachUserId(Consumer<String> visitor) {
+        users.forEach((key, user) -> visitor.accept(Keys.formatUserId(key)));
+    }
+
+    /**
+     * Retrieves the number of books in the database.
+     *
+     * @return The book count.
+     */
+    public int getBookCount() {
+        return books.size();
+    }
+
+    /**
+     * Retrieves the number of registered users.
+     *
+     * @return The user count.
+     */
+    public int getUserCount() {
+        return users.size();
+    }
+
+    // Access by packed key, for stores persisting this one.
+
+    Book getBook(long key) {
+        return books.get(key);
+    }
+
+    void putBook(long key, Book book) {
+        books.put(key, book);
+    }
+
+    void putUser(long key, User user) {
+        users.put(key, user);
+    }
+
+    void forEachBook(LongKeyMap.EntryVisitor<Book> visitor) {
+        books.forEach(visitor);
+    }
+
+    void forEachUser(LongKeyMap.EntryVisitor<User> visitor) {
+        users.forEach(visitor);
+    }
+
+    private static long requireISBN(String ISBN) {
+        long key = Keys.isbn(ISBN);
+        if (key == Keys.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return key;
+    }
+}
@@ -0,0 +1,395 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A {@link DatabaseService} that indexes the books added through it by title and author, so the catalog can be
+ * searched without scanning it.
+ * <p>
+ * Titles and authors are normalized before they are indexed or searched: lower-cased, with every run of characters
+ * other than letters and digits turned into a single space. A title query of 3 characters or more matches the titles
+ * containing it, through an inverted index of every 3-character sequence (trigram) of the titles: the candidates
+ * are the intersection of the query's trigram posting lists, checked against the title itself. A shorter title query
+ * matches the titles with a word starting with it, through an index of the 1- and 2-character word prefixes.
+ * An author query matches the books whose author is equal to it.
+ * <p>
+ * Every indexed book gets an increasing id, posting lists hold ids in ascending order, and results are returned
+ * in id order. A cursor is the id of the last book of a page, so paging through a search stays stable while books
+ * are added: new books only ever appear after every existing one. A book replaced by {@link #addBook} with the same
+ * ISBN drops out of the results and the new one is indexed at the end.
+ * <p>
+ * The availability filter reads {@link Book#isBorrowed()} of the indexed instance when the query runs, which
+ * reflects the current state for stores that keep the added instance, such as {@link InMemoryDatabaseService}.
+ * <p>
+ * Indexing is serialized on the index; searches never lock. Every other call is forwarded as it is.
+ */
+public class IndexingDatabaseService implements DatabaseService {
+
+    /**
+     * Filters search results by borrowing state.
+     */
+    public enum Availability {
+        // Every matching book.
+        ANY,
+        // Only the matching books that are not borrowed.
+        AVAILABLE,
+        // Only the matching books that are borrowed.
+        BORROWED
+    }
+
+    // Largest page a search may ask for.
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    // Length of the sequences of the title index.
+    private static final int GRAM = 3;
+    // Distinguishes 2-character prefix keys from 1-character ones.
+    private static final long TWO_CHARACTER_PREFIX = 1L << 32;
+
+    // The service the calls are forwarded to.
+    private final DatabaseService delegate;
+
+    // Indexed books by id, null once replaced; grown under this, published before docCount.
+    private volatile Book[] docs = new Book[1024];
+    private volatile int docCount;
+    // Id of the current document of every indexed ISBN, keyed by packed ISBN.
+    private final LongKeyMap<Integer> docIds = new LongKeyMap<>(1024);
+    // Title trigram posting lists, keyed by the trigram's three characters.
+    private final LongKeyMap<Postings> trigrams = new LongKeyMap<>(1024);
+    // Title word prefix posting lists, keyed by the prefix's one or two characters.
+    private final LongKeyMap<Postings> prefixes = new LongKeyMap<>(1024);
+    // Author posting lists, keyed by normalized author.
+    private final ConcurrentHashMap<String, Postings> authors = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an indexing database service over an empty index.
+     * Books already in the delegate are not indexed; add them through {@link #addBooks} to index them.
+     *
+     * @param delegate The service the calls are forwarded to.
+     */
+    public IndexingDatabaseService(DatabaseService delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Invalid indexing database service configuration.");
+        }
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        delegate.addBook(ISBN, book);
+        index(ISBN, book);
+    }
+
+    @Override
+    public void addBooks(Map<String, Book> books) {
+        delegate.addBooks(books);
+        synchronized (this) {
+            for (Map.Entry<String, Book> entry : books.entrySet()) {
+                index(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public WriteOutcome addBookIfAbsent(String ISBN, Book book) {
+        WriteOutcome outcome = delegate.addBookIfAbsent(ISBN, book);
+        if (outcome == WriteOutcome.APPLIED) {
+            index(ISBN, book);
+        }
+        return outcome;
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        delegate.registerUser(id, user);
+    }
+
+    @Override
+    public WriteOutcome registerUserIfAbsent(String id, User user) {
+        return delegate.registerUserIfAbsent(id, user);
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        return delegate.getBookByISBN(ISBN);
+    }
+
+    @Override
+    public Map<String, Book> getBooksByISBN(Collection<String> ISBNs) {
+        return delegate.getBooksByISBN(ISBNs);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        return delegate.getUserById(userId);
+    }
+
+    @Override
+    public boolean canEnumerate() {
+        return delegate.canEnumerate();
+    }
+
+    @Override
+    public void forEachISBN(Consumer<String> visitor) {
+        delegate.forEachISBN(visitor);
+    }
+
+    @Override
+    public void forEachUserId(Consumer<String> visitor) {
+        delegate.forEachUserId(visitor);
+    }
+
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        delegate.borrowBook(ISBN, userId);
+    }
+
+    @Override
+    public void returnBook(String ISBN) {
+        delegate.returnBook(ISBN);
+    }
+
+    @Override
+    public WriteOutcome compareAndSetBorrowed(String ISBN, String userId, boolean expected, boolean update) {
+        return delegate.compareAndSetBorrowed(ISBN, userId, expected, update);
+    }
+
+    @Override
+    public Map<String, WriteOutcome> compareAndSetBorrowedAll(Collection<String> ISBNs, String userId,
+                                                              boolean expected, boolean update) {
+        return delegate.compareAndSetBorrowedAll(ISBNs, userId, expected, update);
+    }
+
+    /**
+     * Searches the indexed books by title.
+     *
+     * @param query        Text the title must contain, or, below 3 characters, a prefix of one of the title's words.
+     * @param availability The borrowing state of the books to return.
+     * @param cursor       The cursor of the previous page, or null for the first page.
+     * @param limit        The maximum number of books to return, between 1 and {@link #MAX_PAGE_SIZE}.
+     * @return The page of matching books.
+     * @throws IllegalArgumentException If the query has no letter or digit, or the cursor or limit is invalid.
+     */
+    public SearchPage searchByTitle(String query, Availability availability, String cursor, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Invalid query.");
+        }
+        int after = parseCursor(cursor, limit, availability);
+        if (normalized.length() < GRAM) {
+            long key = normalized.length() == 1 ? normalized.charAt(0) : prefixKey(normalized.charAt(0), normalized.charAt(1));
+            return page(new Postings[]{prefixes.get(key)}, null, availability, after, limit);
+        }
+        Postings[] lists = new Postings[normalized.length() - GRAM + 1];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = trigrams.get(trigramKey(normalized, i));
+        }
+        // A query of exactly one trigram needs no check against the title itself.
+        return page(lists, lists.length == 1 ? null : normalized, availability, after, limit);
+    }
+
+    /**
+     * Searches the indexed books by author.
+     *
+     * @param author       The author, compared after normalization.
+     * @param availability The borrowing state of the books to return.
+     * @param cursor       The cursor of the previous page, or null for the first page.
+     * @param limit        The maximum number of books to return, between 1 and {@link #MAX_PAGE_SIZE}.
+     * @return The page of matching books.
+     * @throws IllegalArgumentException If the author has no letter or digit, or the cursor or limit is invalid.
+     */
+    public SearchPage searchByAuthor(String author, Availability availability, String cursor, int limit) {
+        String normalized = normalize(author);
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Invalid query.");
+        }
+        int after = parseCursor(cursor, limit, availability);
+        return page(new Postings[]{authors.get(normalized)}, null, availability, after, limit);
+    }
+
+    /**
+     * Retrieves the number of books currently indexed.
+     *
+     * @return The indexed book count, not counting replaced books.
+     */
+    public int getIndexedCount() {
+        return docIds.size();
+    }
+
+    private synchronized void index(String ISBN, Book book) {
+        long key = Keys.isbn(ISBN);
+        if (key == Keys.INVALID || book == null) {
+            return;
+        }
+        int id = docCount;
+        Book[] current = docs;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, id + (id >> 1));
+        }
+        current[id] = book;
+        Integer replaced = docIds.put(key, id);
+        if (replaced != null) {
+            current[replaced] = null;
+        }
+        docs = current;
+        docCount = id + 1;
+
+        String title = normalize(book.getTitle());
+        for (int i = 0; i + GRAM <= title.length(); i++) {
+            postings(trigrams, trigramKey(title, i)).add(id);
+        }
+        for (int i = 0; i < title.length(); i++) {
+            if (title.charAt(i) != ' ' && (i == 0 || title.charAt(i - 1) == ' ')) {
+                postings(prefixes, title.charAt(i)).add(id);
+                if (i + 1 < title.length() && title.charAt(i + 1) != ' ') {
+                    postings(prefixes, prefixKey(title.charAt(i), title.charAt(i + 1))).add(id);
+                }
+            }
+        }
+        String author = normalize(book.getAuthor());
+        if (!author.isEmpty()) {
+            authors.computeIfAbsent(author, name -> new Postings()).add(id);
+        }
+    }
+
+    private static Postings postings(LongKeyMap<Postings> index, long key) {
+        Postings list = index.get(key);
+        if (list == null) {
+            list = new Postings();
+            index.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * Intersects posting lists, skipping to the first id after the cursor, and collects the matching books.
+     *
+     * @param lists        The posting lists, null for a sequence no title has.
+     * @param contained    Text the normalized title must contain, or null if every intersected id matches.
+     * @param availability The borrowing state of the books to return.
+     * @param after        The id of the last book of the previous page, or -1.
+     * @param limit        The maximum number of books to return.
+     * @return The page.
+     */
+    private SearchPage page(Postings[] lists, String contained, Availability availability, int after, int limit) {
+        List<Book> found = new ArrayList<>();
+        int count = lists.length;
+        int[][] arrays = new int[count][];
+        int[] sizes = new int[count];
+        for (Postings list : lists) {
+            if (list == null) {
+                return new SearchPage(found, null);
+            }
+        }
+        // Drive the intersection from the shortest list.
+        Arrays.sort(lists, Comparator.comparingInt(Postings::size));
+        for (int i = 0; i < count; i++) {
+            sizes[i] = lists[i].size();
+            arrays[i] = lists[i].array();
+        }
+        Book[] books = docs;
+        int[] positions = new int[count];
+        int lastId = -1;
+        int i = Postings.seek(arrays[0], 0, sizes[0], after + 1);
+        candidates:
+        for (; i < sizes[0]; i++) {
+            int id = arrays[0][i];
+            for (int l = 1; l < count; l++) {
+                positions[l] = Postings.seek(arrays[l], positions[l], sizes[l], id);
+                if (positions[l] == sizes[l]) {
+                    break candidates;
+                }
+                if (arrays[l][positions[l]] != id) {
+                    continue candidates;
+                }
+            }
+            // A book is stored before its id is posted, so the array read after the postings holds it.
+            Book book = books[id];
+            if (book == null || !matches(book, contained, availability)) {
+                continue;
+            }
+            if (found.size() == limit) {
+                // One more match exists, so the page gets a cursor.
+                return new SearchPage(found, Integer.toString(lastId));
+            }
+            found.add(book);
+            lastId = id;
+        }
+        return new SearchPage(found, null);
+    }
+
+    private static boolean matches(Book book, String contained, Availability availability) {
+        if (availability == Availability.AVAILABLE && book.isBorrowed()
+                || availability == Availability.BORROWED && !book.isBorrowed()) {
+            return false;
+        }
+        return contained == null || normalize(book.getTitle()).contains(contained);
+    }
+
+    private static int parseCursor(String cursor, int limit, Availability availability) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Invalid limit.");
+        }
+        if (availability == null) {
+            throw new IllegalArgumentException("Invalid availability.");
+        }
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            int after = Integer.parseInt(cursor);
+            if (after >= 0) {
+                return after;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Invalid cursor.");
+    }
+
+    /**
+     * Lower-cases a string and turns every run of characters other than letters and digits into a single space.
+     *
+     * @param value The string, may be null.
+     * @return The normalized string, without leading or trailing spaces.
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        String lower = value.toLowerCase(Locale.ROOT);
+        StringBuilder normalized = new StringBuilder(lower.length());
+        boolean space = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static long trigramKey(String text, int start) {
+        return (long) text.charAt(start) << 32 | (long) text.charAt(start + 1) << 16 | text.charAt(start + 2);
+    }
+
+    private static long prefixKey(char first, char second) {
+        return TWO_CHARACTER_PREFIX | (long) first << 16 | second;
+    }
+}
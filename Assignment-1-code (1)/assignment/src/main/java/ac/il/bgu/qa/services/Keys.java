@@ -0,0 +1,84 @@
+package ac.il.bgu.qa.services;
+
+/**
+ * Packs the library's numeric identifiers into primitive longs.
+ * An ISBN-13 always has 13 digits and a user Id always has 12, so the fixed width keeps
+ * leading zeros significant and the packed value fits comfortably in a long.
+ */
+final class Keys {
+
+    // Returned when a string is not a packable identifier.
+    static final long INVALID = -1;
+
+    private Keys() {
+    }
+
+    /**
+     * Packs an ISBN-13 into a long. Hyphens are ignored, so "978-0-306-40615-7" and "9780306406157" share a key.
+     *
+     * @param ISBN The International Standard Book Number.
+     * @return The packed key, or {@link #INVALID} if the ISBN does not consist of exactly 13 digits.
+     */
+    static long isbn(String ISBN) {
+        return pack(ISBN, 13, true);
+    }
+
+    /**
+     * Packs a 12-digit user Id into a long.
+     *
+     * @param userId The unique identifier for the user.
+     * @return The packed key, or {@link #INVALID} if the Id does not consist of exactly 12 digits.
+     */
+    static long userId(String userId) {
+        return pack(userId, 12, false);
+    }
+
+    /**
+     * Formats a packed ISBN-13 as its 13 digits, without hyphens.
+     *
+     * @param key A key returned by {@link #isbn}.
+     * @return The ISBN.
+     */
+    static String formatISBN(long key) {
+        return format(key, 13);
+    }
+
+    /**
+     * Formats a packed user Id as its 12 digits.
+     *
+     * @param key A key returned by {@link #userId}.
+     * @return The user Id.
+     */
+    static String formatUserId(long key) {
+        return format(key, 12);
+    }
+
+    private static String format(long key, int width) {
+        char[] digits = new char[width];
+        for (int i = width - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + key % 10);
+            key /= 10;
+        }
+        return new String(digits);
+    }
+
+    private static long pack(String value, int width, boolean skipHyphens) {
+        if (value == null) {
+            return INVALID;
+        }
+        long key = 0;
+        int digits = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (skipHyphens && c == '-') {
+                continue;
+            }
+            if (c < '0' || c > '9' || digits == width) {
+                return INVALID;
+            }
+            key = key * 10 + (c - '0');
+            digits++;
+        }
+        return digits == width ? key : INVALID;
+    }
+}
@@ -0,0 +1,218 @@
+package ac.il.bgu.qa.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An open-addressing hash map from non-negative primitive long keys to object values.
+ * Keys are stored unboxed in a flat array and probed linearly, so an entry costs one long
+ * and one reference slot instead of a node object and a key object.
+ * <p>
+ * Reads are lock-free: a slot's value is published before its key, and a resized table is
+ * published through a volatile field only once fully populated. Writes are serialized on the map's monitor.
+ * Entries are never removed, which suits stores whose key set only grows.
+ *
+ * @param <V> The type of the values.
+ */
+final class LongKeyMap<V> {
+
+    // Maximum fill ratio of the table before it doubles.
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /**
+     * One generation of the table. Keys are stored shifted by one so that 0 marks an empty slot.
+     */
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+        final int threshold;
+
+        Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+        }
+    }
+
+    // The current table, replaced as a whole on resize.
+    private volatile Table table;
+    // Number of keys, written under this.
+    private volatile int size;
+
+    /**
+     * Constructs a map sized to hold the given number of keys without resizing.
+     *
+     * @param expectedSize The expected number of keys.
+     */
+    LongKeyMap(int expectedSize) {
+        this.table = new Table(capacityFor(expectedSize));
+    }
+
+    /**
+     * Fetches the value mapped to a key without locking.
+     *
+     * @param key A non-negative key.
+     * @return The value, or null if the key is not mapped.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        Table t = table;
+        long stored = key + 1;
+        int i = indexFor(key, t.mask);
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == stored) {
+                return (V) t.values.get(i);
+            }
+            if (k == 0) {
+                return null;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value.
+     *
+     * @param key   A non-negative key.
+     * @param value The value, must not be null.
+     * @return The previous value, or null if the key was not mapped.
+     */
+    synchronized V put(long key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Maps a key to a value only if the key is not mapped yet.
+     *
+     * @param key   A non-negative key.
+     * @param value The value, must not be null.
+     * @return The current value if the key was already mapped, or null if the value was stored.
+     */
+    synchronized V putIfAbsent(long key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Receives the entries of a map, see {@link #forEach(EntryVisitor)}.
+     *
+     * @param <V> The type of the values.
+     */
+    interface EntryVisitor<V> {
+        void visit(long key, V value);
+    }
+
+    /**
+     * Visits every entry without locking. Entries written concurrently may or may not be visited.
+     *
+     * @param visitor Receives every key and its value.
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(EntryVisitor<? super V> visitor) {
+        Table t = table;
+        for (int i = 0; i <= t.mask; i++) {
+            long k = t.keys.get(i);
+            if (k != 0) {
+                visitor.visit(k - 1, (V) t.values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of keys.
+     *
+     * @return The number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves the number of slots of the current table, for footprint reporting.
+     *
+     * @return The table capacity.
+     */
+    int capacity() {
+        return table.mask + 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(long key, V value, boolean onlyIfAbsent) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        Table t = table;
+        long stored = key + 1;
+        int i = find(t, stored);
+        if (i >= 0) {
+            Object previous = t.values.get(i);
+            if (!onlyIfAbsent) {
+                t.values.set(i, value);
+            }
+            return (V) previous;
+        }
+        if (size >= t.threshold) {
+            t = resize(t);
+        }
+        insert(t, stored, value);
+        size++;
+        return null;
+    }
+
+    private Table resize(Table old) {
+        Table grown = new Table((old.mask + 1) << 1);
+        for (int i = 0; i <= old.mask; i++) {
+            long k = old.keys.get(i);
+            if (k != 0) {
+                insert(grown, k, old.values.get(i));
+            }
+        }
+        // Publish only once fully populated so readers never observe a partial table.
+        table = grown;
+        return grown;
+    }
+
+    private static void insert(Table t, long stored, Object value) {
+        int i = indexFor(stored - 1, t.mask);
+        while (t.keys.get(i) != 0) {
+            i = (i + 1) & t.mask;
+        }
+        // The value is written before the key so a reader that finds the key also finds the value.
+        t.values.set(i, value);
+        t.keys.set(i, stored);
+    }
+
+    private static int find(Table t, long stored) {
+        int i = indexFor(stored - 1, t.mask);
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == stored) {
+                return i;
+            }
+            if (k == 0) {
+                return -1;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    private static int indexFor(long key, int mask) {
+        // 64-bit finalizer from MurmurHash3, spreads sequential ISBNs and user Ids across the table.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,443 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * A {@link DatabaseService} serving a large, read-mostly catalog of books from a memory-mapped file,
+ * so that the catalog costs no heap and no garbage collection work.
+ * <p>
+ * The catalog file is written once by {@link #writeCatalog} and holds one column per field: the packed ISBNs,
+ * sorted so that the column doubles as the ISBN index, and the offsets of every title and author in a string heap
+ * that follows the columns. The heap is dictionary encoded: every distinct title and author is stored once, and
+ * the books sharing it point to the same offset. Opening the file only maps it, so startup takes the same time whatever the catalog size
+ * and pages are loaded by the operating system as they are first read. A lookup binary searches the ISBN column and
+ * materializes a new {@link Book} view holding the book's current borrowing state; nothing is cached.
+ * <p>
+ * Borrowing state lives on the heap, as one bit per catalog book changed by compare-and-set, plus the borrower Id of
+ * the books currently borrowed. The file itself is never written, so borrowing state starts clear on every opening.
+ * Since every lookup returns a fresh view, borrowing and returning catalog books must go through this service
+ * rather than through the returned {@link Book}.
+ * <p>
+ * Books added at runtime and users are kept on the heap, as {@link InMemoryDatabaseService} does. A book added with
+ * the ISBN of a catalog book shadows the catalog book from then on.
+ * <p>
+ * Footprint: a catalog book costs 24 bytes of columns plus its title and author in UTF-8 with a 2-byte length each,
+ * unless another book already has them, all in the mapped file, and 1 bit of heap. For 10M books with 40 bytes of text that is about 0.7 GB of file
+ * and 1.25 MB of heap, against several GB of heap for the same books held as {@code Book} objects.
+ */
+public class MappedCatalogDatabaseService implements DatabaseService {
+
+    // Identifies a catalog file, "LIBC".
+    private static final int MAGIC = 0x4C494243;
+    private static final int VERSION = 1;
+    // Size of the magic number, version, book count and a reserved int preceding the columns.
+    private static final int HEADER = 16;
+    // Size of the string heap segments mapped separately; no string straddles two of them.
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    // Longest title or author, in UTF-8 bytes, that fits its 2-byte length.
+    private static final int MAX_STRING = 0xFFFF;
+
+    /**
+     * The string heap of a catalog being written, holding every distinct title and author once.
+     */
+    private static final class StringHeap {
+        // Offset of every string already in the heap.
+        private final Map<String, Long> offsets = new HashMap<>();
+        // The distinct strings in UTF-8, in heap order.
+        private final List<byte[]> strings = new ArrayList<>();
+        private long size;
+
+        /**
+         * Retrieves the offset of a string, laying it out at the end of the heap unless an equal one already is.
+         *
+         * @param value The string.
+         * @return The offset of the string in the heap.
+         * @throws IllegalArgumentException If the string is longer than 65535 bytes in UTF-8.
+         */
+        long offsetOf(String value) {
+            Long offset = offsets.get(value);
+            if (offset != null) {
+                return offset;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_STRING) {
+                throw new IllegalArgumentException("Invalid book.");
+            }
+            long start = place(size, bytes.length);
+            offsets.put(value, start);
+            strings.add(bytes);
+            size = start + 2 + bytes.length;
+            return start;
+        }
+
+        void writeTo(DataOutputStream data) throws IOException {
+            long position = 0;
+            for (byte[] bytes : strings) {
+                for (long start = place(position, bytes.length); position < start; position++) {
+                    data.writeByte(0);
+                }
+                data.writeShort(bytes.length);
+                data.write(bytes);
+                position += 2 + bytes.length;
+            }
+        }
+    }
+
+    private final int count;
+    // Packed ISBNs, sorted.
+    private final ByteBuffer keys;
+    // Offset in the string heap of every book's title.
+    private final ByteBuffer titles;
+    // Offset in the string heap of every book's author.
+    private final ByteBuffer authors;
+    // The string heap, in segments of SEGMENT_SIZE bytes.
+    private final ByteBuffer[] strings;
+
+    // One bit per catalog book, set while the book is borrowed.
+    private final AtomicLongArray borrowed;
+    // Borrower Ids of the catalog books borrowed by a known user, keyed by row; also serializes changes to a row.
+    private final ConcurrentHashMap<Integer, String> borrowers = new ConcurrentHashMap<>();
+
+    // Books added at runtime, keyed by packed ISBN.
+    private final LongKeyMap<Book> added;
+    // Users keyed by packed user Id.
+    private final LongKeyMap<User> users;
+
+    /**
+     * Opens a catalog file written by {@link #writeCatalog}.
+     *
+     * @param file The catalog file.
+     * @throws IOException If the file cannot be mapped or is not a catalog file.
+     */
+    public MappedCatalogDatabaseService(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER) {
+                throw new IOException("Invalid catalog file.");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            this.count = header.getInt(8);
+            long stringsStart = HEADER + 24L * count;
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || count < 0 || length < stringsStart) {
+                throw new IOException("Invalid catalog file.");
+            }
+            this.keys = channel.map(FileChannel.MapMode.READ_ONLY, HEADER, 8L * count);
+            this.titles = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + 8L * count, 8L * count);
+            this.authors = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + 16L * count, 8L * count);
+            long heapSize = length - stringsStart;
+            this.strings = new ByteBuffer[(int) ((heapSize + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < strings.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                        stringsStart + start, Math.min(SEGMENT_SIZE, heapSize - start));
+                strings[i] = segment;
+            }
+        }
+        this.borrowed = new AtomicLongArray((count + 63) >>> 6);
+        this.added = new LongKeyMap<>(1024);
+        this.users = new LongKeyMap<>(1024);
+    }
+
+    /**
+     * Writes a catalog file holding the given books, replacing the file if it exists.
+     * The books' borrowing state is not written.
+     *
+     * @param file  The catalog file.
+     * @param books The books, in any order.
+     * @throws IllegalArgumentException If a book has an invalid or duplicate ISBN, lacks a title or an author,
+     *                                  or has a title or author longer than 65535 bytes in UTF-8.
+     * @throws IOException              If the file cannot be written.
+     */
+    public static void writeCatalog(Path file, Collection<Book> books) throws IOException {
+        Book[] sorted = books.toArray(new Book[0]);
+        long[] packed = new long[sorted.length];
+        for (Book book : sorted) {
+            if (book == null || book.getTitle() == null || book.getAuthor() == null) {
+                throw new IllegalArgumentException("Invalid book.");
+            }
+            if (Keys.isbn(book.getISBN()) == Keys.INVALID) {
+                throw new IllegalArgumentException("Invalid ISBN.");
+            }
+        }
+        Arrays.sort(sorted, Comparator.comparingLong(book -> Keys.isbn(book.getISBN())));
+        for (int i = 0; i < sorted.length; i++) {
+            packed[i] = Keys.isbn(sorted[i].getISBN());
+            if (i > 0 && packed[i] == packed[i - 1]) {
+                throw new IllegalArgumentException("Duplicate ISBN.");
+            }
+        }
+
+        try (OutputStream out = Files.newOutputStream(file);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1024 * 1024))) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(sorted.length);
+            data.writeInt(0);
+            for (long key : packed) {
+                data.writeLong(key);
+            }
+            // The columns need the heap offsets up front, so the heap is laid out before it is written.
+            StringHeap heap = new StringHeap();
+            long[] authorOffsets = new long[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                data.writeLong(heap.offsetOf(sorted[i].getTitle()));
+                authorOffsets[i] = heap.offsetOf(sorted[i].getAuthor());
+            }
+            for (long offset : authorOffsets) {
+                data.writeLong(offset);
+            }
+            heap.writeTo(data);
+        }
+    }
+
+    @Override
+    public void addBook(String ISBN, Book book) {
+        added.put(requireISBN(ISBN), book);
+    }
+
+    @Override
+    public WriteOutcome addBookIfAbsent(String ISBN, Book book) {
+        long key = requireISBN(ISBN);
+        if (rowOf(key) >= 0) {
+            return WriteOutcome.ALREADY_EXISTS;
+        }
+        return added.putIfAbsent(key, book) == null ? WriteOutcome.APPLIED : WriteOutcome.ALREADY_EXISTS;
+    }
+
+    @Override
+    public void registerUser(String id, User user) {
+        users.put(requireUserId(id), user);
+    }
+
+    @Override
+    public WriteOutcome registerUserIfAbsent(String id, User user) {
+        return users.putIfAbsent(requireUserId(id), user) == null ? WriteOutcome.APPLIED : WriteOutcome.ALREADY_EXISTS;
+    }
+
+    @Override
+    public Book getBookByISBN(String ISBN) {
+        long key = Keys.isbn(ISBN);
+        if (key == Keys.INVALID) {
+            return null;
+        }
+        Book book = added.get(key);
+        if (book != null) {
+            return book;
+        }
+        int row = rowOf(key);
+        return row < 0 ? null : materialize(key, row);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        long key = Keys.userId(userId);
+        return key == Keys.INVALID ? null : users.get(key);
+    }
+
+    /**
+     * Marks a book as borrowed by a user, unless it is already borrowed.
+     *
+     * @param ISBN   The International Standard Book Number of the book to be borrowed.
+     * @param userId The unique identifier for the user borrowing the book.
+     */
+    @Override
+    public void borrowBook(String ISBN, String userId) {
+        setBorrowed(Keys.isbn(ISBN), userId, false, true);
+    }
+
+    /**
+     * Marks a book as returned, unless it is not borrowed.
+     *
+     * @param ISBN The International Standard Book Number of the book to be returned.
+     */
+    @Override
+    public void returnBook(String ISBN) {
+        setBorrowed(Keys.isbn(ISBN), null, true, false);
+    }
+
+    @Override
+    public WriteOutcome compareAndSetBorrowed(String ISBN, String userId, boolean expected, boolean update) {
+        long key = Keys.isbn(ISBN);
+        if (key == Keys.INVALID || (added.get(key) == null && rowOf(key) < 0)) {
+            return WriteOutcome.BOOK_NOT_FOUND;
+        }
+        if (update && getUserById(userId) == null) {
+            return WriteOutcome.USER_NOT_FOUND;
+        }
+        return setBorrowed(key, userId, expected, update) ? WriteOutcome.APPLIED : WriteOutcome.STATE_MISMATCH;
+    }
+
+    @Override
+    public boolean canEnumerate() {
+        return true;
+    }
+
+    @Override
+    public void forEachISBN(Consumer<String> visitor) {
+        for (int row = 0; row < count; row++) {
+            visitor.accept(Keys.formatISBN(keys.getLong(row << 3)));
+        }
+        added.forEach((key, book) -> {
+            if (rowOf(key) < 0) {
+                visitor.accept(Keys.formatISBN(key));
+            }
+        });
+    }
+
+    @Override
+    public void forEachUserId(Consumer<String> visitor) {
+        users.forEach((key, user) -> visitor.accept(Keys.formatUserId(key)));
+    }
+
+    /**
+     * Retrieves the number of books in the catalog file, not counting the books added at runtime.
+     *
+     * @return The catalog book count.
+     */
+    public int getCatalogSize() {
+        return count;
+    }
+
+    private boolean setBorrowed(long key, String userId, boolean expected, boolean update) {
+        if (key == Keys.INVALID) {
+            return false;
+        }
+        Book book = added.get(key);
+        if (book != null) {
+            if (expected == update) {
+                return book.isBorrowed() == expected;
+            }
+            return update ? book.tryBorrow(userId) : book.tryReturn(userId);
+        }
+        int row = rowOf(key);
+        if (row < 0) {
+            return false;
+        }
+        if (expected == update) {
+            return isBorrowed(row) == expected;
+        }
+        // Changes to a row are serialized by the borrower map's per-key locking, so the bit and the borrower
+        // change together; the bit itself is set by compare-and-set since its word is shared with other rows.
+        boolean[] applied = new boolean[1];
+        borrowers.compute(row, (r, borrower) -> {
+            if (isBorrowed(row) != expected || (!update && userId != null && !userId.equals(borrower))) {
+                return borrower;
+            }
+            flip(row);
+            applied[0] = true;
+            return update ? userId : null;
+        });
+        return applied[0];
+    }
+
+    private void flip(int row) {
+        int word = row >>> 6;
+        long mask = 1L << row;
+        while (true) {
+            long bits = borrowed.get(word);
+            if (borrowed.compareAndSet(word, bits, bits ^ mask)) {
+                return;
+            }
+        }
+    }
+
+    private boolean isBorrowed(int row) {
+        return (borrowed.get(row >>> 6) & (1L << row)) != 0;
+    }
+
+    private Book materialize(long key, int row) {
+        Book book = new Book(Keys.formatISBN(key), readString(titles.getLong(row << 3)), readString(authors.getLong(row << 3)));
+        if (isBorrowed(row)) {
+            book.tryBorrow(borrowers.get(row));
+        }
+        return book;
+    }
+
+    /**
+     * Binary searches the ISBN column.
+     *
+     * @param key The packed ISBN.
+     * @return The book's row, or -1 if the catalog has no such book.
+     */
+    private int rowOf(long key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long candidate = keys.getLong(middle << 3);
+            if (candidate < key) {
+                low = middle + 1;
+            } else if (candidate > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private String readString(long offset) {
+        ByteBuffer segment = strings[(int) (offset >>> SEGMENT_BITS)];
+        int position = (int) (offset & (SEGMENT_SIZE - 1));
+        byte[] bytes = new byte[segment.getShort(position) & 0xFFFF];
+        ByteBuffer view = segment.duplicate();
+        view.position(position + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Moves a string that would straddle two heap segments to the start of the next one.
+     *
+     * @param position The heap position the string would start at.
+     * @param length   The string's encoded length.
+     * @return The heap position the string starts at.
+     */
+    private static long place(long position, int length) {
+        long end = position + 2 + length;
+        if ((position >>> SEGMENT_BITS) != ((end - 1) >>> SEGMENT_BITS)) {
+            return (end - 1) >>> SEGMENT_BITS << SEGMENT_BITS;
+        }
+        return position;
+    }
+
+    private static long requireISBN(String ISBN) {
+        long key = Keys.isbn(ISBN);
+        if (key == Keys.INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN.");
+        }
+        return key;
+    }
+
+    private static long requireUserId(String id) {
+        long key = Keys.userId(id);
+        if (key == Keys.INVALID) {
+            throw new IllegalArgumentException("Invalid user Id.");
+        }
+        return key;
+    }
+}
@@ -0,0 +1,65 @@
+package ac.il.bgu.qa.services;
+
+import java.util.Objects;
+
+/**
+ * Represents a single notification message addressed to a user.
+ */
+public class Notification {
+
+    // The unique identifier of the user to be notified.
+    private final String userId;
+    // The content of the notification message.
+    private final String message;
+
+    /**
+     * Constructs a new Notification object.
+     *
+     * @param userId  The unique identifier of the user to be notified.
+     * @param message The content of the notification message.
+     */
+    public Notification(String userId, String message) {
+        this.userId = userId;
+        this.message = message;
+    }
+
+    /**
+     * Retrieves the unique identifier of the user to be notified.
+     *
+     * @return The user's Id.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Retrieves the content of the notification message.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Notification)) {
+            return false;
+        }
+        Notification notification = (Notification) other;
+        return Objects.equals(userId, notification.userId) && Objects.equals(message, notification.message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, message);
+    }
+
+    @Override
+    public String toString() {
+        return "Notification{userId='" + userId + "', message='" + message + "'}";
+    }
+}
@@ -2,6 +2,8 @@ package ac.il.bgu.qa.services;
 
 import ac.il.bgu.qa.errors.NotificationException;
 
+import java.util.List;
+
 /**
  * Provides an interface for services responsible for notifying users.
  */
@@ -15,4 +17,27 @@ public interface NotificationService {
      * @throws NotificationException If there's an issue sending the notification.
      */
     void notifyUser(String userId, String message) throws NotificationException;
+
+    /**
+     * Sends a batch of notification messages, possibly to different users, in a single request.
+     * Implementations backed by a gateway that supports batches should override this method;
+     * the default implementation falls back to one {@link #notifyUser} call per message,
+     * attempting every message even if some of them fail.
+     *
+     * @param notifications The notifications to be sent.
+     * @throws NotificationException If any of the notifications could not be sent.
+     */
+    default void notifyUsers(List<Notification> notifications) throws NotificationException {
+        int failed = 0;
+        for (Notification notification : notifications) {
+            try {
+                notifyUser(notification.getUserId(), notification.getMessage());
+            } catch (NotificationException e) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new NotificationException("Failed to send " + failed + " of " + notifications.size() + " notifications.");
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.util.List;
+
+/**
+ * A {@link ReviewService} that runs every fetch on a session borrowed from a {@link ReviewSessionPool}.
+ * <p>
+ * Each call to {@link #getReviewsForBook(String)} borrows a session and returns it to the pool
+ * when the fetch completes; a session whose fetch fails is returned as broken and closed.
+ * Because no connection is held between calls, {@link #close()} has nothing to tear down, so callers that
+ * close the service after every fetch, such as the library, keep their sessions open across requests.
+ * Use {@link #shutdown()} to close the pool itself.
+ */
+public class PooledReviewService implements ReviewService {
+
+    // The pool the sessions are borrowed from.
+    private final ReviewSessionPool pool;
+
+    /**
+     * Constructs a review service backed by a session pool.
+     *
+     * @param pool The pool the sessions are borrowed from.
+     */
+    public PooledReviewService(ReviewSessionPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Invalid review session pool.");
+        }
+        this.pool = pool;
+    }
+
+    @Override
+    public List<String> getReviewsForBook(String ISBN) throws ReviewException {
+        ReviewService session = pool.acquire();
+        boolean broken = true;
+        try {
+            List<String> reviews = session.getReviewsForBook(ISBN);
+            broken = false;
+            return reviews;
+        } finally {
+            pool.release(session, broken);
+        }
+    }
+
+    /**
+     * Tells whether the pooled sessions page natively, asking a session borrowed from the pool.
+     */
+    @Override
+    public boolean supportsPaging() {
+        ReviewService session = pool.acquire();
+        try {
+            return session.supportsPaging();
+        } finally {
+            pool.release(session, false);
+        }
+    }
+
+    @Override
+    public ReviewPage getReviewPage(String ISBN, String cursor, int limit) throws ReviewException {
+        ReviewService session = pool.acquire();
+        boolean broken = true;
+        try {
+            ReviewPage page = session.getReviewPage(ISBN, cursor, limit);
+            broken = false;
+            return page;
+        } finally {
+            pool.release(session, broken);
+        }
+    }
+
+    /**
+     * Does nothing: the session used by the last fetch is already back in the pool.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Closes the pool and all its idle sessions.
+     */
+    public void shutdown() {
+        pool.close();
+    }
+
+    /**
+     * Retrieves the pool the sessions are borrowed from.
+     *
+     * @return The session pool.
+     */
+    public ReviewSessionPool getPool() {
+        return pool;
+    }
+}
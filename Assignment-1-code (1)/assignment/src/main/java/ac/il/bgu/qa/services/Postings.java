@@ -0,0 +1,82 @@
+package ac.il.bgu.qa.services;
+
+/**
+ * A growing, ascending list of document ids, appended to by a single writer at a time and read without locking.
+ * <p>
+ * The writer stores an id, publishes the array holding it, and only then the new size, so a reader that reads the size
+ * first and the array second always finds at least that many ids in the array.
+ */
+final class Postings {
+
+    private volatile int[] ids = new int[4];
+    private volatile int size;
+
+    /**
+     * Appends an id, unless it is the last one already. Callers must serialize their appends.
+     *
+     * @param id An id no smaller than every id appended before.
+     */
+    void add(int id) {
+        int n = size;
+        int[] current = ids;
+        if (n > 0 && current[n - 1] == id) {
+            return;
+        }
+        if (n == current.length) {
+            int[] grown = new int[n + (n >> 1)];
+            System.arraycopy(current, 0, grown, 0, n);
+            current = grown;
+        }
+        current[n] = id;
+        ids = current;
+        size = n + 1;
+    }
+
+    /**
+     * Retrieves the number of ids.
+     *
+     * @return The id count, to be read before {@link #array()}.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves the array holding the ids, to be read after {@link #size()}.
+     *
+     * @return The array, whose first size elements are the ids.
+     */
+    int[] array() {
+        return ids;
+    }
+
+    /**
+     * Finds the position of the first id greater than or equal to a value, searching a sorted array.
+     *
+     * @param ids  The ids.
+     * @param from The position to start at.
+     * @param size The number of ids in the array.
+     * @param id   The value.
+     * @return The position, or size if every id is smaller.
+     */
+    static int seek(int[] ids, int from, int size, int id) {
+        // Gallop from the current position, since intersections mostly advance by short steps.
+        int step = 1;
+        int high = from;
+        while (high < size && ids[high] < id) {
+            from = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, size);
+        while (from < high) {
+            int middle = (from + high) >>> 1;
+            if (ids[middle] < id) {
+                from = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return from;
+    }
+}
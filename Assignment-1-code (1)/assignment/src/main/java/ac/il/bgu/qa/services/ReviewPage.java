@@ -0,0 +1,56 @@
+package ac.il.bgu.qa.services;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of the reviews of a book, see {@link ReviewService#getReviewPage}.
+ */
+public class ReviewPage {
+
+    // The reviews of this page, best first.
+    private final List<String> reviews;
+    // Resumes the retrieval after this page, or null if this is the last page.
+    private final String nextCursor;
+
+    /**
+     * Constructs a page.
+     *
+     * @param reviews    The reviews of the page, best first.
+     * @param nextCursor The cursor resuming the retrieval after this page, or null if this is the last page.
+     */
+    public ReviewPage(List<String> reviews, String nextCursor) {
+        if (reviews == null) {
+            throw new IllegalArgumentException("Invalid reviews.");
+        }
+        this.reviews = Collections.unmodifiableList(reviews);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Retrieves the reviews of this page.
+     *
+     * @return The reviews, best first.
+     */
+    public List<String> getReviews() {
+        return reviews;
+    }
+
+    /**
+     * Retrieves the cursor to pass to the same retrieval to get the next page.
+     *
+     * @return The cursor, or null if the book has no reviews after this page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Checks whether the book has more reviews after this page.
+     *
+     * @return true if {@link #getNextCursor()} is not null.
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -2,6 +2,8 @@ package ac.il.bgu.qa.services;
 
 import ac.il.bgu.qa.errors.ReviewException;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -18,6 +20,55 @@ public interface ReviewService {
      */
     List<String> getReviewsForBook(String ISBN) throws ReviewException;
 
+    /**
+     * Tells whether {@link #getReviewPage} fetches only the requested page. If not, every page costs a fetch of
+     * all the reviews, so a caller reading several pages should fetch them once with {@link #getReviewsForBook}
+     * instead. The default implementation does not page natively.
+     *
+     * @return true if the service pages natively.
+     */
+    default boolean supportsPaging() {
+        return false;
+    }
+
+    /**
+     * Fetches one page of the reviews for a book, best first, so that a caller needing only the top reviews
+     * can stop reading once it has enough. Implementations backed by a remote store should override this method
+     * to fetch only the requested page, and {@link #supportsPaging()} to say so; the default implementation fetches
+     * every review with {@link #getReviewsForBook(String)} and returns a slice of them, with the offset of the next
+     * review as cursor.
+     *
+     * @param ISBN   The International Standard Book Number (ISBN) of the book.
+     * @param cursor The cursor of the previous page, or null for the first page.
+     * @param limit  The maximum number of reviews returned, at least 1.
+     * @return The page, holding no reviews if the book has none after the cursor.
+     * @throws ReviewException          If there's an issue fetching the reviews.
+     * @throws IllegalArgumentException If the cursor or the limit is invalid.
+     */
+    default ReviewPage getReviewPage(String ISBN, String cursor, int limit) throws ReviewException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit.");
+        }
+        int offset = 0;
+        if (cursor != null) {
+            try {
+                offset = Integer.parseInt(cursor);
+            } catch (NumberFormatException e) {
+                offset = -1;
+            }
+            if (offset < 0) {
+                throw new IllegalArgumentException("Invalid cursor.");
+            }
+        }
+        List<String> reviews = getReviewsForBook(ISBN);
+        if (reviews == null || offset >= reviews.size()) {
+            return new ReviewPage(Collections.<String>emptyList(), null);
+        }
+        int end = (int) Math.min(reviews.size(), (long) offset + limit);
+        return new ReviewPage(new ArrayList<>(reviews.subList(offset, end)),
+                end < reviews.size() ? Integer.toString(end) : null);
+    }
+
     /**
      * Closes the review service, performing any necessary cleanup operations.
      */
@@ -0,0 +1,236 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of open {@link ReviewService} sessions.
+ * <p>
+ * Sessions are created on demand up to a maximum number, handed out with {@link #acquire()} and
+ * given back with {@link #release(ReviewService, boolean)}. A released session stays open and is reused
+ * by the next caller; only broken sessions, sessions failing the health check and sessions idle for
+ * longer than the idle timeout are closed. Idle sessions are reused most-recently-released first,
+ * so surplus sessions age out after a burst.
+ */
+public class ReviewSessionPool {
+
+    /**
+     * An open session waiting in the pool, with the time it was released.
+     */
+    private static final class IdleSession {
+        final ReviewService session;
+        final long releasedAt;
+
+        IdleSession(ReviewService session, long releasedAt) {
+            this.session = session;
+            this.releasedAt = releasedAt;
+        }
+    }
+
+    // Opens a new session.
+    private final Supplier<ReviewService> factory;
+    // Checks that an idle session is still usable before handing it out.
+    private final Predicate<ReviewService> healthCheck;
+    // Bounds the number of sessions open at the same time, idle or in use.
+    private final Semaphore permits;
+    // Maximum time a session may stay idle, in nanoseconds.
+    private final long maxIdleNanos;
+    // Maximum time to wait for a free session, in nanoseconds.
+    private final long acquireTimeoutNanos;
+    // Source of the current time in nanoseconds.
+    private final LongSupplier clock;
+
+    // Idle sessions, most recently released first, guarded by itself.
+    private final Deque<IdleSession> idle = new ArrayDeque<>();
+    // Set once the pool is closed, guarded by idle.
+    private boolean closed;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+
+    /**
+     * Constructs a pool that checks idle sessions with the given health check.
+     *
+     * @param factory        Opens a new session.
+     * @param maxSize        The maximum number of sessions open at the same time.
+     * @param maxIdle        How long a session may stay idle before it is closed.
+     * @param acquireTimeout How long {@link #acquire()} waits for a free session when the pool is exhausted.
+     * @param unit           The unit of {@code maxIdle} and {@code acquireTimeout}.
+     * @param healthCheck    Returns true if an idle session may be reused, or null to skip health checks.
+     */
+    public ReviewSessionPool(Supplier<ReviewService> factory, int maxSize, long maxIdle, long acquireTimeout,
+                             TimeUnit unit, Predicate<ReviewService> healthCheck) {
+        this(factory, maxSize, maxIdle, acquireTimeout, unit, healthCheck, System::nanoTime);
+    }
+
+    ReviewSessionPool(Supplier<ReviewService> factory, int maxSize, long maxIdle, long acquireTimeout,
+                      TimeUnit unit, Predicate<ReviewService> healthCheck, LongSupplier clock) {
+        if (factory == null || maxSize <= 0 || maxIdle <= 0 || acquireTimeout < 0) {
+            throw new IllegalArgumentException("Invalid review session pool configuration.");
+        }
+        this.factory = factory;
+        this.healthCheck = healthCheck;
+        this.permits = new Semaphore(maxSize, true);
+        this.maxIdleNanos = unit.toNanos(maxIdle);
+        this.acquireTimeoutNanos = unit.toNanos(acquireTimeout);
+        this.clock = clock;
+    }
+
+    /**
+     * Hands out an open session, reusing an idle one if possible.
+     *
+     * @return A session that must be given back with {@link #release(ReviewService, boolean)}.
+     * @throws ReviewException If no session became free in time, the pool is closed or a new session could not be opened.
+     */
+    public ReviewService acquire() throws ReviewException {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new ReviewException("Review session pool exhausted.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReviewException("Interrupted while waiting for a review session.");
+        }
+        try {
+            evictIdle();
+            IdleSession candidate;
+            while ((candidate = pollIdle()) != null) {
+                if (healthCheck == null || isHealthy(candidate.session)) {
+                    return candidate.session;
+                }
+                destroy(candidate.session);
+            }
+            ReviewService session = factory.get();
+            if (session == null) {
+                throw new ReviewException("Review session could not be opened.");
+            }
+            created.incrementAndGet();
+            return session;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e instanceof ReviewException ? (ReviewException) e : new ReviewException("Review session could not be opened.");
+        }
+    }
+
+    /**
+     * Gives a session back to the pool.
+     *
+     * @param session The session obtained from {@link #acquire()}.
+     * @param broken  true if the session failed and must be closed instead of reused.
+     */
+    public void release(ReviewService session, boolean broken) {
+        try {
+            boolean keep = false;
+            if (!broken) {
+                synchronized (idle) {
+                    if (!closed) {
+                        idle.addFirst(new IdleSession(session, clock.getAsLong()));
+                        keep = true;
+                    }
+                }
+            }
+            if (!keep) {
+                destroy(session);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes every session that has been idle for longer than the idle timeout.
+     * Called on every acquisition, and may also be called periodically by the owner.
+     */
+    public void evictIdle() {
+        long now = clock.getAsLong();
+        while (true) {
+            IdleSession oldest;
+            synchronized (idle) {
+                oldest = idle.peekLast();
+                if (oldest == null || now - oldest.releasedAt < maxIdleNanos) {
+                    return;
+                }
+                idle.removeLast();
+            }
+            destroy(oldest.session);
+        }
+    }
+
+    /**
+     * Closes every idle session and refuses to keep sessions released afterwards.
+     */
+    public void close() {
+        Deque<IdleSession> drained;
+        synchronized (idle) {
+            closed = true;
+            drained = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+        for (IdleSession session : drained) {
+            destroy(session.session);
+        }
+    }
+
+    /**
+     * Retrieves the number of idle sessions.
+     *
+     * @return The idle count.
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Retrieves the total number of sessions opened by this pool.
+     *
+     * @return The created count.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Retrieves the total number of sessions closed by this pool.
+     *
+     * @return The destroyed count.
+     */
+    public long getDestroyedCount() {
+        return destroyed.get();
+    }
+
+    private IdleSession pollIdle() {
+        synchronized (idle) {
+            if (closed) {
+                throw new ReviewException("Review session pool closed.");
+            }
+            return idle.pollFirst();
+        }
+    }
+
+    private boolean isHealthy(ReviewService session) {
+        try {
+            return healthCheck.test(session);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void destroy(ReviewService session) {
+        destroyed.incrementAndGet();
+        try {
+            session.close();
+        } catch (RuntimeException e) {
+            // The session is discarded either way.
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of the books matching a catalog search, see {@link IndexingDatabaseService}.
+ */
+public class SearchPage {
+
+    // The matching books of this page, in index order.
+    private final List<Book> books;
+    // Resumes the search after this page, or null if this is the last page.
+    private final String nextCursor;
+
+    SearchPage(List<Book> books, String nextCursor) {
+        this.books = Collections.unmodifiableList(books);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Retrieves the matching books of this page.
+     *
+     * @return The books, in the order they were indexed.
+     */
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    /**
+     * Retrieves the cursor to pass to the same search to get the next page.
+     *
+     * @return The cursor, or null if no book matches after this page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Checks whether more books match after this page.
+     *
+     * @return true if {@link #getNextCursor()} is not null.
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
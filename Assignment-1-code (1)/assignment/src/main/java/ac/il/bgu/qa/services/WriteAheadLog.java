@@ -0,0 +1,287 @@
+package ac.il.bgu.qa.services;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of length-prefixed, checksummed records, made durable by group commit.
+ * <p>
+ * {@link #append} only copies a record into an in-memory buffer and hands out its sequence number.
+ * {@link #sync} makes every record up to that number durable: the first caller to get there writes the whole
+ * buffer and forces it to disk, while concurrent callers wait for it and find their records already covered,
+ * so a burst of writers shares a single fsync.
+ * <p>
+ * Each record is framed as its payload length, the CRC-32 of its payload, and the payload.
+ * A record torn by a crash fails its checksum or its framing, and {@link #read} stops before it.
+ */
+final class WriteAheadLog implements Closeable {
+
+    // Size of the length and checksum preceding every payload.
+    private static final int FRAME_HEADER = 8;
+    // Smallest payload of a record.
+    private static final int MIN_PAYLOAD = 1;
+    // Initial size of the append buffers.
+    private static final int INITIAL_BUFFER = 64 * 1024;
+
+    /**
+     * Receives the payloads of the records read back from a log.
+     */
+    interface RecordHandler {
+        void handle(DataInputStream payload) throws IOException;
+    }
+
+    private final FileChannel channel;
+    // Runs before every force, while the writers that will share the next one queue up behind it.
+    private final Runnable beforeForce;
+
+    // Serializes appends and the buffer swap.
+    private final Object appendLock = new Object();
+    // Serializes writes to the channel; writers waiting on it are the ones a single fsync will cover.
+    private final Object flushLock = new Object();
+
+    // Records appended but not written yet, guarded by appendLock.
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER);
+    // The buffer swapped in on the next flush, guarded by flushLock.
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+    // Checksum of the record being appended, guarded by appendLock.
+    private final CRC32 crc = new CRC32();
+    // Sequence number of the last appended record, guarded by appendLock.
+    private long appended;
+    // Sequence number of the last record forced to disk.
+    private volatile long durable;
+    // Bytes in the file, guarded by flushLock.
+    private long size;
+    // Number of times the file was forced to disk.
+    private volatile long syncs;
+    // The first write failure; once set, the log accepts nothing more.
+    private volatile IOException failure;
+
+    /**
+     * Opens a log for appending, creating the file if needed.
+     *
+     * @param file  The log file.
+     * @param valid The number of bytes of the file holding valid records; anything after them is discarded.
+     * @throws IOException If the file cannot be opened.
+     */
+    WriteAheadLog(Path file, long valid) throws IOException {
+        this(file, valid, () -> {
+        });
+    }
+
+    WriteAheadLog(Path file, long valid, Runnable beforeForce) throws IOException {
+        this.beforeForce = beforeForce;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > valid) {
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        channel.position(valid);
+        this.size = valid;
+    }
+
+    /**
+     * Reads back every valid record of a log, stopping at the end of the file or at the first torn record.
+     * A record is torn if its header is cut short, its length is empty or runs past the end of the file,
+     * its payload fails its checksum, or the handler finds its payload cut short or malformed; the bytes
+     * from there on, such as a tail left zero-filled by a crash, are not counted as valid.
+     *
+     * @param file    The log file.
+     * @param handler Receives the payload of every record, in order.
+     * @return The number of bytes holding valid records, or 0 if the file does not exist.
+     * @throws IOException If the file cannot be read, or the handler fails otherwise.
+     */
+    static long read(Path file, RecordHandler handler) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long fileSize = Files.size(file);
+        long valid = 0;
+        CRC32 checksum = new CRC32();
+        byte[] payload = new byte[256];
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), INITIAL_BUFFER);
+             DataInputStream frames = new DataInputStream(in)) {
+            while (true) {
+                int length;
+                int expected;
+                try {
+                    length = frames.readInt();
+                    expected = frames.readInt();
+                    // An empty payload checksums to 0, so a zero-filled header would otherwise pass as a record,
+                    // and a torn length must not size the payload buffer before it is checked.
+                    if (length < MIN_PAYLOAD || length > fileSize - valid - FRAME_HEADER) {
+                        return valid;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[(int) Math.min(Math.max(length, payload.length * 2L), Integer.MAX_VALUE - 8)];
+                    }
+                    frames.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    return valid;
+                }
+                checksum.reset();
+                checksum.update(payload, 0, length);
+                if ((int) checksum.getValue() != expected) {
+                    return valid;
+                }
+                try {
+                    handler.handle(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+                } catch (EOFException | UTFDataFormatException e) {
+                    return valid;
+                }
+                valid += FRAME_HEADER + length;
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the buffer. The record is not durable until {@link #sync} is called with the returned number.
+     *
+     * @param payload The array holding the payload.
+     * @param length  The payload length.
+     * @return The record's sequence number.
+     * @throws IOException If an earlier write failed.
+     */
+    long append(byte[] payload, int length) throws IOException {
+        synchronized (appendLock) {
+            checkHealthy();
+            if (pending.remaining() < FRAME_HEADER + length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + FRAME_HEADER + length));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            crc.reset();
+            crc.update(payload, 0, length);
+            pending.putInt(length).putInt((int) crc.getValue()).put(payload, 0, length);
+            return ++appended;
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number, and every record before it, is on disk.
+     *
+     * @param sequence The sequence number returned by {@link #append}.
+     * @throws IOException If writing or forcing the file failed.
+     */
+    void sync(long sequence) throws IOException {
+        if (durable >= sequence) {
+            return;
+        }
+        synchronized (flushLock) {
+            // The writer that held the lock before us may have covered this record already.
+            if (durable >= sequence) {
+                return;
+            }
+            flush(true);
+        }
+    }
+
+    /**
+     * Writes every appended record to the file.
+     *
+     * @param force Whether to also force the file to disk, making the records durable.
+     * @throws IOException If writing or forcing the file failed.
+     */
+    void flush(boolean force) throws IOException {
+        synchronized (flushLock) {
+            checkHealthy();
+            ByteBuffer batch;
+            long upTo;
+            synchronized (appendLock) {
+                batch = pending;
+                pending = spare;
+                upTo = appended;
+            }
+            try {
+                batch.flip();
+                size += batch.remaining();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                if (force) {
+                    beforeForce.run();
+                    channel.force(false);
+                    syncs++;
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            batch.clear();
+            spare = batch;
+            if (force) {
+                durable = upTo;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of bytes appended but not written to the file yet.
+     *
+     * @return The buffered byte count.
+     */
+    int buffered() {
+        synchronized (appendLock) {
+            return pending.position();
+        }
+    }
+
+    /**
+     * Retrieves the number of bytes written to the file.
+     *
+     * @return The file size, not counting records still buffered.
+     */
+    long size() {
+        synchronized (flushLock) {
+            return size;
+        }
+    }
+
+    /**
+     * Retrieves the number of times the file was forced to disk.
+     *
+     * @return The fsync count.
+     */
+    long getSyncCount() {
+        return syncs;
+    }
+
+    /**
+     * Makes every appended record durable and closes the file.
+     *
+     * @throws IOException If the last records could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (failure == null) {
+                flush(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks that no earlier write failed.
+     *
+     * @throws IOException If an earlier write failed.
+     */
+    void checkHealthy() throws IOException {
+        if (failure != null) {
+            throw new IOException("Write-ahead log failed earlier.", failure);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ac.il.bgu.qa.services;
+
+/**
+ * Represents the outcome of a conditional write on a {@link DatabaseService},
+ * where the condition is checked and the write is applied in a single call.
+ */
+public enum WriteOutcome {
+
+    /**
+     * The condition held and the write was applied.
+     */
+    APPLIED,
+
+    /**
+     * The write was not applied because the key already exists.
+     */
+    ALREADY_EXISTS,
+
+    /**
+     * The write was not applied because no book exists for the given ISBN.
+     */
+    BOOK_NOT_FOUND,
+
+    /**
+     * The write was not applied because no user is registered with the given Id.
+     */
+    USER_NOT_FOUND,
+
+    /**
+     * The write was not applied because the book's borrowed state differs from the expected one.
+     */
+    STATE_MISMATCH
+}
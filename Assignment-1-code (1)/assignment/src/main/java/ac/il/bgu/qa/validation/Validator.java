@@ -0,0 +1,149 @@
+package ac.il.bgu.qa.validation;
+
+/**
+ * Provides the validation rules applied by the library to ISBNs, author names and user Ids.
+ * Every rule is a stateless singleton that scans its input once and never allocates,
+ * so it can be shared freely between threads and called on every request.
+ */
+public enum Validator {
+
+    /**
+     * Validates that the input is an ISBN-13.
+     * Hyphens are ignored, the remaining characters must be exactly 13 ASCII digits
+     * and the last digit must match the ISBN-13 check digit.
+     */
+    ISBN {
+        @Override
+        public boolean isValid(CharSequence isbn) {
+            if (isbn == null) {
+                return false;
+            }
+
+            // Single pass: skip hyphens, reject anything that is not a digit and accumulate
+            // the ISBN-13 weighted sum of the first 12 digits as we go.
+            // Odd position numbers are multiplied by 1, even position numbers are multiplied by 3.
+            int digits = 0;
+            int sum = 0;
+            int lastDigit = 0;
+            for (int i = 0; i < isbn.length(); i++) {
+                char c = isbn.charAt(i);
+                if (c == '-') {
+                    continue;
+                }
+                if (c < '0' || c > '9' || digits == 13) {
+                    return false;
+                }
+                lastDigit = c - '0';
+                if (digits < 12) {
+                    sum += (digits & 1) == 0 ? lastDigit : lastDigit * 3;
+                }
+                digits++;
+            }
+            if (digits != 13) {
+                return false;
+            }
+
+            // Calculate the check digit and compare it with the last digit of the ISBN.
+            int checkDigit = (10 - (sum % 10)) % 10;
+            return checkDigit == lastDigit;
+        }
+    },
+
+    /**
+     * Validates that the input is a well-formed author name:
+     * 1) The name should only consist of alphabetic characters, hyphens, spaces, dots, and apostrophes.
+     * 2) The name should start and end with an alphabetic character.
+     * 3) The name should not contain consecutive special characters like "--" or "''".
+     */
+    AUTHOR {
+        @Override
+        public boolean isValid(CharSequence name) {
+            // If the name is null or empty, it's invalid.
+            if (name == null || name.length() == 0) {
+                return false;
+            }
+
+            // Ensure the name starts and finishes with an alphabetic character.
+            int last = name.length() - 1;
+            if (!Character.isLetter(name.charAt(0)) || !Character.isLetter(name.charAt(last))) {
+                return false;
+            }
+
+            // Check the content of the name for valid characters and consecutive special characters.
+            char current = name.charAt(0);
+            for (int i = 0; i < last; i++) {
+                char next = name.charAt(i + 1);
+                if (!Character.isLetter(current) && current != '-' && current != ' ' && current != '\'' && current != '.') {
+                    return false;
+                }
+                if ((current == '-' || current == '\'') && next == current) {
+                    return false;
+                }
+                current = next;
+            }
+            return true;
+        }
+    },
+
+    /**
+     * Validates that the input is a user Id, i.e. exactly 12 ASCII digits.
+     */
+    USER_ID {
+        @Override
+        public boolean isValid(CharSequence userId) {
+            if (userId == null || userId.length() != 12) {
+                return false;
+            }
+            for (int i = 0; i < 12; i++) {
+                char c = userId.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Checks a single value against this rule.
+     *
+     * @param value The value to be validated, possibly null.
+     * @return true if valid, false otherwise.
+     */
+    public abstract boolean isValid(CharSequence value);
+
+    /**
+     * Checks a batch of values against this rule.
+     *
+     * @param values The values to be validated.
+     * @return An array holding, at each position, whether the value at the same position is valid.
+     */
+    public boolean[] validate(String[] values) {
+        boolean[] results = new boolean[values.length];
+        validate(values, results);
+        return results;
+    }
+
+    /**
+     * Checks a batch of values against this rule, writing into a caller-supplied array
+     * so that repeated bulk validation does not allocate.
+     *
+     * @param values  The values to be validated.
+     * @param results The array receiving, at each position, whether the value at the same position is valid.
+     *                Must be at least as long as {@code values}.
+     * @return The number of valid values.
+     */
+    public int validate(String[] values, boolean[] results) {
+        if (results.length < values.length) {
+            throw new IllegalArgumentException("Results array is shorter than the values array.");
+        }
+        int valid = 0;
+        for (int i = 0; i < values.length; i++) {
+            results[i] = isValid(values[i]);
+            if (results[i]) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,141 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.metrics.InProcessLibraryMetrics;
+import ac.il.bgu.qa.metrics.LibraryMetrics;
+import ac.il.bgu.qa.services.*;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TestAsyncLibrary {
+
+    @Mock
+    DatabaseService mockDataBase;
+    @Mock(answer = Answers.CALLS_REAL_METHODS)
+    ReviewService mockReview;
+    @Mock
+    Book mockBook;
+    @Mock
+    User mockUser;
+
+    ExecutorService executor;
+    AsyncLibrary library;
+
+    String validBookISBN = "9780306406157";
+    String invalidBookISBN = "1234567891234";
+    String validUserId = "123456789000";
+    String validBookTitle = "War and Peace";
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        executor = Executors.newFixedThreadPool(4);
+        library = new AsyncLibrary(mockDataBase, mockReview, executor);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test to ensure that the book and the user are looked up concurrently before the reviews are sent.
+     */
+    @Test
+    void GivenValidRequest_WhenNotifyUserWithBookReviews_ThenLookupsOverlapAndUserNotified() throws Exception {
+        CountDownLatch bothLookupsStarted = new CountDownLatch(2);
+        when(mockDataBase.getBookByISBN(validBookISBN)).thenAnswer(invocation -> {
+            bothLookupsStarted.countDown();
+            assertTrue(bothLookupsStarted.await(5, TimeUnit.SECONDS), "User lookup did not overlap the book lookup");
+            return mockBook;
+        });
+        when(mockDataBase.getUserById(validUserId)).thenAnswer(invocation -> {
+            bothLookupsStarted.countDown();
+            assertTrue(bothLookupsStarted.await(5, TimeUnit.SECONDS), "Book lookup did not overlap the user lookup");
+            return mockUser;
+        });
+        when(mockBook.getTitle()).thenReturn(validBookTitle);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(Collections.singletonList("Great book!"));
+
+        library.notifyUserWithBookReviews(validBookISBN, validUserId).get(5, TimeUnit.SECONDS);
+
+        verify(mockUser).sendNotification("Reviews for 'War and Peace':\nGreat book!");
+        verify(mockReview).close();
+    }
+
+    /**
+     * Test to ensure that the library's exceptions complete the future exceptionally instead of being thrown.
+     */
+    @Test
+    void GivenMissingBookAndUser_WhenNotifyUserWithBookReviews_ThenBookNotFoundCompletion() {
+        CompletableFuture<Void> invalid = library.notifyUserWithBookReviews(invalidBookISBN, validUserId);
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> invalid.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalArgumentException);
+        verifyNoInteractions(mockDataBase);
+
+        CompletableFuture<Void> missing = library.notifyUserWithBookReviews(validBookISBN, validUserId);
+        exception = assertThrows(ExecutionException.class, () -> missing.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof BookNotFoundException);
+        verifyNoInteractions(mockReview);
+    }
+
+    /**
+     * Test to ensure that a request failing validation is recorded by the metrics like any other failure.
+     */
+    @Test
+    void GivenInvalidUserId_WhenNotifyUserWithBookReviews_ThenFailureRecorded() {
+        InProcessLibraryMetrics metrics = new InProcessLibraryMetrics();
+        AsyncLibrary measured = new AsyncLibrary(mockDataBase, mockReview, executor, metrics);
+
+        CompletableFuture<Void> invalid = measured.notifyUserWithBookReviews(validBookISBN, "12345");
+
+        assertTrue(invalid.isCompletedExceptionally());
+        assertEquals(1, metrics.getFailureCount(IllegalArgumentException.class));
+        assertEquals(1, metrics.getHistogram(LibraryMetrics.Operation.NOTIFY_USER_WITH_BOOK_REVIEWS).getCount());
+        verifyNoInteractions(mockDataBase);
+    }
+
+    /**
+     * Test to ensure that borrowing through the facade reports the library's outcome as the future's outcome.
+     */
+    @Test
+    void GivenBorrowedBook_WhenBorrowBook_ThenBookAlreadyBorrowedCompletion() throws Exception {
+        when(mockDataBase.compareAndSetBorrowed(validBookISBN, validUserId, false, true))
+                .thenReturn(WriteOutcome.APPLIED, WriteOutcome.STATE_MISMATCH);
+
+        library.borrowBook(validBookISBN, validUserId).get(5, TimeUnit.SECONDS);
+        CompletableFuture<Void> second = library.borrowBook(validBookISBN, validUserId);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof BookAlreadyBorrowedException);
+    }
+
+    /**
+     * Test to ensure that a book lookup completes with the book even though its notification fails.
+     */
+    @Test
+    void GivenFailingNotification_WhenGetBookByISBN_ThenBookReturned() throws Exception {
+        when(mockBook.isBorrowed()).thenReturn(false);
+        when(mockDataBase.getBookByISBN(validBookISBN)).thenReturn(mockBook);
+        when(mockDataBase.getUserById(validUserId)).thenReturn(null);
+
+        BookLookup lookup = library.lookupBook(validBookISBN, validUserId).get(5, TimeUnit.SECONDS);
+
+        assertEquals(mockBook, lookup.getBook());
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> lookup.getNotification().get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof UserNotRegisteredException);
+        verify(mockUser, never()).sendNotification(anyString());
+    }
+}
@@ -1,14 +1,29 @@
 package ac.il.bgu.qa;
 
 import ac.il.bgu.qa.errors.*;
+import ac.il.bgu.qa.metrics.InProcessLibraryMetrics;
+import ac.il.bgu.qa.metrics.LibraryMetrics;
 import ac.il.bgu.qa.services.*;
 import org.junit.jupiter.api.*;
 import org.mockito.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -18,7 +33,7 @@ public class TestLibrary {
     DatabaseService mockDataBase;
     @Mock
     NotificationService mockNotification;
-    @Mock
+    @Mock(answer = Answers.CALLS_REAL_METHODS)
     ReviewService mockReview;
 
     @Mock
@@ -55,11 +70,12 @@ public class TestLibrary {
         when(mockBook.getTitle()).thenReturn(validBookTitle);
         when(mockBook.getAuthor()).thenReturn(validAuthor);
         when(mockBook.isBorrowed()).thenReturn(false);
-        when(mockDataBase.getBookByISBN(validBookISBN)).thenReturn(null);
+        when(mockDataBase.addBookIfAbsent(validBookISBN, mockBook)).thenReturn(WriteOutcome.APPLIED);
 
         library.addBook(mockBook);
 
-        verify(mockDataBase).addBook(validBookISBN, mockBook); // Verify the interaction
+        verify(mockDataBase).addBookIfAbsent(validBookISBN, mockBook); // Verify the interaction
+        verify(mockDataBase, never()).getBookByISBN(anyString()); // A single round trip, no separate existence check
     }
 
     /**
@@ -173,11 +189,12 @@ public class TestLibrary {
         when(mockUser.getId()).thenReturn(validUserId);
         when(mockUser.getName()).thenReturn("Valid User");
         when(mockUser.getNotificationService()).thenReturn(mockNotification);
-        when(mockDataBase.getUserById(validUserId)).thenReturn(null);
+        when(mockDataBase.registerUserIfAbsent(validUserId, mockUser)).thenReturn(WriteOutcome.APPLIED);
 
         library.registerUser(mockUser);
 
-        verify(mockDataBase).registerUser(validUserId, mockUser); // Verify that the user is registered
+        verify(mockDataBase).registerUserIfAbsent(validUserId, mockUser); // Verify that the user is registered
+        verify(mockDataBase, never()).getUserById(anyString()); // A single round trip, no separate existence check
     }
 
     /**
@@ -220,7 +237,7 @@ public class TestLibrary {
         when(mockUser.getId()).thenReturn(validUserId);
         when(mockUser.getName()).thenReturn("Valid User");
         when(mockUser.getNotificationService()).thenReturn(mockNotification);
-        when(mockDataBase.getUserById(validUserId)).thenReturn(mockUser); // User already exists
+        when(mockDataBase.registerUserIfAbsent(validUserId, mockUser)).thenReturn(WriteOutcome.ALREADY_EXISTS); // User already exists
 
         assertThrows(IllegalArgumentException.class, () -> library.registerUser(mockUser), "User already exists.");
     }
@@ -247,17 +264,26 @@ public class TestLibrary {
         // Mocking the necessary objects and their behaviors
         when(mockBook.getISBN()).thenReturn(validBookISBN);
         when(mockBook.isBorrowed()).thenReturn(false);
-        when(mockDataBase.getBookByISBN(mockBook.getISBN())).thenReturn(mockBook);
         when(mockUser.getId()).thenReturn(validUserId);
-        when(mockDataBase.getUserById(mockUser.getId())).thenReturn(mockUser);
+        when(mockDataBase.compareAndSetBorrowed(validBookISBN, validUserId, false, true)).thenReturn(WriteOutcome.APPLIED);
 
         // Performing the action: borrowing a book
         library.borrowBook(mockBook.getISBN(), mockUser.getId());
 
-        // Verifying that the borrowBook method is called with the correct parameters
-        verify(mockDataBase).borrowBook(mockBook.getISBN(), mockUser.getId());
-        // Verify that the book's borrow method is called
-        verify(mockBook).borrow();
+        // Verifying that the book is marked as borrowed for the user in a single database call
+        verify(mockDataBase).compareAndSetBorrowed(validBookISBN, validUserId, false, true);
+        verify(mockDataBase, never()).getBookByISBN(anyString());
+        verify(mockDataBase, never()).getUserById(anyString());
+    }
+
+    @Test
+    void GivenMissingBookOrUserOrBorrowedBook_WhenBorrowBook_ThenMatchingException() {
+        when(mockDataBase.compareAndSetBorrowed(validBookISBN, validUserId, false, true))
+                .thenReturn(WriteOutcome.BOOK_NOT_FOUND, WriteOutcome.USER_NOT_FOUND, WriteOutcome.STATE_MISMATCH);
+
+        assertEquals("Book not found!", assertThrows(BookNotFoundException.class, () -> library.borrowBook(validBookISBN, validUserId)).getMessage());
+        assertEquals("User not found!", assertThrows(UserNotRegisteredException.class, () -> library.borrowBook(validBookISBN, validUserId)).getMessage());
+        assertEquals("Book is already borrowed!", assertThrows(BookAlreadyBorrowedException.class, () -> library.borrowBook(validBookISBN, validUserId)).getMessage());
     }
 
     @Test
@@ -301,26 +327,21 @@ public class TestLibrary {
     void GivenValidBorrowedBookISBN_WhenReturnBook_ThenSuccess() {
         // Use a valid ISBN assuming the book is currently borrowed
         when(mockBook.getISBN()).thenReturn(validBookISBN);
-        // Simulate the book being found
-        when(mockDataBase.getBookByISBN(mockBook.getISBN())).thenReturn(mockBook);
-        // Simulate the book being currently borrowed
-        when(mockBook.isBorrowed()).thenReturn(true);
+        // Simulate the book being found and currently borrowed
+        when(mockDataBase.compareAndSetBorrowed(validBookISBN, null, true, false)).thenReturn(WriteOutcome.APPLIED);
         // Perform the action: returning a borrowed book
         library.returnBook(mockBook.getISBN());
-        // Verify that the book's returnBook method is called
-        verify(mockBook).returnBook();
-        // Verify that the databaseService's returnBook method is called
-        verify(mockDataBase).returnBook(mockBook.getISBN());
+        // Verify that the book is marked as returned in a single database call
+        verify(mockDataBase).compareAndSetBorrowed(validBookISBN, null, true, false);
+        verify(mockDataBase, never()).getBookByISBN(anyString());
     }
 
     @Test
     void GivenValidNonBorrowedBookISBN_WhenReturnBook_ThenBookNotBorrowedException() {
         // Use a valid ISBN assuming the book is not currently borrowed
         when(mockBook.getISBN()).thenReturn(validBookISBN);
-        // Simulate the book being found
-        when(mockDataBase.getBookByISBN(mockBook.getISBN())).thenReturn(mockBook);
-        // Simulate the book not being currently borrowed
-        when(mockBook.isBorrowed()).thenReturn(false);
+        // Simulate the book being found but not currently borrowed
+        when(mockDataBase.compareAndSetBorrowed(validBookISBN, null, true, false)).thenReturn(WriteOutcome.STATE_MISMATCH);
         // Perform the action and assert that a BookNotBorrowedException is thrown
         BookNotBorrowedException exception = assertThrows(BookNotBorrowedException.class, () -> library.returnBook(mockBook.getISBN()));
         // Verify that the exception message is correct
@@ -563,4 +584,406 @@ public class TestLibrary {
     }
 
 
+    /**
+     * Test to ensure that with a notification executor the book is returned before any review is fetched,
+     * and that the scheduled notification can be awaited.
+     */
+    @Test
+    void GivenNotificationExecutor_WhenLookupBook_ThenReturnBeforeNotifying() throws Exception {
+        List<Runnable> scheduled = new ArrayList<>();
+        Library backgroundLibrary = new Library(mockDataBase, mockReview, scheduled::add);
+        when(mockBook.isBorrowed()).thenReturn(false);
+        when(mockBook.getTitle()).thenReturn(validBookTitle);
+        when(mockDataBase.getBookByISBN(validBookISBN)).thenReturn(mockBook);
+        when(mockDataBase.getUserById(validUserId)).thenReturn(mockUser);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(Collections.singletonList("Great book!"));
+
+        BookLookup lookup = backgroundLibrary.lookupBook(validBookISBN, validUserId);
+
+        assertEquals(mockBook, lookup.getBook());
+        assertFalse(lookup.getNotification().isDone());
+        verifyNoInteractions(mockReview, mockUser);
+
+        assertEquals(1, scheduled.size());
+        scheduled.get(0).run();
+        lookup.getNotification().get(1, TimeUnit.SECONDS);
+        verify(mockUser).sendNotification("Reviews for 'War and Peace':\nGreat book!");
+    }
+
+    /**
+     * Test to ensure that a notification the executor refuses to run does not fail the lookup.
+     */
+    @Test
+    void GivenRejectingNotificationExecutor_WhenGetBookByISBN_ThenReturnBook() {
+        Library backgroundLibrary = new Library(mockDataBase, mockReview, task -> {
+            throw new RejectedExecutionException("Saturated");
+        });
+        when(mockBook.isBorrowed()).thenReturn(false);
+        when(mockDataBase.getBookByISBN(validBookISBN)).thenReturn(mockBook);
+
+        BookLookup lookup = backgroundLibrary.lookupBook(validBookISBN, validUserId);
+
+        assertEquals(mockBook, lookup.getBook());
+        assertTrue(lookup.getNotification().isCompletedExceptionally());
+        verifyNoInteractions(mockReview);
+    }
+
+    /**
+     * Test to ensure that the library reports the timing of every operation and downstream call,
+     * along with its notification retries and the exception it failed with.
+     */
+    @Test
+    void GivenMetrics_WhenNotificationKeepsFailing_ThenRetriesAndFailureRecorded() {
+        InProcessLibraryMetrics metrics = new InProcessLibraryMetrics();
+        Library meteredLibrary = new Library(mockDataBase, mockReview, Runnable::run, metrics);
+        when(mockBook.getTitle()).thenReturn(validBookTitle);
+        when(mockDataBase.getBookByISBN(validBookISBN)).thenReturn(mockBook);
+        when(mockDataBase.getUserById(validUserId)).thenReturn(mockUser);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(Collections.singletonList("Great book!"));
+        doThrow(new NotificationException("Notification failed!")).when(mockUser).sendNotification(anyString());
+
+        assertThrows(NotificationException.class, () -> meteredLibrary.notifyUserWithBookReviews(validBookISBN, validUserId));
+
+        assertEquals(1, metrics.getHistogram(LibraryMetrics.Operation.NOTIFY_USER_WITH_BOOK_REVIEWS).getCount());
+        assertEquals(1, metrics.getHistogram(LibraryMetrics.Call.DATABASE_GET_BOOK).getCount());
+        assertEquals(1, metrics.getHistogram(LibraryMetrics.Call.REVIEW_GET_REVIEWS).getCount());
+        assertEquals(1, metrics.getHistogram(LibraryMetrics.Call.REVIEW_CLOSE).getCount());
+        assertEquals(5, metrics.getHistogram(LibraryMetrics.Call.NOTIFICATION_NOTIFY_USER).getCount());
+        assertEquals(4, metrics.getNotificationRetryCount());
+        assertEquals(1, metrics.getNotificationRetriesExhaustedCount());
+        assertEquals(1, metrics.getFailureCount(NotificationException.class));
+    }
+
+    /**
+     * Test to ensure that the reviews of a book with many reviews are sent as a size-capped message
+     * built from the first page only, cut without splitting a character.
+     */
+    @Test
+    void GivenManyReviews_WhenNotifyUserWithBookReviews_ThenFirstPageOnlyAndMessageCapped() {
+        StringBuilder review = new StringBuilder("a");
+        for (int i = 0; i < 200; i++) {
+            review.append("\uD83D\uDCDA");
+        }
+        List<String> firstPage = Collections.nCopies(Library.REVIEW_PAGE_SIZE, review.toString());
+        when(mockBook.getTitle()).thenReturn(validBookTitle);
+        when(mockDataBase.getBookByISBN(validBookISBN)).thenReturn(mockBook);
+        when(mockDataBase.getUserById(validUserId)).thenReturn(mockUser);
+        doReturn(true).when(mockReview).supportsPaging();
+        doReturn(new ReviewPage(firstPage, "page-2"))
+                .when(mockReview).getReviewPage(validBookISBN, null, Library.REVIEW_PAGE_SIZE);
+
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+
+        ArgumentCaptor<String> message = ArgumentCaptor.forClass(String.class);
+        verify(mockUser).sendNotification(message.capture());
+        String sent = message.getValue();
+        assertTrue(sent.startsWith("Reviews for 'War and Peace':\n" + review + "\n"));
+        assertTrue(sent.endsWith(Library.TRUNCATION_MARKER));
+        assertTrue(sent.length() <= Library.MAX_NOTIFICATION_LENGTH);
+        assertFalse(Character.isHighSurrogate(sent.charAt(sent.length() - Library.TRUNCATION_MARKER.length() - 1)));
+        verify(mockReview, times(1)).getReviewPage(anyString(), any(), anyInt());
+        verify(mockReview, never()).getReviewsForBook(anyString());
+        verify(mockReview).close();
+    }
+
+    /**
+     * Test to ensure that a review service that does not page natively is asked for the reviews once
+     * per notification, however many pages the notification would take.
+     */
+    @Test
+    void GivenServiceWithoutPaging_WhenNotifyUserWithBookReviews_ThenReviewsFetchedOnce() {
+        List<String> reviews = Collections.nCopies(50_000, "A well-told story that kept me reading late at night.");
+        when(mockBook.getTitle()).thenReturn(validBookTitle);
+        when(mockDataBase.getBookByISBN(validBookISBN)).thenReturn(mockBook);
+        when(mockDataBase.getUserById(validUserId)).thenReturn(mockUser);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(reviews);
+
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+
+        ArgumentCaptor<String> message = ArgumentCaptor.forClass(String.class);
+        verify(mockUser).sendNotification(message.capture());
+        assertTrue(message.getValue().endsWith(Library.TRUNCATION_MARKER));
+        verify(mockReview, times(1)).getReviewsForBook(validBookISBN);
+        verify(mockReview, never()).getReviewPage(anyString(), any(), anyInt());
+        verify(mockReview).close();
+    }
+
+    /**
+     * Test to ensure that the non-throwing borrow and return report every rejection as an outcome.
+     */
+    @Test
+    void GivenRejectedRequests_WhenTryBorrowAndTryReturn_ThenOutcomesInsteadOfExceptions() {
+        when(mockDataBase.compareAndSetBorrowed(validBookISBN, validUserId, false, true))
+                .thenReturn(WriteOutcome.APPLIED, WriteOutcome.STATE_MISMATCH);
+        when(mockDataBase.compareAndSetBorrowed(validBookISBN, null, true, false))
+                .thenReturn(WriteOutcome.APPLIED, WriteOutcome.STATE_MISMATCH);
+        when(mockDataBase.compareAndSetBorrowed("9780134685991", validUserId, false, true)).thenReturn(WriteOutcome.BOOK_NOT_FOUND);
+
+        assertEquals(LibraryOutcome.INVALID_ISBN, library.tryBorrowBook(invalidBookISBN, validUserId));
+        assertEquals(LibraryOutcome.INVALID_USER_ID, library.tryBorrowBook(validBookISBN, invalidUserId));
+        assertEquals(LibraryOutcome.SUCCESS, library.tryBorrowBook(validBookISBN, validUserId));
+        assertEquals(LibraryOutcome.BOOK_ALREADY_BORROWED, library.tryBorrowBook(validBookISBN, validUserId));
+        assertEquals(LibraryOutcome.BOOK_NOT_FOUND, library.tryBorrowBook("9780134685991", validUserId));
+        assertEquals(LibraryOutcome.SUCCESS, library.tryReturnBook(validBookISBN));
+        assertEquals(LibraryOutcome.BOOK_NOT_BORROWED, library.tryReturnBook(validBookISBN));
+    }
+
+    /**
+     * Test to ensure that an outcome turns into the exception the throwing form throws, with or without a stack trace,
+     * and that the form with a stack trace still records suppressed exceptions.
+     */
+    @Test
+    void GivenRejectedOutcome_WhenToException_ThenSameExceptionAsThrowingForm() {
+        RuntimeException withStack = LibraryOutcome.BOOK_ALREADY_BORROWED.toException(true);
+        RuntimeException withoutStack = LibraryOutcome.BOOK_ALREADY_BORROWED.toException(false);
+
+        assertTrue(withoutStack instanceof BookAlreadyBorrowedException);
+        assertEquals("Book is already borrowed!", withoutStack.getMessage());
+        assertEquals(0, withoutStack.getStackTrace().length);
+        assertTrue(withStack.getStackTrace().length > 0);
+        RuntimeException suppressed = new RuntimeException("cleanup failed");
+        withStack.addSuppressed(suppressed);
+        assertArrayEquals(new Throwable[]{suppressed}, withStack.getSuppressed());
+        assertThrows(IllegalStateException.class, () -> LibraryOutcome.SUCCESS.toException(false));
+    }
+
+    /**
+     * Test to ensure that a batch of books is looked up and written with a single request each,
+     * and that invalid and duplicate books are reported instead of failing the whole batch.
+     */
+    @Test
+    void GivenMixedBatch_WhenAddBooks_ThenReportPerBookAndWriteOnce() {
+        Book valid = new Book(validBookISBN, validBookTitle, validAuthor);
+        Book invalid = new Book(invalidBookISBN, validBookTitle, validAuthor);
+        Book existing = new Book("9780134685991", "Effective Java", "Joshua Bloch");
+        Book repeated = new Book(validBookISBN, "Anna Karenina", validAuthor);
+        when(mockDataBase.getBooksByISBN(anyCollection())).thenReturn(Collections.singletonMap("9780134685991", existing));
+
+        BookBatchReport report = library.addBooks(Arrays.asList(valid, invalid, existing, repeated));
+
+        assertEquals(4, report.size());
+        assertEquals(1, report.getAddedCount());
+        assertEquals(3, report.getRejectedCount());
+        assertEquals(BookBatchReport.Status.ADDED, report.get(0).getStatus());
+        assertEquals(BookBatchReport.Status.INVALID, report.get(1).getStatus());
+        assertEquals("Invalid ISBN.", report.get(1).getReason());
+        assertEquals(BookBatchReport.Status.DUPLICATE, report.get(2).getStatus());
+        assertEquals(BookBatchReport.Status.DUPLICATE, report.get(3).getStatus());
+        verify(mockDataBase, times(1)).getBooksByISBN(anyCollection());
+        verify(mockDataBase).addBooks(Collections.singletonMap(validBookISBN, valid));
+        verify(mockDataBase, never()).getBookByISBN(anyString());
+        verify(mockDataBase, never()).addBook(anyString(), any());
+    }
+
+    /**
+     * Test to ensure that a batch without any valid book never reaches the database.
+     */
+    @Test
+    void GivenOnlyInvalidBooks_WhenAddBooks_ThenNoDatabaseInteraction() {
+        BookBatchReport report = library.addBooks(Arrays.asList(null, new Book(validBookISBN, invalidBookTitle, validAuthor)));
+
+        assertEquals(0, report.getAddedCount());
+        assertEquals("Invalid book.", report.get(0).getReason());
+        assertEquals("Invalid title.", report.get(1).getReason());
+        verifyNoInteractions(mockDataBase);
+    }
+
+    /**
+     * Test to ensure that when many threads borrow the same copy at once, exactly one of them gets it,
+     * and that it can then be returned exactly once.
+     */
+    @Test
+    void GivenConcurrentBorrowers_WhenBorrowSameBook_ThenSingleWinner() throws InterruptedException {
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library concurrentLibrary = new Library(database, mockReview);
+        concurrentLibrary.addBook(new Book(validBookISBN, validBookTitle, validAuthor));
+        int threads = 8;
+        AtomicInteger borrowed = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            String userId = String.format("%012d", t);
+            concurrentLibrary.registerUser(new User("User " + t, userId, mockNotification));
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    concurrentLibrary.borrowBook(validBookISBN, userId);
+                    borrowed.incrementAndGet();
+                } catch (BookAlreadyBorrowedException e) {
+                    rejected.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1, borrowed.get());
+        assertEquals(threads - 1, rejected.get());
+        assertNotNull(database.getBorrowerId(validBookISBN));
+        concurrentLibrary.returnBook(validBookISBN);
+        assertThrows(BookNotBorrowedException.class, () -> concurrentLibrary.returnBook(validBookISBN));
+    }
+
+    /**
+     * Test to ensure that books added with equal authors and titles end up sharing a single instance of each.
+     */
+    @Test
+    void GivenDictionaries_WhenAddBooksWithEqualStrings_ThenStringsShared() {
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        StringDictionary authors = new StringDictionary();
+        StringDictionary titles = new StringDictionary();
+        Library internedLibrary = new Library(database, mockReview, Runnable::run, LibraryMetrics.NONE, authors, titles);
+        Book first = new Book(validBookISBN, new String(validBookTitle), new String(validAuthor));
+        Book second = new Book("9780134685991", new String(validBookTitle), new String(validAuthor));
+
+        internedLibrary.addBook(first);
+        internedLibrary.addBooks(Collections.singletonList(second));
+
+        assertEquals(validAuthor, second.getAuthor());
+        assertSame(first.getAuthor(), second.getAuthor());
+        assertSame(first.getTitle(), second.getTitle());
+        assertEquals(1, authors.size());
+        assertTrue(authors.getSavedBytes() > 0);
+    }
+
+    /**
+     * Test to ensure that a best-effort batch borrow looks the user and the books up once, writes once,
+     * and reports every book's outcome in input order.
+     */
+    @Test
+    void GivenMixedBatch_WhenBorrowBooksBestEffort_ThenSingleLookupsAndWriteWithOutcomes() {
+        String missingISBN = "9780134685991";
+        String borrowedISBN = "9780596009205";
+        Book available = new Book(validBookISBN, validBookTitle, validAuthor);
+        Book borrowed = new Book(borrowedISBN, validBookTitle, validAuthor);
+        borrowed.borrow();
+        when(mockDataBase.getUserById(validUserId)).thenReturn(mockUser);
+        Map<String, Book> found = new HashMap<>();
+        found.put(validBookISBN, available);
+        found.put(borrowedISBN, borrowed);
+        when(mockDataBase.getBooksByISBN(anyCollection())).thenReturn(found);
+        when(mockDataBase.compareAndSetBorrowedAll(anyCollection(), eq(validUserId), eq(false), eq(true)))
+                .thenReturn(Collections.singletonMap(validBookISBN, WriteOutcome.APPLIED));
+
+        LoanBatchReport report = library.borrowBooks(
+                Arrays.asList(validBookISBN, invalidBookISBN, missingISBN, borrowedISBN, validBookISBN), validUserId);
+
+        assertEquals(LibraryOutcome.SUCCESS, report.get(0).getOutcome());
+        assertEquals(LibraryOutcome.INVALID_ISBN, report.get(1).getOutcome());
+        assertEquals(LibraryOutcome.BOOK_NOT_FOUND, report.get(2).getOutcome());
+        assertEquals(LibraryOutcome.BOOK_ALREADY_BORROWED, report.get(3).getOutcome());
+        assertEquals(LibraryOutcome.BOOK_ALREADY_BORROWED, report.get(4).getOutcome());
+        assertEquals(1, report.getSucceededCount());
+        assertEquals(4, report.getRejectedCount());
+        verify(mockDataBase, times(1)).getUserById(validUserId);
+        verify(mockDataBase, times(1)).getBooksByISBN(anyCollection());
+        verify(mockDataBase, times(1)).compareAndSetBorrowedAll(Collections.singleton(validBookISBN), validUserId, false, true);
+        verify(mockDataBase, never()).compareAndSetBorrowed(anyString(), any(), anyBoolean(), anyBoolean());
+    }
+
+    /**
+     * Test to ensure that an all-or-nothing batch borrow with a rejected book writes nothing.
+     */
+    @Test
+    void GivenRejectedBook_WhenBorrowBooksAllOrNothing_ThenNothingWritten() {
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library batchLibrary = new Library(database, mockReview);
+        batchLibrary.addBook(new Book(validBookISBN, validBookTitle, validAuthor));
+        batchLibrary.registerUser(new User("Valid User", validUserId, mockNotification));
+
+        LoanBatchReport report = batchLibrary.borrowBooks(Arrays.asList(validBookISBN, "9780134685991"), validUserId, BatchMode.ALL_OR_NOTHING);
+
+        assertEquals(LibraryOutcome.BATCH_ABORTED, report.get(0).getOutcome());
+        assertEquals(LibraryOutcome.BOOK_NOT_FOUND, report.get(1).getOutcome());
+        assertFalse(database.getBookByISBN(validBookISBN).isBorrowed());
+        assertEquals(LibraryOutcome.USER_NOT_REGISTERED,
+                batchLibrary.borrowBooks(Collections.singletonList(validBookISBN), "000000000000").get(0).getOutcome());
+    }
+
+    /**
+     * Test to ensure that an all-or-nothing batch borrow losing a book to a concurrent borrower returns the books it borrowed.
+     */
+    @Test
+    void GivenBookLostToConcurrentBorrower_WhenBorrowBooksAllOrNothing_ThenBorrowedBooksReturned() {
+        String otherISBN = "9780134685991";
+        when(mockDataBase.getUserById(validUserId)).thenReturn(mockUser);
+        Map<String, Book> found = new HashMap<>();
+        found.put(validBookISBN, new Book(validBookISBN, validBookTitle, validAuthor));
+        found.put(otherISBN, new Book(otherISBN, validBookTitle, validAuthor));
+        when(mockDataBase.getBooksByISBN(anyCollection())).thenReturn(found);
+        Map<String, WriteOutcome> written = new HashMap<>();
+        written.put(validBookISBN, WriteOutcome.APPLIED);
+        written.put(otherISBN, WriteOutcome.STATE_MISMATCH);
+        when(mockDataBase.compareAndSetBorrowedAll(anyCollection(), eq(validUserId), eq(false), eq(true))).thenReturn(written);
+        when(mockDataBase.compareAndSetBorrowedAll(anyCollection(), eq(validUserId), eq(true), eq(false)))
+                .thenReturn(Collections.singletonMap(validBookISBN, WriteOutcome.APPLIED));
+
+        LoanBatchReport report = library.borrowBooks(Arrays.asList(validBookISBN, otherISBN), validUserId, BatchMode.ALL_OR_NOTHING);
+
+        assertEquals(LibraryOutcome.BATCH_ABORTED, report.get(0).getOutcome());
+        assertEquals(LibraryOutcome.BOOK_ALREADY_BORROWED, report.get(1).getOutcome());
+        verify(mockDataBase).compareAndSetBorrowedAll(Collections.singletonList(validBookISBN), validUserId, true, false);
+    }
+
+    /**
+     * Test to ensure that a book an aborted batch borrow cannot return, because it was returned and borrowed by
+     * another user in between, is reported as not undone rather than aborted.
+     */
+    @Test
+    void GivenUndoLosesRace_WhenBorrowBooksAllOrNothing_ThenBatchUndoFailed() {
+        String otherISBN = "9780134685991";
+        String otherUserId = "123456789001";
+        InMemoryDatabaseService database = spy(new InMemoryDatabaseService());
+        Library batchLibrary = new Library(database, mockReview);
+        batchLibrary.addBook(new Book(validBookISBN, validBookTitle, validAuthor));
+        batchLibrary.addBook(new Book(otherISBN, validBookTitle, validAuthor));
+        batchLibrary.registerUser(new User("Valid User", validUserId, mockNotification));
+        batchLibrary.registerUser(new User("Other User", otherUserId, mockNotification));
+        // Between the batch's write and its undo, the other book goes to a concurrent borrower, and the first book
+        // is returned and borrowed by that borrower too.
+        doAnswer(invocation -> {
+            database.compareAndSetBorrowed(otherISBN, otherUserId, false, true);
+            Map<String, WriteOutcome> outcomes = new HashMap<>();
+            outcomes.put(validBookISBN, database.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+            outcomes.put(otherISBN, database.compareAndSetBorrowed(otherISBN, validUserId, false, true));
+            database.compareAndSetBorrowed(validBookISBN, null, true, false);
+            database.compareAndSetBorrowed(validBookISBN, otherUserId, false, true);
+            return outcomes;
+        }).when(database).compareAndSetBorrowedAll(anyCollection(), eq(validUserId), eq(false), eq(true));
+
+        LoanBatchReport report = batchLibrary.borrowBooks(Arrays.asList(validBookISBN, otherISBN), validUserId, BatchMode.ALL_OR_NOTHING);
+
+        assertEquals(LibraryOutcome.BATCH_UNDO_FAILED, report.get(0).getOutcome());
+        assertEquals(LibraryOutcome.BOOK_ALREADY_BORROWED, report.get(1).getOutcome());
+        assertEquals(otherUserId, database.getBorrowerId(validBookISBN));
+    }
+
+    /**
+     * Test to ensure that batch returns return the borrowed books, and that an aborted one leaves them with their borrowers.
+     */
+    @Test
+    void GivenBorrowedBooks_WhenReturnBooks_ThenReturnedPerMode() {
+        String otherISBN = "9780134685991";
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library batchLibrary = new Library(database, mockReview);
+        batchLibrary.addBook(new Book(validBookISBN, validBookTitle, validAuthor));
+        batchLibrary.addBook(new Book(otherISBN, validBookTitle, validAuthor));
+        batchLibrary.registerUser(new User("Valid User", validUserId, mockNotification));
+        assertEquals(2, batchLibrary.borrowBooks(Arrays.asList(validBookISBN, otherISBN), validUserId, BatchMode.ALL_OR_NOTHING).getSucceededCount());
+
+        LoanBatchReport aborted = batchLibrary.returnBooks(Arrays.asList(validBookISBN, otherISBN, otherISBN), BatchMode.ALL_OR_NOTHING);
+        assertEquals(LibraryOutcome.BATCH_ABORTED, aborted.get(0).getOutcome());
+        assertEquals(LibraryOutcome.BOOK_NOT_BORROWED, aborted.get(2).getOutcome());
+        assertEquals(validUserId, database.getBorrowerId(otherISBN));
+
+        LoanBatchReport returned = batchLibrary.returnBooks(Arrays.asList(validBookISBN, otherISBN, invalidBookISBN));
+        assertEquals(2, returned.getSucceededCount());
+        assertEquals(LibraryOutcome.INVALID_ISBN, returned.get(2).getOutcome());
+        assertFalse(database.getBookByISBN(otherISBN).isBorrowed());
+        assertThrows(IllegalArgumentException.class, () -> batchLibrary.returnBooks(null));
+    }
 }
@@ -0,0 +1,153 @@
+package ac.il.bgu.qa;
+
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.errors.ReviewServiceUnavailableException;
+import ac.il.bgu.qa.metrics.LibraryMetrics;
+import ac.il.bgu.qa.services.*;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TestReviewDigestStore {
+
+    @Mock(answer = Answers.CALLS_REAL_METHODS)
+    ReviewService mockReview;
+
+    @Mock
+    NotificationService mockNotification;
+
+    // Fake clock in nanoseconds.
+    AtomicLong now = new AtomicLong();
+
+    ReviewDigestStore store;
+    Library library;
+
+    String validBookISBN = "9780306406157";
+    String validUserId = "123456789000";
+    List<String> reviews = Arrays.asList("Great book!", "Must-read!");
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        store = new ReviewDigestStore(16, 60, TimeUnit.SECONDS, now::get);
+        library = new Library(new InMemoryDatabaseService(), mockReview, Runnable::run, LibraryMetrics.NONE,
+                null, null, store);
+        library.addBook(new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        library.registerUser(new User("Valid User", validUserId, mockNotification));
+    }
+
+    /**
+     * Test to ensure that a fresh digest is sent without calling the review service, with new reviews folded in.
+     */
+    @Test
+    void GivenFreshDigest_WhenReviewAddedAndNotified_ThenSentFromDigestWithNewReview() {
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(reviews);
+
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+        store.onReviewAdded(validBookISBN, "A classic.");
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+
+        verify(mockNotification).notifyUser(validUserId, "Reviews for 'War and Peace':\nGreat book!\nMust-read!");
+        verify(mockNotification).notifyUser(validUserId, "Reviews for 'War and Peace':\nGreat book!\nMust-read!\nA classic.");
+        verify(mockReview, times(1)).getReviewsForBook(validBookISBN);
+        assertEquals(3, store.get(validBookISBN).getReviewCount());
+        assertEquals(1, store.getHitCount());
+        assertEquals(1, store.getRefreshCount());
+        assertEquals(1, store.getIncrementalUpdateCount());
+    }
+
+    /**
+     * Test to ensure that a digest due for a refresh is read again, and that the last good digest is sent
+     * while the review service is unavailable.
+     */
+    @Test
+    void GivenStaleDigest_WhenReviewServiceFails_ThenLastGoodDigestSent() {
+        when(mockReview.getReviewsForBook(validBookISBN))
+                .thenReturn(reviews)
+                .thenThrow(new ReviewException("Review service down"));
+
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+
+        verify(mockNotification, times(2)).notifyUser(validUserId, "Reviews for 'War and Peace':\nGreat book!\nMust-read!");
+        verify(mockReview, times(2)).getReviewsForBook(validBookISBN);
+        assertEquals(1, store.getStaleServeCount());
+    }
+
+    /**
+     * Test to ensure that a review folded into a digest while it is being refreshed is not lost to the refresh.
+     */
+    @Test
+    void GivenReviewAddedDuringRefresh_WhenNotified_ThenFoldedReviewKept() {
+        when(mockReview.getReviewsForBook(validBookISBN))
+                .thenReturn(reviews)
+                .thenAnswer(invocation -> {
+                    store.onReviewAdded(validBookISBN, "A classic.");
+                    return reviews;
+                });
+
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+
+        assertEquals(3, store.get(validBookISBN).getReviewCount());
+        assertEquals(2, store.getRefreshCount());
+        assertEquals(1, store.getIncrementalUpdateCount());
+    }
+
+    /**
+     * Test to ensure that without a digest to fall back on, the review service being unavailable fails the notification,
+     * and that reviews of a book without a digest are ignored.
+     */
+    @Test
+    void GivenNoDigest_WhenReviewServiceFails_ThenReviewServiceUnavailable() {
+        when(mockReview.getReviewsForBook(validBookISBN)).thenThrow(new ReviewException("Review service down"));
+        store.onReviewAdded(validBookISBN, "A classic.");
+
+        assertThrows(ReviewServiceUnavailableException.class, () -> library.notifyUserWithBookReviews(validBookISBN, validUserId));
+
+        verify(mockNotification, never()).notifyUser(anyString(), anyString());
+        assertNull(store.get(validBookISBN));
+        assertEquals(0, store.getIncrementalUpdateCount());
+    }
+
+    /**
+     * Test to ensure that a new review folded into a full digest is only counted, and that the store evicts
+     * the least recently used digest when full.
+     */
+    @Test
+    void GivenFullDigest_WhenReviewAdded_ThenOnlyCountedAndStoreBounded() {
+        StringBuilder longReview = new StringBuilder();
+        for (int i = 0; i < Library.MAX_NOTIFICATION_LENGTH; i++) {
+            longReview.append('x');
+        }
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(Collections.singletonList(longReview.toString()));
+        library.notifyUserWithBookReviews(validBookISBN, validUserId);
+
+        ReviewDigest full = store.get(validBookISBN);
+        ReviewDigest updated = full.withReview("A classic.");
+
+        assertTrue(full.isTruncated());
+        assertEquals(Library.MAX_NOTIFICATION_LENGTH, full.getBody().length());
+        assertTrue(full.getReviews().isEmpty());
+        assertEquals(full.getBody(), updated.getBody());
+        assertEquals(2, updated.getReviewCount());
+
+        ReviewDigestStore small = new ReviewDigestStore(1, 60, TimeUnit.SECONDS, now::get);
+        small.put("9780134685991", full);
+        small.put(validBookISBN, full);
+        assertEquals(1, small.size());
+        assertNull(small.get("9780134685991"));
+        assertThrows(IllegalArgumentException.class, () -> new ReviewDigestStore(0, 60, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,76 @@
+package ac.il.bgu.qa;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestStringDictionary {
+
+    /**
+     * Test to ensure that equal strings are mapped to a single shared instance and id.
+     */
+    @Test
+    void GivenEqualStrings_WhenIntern_ThenSharedInstanceAndId() {
+        StringDictionary dictionary = new StringDictionary(4);
+        String first = new String("Leo Tolstoy");
+        String second = new String("Leo Tolstoy");
+
+        assertSame(first, dictionary.intern(first));
+        assertSame(first, dictionary.intern(second));
+        assertEquals(StringDictionary.estimateSize(second), dictionary.getSavedBytes());
+        assertEquals(dictionary.idOf(first), dictionary.idOf(second));
+        assertSame(first, dictionary.valueOf(dictionary.idOf(second)));
+        assertNull(dictionary.intern(null));
+        assertNull(dictionary.valueOf(3));
+        assertEquals(1, dictionary.size());
+        assertEquals(1, dictionary.getMissCount());
+    }
+
+    /**
+     * Test to ensure that a full dictionary evicts strings that were not looked up again before recurring ones.
+     */
+    @Test
+    void GivenFullDictionary_WhenInternNewString_ThenUnreferencedStringEvicted() {
+        StringDictionary dictionary = new StringDictionary(2);
+        String recurring = dictionary.intern("Leo Tolstoy");
+        dictionary.intern("Joshua Bloch");
+        dictionary.intern("Leo Tolstoy");
+
+        dictionary.intern("Kathy Sierra");
+
+        assertEquals(2, dictionary.size());
+        assertEquals(1, dictionary.getEvictionCount());
+        assertSame(recurring, dictionary.intern(new String("Leo Tolstoy")));
+        assertNotNull(dictionary.valueOf(dictionary.idOf("Kathy Sierra")));
+        assertThrows(IllegalArgumentException.class, () -> new StringDictionary(0));
+    }
+
+    /**
+     * Test to ensure that interning the authors of a realistic catalog, where a few authors write most books,
+     * saves nearly all the heap their duplicate strings would take.
+     */
+    @Test
+    void GivenSkewedCatalog_WhenInternAuthors_ThenMostAuthorHeapSaved() {
+        StringDictionary dictionary = new StringDictionary(8192);
+        List<String> authorPool = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            authorPool.add("Author Number " + i);
+        }
+        Random random = new Random(17);
+        long duplicateBytes = 0;
+        for (int i = 0; i < 100_000; i++) {
+            // Squaring a uniform draw skews the catalog towards the first authors of the pool.
+            double draw = random.nextDouble();
+            String author = new String(authorPool.get((int) (draw * draw * authorPool.size())));
+            duplicateBytes += StringDictionary.estimateSize(author);
+            dictionary.intern(author);
+        }
+
+        assertTrue(dictionary.getSavedBytes() > duplicateBytes * 0.9);
+        assertTrue(dictionary.size() <= 5000);
+    }
+}
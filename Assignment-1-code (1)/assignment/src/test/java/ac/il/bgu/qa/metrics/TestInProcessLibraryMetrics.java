@@ -0,0 +1,75 @@
+package ac.il.bgu.qa.metrics;
+
+import ac.il.bgu.qa.errors.BookNotFoundException;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestInProcessLibraryMetrics {
+
+    InProcessLibraryMetrics metrics;
+
+    @BeforeEach
+    public void init() {
+        metrics = new InProcessLibraryMetrics();
+    }
+
+    /**
+     * Test to ensure that percentiles are reported within the histogram's precision.
+     */
+    @Test
+    void GivenUniformLatencies_WhenGetValueAtPercentile_ThenWithinPrecision() {
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            metrics.recordOperation(LibraryMetrics.Operation.BORROW_BOOK, nanos);
+        }
+        LatencyHistogram histogram = metrics.getHistogram(LibraryMetrics.Operation.BORROW_BOOK);
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000, histogram.getMax());
+        assertEquals(50_000, histogram.getValueAtPercentile(50), 50_000 * 0.04);
+        assertEquals(99_000, histogram.getValueAtPercentile(99), 99_000 * 0.04);
+        assertEquals(100_000, histogram.getValueAtPercentile(100));
+        assertEquals(0, metrics.getHistogram(LibraryMetrics.Operation.ADD_BOOK).getValueAtPercentile(99));
+    }
+
+    /**
+     * Test to ensure that every value maps to a bucket whose highest value is not below it and at most 1/32 above it.
+     */
+    @Test
+    void GivenValuesOfEveryMagnitude_WhenBucketed_ThenHighestValueBoundsThem() {
+        for (int bit = 0; bit < 63; bit++) {
+            long value = (1L << bit) + (bit > 2 ? 3 : 0);
+            long highest = LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 32);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    /**
+     * Test to ensure that counters are kept per operation and exception type or outcome, and rendered by the report.
+     */
+    @Test
+    void GivenFailuresAndRetries_WhenReport_ThenCountersRendered() {
+        metrics.recordFailure(LibraryMetrics.Operation.BORROW_BOOK, new BookNotFoundException("Book not found!"));
+        metrics.recordFailure(LibraryMetrics.Operation.RETURN_BOOK, new BookNotFoundException("Book not found!"));
+        metrics.recordRejection(LibraryMetrics.Operation.BORROW_BOOK, "BOOK_ALREADY_BORROWED");
+        metrics.recordNotificationRetry();
+        metrics.recordCall(LibraryMetrics.Call.DATABASE_GET_BOOK, 1_500);
+
+        assertEquals(2, metrics.getFailureCount(BookNotFoundException.class));
+        assertEquals(1, metrics.getFailureCount(LibraryMetrics.Operation.BORROW_BOOK, BookNotFoundException.class));
+        assertEquals(0, metrics.getFailureCount(LibraryMetrics.Operation.ADD_BOOK, BookNotFoundException.class));
+        assertEquals(0, metrics.getFailureCount(IllegalArgumentException.class));
+        assertEquals(1, metrics.getRejectionCount(LibraryMetrics.Operation.BORROW_BOOK, "BOOK_ALREADY_BORROWED"));
+        assertEquals(0, metrics.getRejectionCount(LibraryMetrics.Operation.RETURN_BOOK, "BOOK_ALREADY_BORROWED"));
+        assertEquals(1, metrics.getRejectionCount("BOOK_ALREADY_BORROWED"));
+        String report = metrics.report();
+        assertTrue(report.contains("call DATABASE_GET_BOOK count=1 p50=1.5"));
+        assertTrue(report.contains("notification retries: 1\n"));
+        assertTrue(report.contains("failures BORROW_BOOK BookNotFoundException: 1\n"));
+        assertTrue(report.contains("failures RETURN_BOOK BookNotFoundException: 1\n"));
+        assertTrue(report.contains("rejections BORROW_BOOK BOOK_ALREADY_BORROWED: 1\n"));
+        assertFalse(report.contains("operation"));
+    }
+}
@@ -0,0 +1,205 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.NotificationException;
+import org.junit.jupiter.api.*;
+import org.mockito.Answers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TestAsyncNotificationService {
+
+    NotificationService mockNotification = mock(NotificationService.class);
+    // Messages handed to the dead-letter sink.
+    List<String> deadLetters = new CopyOnWriteArrayList<>();
+    AsyncNotificationService dispatcher;
+
+    String validUserId = "123456789000";
+
+    private AsyncNotificationService dispatcher(int capacity, double retryRatio) {
+        return new AsyncNotificationService(mockNotification, capacity, 2, 3, 1, 5, TimeUnit.MILLISECONDS, retryRatio,
+                (userId, message, lastError, attempts) -> deadLetters.add(message + "/" + attempts));
+    }
+
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.shutdown(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Test to ensure that a delivery that fails transiently is retried with backoff until it succeeds.
+     */
+    @Test
+    void GivenTransientFailures_WhenNotify_ThenRetriedUntilDelivered() throws InterruptedException {
+        dispatcher = dispatcher(10, 1);
+        doThrow(new NotificationException("down")).doThrow(new NotificationException("down")).doNothing()
+                .when(mockNotification).notifyUser(validUserId, "hello");
+
+        dispatcher.notifyUser(validUserId, "hello");
+
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        verify(mockNotification, times(3)).notifyUser(validUserId, "hello");
+        assertEquals(1, dispatcher.getDeliveredCount());
+        assertEquals(2, dispatcher.getRetryCount());
+        assertTrue(deadLetters.isEmpty());
+    }
+
+    /**
+     * Test to ensure that a message still failing after the last attempt goes to the dead-letter sink.
+     */
+    @Test
+    void GivenPermanentFailure_WhenNotify_ThenDeadLettered() throws InterruptedException {
+        dispatcher = dispatcher(10, 1);
+        doThrow(new NotificationException("down")).when(mockNotification).notifyUser(anyString(), anyString());
+
+        dispatcher.notifyUser(validUserId, "hello");
+
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        verify(mockNotification, times(3)).notifyUser(validUserId, "hello");
+        assertEquals(Collections.singletonList("hello/3"), deadLetters);
+    }
+
+    /**
+     * Test to ensure that once the retry budget is spent, failed messages are dead-lettered without retrying.
+     */
+    @Test
+    void GivenExhaustedRetryBudget_WhenNotify_ThenNoFurtherRetries() throws InterruptedException {
+        dispatcher = dispatcher(1000, 0);
+        doThrow(new NotificationException("down")).when(mockNotification).notifyUser(anyString(), anyString());
+
+        // The budget starts with 100 retries and earns nothing with a ratio of 0.
+        for (int i = 0; i < 200; i++) {
+            dispatcher.notifyUser(validUserId, "m" + i);
+        }
+
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        assertEquals(100, dispatcher.getRetryCount());
+        assertEquals(200, dispatcher.getDeadLetterCount());
+    }
+
+    /**
+     * Test to ensure that the library returns as soon as the message is enqueued, and that a full queue rejects messages.
+     */
+    @Test
+    void GivenSlowBackend_WhenLibraryNotifies_ThenReturnsBeforeDeliveryAndRejectsWhenFull() throws InterruptedException {
+        dispatcher = dispatcher(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(mockNotification).notifyUser(anyString(), anyString());
+        ReviewService reviewService = mock(ReviewService.class, Answers.CALLS_REAL_METHODS);
+        when(reviewService.getReviewsForBook(anyString())).thenReturn(Collections.singletonList("Great book!"));
+        Library library = new Library(new InMemoryDatabaseService(), reviewService);
+        library.addBook(new Book("9780306406157", "War and Peace", "Leo Tolstoy"));
+        library.registerUser(new User("Valid User", validUserId, dispatcher));
+
+        library.notifyUserWithBookReviews("9780306406157", validUserId);
+        assertEquals(0, dispatcher.getDeliveredCount());
+        assertThrows(NotificationException.class, () -> dispatcher.notifyUser(validUserId, "overflow"));
+        assertEquals(1, dispatcher.getRejectedCount());
+
+        release.countDown();
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getDeliveredCount());
+    }
+
+    /**
+     * Test to ensure that a message waiting for its retry when a shutdown times out is dead-lettered
+     * and gives back its place in the queue.
+     */
+    @Test
+    void GivenPendingRetry_WhenShutdownTimesOut_ThenDeadLettered() throws InterruptedException {
+        dispatcher = new AsyncNotificationService(mockNotification, 1, 2, 3, 10, 10, TimeUnit.SECONDS, 1,
+                (userId, message, lastError, attempts) -> deadLetters.add(message + "/" + attempts));
+        CountDownLatch attempted = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            attempted.countDown();
+            throw new NotificationException("down");
+        }).when(mockNotification).notifyUser(anyString(), anyString());
+
+        dispatcher.notifyUser(validUserId, "hello");
+        assertTrue(attempted.await(5, TimeUnit.SECONDS));
+
+        assertFalse(dispatcher.shutdown(0, TimeUnit.SECONDS));
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getDeadLetterCount());
+        assertEquals(1, deadLetters.size());
+        assertTrue(deadLetters.get(0).startsWith("hello/"));
+    }
+
+    /**
+     * Test to ensure that an error thrown by the backend dead-letters the message and still gives back its place in the queue.
+     */
+    @Test
+    void GivenBackendError_WhenNotify_ThenDeadLetteredAndPermitReleased() throws InterruptedException {
+        dispatcher = dispatcher(1, 1);
+        doThrow(new AssertionError("broken")).doNothing().when(mockNotification).notifyUser(anyString(), anyString());
+
+        dispatcher.notifyUser(validUserId, "lost");
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        dispatcher.notifyUser(validUserId, "hello");
+
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        verify(mockNotification).notifyUser(validUserId, "hello");
+        assertEquals(1, dispatcher.getDeliveredCount());
+        assertEquals(Collections.singletonList("lost/1"), deadLetters);
+        assertEquals(1, dispatcher.getDeadLetterCount());
+    }
+
+    /**
+     * Test to ensure that no more deliveries than the number of workers reach the backend at once,
+     * whether they run on virtual threads or on a pool.
+     */
+    @Test
+    void GivenSlowBackend_WhenManyMessages_ThenConcurrencyBoundedByWorkers() throws InterruptedException {
+        dispatcher = dispatcher(10, 1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return null;
+        }).when(mockNotification).notifyUser(anyString(), anyString());
+
+        for (int i = 0; i < 8; i++) {
+            dispatcher.notifyUser(validUserId, "hello " + i);
+        }
+
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        assertEquals(8, dispatcher.getDeliveredCount());
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    /**
+     * Test to ensure that a message the dead-letter sink fails to accept is counted as lost.
+     */
+    @Test
+    void GivenFailingSink_WhenDeadLettered_ThenCountedAsLost() throws InterruptedException {
+        dispatcher = new AsyncNotificationService(mockNotification, 10, 2, 1, 1, 5, TimeUnit.MILLISECONDS, 1,
+                (userId, message, lastError, attempts) -> {
+                    throw new IllegalStateException("sink down");
+                });
+        doThrow(new NotificationException("down")).when(mockNotification).notifyUser(anyString(), anyString());
+
+        dispatcher.notifyUser(validUserId, "hello");
+
+        assertTrue(dispatcher.awaitQuiescence(5, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getDeadLetterCount());
+        assertEquals(1, dispatcher.getLostCount());
+    }
+}
@@ -0,0 +1,161 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TestCachingDatabaseService {
+
+    @Mock
+    DatabaseService mockDatabase;
+
+    String validBookISBN = "9780306406157";
+    String otherBookISBN = "9780134685991";
+    String validUserId = "123456789000";
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    /**
+     * Test to ensure that repeated lookups are answered from the cache, whatever the ISBN's hyphenation.
+     */
+    @Test
+    void GivenCachedBookAndUser_WhenLookedUpAgain_ThenLoadedOnce() {
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase);
+        Book book = new Book(validBookISBN, "War and Peace", "Leo Tolstoy");
+        User user = new User("Valid User", validUserId, null);
+        when(mockDatabase.getBookByISBN(anyString())).thenReturn(book);
+        when(mockDatabase.getUserById(validUserId)).thenReturn(user);
+
+        assertSame(book, cache.getBookByISBN(validBookISBN));
+        assertSame(book, cache.getBookByISBN("978-0-306-40615-7"));
+        assertSame(user, cache.getUserById(validUserId));
+        assertSame(user, cache.getUserById(validUserId));
+
+        verify(mockDatabase, times(1)).getBookByISBN(anyString());
+        verify(mockDatabase, times(1)).getUserById(validUserId);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    /**
+     * Test to ensure that borrowing and returning through the cache invalidate the cached book, and that missing books are not cached.
+     */
+    @Test
+    void GivenCachedBook_WhenBorrowedAndReturned_ThenReloaded() {
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase);
+        Book available = new Book(validBookISBN, "War and Peace", "Leo Tolstoy");
+        Book borrowed = new Book(validBookISBN, "War and Peace", "Leo Tolstoy");
+        borrowed.borrow();
+        when(mockDatabase.getBookByISBN(validBookISBN)).thenReturn(available, borrowed, available);
+
+        assertFalse(cache.getBookByISBN(validBookISBN).isBorrowed());
+        cache.borrowBook(validBookISBN, validUserId);
+        assertTrue(cache.getBookByISBN(validBookISBN).isBorrowed());
+        cache.compareAndSetBorrowed(validBookISBN, validUserId, true, false);
+        assertFalse(cache.getBookByISBN(validBookISBN).isBorrowed());
+        assertNull(cache.getBookByISBN(otherBookISBN));
+        assertNull(cache.getBookByISBN(otherBookISBN));
+
+        verify(mockDatabase, times(3)).getBookByISBN(validBookISBN);
+        verify(mockDatabase, times(2)).getBookByISBN(otherBookISBN);
+    }
+
+    /**
+     * Test to ensure that a hot book is pinned and stays cached while a scan of cold books churns the cache.
+     */
+    @Test
+    void GivenHotBook_WhenColdBooksScanned_ThenHotBookStaysPinned() {
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase, 16, 16, 2);
+        when(mockDatabase.getBookByISBN(anyString())).thenAnswer(invocation -> {
+            String ISBN = invocation.getArgument(0);
+            return new Book(ISBN, "Title " + ISBN, "Author");
+        });
+
+        for (int i = 0; i < 20; i++) {
+            cache.getBookByISBN(validBookISBN);
+        }
+        for (int i = 0; i < 200; i++) {
+            cache.getBookByISBN(String.format("97811111%05d", i));
+        }
+        cache.getBookByISBN(validBookISBN);
+
+        verify(mockDatabase, times(1)).getBookByISBN(validBookISBN);
+        assertTrue(cache.getPinnedBookCount() >= 1);
+        assertTrue(cache.getPinnedHitCount() > 0);
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    /**
+     * Test to ensure that lookups served from the pinned region still count towards the key's frequency,
+     * so a hot pinned key is not demoted for warm keys once the sketch has been halved several times.
+     */
+    @Test
+    void GivenPinnedHotBook_WhenWarmBooksStreamAcrossSketchResets_ThenHotBookStaysPinned() {
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase, 16, 16, 1);
+        when(mockDatabase.getBookByISBN(anyString())).thenAnswer(invocation -> {
+            String ISBN = invocation.getArgument(0);
+            return new Book(ISBN, "Title " + ISBN, "Author");
+        });
+        for (int i = 0; i < 20; i++) {
+            cache.getBookByISBN(validBookISBN);
+        }
+
+        // Well over the sketch's sample size of 640 increments, so its counters are halved several times.
+        for (int i = 0; i < 5000; i++) {
+            for (int j = 0; j < 3; j++) {
+                cache.getBookByISBN(validBookISBN);
+            }
+            cache.getBookByISBN(String.format("97811111%05d", i % 12));
+        }
+        long pinnedHits = cache.getPinnedHitCount();
+        cache.getBookByISBN(validBookISBN);
+
+        assertEquals(pinnedHits + 1, cache.getPinnedHitCount());
+        verify(mockDatabase, times(1)).getBookByISBN(validBookISBN);
+    }
+
+    /**
+     * Test to ensure that a batch lookup answers the cached books and fetches the others in one request.
+     */
+    @Test
+    void GivenOneCachedBook_WhenBatchLookup_ThenOnlyMissesFetched() {
+        CachingDatabaseService cache = new CachingDatabaseService(mockDatabase);
+        Book book = new Book(validBookISBN, "War and Peace", "Leo Tolstoy");
+        Book other = new Book(otherBookISBN, "Effective Java", "Joshua Bloch");
+        when(mockDatabase.getBookByISBN(validBookISBN)).thenReturn(book);
+        when(mockDatabase.getBooksByISBN(Collections.singletonList(otherBookISBN)))
+                .thenReturn(new HashMap<>(Collections.singletonMap(otherBookISBN, other)));
+        cache.getBookByISBN(validBookISBN);
+
+        Map<String, Book> found = cache.getBooksByISBN(Arrays.asList(validBookISBN, otherBookISBN));
+
+        assertSame(book, found.get(validBookISBN));
+        assertSame(other, found.get(otherBookISBN));
+        assertSame(other, cache.getBookByISBN(otherBookISBN));
+        verify(mockDatabase, never()).getBookByISBN(otherBookISBN);
+    }
+
+    /**
+     * Test to ensure that invalid cache configurations are rejected.
+     */
+    @Test
+    void GivenInvalidConfiguration_WhenConstructed_ThenIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new CachingDatabaseService(null));
+        assertThrows(IllegalArgumentException.class, () -> new CachingDatabaseService(mockDatabase, 0, 16, 0));
+        assertThrows(IllegalArgumentException.class, () -> new CachingDatabaseService(mockDatabase, 16, 16, 17));
+    }
+}
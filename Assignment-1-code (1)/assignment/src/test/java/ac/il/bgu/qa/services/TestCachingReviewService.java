@@ -0,0 +1,224 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.NoReviewsFoundException;
+import ac.il.bgu.qa.errors.ReviewException;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TestCachingReviewService {
+
+    @Mock
+    ReviewService mockReview;
+
+    @Mock
+    NotificationService mockNotification;
+
+    // Fake clock in nanoseconds.
+    AtomicLong now = new AtomicLong();
+
+    String validBookISBN = "9780306406157";
+    String otherBookISBN = "9780134685991";
+    List<String> reviews = Arrays.asList("Great book!", "Must-read!");
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    private CachingReviewService cache(long maxWeight, CachingReviewService.EvictionPolicy policy) {
+        return new CachingReviewService(mockReview, maxWeight, 10, 1, TimeUnit.SECONDS, policy, now::get);
+    }
+
+    /**
+     * Test to ensure that repeated lookups are answered from the cache until the entry expires.
+     */
+    @Test
+    void GivenCachedReviews_WhenFetchedBeforeAndAfterTtl_ThenLoadedTwice() {
+        CachingReviewService cache = cache(10_000, CachingReviewService.EvictionPolicy.LRU);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(reviews);
+
+        assertEquals(reviews, cache.getReviewsForBook(validBookISBN));
+        assertEquals(reviews, cache.getReviewsForBook(validBookISBN));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertEquals(reviews, cache.getReviewsForBook(validBookISBN));
+
+        verify(mockReview, times(2)).getReviewsForBook(validBookISBN);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * Test to ensure that titles without reviews are cached for the shorter negative time to live.
+     */
+    @Test
+    void GivenNoReviews_WhenFetched_ThenNegativeEntryUsesItsOwnTtl() {
+        CachingReviewService cache = cache(10_000, CachingReviewService.EvictionPolicy.LRU);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(null);
+
+        assertTrue(cache.getReviewsForBook(validBookISBN).isEmpty());
+        assertTrue(cache.getReviewsForBook(validBookISBN).isEmpty());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertTrue(cache.getReviewsForBook(validBookISBN).isEmpty());
+
+        verify(mockReview, times(2)).getReviewsForBook(validBookISBN);
+    }
+
+    /**
+     * Test to ensure that failures of the underlying service propagate and are not cached.
+     */
+    @Test
+    void GivenFailingService_WhenFetched_ThenFailureNotCached() {
+        CachingReviewService cache = cache(10_000, CachingReviewService.EvictionPolicy.LRU);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenThrow(new ReviewException("down")).thenReturn(reviews);
+
+        assertThrows(ReviewException.class, () -> cache.getReviewsForBook(validBookISBN));
+        assertEquals(reviews, cache.getReviewsForBook(validBookISBN));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    /**
+     * Test to ensure that concurrent misses for the same book wait for a single load instead of each calling the service.
+     */
+    @Test
+    void GivenConcurrentMisses_WhenFetched_ThenServiceCalledOnce() throws Exception {
+        CachingReviewService cache = cache(10_000, CachingReviewService.EvictionPolicy.LRU);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return reviews;
+        });
+        List<List<String>> results = new CopyOnWriteArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            readers.add(new Thread(() -> results.add(cache.getReviewsForBook(validBookISBN))));
+        }
+
+        readers.get(0).start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        for (Thread reader : readers.subList(1, readers.size())) {
+            reader.start();
+            while (reader.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread reader : readers) {
+            reader.join(5_000);
+        }
+
+        assertEquals(Collections.nCopies(4, reviews), results);
+        verify(mockReview, times(1)).getReviewsForBook(validBookISBN);
+        assertEquals(reviews, cache.getReviewsForBook(validBookISBN));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    /**
+     * Test to ensure that the least recently used entry is evicted once the weight bound is exceeded.
+     */
+    @Test
+    void GivenFullCache_WhenNewEntryLoaded_ThenLeastRecentlyUsedEvicted() {
+        // Each entry weighs 64 + 21 characters, so only two fit.
+        CachingReviewService cache = cache(200, CachingReviewService.EvictionPolicy.LRU);
+        String thirdBookISBN = "9781617294945";
+        when(mockReview.getReviewsForBook(anyString())).thenReturn(reviews);
+
+        cache.getReviewsForBook(validBookISBN);
+        cache.getReviewsForBook(otherBookISBN);
+        cache.getReviewsForBook(validBookISBN);
+        cache.getReviewsForBook(thirdBookISBN);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.getWeight() <= 200);
+        cache.getReviewsForBook(validBookISBN);
+        assertEquals(2, cache.getHitCount());
+    }
+
+    /**
+     * Test to ensure that TinyLFU admission keeps a popular entry instead of a one-off lookup.
+     */
+    @Test
+    void GivenPopularEntry_WhenOneOffLookupWithTinyLfu_ThenPopularEntryKept() {
+        CachingReviewService cache = cache(100, CachingReviewService.EvictionPolicy.TINY_LFU);
+        when(mockReview.getReviewsForBook(anyString())).thenReturn(reviews);
+        for (int i = 0; i < 5; i++) {
+            cache.getReviewsForBook(validBookISBN);
+        }
+
+        cache.getReviewsForBook(otherBookISBN);
+        cache.getReviewsForBook(validBookISBN);
+
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(5, cache.getHitCount());
+    }
+
+    /**
+     * Test to ensure that a newcomer losing to any of the victims it needs evicted is rejected without evicting
+     * the victims it beats.
+     */
+    @Test
+    void GivenNewcomerBeatingOnlySomeVictims_WhenStoredWithTinyLfu_ThenNothingEvicted() {
+        CachingReviewService cache = cache(200, CachingReviewService.EvictionPolicy.TINY_LFU);
+        String largeBookISBN = "9780596009205";
+        StringBuilder longReview = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longReview.append('x');
+        }
+        when(mockReview.getReviewsForBook(anyString())).thenReturn(reviews);
+        when(mockReview.getReviewsForBook(largeBookISBN)).thenReturn(Collections.singletonList(longReview.toString()));
+        cache.getReviewsForBook(otherBookISBN);
+        for (int i = 0; i < 5; i++) {
+            cache.getReviewsForBook(validBookISBN);
+        }
+
+        cache.getReviewsForBook(largeBookISBN);
+        cache.getReviewsForBook(largeBookISBN);
+
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+        assertEquals(reviews, cache.getReviewsForBook(otherBookISBN));
+        verify(mockReview, times(1)).getReviewsForBook(otherBookISBN);
+        verify(mockReview, times(1)).getReviewsForBook(validBookISBN);
+    }
+
+    /**
+     * Test to ensure that a library wrapped around the cache behaves as before while fetching reviews only once.
+     */
+    @Test
+    void GivenLibraryWithCache_WhenNotifiedTwice_ThenReviewsFetchedOnce() {
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        CachingReviewService cache = cache(10_000, CachingReviewService.EvictionPolicy.LRU);
+        Library library = new Library(database, cache);
+        library.addBook(new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        library.registerUser(new User("Valid User", "123456789000", mockNotification));
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(reviews);
+        when(mockReview.getReviewsForBook(otherBookISBN)).thenReturn(Collections.<String>emptyList());
+        library.addBook(new Book(otherBookISBN, "Effective Java", "Joshua Bloch"));
+
+        library.notifyUserWithBookReviews(validBookISBN, "123456789000");
+        library.notifyUserWithBookReviews(validBookISBN, "123456789000");
+        assertThrows(NoReviewsFoundException.class, () -> library.notifyUserWithBookReviews(otherBookISBN, "123456789000"));
+
+        verify(mockReview, times(1)).getReviewsForBook(validBookISBN);
+        verify(mockNotification, times(2)).notifyUser("123456789000", "Reviews for 'War and Peace':\nGreat book!\nMust-read!");
+        verify(mockReview, times(3)).close();
+    }
+}
@@ -0,0 +1,183 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.errors.ReviewServiceUnavailableException;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TestCircuitBreakerReviewService {
+
+    @Mock
+    ReviewService mockReview;
+
+    // Fake clock in nanoseconds.
+    AtomicLong now = new AtomicLong();
+
+    // Transitions published by the breaker, as "FROM->TO".
+    List<String> transitions = Collections.synchronizedList(new ArrayList<>());
+
+    String validBookISBN = "9780306406157";
+    List<String> reviews = Arrays.asList("Great book!", "Must-read!");
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    private CircuitBreakerReviewService breaker() {
+        return new CircuitBreakerReviewService(mockReview, 4, 4, 0.5, 10, TimeUnit.SECONDS,
+                (from, to) -> transitions.add(from + "->" + to), now::get);
+    }
+
+    private void fetchAndFail(CircuitBreakerReviewService breaker) {
+        assertThrows(ReviewException.class, () -> breaker.getReviewsForBook(validBookISBN));
+    }
+
+    /**
+     * Test to ensure that the circuit opens once the failure rate of the window reaches the threshold, and then fails fast.
+     */
+    @Test
+    void GivenFailingService_WhenFailureRateReached_ThenOpenAndFailFast() {
+        CircuitBreakerReviewService breaker = breaker();
+        when(mockReview.getReviewsForBook(validBookISBN))
+                .thenReturn(reviews).thenReturn(reviews)
+                .thenThrow(new ReviewException("Review service down"));
+
+        assertEquals(reviews, breaker.getReviewsForBook(validBookISBN));
+        assertEquals(reviews, breaker.getReviewsForBook(validBookISBN));
+        fetchAndFail(breaker);
+        assertEquals(CircuitBreakerReviewService.State.CLOSED, breaker.getState());
+        fetchAndFail(breaker);
+        assertEquals(CircuitBreakerReviewService.State.OPEN, breaker.getState());
+        breaker.close();
+
+        assertThrows(ReviewServiceUnavailableException.class, () -> breaker.getReviewsForBook(validBookISBN));
+        breaker.close();
+
+        verify(mockReview, times(4)).getReviewsForBook(validBookISBN);
+        verify(mockReview, times(1)).close();
+        assertEquals(1, breaker.getRejectedCount());
+        assertEquals(Collections.singletonList("CLOSED->OPEN"), transitions);
+    }
+
+    /**
+     * Test to ensure that after the open duration a single probe is let through while other calls keep failing fast,
+     * and that its success closes the circuit.
+     */
+    @Test
+    void GivenOpenCircuit_WhenProbeSucceeds_ThenOnlyProbeForwardedAndCircuitCloses() throws Exception {
+        CircuitBreakerReviewService breaker = breaker();
+        when(mockReview.getReviewsForBook(validBookISBN)).thenThrow(new ReviewException("Review service down"));
+        for (int i = 0; i < 4; i++) {
+            fetchAndFail(breaker);
+        }
+        CountDownLatch probing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        reset(mockReview);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenAnswer(invocation -> {
+            probing.countDown();
+            release.await();
+            return reviews;
+        });
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        CompletableFuture<List<String>> probe = CompletableFuture.supplyAsync(() -> breaker.getReviewsForBook(validBookISBN));
+        assertTrue(probing.await(10, TimeUnit.SECONDS));
+        assertEquals(CircuitBreakerReviewService.State.HALF_OPEN, breaker.getState());
+        assertThrows(ReviewServiceUnavailableException.class, () -> breaker.getReviewsForBook(validBookISBN));
+        release.countDown();
+
+        assertEquals(reviews, probe.get(10, TimeUnit.SECONDS));
+        assertEquals(CircuitBreakerReviewService.State.CLOSED, breaker.getState());
+        assertEquals(reviews, breaker.getReviewsForBook(validBookISBN));
+        verify(mockReview, times(2)).getReviewsForBook(anyString());
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    /**
+     * Test to ensure that a failed probe opens the circuit again for another open duration.
+     */
+    @Test
+    void GivenOpenCircuit_WhenProbeFails_ThenOpenAgain() {
+        CircuitBreakerReviewService breaker = breaker();
+        when(mockReview.getReviewsForBook(validBookISBN)).thenThrow(new ReviewException("Review service down"));
+        for (int i = 0; i < 4; i++) {
+            fetchAndFail(breaker);
+        }
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        fetchAndFail(breaker);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertThrows(ReviewServiceUnavailableException.class, () -> breaker.getReviewsForBook(validBookISBN));
+
+        assertEquals(CircuitBreakerReviewService.State.OPEN, breaker.getState());
+        verify(mockReview, times(5)).getReviewsForBook(validBookISBN);
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN"), transitions);
+    }
+
+    /**
+     * Test to ensure that closing after a call reached the service closes it, even if a later call was rejected,
+     * as when the first page of reviews is fetched and the circuit opens before the second.
+     */
+    @Test
+    void GivenForwardedThenRejectedCalls_WhenClosed_ThenServiceClosed() {
+        CircuitBreakerReviewService breaker = new CircuitBreakerReviewService(mockReview, 1, 1, 1, 10, TimeUnit.SECONDS,
+                CircuitBreakerReviewService.Listener.NONE, now::get);
+        when(mockReview.getReviewPage(validBookISBN, null, 2)).thenThrow(new ReviewException("Review service down"));
+
+        assertThrows(ReviewException.class, () -> breaker.getReviewPage(validBookISBN, null, 2));
+        assertThrows(ReviewServiceUnavailableException.class, () -> breaker.getReviewPage(validBookISBN, "2", 2));
+        breaker.close();
+        breaker.close();
+
+        verify(mockReview, times(1)).close();
+    }
+
+    /**
+     * Test to ensure that a probe throwing something other than a review failure neither closes nor reopens
+     * the circuit, and that the next call is let through as the probe.
+     */
+    @Test
+    void GivenOpenCircuit_WhenProbeThrowsOtherException_ThenStillHalfOpen() {
+        CircuitBreakerReviewService breaker = breaker();
+        when(mockReview.getReviewsForBook(validBookISBN)).thenThrow(new ReviewException("Review service down"));
+        for (int i = 0; i < 4; i++) {
+            fetchAndFail(breaker);
+        }
+        reset(mockReview);
+        when(mockReview.getReviewsForBook(validBookISBN))
+                .thenThrow(new IllegalStateException("Unexpected"))
+                .thenReturn(reviews);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertThrows(IllegalStateException.class, () -> breaker.getReviewsForBook(validBookISBN));
+        assertEquals(CircuitBreakerReviewService.State.HALF_OPEN, breaker.getState());
+        assertEquals(reviews, breaker.getReviewsForBook(validBookISBN));
+
+        assertEquals(CircuitBreakerReviewService.State.CLOSED, breaker.getState());
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    /**
+     * Test to ensure that invalid circuit breaker configurations are rejected.
+     */
+    @Test
+    void GivenInvalidConfiguration_WhenConstructed_ThenIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new CircuitBreakerReviewService(null, CircuitBreakerReviewService.Listener.NONE));
+        assertThrows(IllegalArgumentException.class, () -> new CircuitBreakerReviewService(mockReview, 4, 5, 0.5, 10, TimeUnit.SECONDS, CircuitBreakerReviewService.Listener.NONE));
+        assertThrows(IllegalArgumentException.class, () -> new CircuitBreakerReviewService(mockReview, 4, 4, 0, 10, TimeUnit.SECONDS, CircuitBreakerReviewService.Listener.NONE));
+    }
+}
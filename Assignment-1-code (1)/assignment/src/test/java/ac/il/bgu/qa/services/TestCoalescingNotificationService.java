@@ -0,0 +1,165 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.NotificationException;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class TestCoalescingNotificationService {
+
+    @Mock
+    NotificationService mockNotification;
+
+    @Mock
+    AsyncNotificationService.DeadLetterSink mockDeadLetters;
+
+    @Captor
+    ArgumentCaptor<List<Notification>> batchCaptor;
+
+    String firstUserId = "123456789000";
+    String secondUserId = "123456789001";
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    /**
+     * Test to ensure that the default batch method sends every message and reports partial failures.
+     */
+    @Test
+    void GivenDefaultBatchMethod_WhenOneSendFails_ThenOthersStillSentAndFailureReported() {
+        NotificationService service = mock(NotificationService.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+        doThrow(new NotificationException("down")).doNothing().when(service).notifyUser(anyString(), anyString());
+
+        NotificationException exception = assertThrows(NotificationException.class, () -> service.notifyUsers(Arrays.asList(
+                new Notification(firstUserId, "a"), new Notification(secondUserId, "b"))));
+
+        assertEquals("Failed to send 1 of 2 notifications.", exception.getMessage());
+        verify(service).notifyUser(secondUserId, "b");
+    }
+
+    /**
+     * Test to ensure that messages for the same user within a window are merged and sent as one batch.
+     */
+    @Test
+    void GivenBurstForSameUser_WhenWindowCloses_ThenSingleMergedBatch() {
+        CoalescingNotificationService coalescer = new CoalescingNotificationService(mockNotification, 50, TimeUnit.MILLISECONDS, 100, mockDeadLetters);
+
+        coalescer.notifyUser(firstUserId, "first");
+        coalescer.notifyUser(secondUserId, "other");
+        coalescer.notifyUser(firstUserId, "second");
+
+        verify(mockNotification, timeout(2000)).notifyUsers(batchCaptor.capture());
+        assertEquals(Arrays.asList(new Notification(firstUserId, "first\n\nsecond"), new Notification(secondUserId, "other")),
+                batchCaptor.getValue());
+        verify(mockNotification, never()).notifyUser(anyString(), anyString());
+        assertEquals(3, coalescer.getReceivedCount());
+        assertEquals(2, coalescer.getSentCount());
+        assertEquals(1, coalescer.getBatchCount());
+    }
+
+    /**
+     * Test to ensure that reaching the maximum number of users sends the batch right away,
+     * and that the caller filling the batch sees its failure.
+     */
+    @Test
+    void GivenFullBatch_WhenNotify_ThenSentImmediately() {
+        CoalescingNotificationService coalescer = new CoalescingNotificationService(mockNotification, 1, TimeUnit.HOURS, 2, mockDeadLetters);
+        doNothing().doThrow(new NotificationException("down")).when(mockNotification).notifyUsers(anyList());
+
+        coalescer.notifyUser(firstUserId, "a");
+        coalescer.notifyUser(secondUserId, "b");
+        verify(mockNotification).notifyUsers(anyList());
+
+        coalescer.notifyUser(firstUserId, "c");
+        assertThrows(NotificationException.class, () -> coalescer.notifyUser(secondUserId, "d"));
+        assertEquals(1, coalescer.getFailedBatchCount());
+    }
+
+    /**
+     * Test to ensure that when the full-batch send fails, the caller filling the batch sees the failure
+     * of its own message while the other users' notifications are dead-lettered.
+     */
+    @Test
+    void GivenFailingDelegate_WhenNotifyFillsBatch_ThenOthersDeadLetteredAndCallerFails() {
+        CoalescingNotificationService coalescer = new CoalescingNotificationService(mockNotification, 1, TimeUnit.HOURS, 3, mockDeadLetters);
+        NotificationException failure = new NotificationException("down");
+        doThrow(failure).when(mockNotification).notifyUsers(anyList());
+        String thirdUserId = "123456789002";
+
+        coalescer.notifyUser(firstUserId, "a");
+        coalescer.notifyUser(secondUserId, "b");
+        NotificationException exception = assertThrows(NotificationException.class, () -> coalescer.notifyUser(thirdUserId, "c"));
+
+        assertSame(failure, exception);
+        verify(mockDeadLetters).accept(firstUserId, "a", failure, 1);
+        verify(mockDeadLetters).accept(secondUserId, "b", failure, 1);
+        verify(mockDeadLetters, never()).accept(eq(thirdUserId), anyString(), any(), anyInt());
+        assertEquals(2, coalescer.getDeadLetterCount());
+        assertEquals(1, coalescer.getFailedBatchCount());
+    }
+
+    /**
+     * Test to ensure that a failed close dead-letters the buffered notifications instead of dropping them.
+     */
+    @Test
+    void GivenFailingDelegate_WhenClosed_ThenBufferedDeadLettered() {
+        CoalescingNotificationService coalescer = new CoalescingNotificationService(mockNotification, 1, TimeUnit.HOURS, 100, mockDeadLetters);
+        NotificationException failure = new NotificationException("down");
+        doThrow(failure).when(mockNotification).notifyUsers(anyList());
+        coalescer.notifyUser(firstUserId, "a");
+        coalescer.notifyUser(secondUserId, "b");
+
+        coalescer.close();
+
+        verify(mockDeadLetters).accept(firstUserId, "a", failure, 1);
+        verify(mockDeadLetters).accept(secondUserId, "b", failure, 1);
+        assertEquals(2, coalescer.getDeadLetterCount());
+    }
+
+    /**
+     * Test to ensure that closing sends what is buffered and rejects later messages.
+     */
+    @Test
+    void GivenBufferedMessages_WhenClosed_ThenFlushedAndLaterMessagesRejected() {
+        CoalescingNotificationService coalescer = new CoalescingNotificationService(mockNotification, 1, TimeUnit.HOURS, 100, mockDeadLetters);
+        coalescer.notifyUsers(Collections.singletonList(new Notification(firstUserId, "a")));
+
+        coalescer.close();
+
+        verify(mockNotification).notifyUsers(Collections.singletonList(new Notification(firstUserId, "a")));
+        assertThrows(NotificationException.class, () -> coalescer.notifyUser(firstUserId, "b"));
+    }
+
+    /**
+     * Test to ensure that the notifications of a failed timed batch go to the dead-letter sink rather than being lost.
+     */
+    @Test
+    void GivenFailingDelegate_WhenWindowCloses_ThenBatchDeadLettered() {
+        CoalescingNotificationService coalescer = new CoalescingNotificationService(mockNotification, 50, TimeUnit.MILLISECONDS, 100, mockDeadLetters);
+        NotificationException failure = new NotificationException("down");
+        doThrow(failure).when(mockNotification).notifyUsers(anyList());
+
+        coalescer.notifyUser(firstUserId, "a");
+        coalescer.notifyUser(secondUserId, "b");
+
+        verify(mockDeadLetters, timeout(2000)).accept(firstUserId, "a", failure, 1);
+        verify(mockDeadLetters, timeout(2000)).accept(secondUserId, "b", failure, 1);
+        assertEquals(1, coalescer.getFailedBatchCount());
+        assertEquals(2, coalescer.getDeadLetterCount());
+        assertEquals(0, coalescer.getLostCount());
+    }
+}
@@ -0,0 +1,54 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TestDatabaseService {
+
+    @Mock(answer = Answers.CALLS_REAL_METHODS)
+    DatabaseService mockDatabase;
+
+    String validBookISBN = "9780306406157";
+    String validUserId = "123456789000";
+    Book book;
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        book = new Book(validBookISBN, "War and Peace", "Leo Tolstoy");
+        doReturn(book).when(mockDatabase).getBookByISBN(validBookISBN);
+        doReturn(new User("Valid User", validUserId, null)).when(mockDatabase).getUserById(validUserId);
+    }
+
+    /**
+     * Test to ensure that the default compare-and-set undoes the book's borrowing when the store fails to record it.
+     */
+    @Test
+    void GivenFailingBorrowWrite_WhenCompareAndSetBorrowed_ThenBookStaysAvailable() {
+        doThrow(new IllegalStateException("store down")).when(mockDatabase).borrowBook(validBookISBN, validUserId);
+
+        assertThrows(IllegalStateException.class,
+                () -> mockDatabase.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+
+        assertFalse(book.isBorrowed());
+    }
+
+    /**
+     * Test to ensure that the default compare-and-set gives the book back to its borrower when the store fails to record the return.
+     */
+    @Test
+    void GivenFailingReturnWrite_WhenCompareAndSetBorrowed_ThenBookStillBorrowedBySameUser() {
+        assertTrue(book.tryBorrow(validUserId));
+        doThrow(new IllegalStateException("store down")).when(mockDatabase).returnBook(validBookISBN);
+
+        assertThrows(IllegalStateException.class,
+                () -> mockDatabase.compareAndSetBorrowed(validBookISBN, null, true, false));
+
+        assertEquals(validUserId, book.getBorrowerId());
+    }
+}
@@ -0,0 +1,152 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.errors.ReviewServiceUnavailableException;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class TestDeadlineReviewService {
+
+    @Mock
+    ReviewService mockReview;
+
+    ExecutorService executor;
+
+    String validBookISBN = "9780306406157";
+    List<String> reviews = Arrays.asList("Great book!", "Must-read!");
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test to ensure that a fetch still running at the deadline is interrupted and surfaces as the review service being unavailable.
+     */
+    @Test
+    void GivenSlowService_WhenDeadlinePasses_ThenReviewServiceUnavailableAndFetchInterrupted() throws Exception {
+        DeadlineReviewService deadline = new DeadlineReviewService(mockReview, executor, 100, TimeUnit.MILLISECONDS);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return reviews;
+        });
+
+        long start = System.nanoTime();
+        assertThrows(ReviewServiceUnavailableException.class, () -> deadline.getReviewsForBook(validBookISBN));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, deadline.getTimeoutCount());
+        assertEquals(0, deadline.getHedgeCount());
+    }
+
+    /**
+     * Test to ensure that the pages of one read share a single deadline, carried by the cursor,
+     * instead of each page getting a deadline of its own.
+     */
+    @Test
+    void GivenSlowPages_WhenReadAcrossPages_ThenWholeReadBoundedByOneDeadline() {
+        DeadlineReviewService deadline = new DeadlineReviewService(mockReview, executor, 300, TimeUnit.MILLISECONDS);
+        when(mockReview.getReviewPage(eq(validBookISBN), any(), eq(2))).thenAnswer(invocation -> {
+            Thread.sleep(120);
+            String cursor = invocation.getArgument(1);
+            int page = cursor == null ? 0 : Integer.parseInt(cursor);
+            return new ReviewPage(reviews, Integer.toString(page + 1));
+        });
+
+        ReviewPage first = deadline.getReviewPage(validBookISBN, null, 2);
+        ReviewPage second = deadline.getReviewPage(validBookISBN, first.getNextCursor(), 2);
+        long start = System.nanoTime();
+        assertThrows(ReviewServiceUnavailableException.class,
+                () -> deadline.getReviewPage(validBookISBN, second.getNextCursor(), 2));
+
+        assertEquals(reviews, second.getReviews());
+        verify(mockReview).getReviewPage(validBookISBN, "1", 2);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(300));
+        assertEquals(1, deadline.getTimeoutCount());
+        assertThrows(IllegalArgumentException.class, () -> deadline.getReviewPage(validBookISBN, "1", 2));
+    }
+
+    /**
+     * Test to ensure that a fetch slower than the hedge delay is raced by a second one, whose answer is used.
+     */
+    @Test
+    void GivenStuckFirstFetch_WhenHedged_ThenSecondAnswerUsed() {
+        DeadlineReviewService deadline = new DeadlineReviewService(mockReview, executor, 5_000, 20, TimeUnit.MILLISECONDS);
+        AtomicInteger calls = new AtomicInteger();
+        when(mockReview.getReviewsForBook(validBookISBN)).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                Thread.sleep(10_000);
+            }
+            return reviews;
+        });
+
+        long start = System.nanoTime();
+        assertEquals(reviews, deadline.getReviewsForBook(validBookISBN));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(2, calls.get());
+        assertEquals(1, deadline.getHedgeCount());
+        assertEquals(1, deadline.getHedgeWinCount());
+    }
+
+    /**
+     * Test to ensure that a fetch failing before the hedge delay fails the call without a second fetch.
+     */
+    @Test
+    void GivenFailingFetch_WhenFailedBeforeHedgeDelay_ThenReviewExceptionWithoutHedge() {
+        DeadlineReviewService deadline = new DeadlineReviewService(mockReview, executor, 5_000, 1_000, TimeUnit.MILLISECONDS);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenThrow(new ReviewException("Review service down"));
+
+        assertThrows(ReviewException.class, () -> deadline.getReviewsForBook(validBookISBN));
+
+        verify(mockReview, times(1)).getReviewsForBook(validBookISBN);
+        assertEquals(0, deadline.getHedgeCount());
+        assertEquals(0, deadline.getTimeoutCount());
+    }
+
+    /**
+     * Test to ensure that the hedge delay follows the 95th percentile of recent fetch latencies, and that invalid configurations are rejected.
+     */
+    @Test
+    void GivenRecentLatencies_WhenEnoughFetches_ThenHedgeDelayNearTheirPercentile() {
+        DeadlineReviewService deadline = new DeadlineReviewService(mockReview, executor, 5_000, 1, TimeUnit.MILLISECONDS);
+        when(mockReview.getReviewsForBook(validBookISBN)).thenAnswer(invocation -> {
+            Thread.sleep(5);
+            return reviews;
+        });
+
+        for (int i = 0; i < 64; i++) {
+            assertEquals(reviews, deadline.getReviewsForBook(validBookISBN));
+        }
+
+        long delay = deadline.getHedgeDelay(TimeUnit.MICROSECONDS);
+        assertTrue(delay >= 4_000 && delay < 1_000_000, "hedge delay: " + delay);
+        assertThrows(IllegalArgumentException.class, () -> new DeadlineReviewService(mockReview, null, 100, TimeUnit.MILLISECONDS));
+        assertThrows(IllegalArgumentException.class, () -> new DeadlineReviewService(mockReview, executor, 100, 100, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,248 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDurableDatabaseService {
+
+    @Mock
+    NotificationService mockNotification;
+
+    @TempDir
+    Path directory;
+
+    String validBookISBN = "9780306406157";
+    String otherBookISBN = "9780134685991";
+    String validUserId = "123456789000";
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    /**
+     * Test to ensure that books, users and borrowing state survive reopening the database.
+     */
+    @Test
+    void GivenChanges_WhenReopened_ThenStateRecovered() throws IOException {
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+            database.addBookIfAbsent(otherBookISBN, new Book(otherBookISBN, "Effective Java", "Joshua Bloch"));
+            database.registerUserIfAbsent(validUserId, new User("Valid User", validUserId, mockNotification));
+            assertEquals(WriteOutcome.APPLIED, database.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+            assertEquals(WriteOutcome.APPLIED, database.compareAndSetBorrowed(otherBookISBN, validUserId, false, true));
+            assertEquals(WriteOutcome.APPLIED, database.compareAndSetBorrowed(otherBookISBN, null, true, false));
+        }
+
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            Book book = database.getBookByISBN(validBookISBN);
+            assertEquals("War and Peace", book.getTitle());
+            assertEquals(validUserId, book.getBorrowerId());
+            assertFalse(database.getBookByISBN(otherBookISBN).isBorrowed());
+            User user = database.getUserById(validUserId);
+            assertEquals("Valid User", user.getName());
+            assertSame(mockNotification, user.getNotificationService());
+        }
+    }
+
+    /**
+     * Test to ensure that a record torn by a crash is discarded and that the database keeps logging after it.
+     */
+    @Test
+    void GivenTornLastRecord_WhenReopened_ThenEarlierChangesKept() throws IOException {
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        }
+        Files.write(directory.resolve("wal-0"), new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            assertNotNull(database.getBookByISBN(validBookISBN));
+            database.addBook(otherBookISBN, new Book(otherBookISBN, "Effective Java", "Joshua Bloch"));
+        }
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            assertNotNull(database.getBookByISBN(validBookISBN));
+            assertNotNull(database.getBookByISBN(otherBookISBN));
+        }
+    }
+
+    /**
+     * Test to ensure that a zero-filled tail, as left by a preallocated or crash-extended file, is discarded.
+     */
+    @Test
+    void GivenZeroFilledTail_WhenReopened_ThenTailDiscarded() throws IOException {
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        }
+        long size = Files.size(directory.resolve("wal-0"));
+        Files.write(directory.resolve("wal-0"), new byte[16], StandardOpenOption.APPEND);
+
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            assertNotNull(database.getBookByISBN(validBookISBN));
+        }
+        assertEquals(size, Files.size(directory.resolve("wal-0")));
+    }
+
+    /**
+     * Test to ensure that a torn header with a huge length is discarded without allocating its payload.
+     */
+    @Test
+    void GivenHugeTornLength_WhenReopened_ThenTailDiscarded() throws IOException {
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        }
+        Files.write(directory.resolve("wal-0"), new byte[]{0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xf0, 1, 2, 3, 4, 5},
+                StandardOpenOption.APPEND);
+
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            assertNotNull(database.getBookByISBN(validBookISBN));
+            database.addBook(otherBookISBN, new Book(otherBookISBN, "Effective Java", "Joshua Bloch"));
+        }
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            assertNotNull(database.getBookByISBN(otherBookISBN));
+        }
+    }
+
+    /**
+     * Test to ensure that compaction replaces the log with a snapshot holding the same state.
+     */
+    @Test
+    void GivenSmallCompactionThreshold_WhenManyChanges_ThenCompactedAndRecovered() throws IOException {
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification, 512)) {
+            database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+            database.registerUser(validUserId, new User("Valid User", validUserId, mockNotification));
+            for (int i = 0; i < 51; i++) {
+                database.compareAndSetBorrowed(validBookISBN, validUserId, false, true);
+                database.compareAndSetBorrowed(validBookISBN, null, true, false);
+            }
+            database.borrowBook(validBookISBN, validUserId);
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<String> names = files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+            assertEquals(2, names.size());
+            assertEquals("snapshot", names.get(0));
+            assertNotEquals("wal-0", names.get(1));
+        }
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification, 512)) {
+            assertEquals(validUserId, database.getBookByISBN(validBookISBN).getBorrowerId());
+            assertNotNull(database.getUserById(validUserId));
+        }
+    }
+
+    /**
+     * Test to ensure that writers queued behind an fsync in progress all share the next one.
+     */
+    @Test
+    void GivenSyncInProgress_WhenOtherWritersQueue_ThenOneFsyncCoversThem() throws Exception {
+        int writers = 8;
+        AtomicBoolean armed = new AtomicBoolean();
+        CountDownLatch forcing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification,
+                DurableDatabaseService.DEFAULT_COMPACTION_THRESHOLD, () -> {
+                    // Hold the first fsync after the setup until every other writer has logged its change.
+                    if (armed.compareAndSet(true, false)) {
+                        forcing.countDown();
+                        awaitUninterruptibly(release);
+                    }
+                })) {
+            List<String> ISBNs = new ArrayList<>();
+            for (int t = 0; t < writers; t++) {
+                String ISBN = String.format("97803064%05d", t * 10);
+                ISBN = ISBN.substring(0, 12) + checkDigit(ISBN);
+                ISBNs.add(ISBN);
+                database.addBook(ISBN, new Book(ISBN, "Volume " + t, "Leo Tolstoy"));
+            }
+            database.registerUser(validUserId, new User("Valid User", validUserId, mockNotification));
+            long before = database.getSyncCount();
+            armed.set(true);
+
+            List<Future<WriteOutcome>> borrows = new ArrayList<>();
+            borrows.add(executor.submit(() -> database.compareAndSetBorrowed(ISBNs.get(0), validUserId, false, true)));
+            assertTrue(forcing.await(10, TimeUnit.SECONDS));
+            for (String ISBN : ISBNs.subList(1, writers)) {
+                borrows.add(executor.submit(() -> database.compareAndSetBorrowed(ISBN, validUserId, false, true)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!ISBNs.stream().allMatch(ISBN -> database.getBookByISBN(ISBN).isBorrowed())) {
+                assertTrue(System.nanoTime() < deadline, "Writers did not queue up");
+                Thread.yield();
+            }
+            // Changes are applied and logged under the same lock, so taking it means every change is logged.
+            database.getSyncCount();
+            release.countDown();
+
+            for (Future<WriteOutcome> borrow : borrows) {
+                assertEquals(WriteOutcome.APPLIED, borrow.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(before + 2, database.getSyncCount());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test to ensure that a batch of borrowings is logged with a single fsync and recovered.
+     */
+    @Test
+    void GivenBatchBorrow_WhenCompareAndSetBorrowedAll_ThenSingleSyncAndRecovered() throws IOException {
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+            database.addBook(otherBookISBN, new Book(otherBookISBN, "Effective Java", "Joshua Bloch"));
+            database.registerUser(validUserId, new User("Valid User", validUserId, mockNotification));
+            long before = database.getSyncCount();
+
+            Map<String, WriteOutcome> outcomes = database.compareAndSetBorrowedAll(
+                    Arrays.asList(validBookISBN, otherBookISBN, "9780596009205"), validUserId, false, true);
+
+            assertEquals(WriteOutcome.APPLIED, outcomes.get(validBookISBN));
+            assertEquals(WriteOutcome.APPLIED, outcomes.get(otherBookISBN));
+            assertEquals(WriteOutcome.BOOK_NOT_FOUND, outcomes.get("9780596009205"));
+            assertEquals(before + 1, database.getSyncCount());
+        }
+        try (DurableDatabaseService database = new DurableDatabaseService(directory, mockNotification)) {
+            assertEquals(validUserId, database.getBookByISBN(otherBookISBN).getBorrowerId());
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int checkDigit(String ISBN) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int digit = ISBN.charAt(i) - '0';
+            sum += (i & 1) == 0 ? digit : digit * 3;
+        }
+        return (10 - (sum % 10)) % 10;
+    }
+}
@@ -0,0 +1,152 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TestFilteringDatabaseService {
+
+    InMemoryDatabaseService database;
+
+    String validBookISBN = "9780306406157";
+    String otherBookISBN = "9780134685991";
+    String validUserId = "123456789000";
+
+    @BeforeEach
+    public void init() {
+        database = spy(new InMemoryDatabaseService());
+        database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        database.registerUser(validUserId, new User("Valid User", validUserId, null));
+    }
+
+    /**
+     * Test to ensure that new books and users are written without reading their keys back, and duplicates are still rejected.
+     */
+    @Test
+    void GivenNewKeys_WhenAddedIfAbsent_ThenNoReadAndDuplicatesRejected() {
+        FilteringDatabaseService filtered = new FilteringDatabaseService(database);
+        String newUserId = "123456789001";
+
+        assertEquals(WriteOutcome.APPLIED, filtered.addBookIfAbsent(otherBookISBN, new Book(otherBookISBN, "Effective Java", "Joshua Bloch")));
+        assertEquals(WriteOutcome.APPLIED, filtered.registerUserIfAbsent(newUserId, new User("New User", newUserId, null)));
+        assertEquals(WriteOutcome.ALREADY_EXISTS, filtered.addBookIfAbsent(otherBookISBN, new Book(otherBookISBN, "Effective Java", "Joshua Bloch")));
+        assertEquals(WriteOutcome.ALREADY_EXISTS, filtered.registerUserIfAbsent(validUserId, new User("Valid User", validUserId, null)));
+
+        // Only the duplicate reaches the conditional write.
+        verify(database, times(1)).addBookIfAbsent(eq(otherBookISBN), any());
+        verify(database, never()).getBookByISBN(anyString());
+        verify(database, never()).getUserById(anyString());
+        assertEquals("Effective Java", database.getBookByISBN(otherBookISBN).getTitle());
+        assertEquals(2, filtered.getAvoidedReadCount());
+    }
+
+    /**
+     * Test to ensure that the filter is built from the database contents, and that a rebuild learns keys written directly.
+     */
+    @Test
+    void GivenExistingContents_WhenLookedUpAndRebuilt_ThenOnlyPossibleKeysForwarded() {
+        FilteringDatabaseService filtered = new FilteringDatabaseService(database);
+
+        assertNotNull(filtered.getBookByISBN("978-0-306-40615-7"));
+        assertNotNull(filtered.getUserById(validUserId));
+        assertNull(filtered.getBookByISBN(otherBookISBN));
+        assertTrue(filtered.getBooksByISBN(Arrays.asList(otherBookISBN, "9780596009205")).isEmpty());
+        verify(database, never()).getBooksByISBN(any());
+
+        database.addBook(otherBookISBN, new Book(otherBookISBN, "Effective Java", "Joshua Bloch"));
+        assertNull(filtered.getBookByISBN(otherBookISBN));
+        filtered.rebuild();
+        assertNotNull(filtered.getBookByISBN(otherBookISBN));
+        assertEquals(4, filtered.getAvoidedReadCount());
+    }
+
+    /**
+     * Test to ensure that a database unable to enumerate its contents is wrapped without failing,
+     * and that every call is then forwarded to it.
+     */
+    @Test
+    void GivenNonEnumerableDatabase_WhenLookedUpAndAdded_ThenEveryCallForwarded() {
+        DatabaseService thirdParty = mock(DatabaseService.class);
+        Book book = new Book(otherBookISBN, "Effective Java", "Joshua Bloch");
+        when(thirdParty.getBookByISBN(validBookISBN)).thenReturn(book);
+        when(thirdParty.addBookIfAbsent(otherBookISBN, book)).thenReturn(WriteOutcome.APPLIED);
+
+        FilteringDatabaseService filtered = new FilteringDatabaseService(thirdParty, 64, 64, 0.01);
+
+        assertFalse(filtered.canEnumerate());
+        assertSame(book, filtered.getBookByISBN(validBookISBN));
+        assertNull(filtered.getUserById(validUserId));
+        assertEquals(WriteOutcome.APPLIED, filtered.addBookIfAbsent(otherBookISBN, book));
+        verify(thirdParty).getUserById(validUserId);
+        verify(thirdParty).addBookIfAbsent(otherBookISBN, book);
+        assertEquals(0, filtered.getAvoidedReadCount());
+        assertEquals(0, filtered.getFalsePositiveCount());
+    }
+
+    /**
+     * Test to ensure that concurrent conditional adds of the same new keys apply each key exactly once.
+     */
+    @Test
+    void GivenConcurrentAdders_WhenSameNewKeysAdded_ThenEachAppliedOnce() throws Exception {
+        FilteringDatabaseService filtered = new FilteringDatabaseService(new InMemoryDatabaseService(), 64, 64, 0.01);
+        AtomicInteger applied = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] futures = new Future<?>[8];
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        String ISBN = String.format("97811111%05d", i);
+                        if (filtered.addBookIfAbsent(ISBN, new Book(ISBN, "Title", "Author")) == WriteOutcome.APPLIED) {
+                            applied.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(2000, applied.get());
+    }
+
+    /**
+     * Test to ensure that a filter grown far past its expected size keeps its false-positive rate, and reports its memory cost.
+     */
+    @Test
+    void GivenFilterOutgrowingItsSize_WhenAbsentKeysChecked_ThenRateWithinConfiguration() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (long key = 0; key < 50_000; key++) {
+            filter.add(key * 2);
+        }
+        int falsePositives = 0;
+        for (long key = 0; key < 50_000; key++) {
+            assertTrue(filter.mightContain(key * 2));
+            if (filter.mightContain(key * 2 + 1)) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(filter.getLayerCount() > 1);
+        assertTrue(falsePositives < 500, "false positives: " + falsePositives);
+        List<Long> perMillion = Arrays.asList(BloomFilter.memoryBytesPerMillionKeys(0.01), BloomFilter.memoryBytesPerMillionKeys(0.001));
+        assertTrue(perMillion.get(0) > 1_300_000 && perMillion.get(0) < 1_450_000);
+        assertTrue(perMillion.get(1) > perMillion.get(0));
+        assertThrows(IllegalArgumentException.class, () -> new FilteringDatabaseService(database, 64, 64, 1));
+    }
+}
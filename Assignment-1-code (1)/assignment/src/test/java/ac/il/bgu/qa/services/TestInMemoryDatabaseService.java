@@ -0,0 +1,208 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestInMemoryDatabaseService {
+
+    InMemoryDatabaseService database;
+
+    String validBookISBN = "9780306406157";
+    String validUserId = "123456789000";
+
+    @BeforeEach
+    public void init() {
+        database = new InMemoryDatabaseService(4, 4);
+    }
+
+    /**
+     * Test to ensure that stored books and users can be fetched back, and that ISBN keys ignore hyphens.
+     */
+    @Test
+    void GivenStoredBookAndUser_WhenFetch_ThenSameInstances() {
+        Book book = new Book(validBookISBN, "War and Peace", "Leo Tolstoy");
+        User user = new User("Valid User", validUserId, null);
+
+        database.addBook(validBookISBN, book);
+        database.registerUser(validUserId, user);
+
+        assertSame(book, database.getBookByISBN(validBookISBN));
+        assertSame(book, database.getBookByISBN("978-0-306-40615-7"));
+        assertSame(user, database.getUserById(validUserId));
+        assertNull(database.getBookByISBN("9780134685991"));
+        assertNull(database.getUserById("000000000000"));
+        assertEquals(1, database.getBookCount());
+        assertEquals(1, database.getUserCount());
+    }
+
+    /**
+     * Test to ensure that keys which are not ISBN-13s or 12-digit user Ids are rejected on write and never found.
+     */
+    @Test
+    void GivenMalformedKeys_WhenAccess_ThenRejectedOrNotFound() {
+        assertThrows(IllegalArgumentException.class, () -> database.addBook("InvalidISBN", new Book("InvalidISBN", "t", "a")));
+        assertThrows(IllegalArgumentException.class, () -> database.registerUser("12345678900013", new User("n", "12345678900013", null)));
+        assertNull(database.getBookByISBN("978030640615"));
+        assertNull(database.getBookByISBN(null));
+        assertNull(database.getUserById("12345678900a"));
+    }
+
+    /**
+     * Test to ensure that identifiers with leading zeros are not confused with shorter ones.
+     */
+    @Test
+    void GivenLeadingZeroKeys_WhenFetch_ThenDistinctEntries() {
+        Book zero = new Book("0000000000000", "Zero", "Nobody");
+        database.addBook("0000000000000", zero);
+
+        assertSame(zero, database.getBookByISBN("0000000000000"));
+        assertNull(database.getBookByISBN("000000000000"));
+    }
+
+    /**
+     * Test to ensure that borrowing records the borrower and returning clears it.
+     */
+    @Test
+    void GivenBorrowedBook_WhenReturn_ThenBorrowerCleared() {
+        database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+
+        database.borrowBook(validBookISBN, validUserId);
+        assertEquals(validUserId, database.getBorrowerId(validBookISBN));
+
+        database.returnBook(validBookISBN);
+        assertNull(database.getBorrowerId(validBookISBN));
+    }
+
+    /**
+     * Test to ensure that a batch write stores every book and a batch read finds only the existing ones.
+     */
+    @Test
+    void GivenBatch_WhenAddBooksAndGetBooks_ThenAllStored() {
+        Map<String, Book> batch = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            String ISBN = String.format("%013d", i);
+            batch.put(ISBN, new Book(ISBN, "Title " + i, "Author"));
+        }
+
+        database.addBooks(batch);
+
+        assertEquals(1000, database.getBookCount());
+        Map<String, Book> found = database.getBooksByISBN(Arrays.asList("0000000000007", "0000000000999", validBookISBN));
+        assertEquals(2, found.size());
+        assertSame(batch.get("0000000000007"), found.get("0000000000007"));
+    }
+
+    /**
+     * Test to ensure that lock-free readers always see every book written before they started, while the tables grow.
+     */
+    @Test
+    void GivenConcurrentWriter_WhenReadWhileResizing_ThenNoLostBooks() throws InterruptedException {
+        int total = 200_000;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            int seen = 0;
+            while (!done.get() || seen < total) {
+                // Books are written in order, so every key below the published count must be visible.
+                int count = database.getBookCount();
+                for (int i = seen; i < count; i++) {
+                    if (database.getBookByISBN(String.format("%013d", i)) == null) {
+                        failure.set("Missing book " + i);
+                        return;
+                    }
+                }
+                seen = count;
+            }
+        });
+        reader.start();
+        for (int i = 0; i < total; i++) {
+            String ISBN = String.format("%013d", i);
+            database.addBook(ISBN, new Book(ISBN, "Title", "Author"));
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(total, database.getBookCount());
+    }
+
+    /**
+     * Test to ensure that conditional adds and registrations only write absent keys.
+     */
+    @Test
+    void GivenExistingKeys_WhenAddIfAbsent_ThenAlreadyExists() {
+        Book book = new Book(validBookISBN, "War and Peace", "Leo Tolstoy");
+        User user = new User("Valid User", validUserId, null);
+
+        assertEquals(WriteOutcome.APPLIED, database.addBookIfAbsent(validBookISBN, book));
+        assertEquals(WriteOutcome.ALREADY_EXISTS, database.addBookIfAbsent(validBookISBN, new Book(validBookISBN, "Other", "Other")));
+        assertEquals(WriteOutcome.APPLIED, database.registerUserIfAbsent(validUserId, user));
+        assertEquals(WriteOutcome.ALREADY_EXISTS, database.registerUserIfAbsent(validUserId, new User("Other", validUserId, null)));
+        assertSame(book, database.getBookByISBN(validBookISBN));
+        assertSame(user, database.getUserById(validUserId));
+    }
+
+    /**
+     * Test to ensure that compareAndSetBorrowed reports every failed condition and flips the book otherwise.
+     */
+    @Test
+    void GivenBookAndUser_WhenCompareAndSetBorrowed_ThenOutcomeMatchesState() {
+        Book book = new Book(validBookISBN, "War and Peace", "Leo Tolstoy");
+        assertEquals(WriteOutcome.BOOK_NOT_FOUND, database.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+        database.addBook(validBookISBN, book);
+        assertEquals(WriteOutcome.USER_NOT_FOUND, database.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+        database.registerUser(validUserId, new User("Valid User", validUserId, null));
+
+        assertEquals(WriteOutcome.STATE_MISMATCH, database.compareAndSetBorrowed(validBookISBN, null, true, false));
+        assertEquals(WriteOutcome.APPLIED, database.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+        assertTrue(book.isBorrowed());
+        assertEquals(validUserId, database.getBorrowerId(validBookISBN));
+        assertEquals(WriteOutcome.STATE_MISMATCH, database.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+        assertEquals(WriteOutcome.APPLIED, database.compareAndSetBorrowed(validBookISBN, null, true, false));
+        assertFalse(book.isBorrowed());
+        assertNull(database.getBorrowerId(validBookISBN));
+    }
+
+    /**
+     * Test to ensure that when many threads race to borrow the same book, exactly one of them succeeds.
+     */
+    @Test
+    void GivenConcurrentBorrowers_WhenCompareAndSetBorrowed_ThenSingleWinner() throws InterruptedException {
+        database.addBook(validBookISBN, new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        database.registerUser(validUserId, new User("Valid User", validUserId, null));
+        int threads = 8;
+        AtomicInteger winners = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] borrowers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            borrowers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (database.compareAndSetBorrowed(validBookISBN, validUserId, false, true) == WriteOutcome.APPLIED) {
+                    winners.incrementAndGet();
+                }
+            });
+            borrowers[t].start();
+        }
+        start.countDown();
+        for (Thread borrower : borrowers) {
+            borrower.join();
+        }
+
+        assertEquals(1, winners.get());
+    }
+}
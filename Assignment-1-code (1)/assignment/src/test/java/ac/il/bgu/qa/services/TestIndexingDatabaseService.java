@@ -0,0 +1,120 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIndexingDatabaseService {
+
+    InMemoryDatabaseService database;
+    IndexingDatabaseService index;
+
+    String validUserId = "123456789000";
+
+    @BeforeEach
+    public void init() {
+        database = new InMemoryDatabaseService();
+        index = new IndexingDatabaseService(database);
+        index.addBook("9780306406157", new Book("9780306406157", "War and Peace", "Leo Tolstoy"));
+        index.addBookIfAbsent("9780134685991", new Book("9780134685991", "Effective Java", "Joshua Bloch"));
+        Map<String, Book> batch = new LinkedHashMap<>();
+        batch.put("9780596009205", new Book("9780596009205", "Head First Java", "Kathy Sierra"));
+        batch.put("9780000000002", new Book("9780000000002", "Anna Karenina", "Leo  TOLSTOY"));
+        index.addBooks(batch);
+        index.registerUser(validUserId, new User("Valid User", validUserId, null));
+    }
+
+    /**
+     * Test to ensure that title searches match contained text of 3 characters or more, and word prefixes below that.
+     */
+    @Test
+    void GivenIndexedBooks_WhenSearchByTitle_ThenMatchingBooksInIndexOrder() {
+        assertEquals(Arrays.asList("Effective Java", "Head First Java"), titles(index.searchByTitle("JAVA", IndexingDatabaseService.Availability.ANY, null, 10)));
+        assertEquals(Arrays.asList("War and Peace"), titles(index.searchByTitle("and pea", IndexingDatabaseService.Availability.ANY, null, 10)));
+        assertEquals(Arrays.asList("Anna Karenina"), titles(index.searchByTitle("ren", IndexingDatabaseService.Availability.ANY, null, 10)));
+        assertEquals(Arrays.asList("War and Peace", "Anna Karenina"), titles(index.searchByTitle("a", IndexingDatabaseService.Availability.ANY, null, 10)));
+        assertEquals(Arrays.asList("Head First Java"), titles(index.searchByTitle("fi", IndexingDatabaseService.Availability.ANY, null, 10)));
+        assertTrue(index.searchByTitle("java peace", IndexingDatabaseService.Availability.ANY, null, 10).getBooks().isEmpty());
+        assertTrue(index.searchByTitle("xyz", IndexingDatabaseService.Availability.ANY, null, 10).getBooks().isEmpty());
+        assertEquals(4, index.getIndexedCount());
+    }
+
+    /**
+     * Test to ensure that author searches are exact after normalization and honor the availability filter.
+     */
+    @Test
+    void GivenBorrowedBook_WhenSearchByAuthorWithAvailability_ThenFiltered() {
+        index.compareAndSetBorrowed("9780306406157", validUserId, false, true);
+
+        assertEquals(Arrays.asList("War and Peace", "Anna Karenina"), titles(index.searchByAuthor("leo tolstoy", IndexingDatabaseService.Availability.ANY, null, 10)));
+        assertEquals(Arrays.asList("Anna Karenina"), titles(index.searchByAuthor("Leo Tolstoy", IndexingDatabaseService.Availability.AVAILABLE, null, 10)));
+        assertEquals(Arrays.asList("War and Peace"), titles(index.searchByAuthor("Leo Tolstoy", IndexingDatabaseService.Availability.BORROWED, null, 10)));
+        assertTrue(index.searchByAuthor("Leo", IndexingDatabaseService.Availability.ANY, null, 10).getBooks().isEmpty());
+    }
+
+    /**
+     * Test to ensure that paging with cursors returns every match exactly once, even while books are added.
+     */
+    @Test
+    void GivenManyMatches_WhenPageWithCursor_ThenEveryMatchOnce() {
+        for (int i = 0; i < 25; i++) {
+            String ISBN = String.format("97811111%05d", i);
+            index.addBook(ISBN, new Book(ISBN, "Volume " + i + " of Java", "Anonymous"));
+        }
+
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            SearchPage page = index.searchByTitle("java", IndexingDatabaseService.Availability.ANY, cursor, 10);
+            seen.addAll(titles(page));
+            cursor = page.getNextCursor();
+            if (pages++ == 0) {
+                // A book added mid-paging comes after every existing one.
+                index.addBook("9781111199999", new Book("9781111199999", "Late Java", "Anonymous"));
+            }
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(28, seen.size());
+        assertEquals(seen.size(), seen.stream().distinct().count());
+        assertEquals("Late Java", seen.get(seen.size() - 1));
+    }
+
+    /**
+     * Test to ensure that a book replaced under the same ISBN is found under its new title only.
+     */
+    @Test
+    void GivenReplacedBook_WhenSearch_ThenOnlyNewBookFound() {
+        index.addBook("9780306406157", new Book("9780306406157", "Peace and War", "Leo Tolstoy"));
+
+        assertEquals(Arrays.asList("Anna Karenina", "Peace and War"), titles(index.searchByAuthor("Leo Tolstoy", IndexingDatabaseService.Availability.ANY, null, 10)));
+        assertTrue(index.searchByTitle("war and", IndexingDatabaseService.Availability.ANY, null, 10).getBooks().isEmpty());
+        assertEquals(4, index.getIndexedCount());
+    }
+
+    /**
+     * Test to ensure that invalid queries, cursors and limits are rejected.
+     */
+    @Test
+    void GivenInvalidArguments_WhenSearch_ThenIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> index.searchByTitle(" - ", IndexingDatabaseService.Availability.ANY, null, 10));
+        assertThrows(IllegalArgumentException.class, () -> index.searchByTitle("java", IndexingDatabaseService.Availability.ANY, "next", 10));
+        assertThrows(IllegalArgumentException.class, () -> index.searchByTitle("java", IndexingDatabaseService.Availability.ANY, null, 0));
+        assertThrows(IllegalArgumentException.class, () -> index.searchByAuthor("Leo Tolstoy", null, null, 10));
+        assertThrows(IllegalArgumentException.class, () -> new IndexingDatabaseService(null));
+    }
+
+    private static List<String> titles(SearchPage page) {
+        return page.getBooks().stream().map(Book::getTitle).collect(Collectors.toList());
+    }
+}
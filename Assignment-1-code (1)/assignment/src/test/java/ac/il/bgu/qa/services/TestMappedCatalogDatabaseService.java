@@ -0,0 +1,120 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.User;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMappedCatalogDatabaseService {
+
+    @TempDir
+    Path directory;
+
+    MappedCatalogDatabaseService database;
+
+    String validBookISBN = "9780306406157";
+    String otherBookISBN = "9780134685991";
+    String missingBookISBN = "9780596009205";
+    String validUserId = "123456789000";
+
+    @BeforeEach
+    public void init() throws IOException {
+        Path catalog = directory.resolve("catalog");
+        MappedCatalogDatabaseService.writeCatalog(catalog, Arrays.asList(
+                new Book(validBookISBN, "War and Peace", "Leo Tolstoy"),
+                new Book("978-0-13-468599-1", "Effective Java", "Joshua Bloch"),
+                new Book("9780000000002", "Crime and Punishment", "\u0424\u0451\u0434\u043e\u0440 \u0414\u043e\u0441\u0442\u043e\u0435\u0432\u0441\u043a\u0438\u0439")));
+        database = new MappedCatalogDatabaseService(catalog);
+        database.registerUser(validUserId, new User("Valid User", validUserId, null));
+    }
+
+    /**
+     * Test to ensure that catalog books are found by ISBN, with or without hyphens, and materialized with their fields.
+     */
+    @Test
+    void GivenCatalog_WhenFetch_ThenBookMaterialized() {
+        Book book = database.getBookByISBN("978-0-306-40615-7");
+
+        assertEquals(validBookISBN, book.getISBN());
+        assertEquals("War and Peace", book.getTitle());
+        assertEquals("Leo Tolstoy", book.getAuthor());
+        assertFalse(book.isBorrowed());
+        assertEquals(otherBookISBN, database.getBookByISBN(otherBookISBN).getISBN());
+        assertEquals("\u0424\u0451\u0434\u043e\u0440 \u0414\u043e\u0441\u0442\u043e\u0435\u0432\u0441\u043a\u0438\u0439", database.getBookByISBN("9780000000002").getAuthor());
+        assertNull(database.getBookByISBN(missingBookISBN));
+        assertNull(database.getBookByISBN("InvalidISBN"));
+        assertEquals(3, database.getCatalogSize());
+    }
+
+    /**
+     * Test to ensure that borrowing and returning a catalog book is reflected in the books materialized afterwards.
+     */
+    @Test
+    void GivenCatalogBook_WhenBorrowAndReturn_ThenViewsReflectState() {
+        assertEquals(WriteOutcome.APPLIED, database.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+        assertEquals(WriteOutcome.STATE_MISMATCH, database.compareAndSetBorrowed(validBookISBN, validUserId, false, true));
+        assertEquals(validUserId, database.getBookByISBN(validBookISBN).getBorrowerId());
+        assertFalse(database.getBookByISBN(otherBookISBN).isBorrowed());
+
+        assertEquals(WriteOutcome.APPLIED, database.compareAndSetBorrowed(validBookISBN, null, true, false));
+        assertEquals(WriteOutcome.STATE_MISMATCH, database.compareAndSetBorrowed(validBookISBN, null, true, false));
+        assertFalse(database.getBookByISBN(validBookISBN).isBorrowed());
+
+        assertEquals(WriteOutcome.BOOK_NOT_FOUND, database.compareAndSetBorrowed(missingBookISBN, validUserId, false, true));
+        assertEquals(WriteOutcome.USER_NOT_FOUND, database.compareAndSetBorrowed(otherBookISBN, "000000000000", false, true));
+    }
+
+    /**
+     * Test to ensure that books added at runtime are kept beside the catalog and that catalog ISBNs count as existing.
+     */
+    @Test
+    void GivenCatalog_WhenAddBooks_ThenAddedBesideCatalog() {
+        Book added = new Book(missingBookISBN, "Head First Java", "Kathy Sierra");
+
+        assertEquals(WriteOutcome.ALREADY_EXISTS, database.addBookIfAbsent(validBookISBN, new Book(validBookISBN, "t", "a")));
+        assertEquals(WriteOutcome.APPLIED, database.addBookIfAbsent(missingBookISBN, added));
+        assertSame(added, database.getBookByISBN(missingBookISBN));
+        assertEquals(WriteOutcome.APPLIED, database.compareAndSetBorrowed(missingBookISBN, validUserId, false, true));
+        assertTrue(added.isBorrowed());
+        assertEquals("War and Peace", database.getBookByISBN(validBookISBN).getTitle());
+    }
+
+    /**
+     * Test to ensure that invalid catalogs are rejected when written or opened.
+     */
+    @Test
+    void GivenInvalidCatalog_WhenWriteOrOpen_ThenRejected() throws IOException {
+        Path catalog = directory.resolve("invalid");
+
+        assertThrows(IllegalArgumentException.class, () -> MappedCatalogDatabaseService.writeCatalog(catalog,
+                Arrays.asList(new Book(validBookISBN, "a", "b"), new Book("978-0-306-40615-7", "c", "d"))));
+        assertThrows(IllegalArgumentException.class, () -> MappedCatalogDatabaseService.writeCatalog(catalog,
+                Collections.singletonList(new Book("InvalidISBN", "a", "b"))));
+        Files.write(catalog, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        assertThrows(IOException.class, () -> new MappedCatalogDatabaseService(catalog));
+    }
+
+    /**
+     * Test to ensure that a string shared by several books is stored once in the catalog file.
+     */
+    @Test
+    void GivenSharedAuthor_WhenWriteCatalog_ThenStoredOnce() throws IOException {
+        Path catalog = directory.resolve("shared");
+        MappedCatalogDatabaseService.writeCatalog(catalog, Arrays.asList(
+                new Book(validBookISBN, "A", "Leo Tolstoy"),
+                new Book(otherBookISBN, "B", new String("Leo Tolstoy")),
+                new Book(missingBookISBN, "C", new String("Leo Tolstoy"))));
+
+        // Header, three 24-byte rows, three titles and a single author, each string prefixed by its length.
+        assertEquals(16 + 3 * 24 + 3 * (2 + 1) + (2 + 11), Files.size(catalog));
+        assertEquals("Leo Tolstoy", new MappedCatalogDatabaseService(catalog).getBookByISBN(missingBookISBN).getAuthor());
+    }
+}
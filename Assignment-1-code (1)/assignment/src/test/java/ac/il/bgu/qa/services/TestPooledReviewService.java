@@ -0,0 +1,139 @@
+package ac.il.bgu.qa.services;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.errors.ReviewException;
+import ac.il.bgu.qa.errors.ReviewServiceUnavailableException;
+import org.junit.jupiter.api.*;
+import org.mockito.Answers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TestPooledReviewService {
+
+    // Every session opened by the factory, in order.
+    List<ReviewService> sessions = new ArrayList<>();
+    // Fake clock in nanoseconds.
+    AtomicLong now = new AtomicLong();
+    // Result of the health check.
+    AtomicBoolean healthy = new AtomicBoolean(true);
+
+    String validBookISBN = "9780306406157";
+    List<String> reviews = Arrays.asList("Great book!", "Must-read!");
+
+    private ReviewSessionPool pool(int maxSize) {
+        return new ReviewSessionPool(() -> {
+            ReviewService session = mock(ReviewService.class, Answers.CALLS_REAL_METHODS);
+            when(session.getReviewsForBook(anyString())).thenReturn(reviews);
+            sessions.add(session);
+            return session;
+        }, maxSize, 30, 0, TimeUnit.SECONDS, session -> healthy.get(), now::get);
+    }
+
+    /**
+     * Test to ensure that the library reuses one open session across notifications instead of reconnecting.
+     */
+    @Test
+    void GivenLibraryWithPool_WhenNotifiedTwice_ThenSingleSessionNeverClosed() {
+        PooledReviewService reviewService = new PooledReviewService(pool(2));
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library library = new Library(database, reviewService);
+        NotificationService notificationService = mock(NotificationService.class);
+        library.addBook(new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        library.registerUser(new User("Valid User", "123456789000", notificationService));
+
+        library.notifyUserWithBookReviews(validBookISBN, "123456789000");
+        library.notifyUserWithBookReviews(validBookISBN, "123456789000");
+
+        assertEquals(1, sessions.size());
+        verify(sessions.get(0), times(2)).getReviewsForBook(validBookISBN);
+        verify(sessions.get(0), never()).close();
+        verify(notificationService, times(2)).notifyUser(anyString(), anyString());
+        assertEquals(1, reviewService.getPool().getIdleCount());
+    }
+
+    /**
+     * Test to ensure that a session whose fetch fails is closed and replaced on the next fetch.
+     */
+    @Test
+    void GivenFailingSession_WhenFetched_ThenSessionClosedAndReplaced() {
+        PooledReviewService reviewService = new PooledReviewService(pool(2));
+        reviewService.getReviewsForBook(validBookISBN);
+        when(sessions.get(0).getReviewsForBook(validBookISBN)).thenThrow(new ReviewException("broken"));
+
+        assertThrows(ReviewException.class, () -> reviewService.getReviewsForBook(validBookISBN));
+        assertEquals(reviews, reviewService.getReviewsForBook(validBookISBN));
+
+        verify(sessions.get(0)).close();
+        assertEquals(2, sessions.size());
+    }
+
+    /**
+     * Test to ensure that sessions idle past the timeout, or failing the health check, are closed rather than reused.
+     */
+    @Test
+    void GivenIdleOrUnhealthySessions_WhenAcquired_ThenClosedAndReplaced() {
+        ReviewSessionPool pool = pool(2);
+        pool.release(pool.acquire(), false);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+
+        pool.release(pool.acquire(), false);
+        verify(sessions.get(0)).close();
+
+        healthy.set(false);
+        pool.release(pool.acquire(), false);
+        verify(sessions.get(1)).close();
+        assertEquals(3, pool.getCreatedCount());
+        assertEquals(2, pool.getDestroyedCount());
+    }
+
+    /**
+     * Test to ensure that the pool never opens more sessions than its maximum size, and that the library
+     * reports an exhausted pool as the review service being unavailable.
+     */
+    @Test
+    void GivenExhaustedPool_WhenAcquired_ThenReviewServiceUnavailable() {
+        ReviewSessionPool pool = pool(1);
+        ReviewService held = pool.acquire();
+        InMemoryDatabaseService database = new InMemoryDatabaseService();
+        Library library = new Library(database, new PooledReviewService(pool));
+        library.addBook(new Book(validBookISBN, "War and Peace", "Leo Tolstoy"));
+        library.registerUser(new User("Valid User", "123456789000", mock(NotificationService.class)));
+
+        assertThrows(ReviewException.class, pool::acquire);
+        assertThrows(ReviewServiceUnavailableException.class, () -> library.notifyUserWithBookReviews(validBookISBN, "123456789000"));
+
+        pool.release(held, false);
+        assertSame(held, pool.acquire());
+        assertEquals(1, sessions.size());
+    }
+
+    /**
+     * Test to ensure that shutting down closes idle sessions and sessions released afterwards.
+     */
+    @Test
+    void GivenOpenSessions_WhenShutdown_ThenAllClosed() {
+        PooledReviewService reviewService = new PooledReviewService(pool(2));
+        ReviewSessionPool pool = reviewService.getPool();
+        ReviewService first = pool.acquire();
+        ReviewService second = pool.acquire();
+        pool.release(first, false);
+
+        reviewService.shutdown();
+        pool.release(second, false);
+
+        verify(first).close();
+        verify(second).close();
+        assertThrows(ReviewException.class, () -> reviewService.getReviewsForBook(validBookISBN));
+    }
+}
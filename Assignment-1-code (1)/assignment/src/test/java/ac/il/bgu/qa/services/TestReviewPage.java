@@ -0,0 +1,61 @@
+package ac.il.bgu.qa.services;
+
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TestReviewPage {
+
+    @Mock(answer = Answers.CALLS_REAL_METHODS)
+    ReviewService mockReview;
+
+    String validBookISBN = "9780306406157";
+    List<String> reviews = Arrays.asList("Great book!", "Must-read!", "A classic.", "Too long.", "Loved it.");
+
+    @BeforeEach
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    /**
+     * Test to ensure that the default paging slices the full review list, resuming at each page's cursor until the last page.
+     */
+    @Test
+    void GivenFullReviewList_WhenPagedWithDefaultImplementation_ThenSlicesInOrderUntilLastPage() {
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(reviews);
+
+        ReviewPage first = mockReview.getReviewPage(validBookISBN, null, 2);
+        ReviewPage second = mockReview.getReviewPage(validBookISBN, first.getNextCursor(), 2);
+        ReviewPage last = mockReview.getReviewPage(validBookISBN, second.getNextCursor(), 2);
+
+        assertEquals(reviews.subList(0, 2), first.getReviews());
+        assertEquals(reviews.subList(2, 4), second.getReviews());
+        assertEquals(reviews.subList(4, 5), last.getReviews());
+        assertTrue(first.hasNext());
+        assertFalse(last.hasNext());
+        assertNull(last.getNextCursor());
+    }
+
+    /**
+     * Test to ensure that a book without reviews gives an empty last page, and that invalid cursors and limits are rejected.
+     */
+    @Test
+    void GivenNoReviewsOrInvalidArguments_WhenGetReviewPage_ThenEmptyPageOrIllegalArgumentException() {
+        when(mockReview.getReviewsForBook(validBookISBN)).thenReturn(Collections.emptyList());
+
+        ReviewPage page = mockReview.getReviewPage(validBookISBN, null, 10);
+
+        assertTrue(page.getReviews().isEmpty());
+        assertFalse(page.hasNext());
+        assertThrows(IllegalArgumentException.class, () -> mockReview.getReviewPage(validBookISBN, null, 0));
+        assertThrows(IllegalArgumentException.class, () -> mockReview.getReviewPage(validBookISBN, "next", 10));
+        assertThrows(IllegalArgumentException.class, () -> mockReview.getReviewPage(validBookISBN, "-1", 10));
+        assertThrows(IllegalArgumentException.class, () -> new ReviewPage(null, null));
+    }
+}
@@ -0,0 +1,123 @@
+package ac.il.bgu.qa.validation;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestValidator {
+
+    // Characters the random inputs are drawn from: digits, hyphens, the author special characters and a few others.
+    private static final String ALPHABET = "0123456789--'' ..abcXYZ\u00e9!1";
+
+    /**
+     * The ISBN rule as originally implemented with regular expressions, kept as a reference.
+     */
+    private static boolean referenceISBN(String isbn) {
+        if (isbn == null) {
+            return false;
+        }
+        isbn = isbn.replaceAll("-", "");
+        if (isbn.length() != 13 || !isbn.matches("\\d+")) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int digit = Integer.parseInt(String.valueOf(isbn.charAt(i)));
+            sum += i % 2 == 0 ? digit : digit * 3;
+        }
+        int checkDigit = 10 - (sum % 10);
+        if (checkDigit == 10) {
+            checkDigit = 0;
+        }
+        return checkDigit == Integer.parseInt(String.valueOf(isbn.charAt(12)));
+    }
+
+    /**
+     * The author rule as originally implemented, kept as a reference.
+     */
+    private static boolean referenceAuthor(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        if (!Character.isLetter(name.charAt(0)) || !Character.isLetter(name.charAt(name.length() - 1))) {
+            return false;
+        }
+        for (int i = 0; i < name.length() - 1; i++) {
+            char current = name.charAt(i);
+            char next = name.charAt(i + 1);
+            if (!Character.isLetter(current) && current != '-' && current != ' ' && current != '\'' && current != '.') {
+                return false;
+            }
+            if ((current == '-' && next == '-') || (current == '\'' && next == '\'')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test to ensure that known valid and invalid ISBNs are classified correctly, with and without hyphens.
+     */
+    @Test
+    void GivenKnownISBNs_WhenValidate_ThenMatchExpected() {
+        assertTrue(Validator.ISBN.isValid("9780306406157"));
+        assertTrue(Validator.ISBN.isValid("978-0-306-40615-7"));
+        assertTrue(Validator.ISBN.isValid("-978030640615-7-"));
+        assertFalse(Validator.ISBN.isValid("1234567891234"));
+        assertFalse(Validator.ISBN.isValid("97803064061570"));
+        assertFalse(Validator.ISBN.isValid("978030640615"));
+        assertFalse(Validator.ISBN.isValid("InvalidISBN"));
+        assertFalse(Validator.ISBN.isValid(""));
+        assertFalse(Validator.ISBN.isValid(null));
+    }
+
+    /**
+     * Test to ensure that user Ids must be exactly twelve ASCII digits.
+     */
+    @Test
+    void GivenUserIds_WhenValidate_ThenOnlyTwelveDigitsAccepted() {
+        assertTrue(Validator.USER_ID.isValid("123456789000"));
+        assertFalse(Validator.USER_ID.isValid("12345678900013"));
+        assertFalse(Validator.USER_ID.isValid("12345678900a"));
+        assertFalse(Validator.USER_ID.isValid("1234-5678900"));
+        assertFalse(Validator.USER_ID.isValid("\u0661\u0662\u0663\u0664\u0665\u0666\u0667\u0668\u0669\u0660\u0661\u0662"));
+        assertFalse(Validator.USER_ID.isValid(null));
+    }
+
+    /**
+     * Test to ensure that the single-pass rules accept and reject exactly the same inputs as the original rules.
+     */
+    @Test
+    void GivenRandomInputs_WhenValidate_ThenSameResultAsReference() {
+        Random random = new Random(42);
+        for (int n = 0; n < 200_000; n++) {
+            int length = random.nextInt(18);
+            StringBuilder builder = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                builder.append(random.nextInt(4) == 0
+                        ? ALPHABET.charAt(random.nextInt(ALPHABET.length()))
+                        : (char) ('0' + random.nextInt(10)));
+            }
+            String value = builder.toString();
+            assertEquals(referenceISBN(value), Validator.ISBN.isValid(value), value);
+            assertEquals(referenceAuthor(value), Validator.AUTHOR.isValid(value), value);
+            assertEquals(value.matches("\\d{12}"), Validator.USER_ID.isValid(value), value);
+        }
+    }
+
+    /**
+     * Test to ensure that bulk validation reports every position and counts the valid values.
+     */
+    @Test
+    void GivenBatch_WhenValidate_ThenPerPositionResults() {
+        String[] authors = {"Leo Tolstoy", "Leo Messi10", "Shlomi--Arbitman", "J. R. R. Tolkien", null};
+        boolean[] results = new boolean[authors.length];
+
+        assertEquals(2, Validator.AUTHOR.validate(authors, results));
+        assertArrayEquals(new boolean[]{true, false, false, true, false}, results);
+        assertArrayEquals(results, Validator.AUTHOR.validate(authors));
+        assertThrows(IllegalArgumentException.class, () -> Validator.AUTHOR.validate(authors, new boolean[1]));
+    }
+}
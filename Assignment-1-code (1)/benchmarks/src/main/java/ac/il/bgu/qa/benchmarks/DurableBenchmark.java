@@ -0,0 +1,110 @@
+package ac.il.bgu.qa.benchmarks;
+
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.DurableDatabaseService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures borrowing and returning against a {@link DurableDatabaseService} in a temporary directory,
+ * where every change waits for its record to be forced to disk.
+ * On one thread every change pays its own fsync; on several, writers share them through group commit,
+ * so the time per operation should grow far less than the number of threads.
+ * Each thread works on its own slice of the catalog, as in {@link LibraryBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurableBenchmark {
+
+    // Number of books and users in the shared catalog; each thread works on its own slice.
+    static final int CATALOG_SIZE = 1024;
+
+    /**
+     * A library backed by a durable database, with a catalog of books and registered users.
+     */
+    @State(Scope.Benchmark)
+    public static class DurableCatalog {
+
+        Path directory;
+        DurableDatabaseService database;
+        Library library;
+
+        @Setup
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("durable-benchmark");
+            Fixtures.StandInNotificationService notifications = new Fixtures.StandInNotificationService();
+            database = new DurableDatabaseService(directory, notifications);
+            library = new Library(database, new Fixtures.StandInReviewService());
+            for (int i = 0; i < CATALOG_SIZE; i++) {
+                library.addBook(Fixtures.book(i));
+                library.registerUser(new User("Reader " + i, Fixtures.userId(i), notifications));
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            database.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * The slice of the catalog owned by one benchmark thread, so that threads never contend for the same book.
+     */
+    @State(Scope.Thread)
+    public static class Slice {
+
+        String[] isbns;
+        String[] userIds;
+        int next;
+
+        @Setup
+        public void setUp(ThreadParams threads) {
+            int size = CATALOG_SIZE / threads.getThreadCount();
+            int offset = threads.getThreadIndex() * size;
+            isbns = new String[size];
+            userIds = new String[size];
+            for (int i = 0; i < size; i++) {
+                isbns[i] = Fixtures.isbn(offset + i);
+                userIds[i] = Fixtures.userId(offset + i);
+            }
+        }
+
+        int nextIndex() {
+            int index = next;
+            next = index + 1 == isbns.length ? 0 : index + 1;
+            return index;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrowAndReturnBookDurable1(DurableCatalog catalog, Slice slice) {
+        borrowAndReturn(catalog, slice);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void borrowAndReturnBookDurable8(DurableCatalog catalog, Slice slice) {
+        borrowAndReturn(catalog, slice);
+    }
+
+    private static void borrowAndReturn(DurableCatalog catalog, Slice slice) {
+        int index = slice.nextIndex();
+        catalog.library.borrowBook(slice.isbns[index], slice.userIds[index]);
+        catalog.library.returnBook(slice.isbns[index]);
+    }
+}
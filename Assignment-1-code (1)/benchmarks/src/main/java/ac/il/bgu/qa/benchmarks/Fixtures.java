@@ -0,0 +1,86 @@
+package ac.il.bgu.qa.benchmarks;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.services.NotificationService;
+import ac.il.bgu.qa.services.ReviewService;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the inputs and the in-memory stand-in services the benchmarks run against.
+ */
+final class Fixtures {
+
+    // Reviews every book has, so that building the notification message has realistic work to do.
+    static final List<String> REVIEWS = Arrays.asList("Great book!", "Must-read!", "A bit long, but worth it.");
+
+    private Fixtures() {
+    }
+
+    /**
+     * Builds a valid ISBN-13 from a sequence number.
+     *
+     * @param sequence The sequence number, below 10^9.
+     * @return A distinct ISBN-13 for every sequence number.
+     */
+    static String isbn(int sequence) {
+        String prefix = "978" + String.format("%09d", sequence);
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int digit = prefix.charAt(i) - '0';
+            sum += (i & 1) == 0 ? digit : digit * 3;
+        }
+        return prefix + (10 - (sum % 10)) % 10;
+    }
+
+    /**
+     * Builds a valid user Id from a sequence number.
+     *
+     * @param sequence The sequence number.
+     * @return A distinct 12-digit user Id for every sequence number.
+     */
+    static String userId(int sequence) {
+        return String.format("%012d", sequence);
+    }
+
+    /**
+     * Builds a valid book that is not borrowed.
+     *
+     * @param sequence The sequence number the ISBN is derived from.
+     * @return The book.
+     */
+    static Book book(int sequence) {
+        return new Book(isbn(sequence), "War and Peace, volume " + sequence, "Leo Tolstoy");
+    }
+
+    /**
+     * A review service answering from memory with the same reviews for every book.
+     */
+    static final class StandInReviewService implements ReviewService {
+
+        @Override
+        public List<String> getReviewsForBook(String ISBN) {
+            return REVIEWS;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A notification service that accepts every message and only keeps the last one,
+     * so the message cannot be optimized away.
+     */
+    static final class StandInNotificationService implements NotificationService {
+
+        // The last message sent, racy on purpose: it is never read by the benchmarks.
+        private String lastMessage;
+
+        @Override
+        public void notifyUser(String userId, String message) {
+            lastMessage = message;
+        }
+    }
+}
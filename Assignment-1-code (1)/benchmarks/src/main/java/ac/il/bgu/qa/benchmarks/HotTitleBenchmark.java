@@ -0,0 +1,95 @@
+package ac.il.bgu.qa.benchmarks;
+
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.LibraryOutcome;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.InMemoryDatabaseService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures borrowing and returning under contention: every thread borrows and returns the same book,
+ * so the compare-and-set on its borrowing status is fought over by all of them.
+ * Unlike {@link LibraryBenchmark}, where each thread owns its books, most attempts here lose to another thread;
+ * the non-throwing forms are used so that a lost attempt costs an outcome, not an exception.
+ * The same operation runs on 1, 4 and 16 threads; {@code -t} runs it on any other count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotTitleBenchmark {
+
+    // The most threads any of the benchmarks runs on, each with a user of its own.
+    static final int MAX_THREADS = 64;
+
+    /**
+     * A library whose single book every thread borrows and returns.
+     */
+    @State(Scope.Benchmark)
+    public static class HotTitle {
+
+        Library library;
+        String isbn;
+
+        @Setup
+        public void setUp() {
+            InMemoryDatabaseService database = new InMemoryDatabaseService(1, MAX_THREADS);
+            library = new Library(database, new Fixtures.StandInReviewService());
+            library.addBook(Fixtures.book(0));
+            isbn = Fixtures.isbn(0);
+            Fixtures.StandInNotificationService notifications = new Fixtures.StandInNotificationService();
+            for (int i = 0; i < MAX_THREADS; i++) {
+                library.registerUser(new User("Reader " + i, Fixtures.userId(i), notifications));
+            }
+        }
+    }
+
+    /**
+     * The user a benchmark thread borrows the book as.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+
+        String userId;
+
+        @Setup
+        public void setUp(ThreadParams threads) {
+            userId = Fixtures.userId(threads.getThreadIndex() % MAX_THREADS);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public LibraryOutcome borrowAndReturnHotTitle1(HotTitle hotTitle, Reader reader) {
+        return borrowAndReturn(hotTitle, reader);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public LibraryOutcome borrowAndReturnHotTitle4(HotTitle hotTitle, Reader reader) {
+        return borrowAndReturn(hotTitle, reader);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public LibraryOutcome borrowAndReturnHotTitle16(HotTitle hotTitle, Reader reader) {
+        return borrowAndReturn(hotTitle, reader);
+    }
+
+    /**
+     * Tries to borrow the book and, if this thread got it, returns it.
+     *
+     * @return The outcome of the borrow attempt, so that lost attempts are counted as operations too.
+     */
+    private static LibraryOutcome borrowAndReturn(HotTitle hotTitle, Reader reader) {
+        LibraryOutcome outcome = hotTitle.library.tryBorrowBook(hotTitle.isbn, reader.userId);
+        if (outcome.isSuccess()) {
+            hotTitle.library.tryReturnBook(hotTitle.isbn);
+        }
+        return outcome;
+    }
+}
@@ -0,0 +1,126 @@
+package ac.il.bgu.qa.benchmarks;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.Library;
+import ac.il.bgu.qa.User;
+import ac.il.bgu.qa.services.InMemoryDatabaseService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the library operations on a single thread, against an {@link InMemoryDatabaseService}
+ * and in-memory stand-ins for the review and notification services.
+ * {@link LibraryMultiThreadedBenchmark} runs the same operations on several threads sharing one library.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class LibraryBenchmark {
+
+    // Number of books added per addBook invocation, so that resetting the database is amortized.
+    static final int BOOKS_PER_ADD = 1024;
+
+    // Number of books and users in the shared catalog; each thread works on its own slice.
+    static final int CATALOG_SIZE = 4096;
+
+    /**
+     * A library shared by all the benchmark threads, with a catalog of books and registered users.
+     */
+    @State(Scope.Benchmark)
+    public static class Catalog {
+
+        Library library;
+
+        @Setup
+        public void setUp() {
+            InMemoryDatabaseService database = new InMemoryDatabaseService(CATALOG_SIZE, CATALOG_SIZE);
+            library = new Library(database, new Fixtures.StandInReviewService());
+            Fixtures.StandInNotificationService notifications = new Fixtures.StandInNotificationService();
+            for (int i = 0; i < CATALOG_SIZE; i++) {
+                library.addBook(Fixtures.book(i));
+                library.registerUser(new User("Reader " + i, Fixtures.userId(i), notifications));
+            }
+        }
+    }
+
+    /**
+     * The slice of the catalog owned by one benchmark thread, so that threads never contend for the same book.
+     */
+    @State(Scope.Thread)
+    public static class Slice {
+
+        String[] isbns;
+        String[] userIds;
+        int next;
+
+        @Setup
+        public void setUp(ThreadParams threads) {
+            int size = CATALOG_SIZE / threads.getThreadCount();
+            int offset = threads.getThreadIndex() * size;
+            isbns = new String[size];
+            userIds = new String[size];
+            for (int i = 0; i < size; i++) {
+                isbns[i] = Fixtures.isbn(offset + i);
+                userIds[i] = Fixtures.userId(offset + i);
+            }
+        }
+
+        int nextIndex() {
+            int index = next;
+            next = index + 1 == isbns.length ? 0 : index + 1;
+            return index;
+        }
+    }
+
+    /**
+     * A batch of new books and a library of its own they are added to, rebuilt before every invocation.
+     */
+    @State(Scope.Thread)
+    public static class NewBooks {
+
+        Book[] books;
+        Library library;
+
+        @Setup(Level.Trial)
+        public void createBooks(ThreadParams threads) {
+            books = new Book[BOOKS_PER_ADD];
+            int offset = CATALOG_SIZE + threads.getThreadIndex() * BOOKS_PER_ADD;
+            for (int i = 0; i < BOOKS_PER_ADD; i++) {
+                books[i] = Fixtures.book(offset + i);
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void resetLibrary() {
+            library = new Library(new InMemoryDatabaseService(BOOKS_PER_ADD, 0), new Fixtures.StandInReviewService());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BOOKS_PER_ADD)
+    public Library addBook(NewBooks newBooks) {
+        Library library = newBooks.library;
+        for (Book book : newBooks.books) {
+            library.addBook(book);
+        }
+        return library;
+    }
+
+    @Benchmark
+    public void borrowAndReturnBook(Catalog catalog, Slice slice) {
+        int index = slice.nextIndex();
+        catalog.library.borrowBook(slice.isbns[index], slice.userIds[index]);
+        catalog.library.returnBook(slice.isbns[index]);
+    }
+
+    @Benchmark
+    public void notifyUserWithBookReviews(Catalog catalog, Slice slice) {
+        int index = slice.nextIndex();
+        catalog.library.notifyUserWithBookReviews(slice.isbns[index], slice.userIds[index]);
+    }
+}
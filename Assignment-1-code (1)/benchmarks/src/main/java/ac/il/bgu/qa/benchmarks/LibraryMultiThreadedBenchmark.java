@@ -0,0 +1,11 @@
+package ac.il.bgu.qa.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the {@link LibraryBenchmark} operations on four threads sharing one library,
+ * each thread borrowing, returning and reviewing books of its own slice of the catalog.
+ */
+@Threads(4)
+public class LibraryMultiThreadedBenchmark extends LibraryBenchmark {
+}
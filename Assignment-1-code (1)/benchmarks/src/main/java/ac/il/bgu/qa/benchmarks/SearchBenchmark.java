@@ -0,0 +1,86 @@
+package ac.il.bgu.qa.benchmarks;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.services.InMemoryDatabaseService;
+import ac.il.bgu.qa.services.IndexingDatabaseService;
+import ac.il.bgu.qa.services.IndexingDatabaseService.Availability;
+import ac.il.bgu.qa.services.SearchPage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures catalog searches through an {@link IndexingDatabaseService} over a catalog of generated titles,
+ * each made of three words drawn from a fixed vocabulary, and authors drawn from a fixed pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@Threads(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    // Words the titles are made of.
+    private static final String[] VOCABULARY = {
+            "war", "peace", "crime", "punishment", "idiot", "brothers", "anna", "river", "winter", "garden",
+            "silent", "empire", "shadow", "letters", "journey", "night", "memory", "island", "fire", "stone",
+            "glass", "mountain", "harbor", "kingdom", "clock", "forest", "ocean", "machine", "dream", "house",
+            "storm", "window", "orchard", "violin", "paper", "lantern", "desert", "bridge", "mirror", "season"
+    };
+    // Number of distinct authors.
+    private static final int AUTHORS = 50_000;
+    // Page size of every search.
+    private static final int PAGE = 20;
+
+    @Param({"100000", "5000000"})
+    int catalogSize;
+
+    IndexingDatabaseService index;
+    String[] titleQueries;
+    String[] authorQueries;
+    int next;
+
+    @Setup
+    public void setUp() {
+        index = new IndexingDatabaseService(new InMemoryDatabaseService(catalogSize, 0));
+        Random random = new Random(42);
+        for (int i = 0; i < catalogSize; i++) {
+            String title = VOCABULARY[random.nextInt(VOCABULARY.length)] + " " + VOCABULARY[random.nextInt(VOCABULARY.length)]
+                    + " " + VOCABULARY[random.nextInt(VOCABULARY.length)] + " " + i;
+            String ISBN = Fixtures.isbn(i);
+            index.addBook(ISBN, new Book(ISBN, title, "Author " + random.nextInt(AUTHORS)));
+        }
+        titleQueries = new String[1024];
+        authorQueries = new String[1024];
+        for (int i = 0; i < titleQueries.length; i++) {
+            // Two words in sequence with a partial second word: selective, and checked against the titles.
+            String second = VOCABULARY[random.nextInt(VOCABULARY.length)];
+            titleQueries[i] = VOCABULARY[random.nextInt(VOCABULARY.length)] + " " + second.substring(0, 3);
+            authorQueries[i] = "Author " + random.nextInt(AUTHORS);
+        }
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (index + 1) & (titleQueries.length - 1);
+        return index;
+    }
+
+    @Benchmark
+    public SearchPage searchByTitle() {
+        return index.searchByTitle(titleQueries[nextIndex()], Availability.AVAILABLE, null, PAGE);
+    }
+
+    @Benchmark
+    public SearchPage searchByTitlePrefix() {
+        return index.searchByTitle("wi", Availability.ANY, null, PAGE);
+    }
+
+    @Benchmark
+    public SearchPage searchByAuthor() {
+        return index.searchByAuthor(authorQueries[nextIndex()], Availability.ANY, null, PAGE);
+    }
+}
@@ -0,0 +1,94 @@
+package ac.il.bgu.qa.benchmarks;
+
+import ac.il.bgu.qa.Book;
+import ac.il.bgu.qa.services.InMemoryDatabaseService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the packed-key tables of {@link InMemoryDatabaseService} with a {@code ConcurrentHashMap<String, Book>}
+ * holding the same books, for lookups, overwriting puts, and the heap the index retains.
+ * <p>
+ * The map is keyed by each book's own ISBN instance, its best case, while lookups use distinct string instances
+ * equal to the ISBNs, as a request would. The retained heap is measured once per trial, after building the store,
+ * as the growth of the used heap across full collections with the books and the query strings already allocated;
+ * it is printed with the trial's output as bytes per book.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(1)
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+
+    @Param({"packed", "map"})
+    String store;
+
+    @Param({"100000", "1000000"})
+    int catalogSize;
+
+    InMemoryDatabaseService packed;
+    ConcurrentHashMap<String, Book> map;
+    Book[] books;
+    String[] queries;
+    int next;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        books = new Book[catalogSize];
+        queries = new String[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            books[i] = Fixtures.book(i);
+            queries[i] = new String(books[i].getISBN());
+        }
+        long before = usedHeap();
+        if (store.equals("packed")) {
+            packed = new InMemoryDatabaseService(catalogSize, 0);
+            for (Book book : books) {
+                packed.addBook(book.getISBN(), book);
+            }
+        } else {
+            map = new ConcurrentHashMap<>(catalogSize);
+            for (Book book : books) {
+                map.put(book.getISBN(), book);
+            }
+        }
+        long retained = usedHeap() - before;
+        System.out.printf("%n# Retained by the %s index: %.1f bytes per book%n", store, (double) retained / catalogSize);
+    }
+
+    @Benchmark
+    public Book lookup() {
+        String ISBN = queries[nextIndex()];
+        return packed != null ? packed.getBookByISBN(ISBN) : map.get(ISBN);
+    }
+
+    @Benchmark
+    public void put() {
+        int index = nextIndex();
+        if (packed != null) {
+            packed.addBook(queries[index], books[index]);
+        } else {
+            map.put(queries[index], books[index]);
+        }
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == queries.length ? 0 : index + 1;
+        return index;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
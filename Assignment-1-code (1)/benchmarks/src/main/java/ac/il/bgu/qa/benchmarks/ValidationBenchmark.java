@@ -0,0 +1,56 @@
+package ac.il.bgu.qa.benchmarks;
+
+import ac.il.bgu.qa.validation.Validator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the validation rules applied on every library request, on a mix of valid and invalid inputs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidationBenchmark {
+
+    // Power of two, so that cycling through the inputs is a mask.
+    private static final int INPUTS = 16;
+
+    private final String[] isbns = new String[INPUTS];
+    private final String[] authors = new String[INPUTS];
+    private final String[] userIds = new String[INPUTS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < INPUTS; i++) {
+            // Every fourth input is invalid, failing at a different point of each rule.
+            boolean valid = (i & 3) != 0;
+            isbns[i] = valid ? Fixtures.isbn(i * 7919) : "978-0-306-40615-" + (i % 7);
+            authors[i] = valid ? "Leo Tolstoy" : "Leo--Tolstoy";
+            userIds[i] = valid ? Fixtures.userId(i * 104729) : "12345678900" + (char) ('a' + i);
+        }
+    }
+
+    private int nextIndex() {
+        return next++ & (INPUTS - 1);
+    }
+
+    @Benchmark
+    public boolean isbn() {
+        return Validator.ISBN.isValid(isbns[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean author() {
+        return Validator.AUTHOR.isValid(authors[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean userId() {
+        return Validator.USER_ID.isValid(userIds[nextIndex()]);
+    }
+}